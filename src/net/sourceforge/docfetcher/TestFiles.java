@@ -46,6 +46,7 @@ public enum TestFiles {
 	sfx_rar ("sfx-rar.exe"),
 	multiple_dirs_7z ("multiple-dirs.7z"),
 	multiple_dirs_rar ("multiple-dirs.rar"),
+	rar_solid ("rar-solid.rar"),
 	index_update_html_in_7z ("index-update-html-in-7z"),
 	index_update_rename_in_7z ("index-update-rename-in-7z"),
 	index_update_html_in_html ("index-update-html-in-html"),
@@ -57,7 +57,10 @@ public final class ProgramConf {
 		ReportObsoleteIndexFiles (true),
 		IndexExcelFormulas (true),
 		SkipTarArchives (false),
+		StreamArchiveEntries (true),
+		KeepUnpackCache (false),
 		IgnoreJunctionsAndSymlinks (true),
+		FastIndexUpdates (false),
 		SaveSettings (true),
 		TextPreviewEnabled (true),
 		PdfPreviewVisualOrder (true),
@@ -65,6 +68,8 @@ public final class ProgramConf {
 		ShowPathsDuringIndexing (false),
 		WriteIndexingLog (false),
 		HotkeyEnabled (false),
+		IndexUseCompoundFile (true),
+		IndexForceMergeAfterRebuild (false),
 		;
 
 		private boolean value;
@@ -87,9 +92,26 @@ public final class ProgramConf {
 		MaxLinesInProgressPanel (1000, 2),
 		SearchBoxMaxWidth (500, 0),
 		MaxResultsTotal (10000, 1),
+		SearchThreads (1, 1, 64),
 		OpenLimit (10, 1),
 		PatternTableHeight (4, 1),
 		UnpackCacheCapacity (20, 1),
+		UnpackCacheSizeMB (256, 1),
+		ArchiveDirectoryCacheSizeMB (50, 0),
+		PreviewCacheSizeMB (0, 0),
+		IndexingThreads (1, 1, 16),
+		IndexingParserThreads (1, 1, 64),
+		IndexingParserBudgetMB (256, 1),
+		IndexingScanThreads (1, 1, 64),
+		FullIndexUpdateHours (24, 0),
+		MaxCharsPerDocument (100000000, 1),
+		ExtractionCacheSizeMB (0, 0),
+		IndexRamBufferSizeMB (16, 1, 2047),
+		IndexMaxBufferedDocs (0, 0),
+		IndexMergeThreads (0, 0, 64),
+		IndexMaxMergedSegmentMB (5120, 1),
+		IndexSegmentsPerTier (10, 2),
+		IndexCommitInterval (0, 0),
 		InitialSorting (0),
 		PythonApiPort (28834),
 		;
@@ -96,7 +96,15 @@ public final class ResultPanel {
 	public final Event<List<ResultDocument>> evtSelection = new Event<List<ResultDocument>> ();
 	public final Event<Void> evtHideInSystemTray = new Event<Void>();
 	
+	/**
+	 * Fired when the user clicked on a column header. Sorting by a column
+	 * loads the stored fields of all results, so the listeners should do this
+	 * on a non-GUI thread and then call {@link #sortByRequestedColumn()}.
+	 */
+	public final Event<Void> evtSortRequested = new Event<Void>();
+	
 	private final VirtualTableViewer<ResultDocument> viewer;
+	@Nullable private Column<ResultDocument> requestedSortColumn;
 	private final FileIconCache iconCache;
 	private HeaderMode presetHeaderMode = HeaderMode.FILES; // externally suggested header mode
 	private HeaderMode actualHeaderMode = HeaderMode.FILES; // header mode after examining each visible element
@@ -110,6 +118,15 @@ public final class ResultPanel {
 			protected List<ResultDocument> getElements(Object rootElement) {
 				return (List<ResultDocument>) rootElement;
 			}
+			protected void headerClicked(Column<ResultDocument> column) {
+				if (evtSortRequested.getListenerCount() == 0) {
+					sortByColumn(column);
+				}
+				else {
+					requestedSortColumn = column;
+					evtSortRequested.fire(null);
+				}
+			}
 		};
 		
 		// Open result document on double-click
@@ -368,6 +385,7 @@ public final class ResultPanel {
 		}
 		setActualHeaderMode(results); // TODO post-release-1.1: needs some refactoring
 		
+		requestedSortColumn = null;
 		viewer.setRoot(results);
 		viewer.scrollToTop();
 	}
@@ -420,6 +438,17 @@ public final class ResultPanel {
 		}
 	}
 	
+	/**
+	 * Sorts the results by the column whose header was last clicked, if the
+	 * results haven't been replaced since. See {@link #evtSortRequested}.
+	 */
+	public void sortByRequestedColumn() {
+		if (requestedSortColumn == null)
+			return;
+		viewer.sortByColumn(requestedSortColumn);
+		requestedSortColumn = null;
+	}
+	
 	// Should not be called with emails
 	private void launchFiles(@NotNull List<ResultDocument> docs) {
 		assert !docs.isEmpty();
@@ -29,11 +29,11 @@ import net.sourceforge.docfetcher.gui.filter.IndexPanel;
 import net.sourceforge.docfetcher.model.Fields;
 import net.sourceforge.docfetcher.model.IndexRegistry;
 import net.sourceforge.docfetcher.model.LuceneIndex;
-import net.sourceforge.docfetcher.model.TreeCheckState;
 import net.sourceforge.docfetcher.model.parse.Parser;
 import net.sourceforge.docfetcher.model.search.PhraseDetectingQueryParser;
 import net.sourceforge.docfetcher.model.search.ResultDocument;
 import net.sourceforge.docfetcher.model.search.SearchException;
+import net.sourceforge.docfetcher.model.search.SearchFilter;
 import net.sourceforge.docfetcher.model.search.Searcher;
 import net.sourceforge.docfetcher.util.AppUtil;
 import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
@@ -50,7 +50,6 @@ import org.eclipse.swt.events.DisposeEvent;
 import org.eclipse.swt.events.DisposeListener;
 
 import com.google.common.base.Strings;
-import com.google.common.collect.Sets;
 
 /**
  * @author Tran Nam Quang
@@ -58,7 +57,7 @@ import com.google.common.collect.Sets;
 public final class SearchQueue {
 	
 	private static enum GuiEvent {
-		SEARCH_OR_LIST, SIZE, TYPE, LOCATION, TYPE_AHEAD, EXPLICIT_SEARCH,
+		SEARCH_OR_LIST, SIZE, TYPE, LOCATION, TYPE_AHEAD, EXPLICIT_SEARCH, SORT,
 	}
 	
 	private static final String spaces = Strings.repeat(" ", 5);
@@ -77,10 +76,11 @@ public final class SearchQueue {
 	
 	@Nullable private volatile String query;
 	@Nullable private volatile Set<String> listDocIds;
-	@Nullable private List<ResultDocument> results;
-	@Nullable private Set<String> checkedParsers;
-	@Nullable private TreeCheckState treeCheckState;
+	@Nullable private String lastQuery;
+	@Nullable private Set<String> lastListDocIds;
+	@Nullable private List<Parser> checkedParsers;
 	private boolean allParsersChecked;
+	@Nullable private List<ResultDocument> shownResults; // accessed only by the search thread
 	
 	public SearchQueue(	@NotNull SearchBar searchBar,
 						@NotNull FilesizePanel filesizePanel,
@@ -204,6 +204,19 @@ public final class SearchQueue {
 			}
 		});
 		
+		resultPanel.evtSortRequested.add(new Event.Listener<Void>() {
+			public void update(Void eventData) {
+				lock.lock();
+				try {
+					queue.add(GuiEvent.SORT);
+					queueNotEmpty.signal();
+				}
+				finally {
+					lock.unlock();
+				}
+			}
+		});
+		
 		indexPanel.evtListDocuments.add(new Event.Listener<Set<String>>() {
 			public void update(Set<String> eventData) {
 				lock.lock();
@@ -244,51 +257,30 @@ public final class SearchQueue {
 		}
 		
 		IndexRegistry indexRegistry = indexPanel.getIndexRegistry();
-
-		// Run search
-		if (queueCopy.contains(GuiEvent.SEARCH_OR_LIST)) {
-			try {
+		
+		/*
+		 * Sorting the results by a column loads all of them, which is done
+		 * here rather than on the GUI thread.
+		 */
+		if (queueCopy.remove(GuiEvent.SORT)) {
+			if (shownResults != null) {
 				Searcher searcher = indexRegistry.getSearcher(); // might block
-				
-				/*
-				 * Bug #3538102: The returned searcher is null if
-				 * IndexRegistry.getSearcher() was blocking and the thread is
-				 * interrupted. This can happen as follows: (1) The user has a
-				 * lot of indexes and/or the indexes are very large, so that
-				 * loading them on startup takes a long time. (2) During
-				 * startup, when the indexes are loaded, the user enters
-				 * something into the search field and presses Enter. (3)
-				 * DocFetcher blocks because it can't start searching until all
-				 * indexes have been loaded. Seeing that the program has
-				 * apparently frozen, the user closes the program. This
-				 * interrupts the searcher thread, causing the
-				 * IndexRegistry.getSearcher() method to unblock and return
-				 * null.
-				 */
 				if (searcher == null)
 					return false;
-				
-				if (query != null)
-					results = searcher.search(query);
-				else if (listDocIds != null)
-					results = searcher.list(listDocIds);
-				else
-					throw new IllegalStateException();
-			}
-			catch (SearchException e) {
-				AppUtil.showError(e.getMessage(), true, true);
-				UtilGui.runSyncExec(searchBar.getControl(), new Runnable() {
-					public void run() {
-						searchBar.setEnabled(true);
-					}
-				});
-				
-				// Don't return yet, we might have to update the filters
-				results = null;
-			}
-			catch (CheckedOutOfMemoryError e) {
-				UtilGui.showOutOfMemoryMessage(searchBar.getControl(), e);
+				searcher.loadResults(shownResults);
 			}
+			UtilGui.runSyncExec(resultPanel.getControl(), new Runnable() {
+				public void run() {
+					resultPanel.sortByRequestedColumn();
+				}
+			});
+			if (queueCopy.isEmpty())
+				return true;
+		}
+		
+		if (queueCopy.contains(GuiEvent.SEARCH_OR_LIST)) {
+			lastQuery = query;
+			lastListDocIds = listDocIds;
 		}
 		
 		// Build parser filter
@@ -300,41 +292,75 @@ public final class SearchQueue {
 			});
 		}
 		
-		// Build location filter
-		if (treeCheckState == null || queueCopy.contains(GuiEvent.LOCATION))
-			treeCheckState = indexRegistry.getTreeCheckState();
-		
 		/*
 		 * No need to update the result panel if the user changed the filter
 		 * settings before having run any searches.
 		 */
-		if (results == null)
+		if (lastQuery == null && lastListDocIds == null)
 			return true;
 		
+		/*
+		 * The filters are applied by Lucene, so changing the filter settings
+		 * reruns the last search. Since the filter clauses are cached by
+		 * Lucene, this is usually much cheaper than the original search.
+		 */
+		SearchFilter filter = new SearchFilter();
 		Long[] minMax = filesizePanel.getValuesInKB();
-		final List<ResultDocument> visibleResults = new ArrayList<ResultDocument>();
-
-		// Apply filters
-		for (ResultDocument doc : results) {
-			if (minMax != null) {
-				long size = doc.getSizeInKB();
-				if (minMax[0] != null && size < minMax[0])
-					continue;
-				if (minMax[1] != null && size > minMax[1])
-					continue;
+		if (minMax != null)
+			filter.setSizeRangeInKB(minMax[0], minMax[1]);
+		if (!allParsersChecked)
+			filter.setIncludedTypes(checkedParsers);
+		filter.setCheckedLocations(indexRegistry.getIndexes());
+		
+		final List<ResultDocument> visibleResults;
+		Searcher searcher;
+		try {
+			searcher = indexRegistry.getSearcher(); // might block
+			
+			/*
+			 * Bug #3538102: The returned searcher is null if
+			 * IndexRegistry.getSearcher() was blocking and the thread is
+			 * interrupted. This can happen as follows: (1) The user has a lot
+			 * of indexes and/or the indexes are very large, so that loading
+			 * them on startup takes a long time. (2) During startup, when the
+			 * indexes are loaded, the user enters something into the search
+			 * field and presses Enter. (3) DocFetcher blocks because it can't
+			 * start searching until all indexes have been loaded. Seeing that
+			 * the program has apparently frozen, the user closes the program.
+			 * This interrupts the searcher thread, causing the
+			 * IndexRegistry.getSearcher() method to unblock and return null.
+			 */
+			if (searcher == null)
+				return false;
+			
+			if (lastQuery != null) {
+				visibleResults = searcher.search(lastQuery, filter);
+				
+				/*
+				 * Sorting the results by a column loads all of them, which
+				 * should not be done on the GUI thread.
+				 */
+				if (ProgramConf.Int.InitialSorting.get() != 0)
+					searcher.loadResults(visibleResults);
 			}
-			if (!doc.isEmail()) {
-				if (checkedParsers.isEmpty())
-					continue;
-				if (!allParsersChecked) {
-					String parserName = doc.getParserName();
-					if (!checkedParsers.contains(parserName))
-						continue;
-				}
+			else {
+				visibleResults = searcher.list(lastListDocIds, filter);
 			}
-			if (!treeCheckState.isChecked(doc.getParentPath()))
-				continue;
-			visibleResults.add(doc);
+		}
+		catch (SearchException e) {
+			AppUtil.showError(e.getMessage(), true, true);
+			UtilGui.runSyncExec(searchBar.getControl(), new Runnable() {
+				public void run() {
+					searchBar.setEnabled(true);
+				}
+			});
+			lastQuery = null;
+			lastListDocIds = null;
+			return true;
+		}
+		catch (CheckedOutOfMemoryError e) {
+			UtilGui.showOutOfMemoryMessage(searchBar.getControl(), e);
+			return true;
 		}
 		
 		boolean filesFound = false;
@@ -348,7 +374,7 @@ public final class SearchQueue {
 		final HeaderMode mode = HeaderMode.getInstance(filesFound, emailsFound);
 		
 		// Set results
-		UtilGui.runSyncExec(searchBar.getControl(), new Runnable() {
+		boolean wasShown = UtilGui.runSyncExec(searchBar.getControl(), new Runnable() {
 			public void run() {
 				resultPanel.setResults(visibleResults, mode);
 				resultPanel.sortByColumn(ProgramConf.Int.InitialSorting.get());
@@ -363,21 +389,26 @@ public final class SearchQueue {
 				}
 			}
 		});
+		
+		// Release the results that are no longer displayed
+		if (wasShown) {
+			if (shownResults != null)
+				searcher.releaseResults(shownResults);
+			shownResults = visibleResults;
+		}
+		else {
+			searcher.releaseResults(visibleResults);
+		}
 
 		return true;
 	}
 
 	private void updateParserFilter() {
 		ListMap<Parser, Boolean> map = fileTypePanel.getParserStateMap();
-		checkedParsers = Sets.newHashSetWithExpectedSize(map.size());
-		for (Entry<Parser, Boolean> entry : map) {
-			if (!entry.getValue())
-				continue;
-			String parserName = entry.getKey()
-					.getClass()
-					.getSimpleName();
-			checkedParsers.add(parserName);
-		}
+		checkedParsers = new ArrayList<Parser>(map.size());
+		for (Entry<Parser, Boolean> entry : map)
+			if (entry.getValue())
+				checkedParsers.add(entry.getKey());
 		allParsersChecked = checkedParsers.size() == map.size();
 	}
 	
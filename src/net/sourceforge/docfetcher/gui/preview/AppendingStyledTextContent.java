@@ -11,9 +11,9 @@
 
 package net.sourceforge.docfetcher.gui.preview;
 
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 
 import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.UtilGui;
@@ -29,11 +29,14 @@ import org.eclipse.swt.layout.FillLayout;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Shell;
 
-import com.google.common.collect.Maps;
-
 /**
  * An implementation of StyledTextContent that is optimized for appending text
  * at the end. This class does not support inserting text anywhere else.
+ * <p>
+ * The text is kept in a {@link TextStore}, which moves large texts to a
+ * temporary file, and the line start offsets are kept in a plain int array.
+ * This way, even texts of several hundred megabytes can be displayed without
+ * exhausting the heap.
  * 
  * @author Tran Nam Quang
  */
@@ -89,14 +92,11 @@ final class AppendingStyledTextContent implements StyledTextContent {
 		protected abstract void handleBreak(int start, int end);
 	}
 	
-	private final StringBuilder buffer = new StringBuilder();
-	private final Map<Integer, Integer> lineToOffset = Maps.newHashMap();
+	private final TextStore store = new TextStore();
+	private int[] lineOffsets = new int[] {0}; // start offsets of the lines
+	private int lineCount = 1;
 	private final List<TextChangeListener> listeners = new LinkedList<TextChangeListener>();
 	
-	public AppendingStyledTextContent() {
-		lineToOffset.put(0, 0);
-	}
-	
 	public void addTextChangeListener(TextChangeListener listener) {
 		listeners.add(listener);
 	}
@@ -106,11 +106,11 @@ final class AppendingStyledTextContent implements StyledTextContent {
 	}
 
 	public int getCharCount() {
-		return buffer.length();
+		return store.length();
 	}
 	
 	public int getLineCount() {
-		return lineToOffset.size();
+		return lineCount;
 	}
 
 	public String getLineDelimiter() {
@@ -118,78 +118,66 @@ final class AppendingStyledTextContent implements StyledTextContent {
 	}
 	
 	public String getLine(int lineIndex) {
-		Integer start = lineToOffset.get(lineIndex);
-		Integer end = lineToOffset.get(lineIndex + 1);
-		if (end == null)
-			end = buffer.length();
+		int start = lineOffsets[lineIndex];
+		int end = lineIndex + 1 < lineCount
+			? lineOffsets[lineIndex + 1]
+			: store.length();
 		// This code has to be really fast
-		int lineLength = end - start;
+		String line = store.substring(start, end);
+		int lineLength = line.length();
 		if (lineLength >= 1) {
-			char c1 = buffer.charAt(end - 1);
+			char c1 = line.charAt(lineLength - 1);
 			if (c1 == '\n') {
 				if (lineLength >= 2) {
-					char c2 = buffer.charAt(end - 2);
+					char c2 = line.charAt(lineLength - 2);
 					if (c2 == '\r')
-						return buffer.substring(start, end - 2);
+						return line.substring(0, lineLength - 2);
 				}
-				return buffer.substring(start, end - 1);
+				return line.substring(0, lineLength - 1);
 			}
 			else if (c1 == '\r') {
-				return buffer.substring(start, end - 1);
+				return line.substring(0, lineLength - 1);
 			}
 		}
-		return buffer.substring(start, end);
+		return line;
 	}
 
 	public int getLineAtOffset(int offset) {
-		if (offset == buffer.length())
-			return lineToOffset.size() - 1;
-		// Binary search
+		if (offset == store.length())
+			return lineCount - 1;
+		if (offset < 0 || offset > store.length())
+			throw new IllegalArgumentException();
+		// Binary search for the last line starting at or before the offset
 		int low = 0;
-		int high = lineToOffset.size() - 1;
-		while (low <= high) {
-			int mid = (low + high) >>> 1;
-			Integer startOffset = lineToOffset.get(mid);
-			if (offset < startOffset) {
+		int high = lineCount - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (lineOffsets[mid] <= offset)
+				low = mid;
+			else
 				high = mid - 1;
-			}
-			else {
-				Integer endOffset = lineToOffset.get(mid + 1);
-				if (endOffset == null)
-					endOffset = buffer.length();
-				if (offset >= endOffset)
-					low = mid + 1;
-				else
-					return mid;
-			}
 		}
-		throw new IllegalArgumentException();
+		return low;
 	}
 
 	public int getOffsetAtLine(int lineIndex) {
-		return lineToOffset.get(lineIndex);
+		if (lineIndex < 0 || lineIndex >= lineCount)
+			throw new IllegalArgumentException();
+		return lineOffsets[lineIndex];
 	}
 	
 	public String getTextRange(int start, int length) {
-		return buffer.substring(start, start + length);
+		return store.substring(start, start + length);
 	}
 
 	public void replaceTextRange(int start, int replaceLength, String text) {
 		// Only append operation is supported
-		Util.checkThat(start == buffer.length() && replaceLength == 0);
+		Util.checkThat(start == store.length() && replaceLength == 0);
 		if (text.isEmpty())
 			return;
 
-		final int shift = buffer.length();
-		final Map<Integer, Integer> map = Maps.newHashMap();
-		
-		new LineBreaker(text) {
-			protected void handleBreak(int start, int end) {
-				int lineStart = end + shift;
-				int lineIndex = lineToOffset.size() + map.size();
-				map.put(lineIndex, lineStart);
-			}
-		};
+		final int shift = store.length();
+		final int oldLineCount = lineCount;
 		
 		TextChangingEvent event1 = new TextChangingEvent(this);
 		event1.start = start;
@@ -197,12 +185,17 @@ final class AppendingStyledTextContent implements StyledTextContent {
 		event1.replaceCharCount = replaceLength;
 		event1.newCharCount = text.length();
 		event1.replaceLineCount = 0;
-		event1.newLineCount = map.size();
+		event1.newLineCount = countLineBreaks(text);
 		for (TextChangeListener listener : listeners)
 			listener.textChanging(event1);
 		
-		buffer.append(text);
-		lineToOffset.putAll(map);
+		store.append(text);
+		new LineBreaker(text) {
+			protected void handleBreak(int start, int end) {
+				addLine(end + shift);
+			}
+		};
+		assert lineCount - oldLineCount == event1.newLineCount;
 		
 		TextChangedEvent event2 = new TextChangedEvent(this);
 		for (TextChangeListener listener : listeners)
@@ -210,16 +203,14 @@ final class AppendingStyledTextContent implements StyledTextContent {
 	}
 
 	public void setText(String text) {
-		buffer.delete(0, buffer.length());
-		lineToOffset.clear();
-		lineToOffset.put(0, 0);
+		store.clear();
+		lineOffsets = new int[] {0};
+		lineCount = 1;
 		
-		buffer.append(text);
+		store.append(text);
 		new LineBreaker(text) {
 			protected void handleBreak(int start, int end) {
-				int lineStart = end;
-				int lineIndex = lineToOffset.size();
-				lineToOffset.put(lineIndex, lineStart);
+				addLine(end);
 			}
 		};
 		
@@ -228,4 +219,25 @@ final class AppendingStyledTextContent implements StyledTextContent {
 			listener.textSet(event);
 	}
 	
+	// Deletes the temporary file holding the text, if there is one
+	public void dispose() {
+		store.clear();
+	}
+	
+	private void addLine(int lineStart) {
+		if (lineCount == lineOffsets.length)
+			lineOffsets = Arrays.copyOf(lineOffsets, lineCount * 2);
+		lineOffsets[lineCount++] = lineStart;
+	}
+	
+	private int countLineBreaks(@NotNull String text) {
+		final int[] count = { 0 };
+		new LineBreaker(text) {
+			protected void handleBreak(int start, int end) {
+				count[0]++;
+			}
+		};
+		return count[0];
+	}
+	
 }
@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.gui.preview;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class AppendingStyledTextContentTest {
+
+	@Test
+	public void testLines() {
+		AppendingStyledTextContent content = new AppendingStyledTextContent();
+		content.setText("line 0\r\nline 1");
+		content.replaceTextRange(content.getCharCount(), 0, " end\nline 2\rline 3\n");
+		assertEquals(5, content.getLineCount());
+		assertEquals("line 1 end", content.getLine(1));
+		assertEquals("line 2", content.getLine(2));
+		assertEquals("", content.getLine(4));
+		assertEquals(8, content.getOffsetAtLine(1));
+		assertEquals(0, content.getLineAtOffset(7));
+		assertEquals(1, content.getLineAtOffset(8));
+		assertEquals(4, content.getLineAtOffset(content.getCharCount()));
+		assertEquals("1 end", content.getTextRange(13, 5));
+
+		content.setText("");
+		assertEquals(1, content.getLineCount());
+		assertEquals(0, content.getCharCount());
+		assertEquals("", content.getLine(0));
+	}
+
+	@Test
+	public void testLargeText() {
+		// Enough text to be moved to a temporary file
+		AppendingStyledTextContent content = new AppendingStyledTextContent();
+		int lineCount = TextStore.MEMORY_LIMIT / 10;
+		StringBuilder chunk = new StringBuilder();
+		for (int i = 0; i < lineCount; i++) {
+			chunk.append(String.format("%08d\n", i));
+			if (chunk.length() >= 100000 || i == lineCount - 1) {
+				content.replaceTextRange(content.getCharCount(), 0, chunk.toString());
+				chunk.setLength(0);
+			}
+		}
+		try {
+			assertEquals(lineCount * 9, content.getCharCount());
+			assertEquals(lineCount + 1, content.getLineCount());
+			for (int i : new int[] {0, 1, 7281, lineCount / 2, lineCount - 1}) {
+				assertEquals(String.format("%08d", i), content.getLine(i));
+				assertEquals(i * 9, content.getOffsetAtLine(i));
+				assertEquals(i, content.getLineAtOffset(i * 9 + 4));
+			}
+
+			// Across a block boundary
+			int start = TextStore.BLOCK_SIZE - 4;
+			String expected = String.format("%08d\n", start / 9).substring(start % 9)
+					+ String.format("%08d\n", start / 9 + 1);
+			assertEquals(expected.substring(0, 8), content.getTextRange(start, 8));
+		}
+		finally {
+			content.dispose();
+		}
+	}
+
+}
@@ -11,10 +11,6 @@
 
 package net.sourceforge.docfetcher.gui.preview;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.Bullet;
 import org.eclipse.swt.custom.LineStyleEvent;
@@ -37,7 +33,7 @@ import net.sourceforge.docfetcher.enums.Img;
 import net.sourceforge.docfetcher.enums.Msg;
 import net.sourceforge.docfetcher.enums.SettingsConf;
 import net.sourceforge.docfetcher.model.search.HighlightedString;
-import net.sourceforge.docfetcher.model.search.Range;
+import net.sourceforge.docfetcher.model.search.RangeList;
 import net.sourceforge.docfetcher.util.Event;
 import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.UtilGui;
@@ -57,8 +53,7 @@ final class HighlightingText {
 	@NotNull private Color highlightColor;
 	@NotNull private StyleRange highlightStyle;
 	
-	private int[] highlightSpans = new int[0]; // start-end pairs
-	private Map<Integer, int[]> lineIndexToSpans = new HashMap<>(); // start-end pairs
+	private RangeList highlightRanges = new RangeList(0);
 	
 	private int lineNumbersWidth = 0;
 	private Bullet lineNumbersBullet = null;
@@ -71,7 +66,8 @@ final class HighlightingText {
 		int style = SWT.FULL_SELECTION | SWT.READ_ONLY | SWT.WRAP | SWT.MULTI | SWT.V_SCROLL | SWT.BORDER;
 		textViewer = new StyledText(parent, style);
 		textViewer.setMargins(margin, margin, margin, margin);
-		textViewer.setContent(new AppendingStyledTextContent());
+		final AppendingStyledTextContent content = new AppendingStyledTextContent();
+		textViewer.setContent(content);
 		textViewer.addLineStyleListener(new LineStyleListener() {
 			@Override
 			public void lineGetStyle(LineStyleEvent event) {
@@ -144,6 +140,7 @@ final class HighlightingText {
 				for (Resource resource : resources)
 					if (resource != null)
 						resource.dispose();
+				content.dispose();
 			}
 		});
 		
@@ -173,28 +170,28 @@ final class HighlightingText {
 	}
 	
 	public void setText(@NotNull HighlightedString string) {
-		if (string.isEmpty()) {
-			highlightSpans = new int[0];
-			lineIndexToSpans.clear();
-		} else {
-			List<Range> ranges = string.getRanges();
-			highlightSpans = new int[ranges.size() * 2];
-			for (int i = 0; i < ranges.size(); i++) {
-				int start = ranges.get(i).start;
-				highlightSpans[i * 2] = start;
-				highlightSpans[i * 2 + 1] = start + ranges.get(i).length;
-			}
-			lineIndexToSpans = Util.createLineMap(string.getString(), highlightSpans);
-		}
+		highlightRanges = new RangeList(string.getRangeCount());
+		highlightRanges.addAll(string.getRanges(), 0);
 		textViewer.setText(string.getString());
 		updateLineNumbersCache();
 		textViewer.redraw();
 	}
 	
+	/**
+	 * Appends the given string to the displayed text, without inserting a
+	 * line break in between.
+	 */
+	public void appendText(@NotNull HighlightedString string) {
+		if (string.isEmpty())
+			return;
+		highlightRanges.addAll(string.getRanges(), textViewer.getCharCount());
+		textViewer.append(string.getString());
+		updateLineNumbersCache();
+	}
+	
 	public void clear() {
 		textViewer.setText("");
-		highlightSpans = new int[0];
-		lineIndexToSpans.clear();
+		highlightRanges = new RangeList(0);
 		updateLineNumbersCache();
 		textViewer.redraw();
 	}
@@ -246,39 +243,26 @@ final class HighlightingText {
 	// argument is one-based
 	public void goTo(int occ) {
 		int i = occ - 1;
-		if (i < 0 || i >= highlightSpans.length / 2) {
+		if (i < 0 || i >= highlightRanges.size()) {
 			return;
 		}
-		int start = highlightSpans[i * 2];
-		int end = highlightSpans[i * 2 + 1];
+		int start = highlightRanges.getStart(i);
+		int end = highlightRanges.getEnd(i);
 		selectAndShowSpan(start, end);
 	}
 	
 	// returns one-based occurrence index, or null
 	@Nullable
 	private Integer goTo(boolean forward, int searchStart) {
-		if (forward) {
-			for (int i = 0; i < highlightSpans.length / 2; i++) {
-				int start = highlightSpans[i * 2];
-				if (start >= searchStart) {
-					int end = highlightSpans[i * 2 + 1];
-					selectAndShowSpan(start, end);
-					return i + 1;
-				}
-			}
-		} else {
-			int i = highlightSpans.length / 2 - 1;
-			while (i >= 0) {
-				int end = highlightSpans[i * 2 + 1];
-				if (end <= searchStart) {
-					int start = highlightSpans[i * 2];
-					selectAndShowSpan(start, end);
-					return i + 1;
-				}
-				i--;
-			}
-		}
-		return null;
+		int i;
+		if (forward)
+			i = highlightRanges.indexOfFirstStartingAt(searchStart);
+		else
+			i = highlightRanges.indexOfFirstEndingAfter(searchStart) - 1;
+		if (i < 0 || i >= highlightRanges.size())
+			return null;
+		selectAndShowSpan(highlightRanges.getStart(i), highlightRanges.getEnd(i));
+		return i + 1;
 	}
 	
 	private void selectAndShowSpan(int start, int end) {
@@ -338,14 +322,26 @@ final class HighlightingText {
 	private void handleLineStyleEvent(LineStyleEvent e) {
 		int lineIndex = textViewer.getLineAtOffset(e.lineOffset);
 		if (SettingsConf.Bool.HighlightingEnabled.get()) {
-			int[] spans = lineIndexToSpans.get(lineIndex);
-			if (spans != null) {
-				e.ranges = new int[spans.length];
-				e.styles = new StyleRange[spans.length / 2];
-				for (int i = 0; i < spans.length / 2; i++) {
-					int start = spans[i * 2];
+			/*
+			 * Find the ranges overlapping with the line via binary search,
+			 * and clip them to the line, since a range may cover several
+			 * lines.
+			 */
+			int lineStart = e.lineOffset;
+			int lineEnd = lineStart + e.lineText.length();
+			int first = highlightRanges.indexOfFirstEndingAfter(lineStart);
+			int last = first;
+			while (last < highlightRanges.size() && highlightRanges.getStart(last) < lineEnd)
+				last++;
+			if (last > first) {
+				int n = last - first;
+				e.ranges = new int[n * 2];
+				e.styles = new StyleRange[n];
+				for (int i = 0; i < n; i++) {
+					int start = Math.max(highlightRanges.getStart(first + i), lineStart);
+					int end = Math.min(highlightRanges.getEnd(first + i), lineEnd);
 					e.ranges[i * 2] = start;
-					e.ranges[i * 2 + 1] = spans[i * 2 + 1] - start;
+					e.ranges[i * 2 + 1] = end - start;
 					e.styles[i] = highlightStyle;
 				}
 			}
@@ -181,13 +181,15 @@ class HighlightingToolBarWithTextViewer {
 				int sum = 0;
 				for (int i = 0; i < pages.size(); i++) {
 					int start = sum + 1;
-					int occCountOnPage = pages.get(i).getRangeCount();
+					int occCountOnPage = getRangeCount(i);
 					int end = start + occCountOnPage;
 					if (start <= targetOcc && targetOcc < end) {
 						currentOcc = targetOcc;
 						occField.setRange(currentOcc, occCount);
-						pageIndex = i;
-						updatePage();
+						if (pageIndex == null || pageIndex != i) {
+							pageIndex = i;
+							updatePage();
+						}
 						textViewer.goTo(targetOcc - sum);
 						break;
 					}
@@ -240,10 +242,20 @@ class HighlightingToolBarWithTextViewer {
     // Converts relative to absolute occurrence number
     private int relativeToAbsoluteOccurrence(int occurrence) {
     	for (int i = 0; i < pageIndex; i++)
-    		occurrence += pages.get(i).getRangeCount();
+    		occurrence += getRangeCount(i);
     	return occurrence;
     }
     
+	/*
+	 * If there's only one page, it may have been followed by appended text,
+	 * which isn't stored in the page list, so the total count must be used.
+	 */
+	private int getRangeCount(int pageIndex) {
+		if (pages.size() == 1)
+			return occCount;
+		return pages.get(pageIndex).getRangeCount();
+	}
+    
     protected void createToolItems(@NotNull ToolItemFactory tif) {}
 	
 	@NotNull
@@ -339,6 +351,42 @@ class HighlightingToolBarWithTextViewer {
 		}
 	}
 	
+	/**
+	 * Appends the given string to the displayed text, without starting a new
+	 * page. This allows displaying a large text piece by piece while it is
+	 * being loaded.
+	 */
+	public final void appendText(@NotNull HighlightedString string) {
+		int rangeCount = string.getRangeCount();
+		occCount += rangeCount;
+		if (pages.isEmpty()) {
+			pageIndex = 0;
+			pages.add(string);
+			textViewer.setText(string);
+			updatePageToolbar(false);
+		}
+		else {
+			/*
+			 * The appended text isn't added to the first page, so that the
+			 * text is only held by the text viewer, which can move large
+			 * texts out of memory. The first page is never redisplayed,
+			 * since there's no other page to switch to.
+			 */
+			textViewer.appendText(string);
+		}
+		
+		occField.setRange(currentOcc, occCount);
+		if (rangeCount > 0) {
+			upBt.setEnabled(true);
+			downBt.setEnabled(true);
+			highlightBt.setEnabled(true);
+			
+			// Scroll to the first match as soon as it arrives
+			if (occCount == rangeCount && SettingsConf.Bool.AutoScrollToFirstMatch.get())
+				moveSelection(true);
+		}
+	}
+	
 	public final void clear(boolean showPageToolbar) {
 		currentOcc = null;
 		occCount = 0;
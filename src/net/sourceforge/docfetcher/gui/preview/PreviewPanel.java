@@ -13,7 +13,7 @@ package net.sourceforge.docfetcher.gui.preview;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -176,10 +176,10 @@ public final class PreviewPanel extends Composite {
 			new HtmlThread(doc, requestCount).start();
 		}
 		else {
+			moveToTop(textPreview);
+			clearPreviews(true, false, true, true); // The text is appended chunk by chunk
 			boolean htmlEnabled = doc.isHtmlFile() && !browserCreationFailed;
 			textPreview.setHtmlButtonEnabled(htmlEnabled);
-			moveToTop(textPreview);
-			clearPreviews(false, false, true, true);
 			new TextThread(doc, requestCount).start();
 		}
 	}
@@ -298,16 +298,6 @@ public final class PreviewPanel extends Composite {
 		stackComp.layout();
 	}
 	
-	// Returns true on success
-	@ThreadSafe
-	private boolean setTextSafely(	@NotNull HighlightedString string,
-									boolean isPlainTextFile,
-									long requestCount,
-									boolean append) {
-		return setTextSafely(
-			Arrays.asList(string), isPlainTextFile, requestCount, append);
-	}
-	
 	// Returns true on success
 	@ThreadSafe
 	private boolean setTextSafely(	@NotNull final List<HighlightedString> strings,
@@ -341,6 +331,24 @@ public final class PreviewPanel extends Composite {
 		});
 	}
 	
+	// Returns true on success
+	@ThreadSafe
+	private boolean appendTextSafely(	@NotNull List<HighlightedString> strings,
+										final boolean isPlainTextFile,
+										long requestCount) {
+		final List<HighlightedString> stringsCopy = new ArrayList<HighlightedString>(strings);
+		return runSafely(requestCount, textPreview, new Runnable() {
+			public void run() {
+				textPreview.setUseMonoFont(isPlainTextFile);
+				if (!ProgramConf.Bool.TextPreviewEnabled.get()) {
+					return;
+				}
+				for (HighlightedString string : stringsCopy)
+					textPreview.appendText(string);
+			}
+		});
+	}
+	
 	// Returns true on success
 	@ThreadSafe
 	private boolean runSafely(	final long requestCount,
@@ -460,15 +468,55 @@ public final class PreviewPanel extends Composite {
 		}
 	}
 	
+	/*
+	 * Displays the text of the document chunk by chunk as it is extracted and
+	 * highlighted, so that the beginning of large documents is shown almost
+	 * immediately. Since the text preview is updated synchronously, the
+	 * extraction can't get far ahead of the display, and it stops as soon as
+	 * another document is selected.
+	 */
 	private class TextThread extends PreviewThread {
+		// Minimum time between two updates of the text preview, in milliseconds
+		private static final long UPDATE_INTERVAL = 250;
+		
+		// Maximum number of chunks passed to the text preview in one update
+		private static final int MAX_PENDING_CHUNKS = 16;
+		
 		public TextThread(@NotNull ResultDocument doc, long startCount) {
 			super(doc, startCount);
 		}
 
-		protected void doRun(Hider overlayHider) throws ParseException,
+		protected void doRun(final Hider overlayHider) throws ParseException,
 				FileNotFoundException, CheckedOutOfMemoryError {
-			HighlightedString string = doc.getHighlightedText();
-			setTextSafely(string, doc.isPlainTextFile(), startCount, false);
+			final boolean isPlainTextFile = doc.isPlainTextFile();
+			class ChunkHandler implements PreviewPageHandler {
+				private final List<HighlightedString> pending = new ArrayList<HighlightedString>();
+				private long lastUpdate = 0;
+				private boolean isStopped = false;
+				
+				public void handlePage(HighlightedString chunk) {
+					pending.add(chunk);
+					if (pending.size() >= MAX_PENDING_CHUNKS
+							|| System.currentTimeMillis() - lastUpdate >= UPDATE_INTERVAL)
+						update();
+				}
+				
+				public void update() {
+					if (!appendTextSafely(pending, isPlainTextFile, startCount))
+						isStopped = true;
+					pending.clear();
+					lastUpdate = System.currentTimeMillis();
+					overlayHider.hide(); // Hide overlay after first chunk
+				}
+				
+				public boolean isStopped() {
+					return isStopped;
+				}
+			}
+			ChunkHandler handler = new ChunkHandler();
+			doc.readPages(handler);
+			if (!handler.isStopped())
+				handler.update();
 		}
 	}
 	
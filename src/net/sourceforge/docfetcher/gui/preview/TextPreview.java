@@ -82,4 +82,8 @@ final class TextPreview extends ToolBarForm {
 		toolBarWithTextViewer.appendPage(string);
 	}
 
+	public void appendText(@NotNull HighlightedString string) {
+		toolBarWithTextViewer.appendText(string);
+	}
+
 }
@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.gui.preview;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.NotThreadSafe;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+
+import com.google.common.io.Closeables;
+
+/**
+ * An append-only character store for the text preview. The first
+ * {@link #MEMORY_LIMIT} characters are kept in memory. If the text grows
+ * beyond that, it is moved to a temporary file in blocks of
+ * {@link #BLOCK_SIZE} characters, and only the last incomplete block and a few
+ * recently read blocks are kept in memory. This way, the memory needed for
+ * displaying a huge text is bounded, since the text widget only requests the
+ * lines that are currently visible.
+ * <p>
+ * I/O errors on the temporary file are printed and otherwise ignored: If the
+ * text can't be moved to the temporary file, it stays in memory, and if it
+ * can't be read back, it is replaced with spaces.
+ *
+ * @author Tran Nam Quang
+ */
+@NotThreadSafe
+final class TextStore {
+
+	/** The maximum number of characters kept in memory. */
+	static final int MEMORY_LIMIT = 4 * 1024 * 1024;
+
+	static final int BLOCK_SIZE = 64 * 1024;
+	private static final int CACHED_BLOCKS = 16;
+
+	/*
+	 * Before spilling, the buffer contains the entire text. After spilling,
+	 * it contains the characters after the last complete block.
+	 */
+	private final StringBuilder buffer = new StringBuilder();
+	@Nullable private File spillFile;
+	@Nullable private RandomAccessFile spillRaf;
+	private int spilledLength = 0; // multiple of BLOCK_SIZE
+	private boolean spillFailed = false;
+
+	private final Map<Integer, char[]> blockCache = new LinkedHashMap<Integer, char[]>(
+			CACHED_BLOCKS, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<Integer, char[]> eldest) {
+			return size() > CACHED_BLOCKS;
+		}
+	};
+
+	public int length() {
+		return spilledLength + buffer.length();
+	}
+
+	public void append(@NotNull String text) {
+		buffer.append(text);
+		if (spillFailed || (spillRaf == null && buffer.length() <= MEMORY_LIMIT))
+			return;
+		try {
+			spill();
+		}
+		catch (IOException e) {
+			Util.printErr(e);
+			spillFailed = true;
+		}
+	}
+
+	// Writes all complete blocks in the buffer to the temporary file
+	private void spill() throws IOException {
+		if (spillRaf == null) {
+			spillFile = Util.createTempFile("preview", ".tmp");
+			spillRaf = new RandomAccessFile(spillFile, "rw");
+		}
+		int blockCount = buffer.length() / BLOCK_SIZE;
+		if (blockCount == 0)
+			return;
+		int charCount = blockCount * BLOCK_SIZE;
+		ByteBuffer bytes = ByteBuffer.allocate(charCount * 2);
+		for (int i = 0; i < charCount; i++)
+			bytes.putChar(buffer.charAt(i));
+		bytes.flip();
+		FileChannel channel = spillRaf.getChannel();
+		long position = spilledLength * 2L;
+		while (bytes.hasRemaining())
+			position += channel.write(bytes, position);
+		spilledLength += charCount;
+		buffer.delete(0, charCount);
+	}
+
+	@NotNull
+	public String substring(int start, int end) {
+		if (start < 0 || end > length() || start > end)
+			throw new IndexOutOfBoundsException();
+		if (start >= spilledLength)
+			return buffer.substring(start - spilledLength, end - spilledLength);
+		StringBuilder sb = new StringBuilder(end - start);
+		int pos = start;
+		while (pos < end && pos < spilledLength) {
+			int blockIndex = pos / BLOCK_SIZE;
+			int offset = pos - blockIndex * BLOCK_SIZE;
+			int count = Math.min(BLOCK_SIZE - offset, end - pos);
+			sb.append(getBlock(blockIndex), offset, count);
+			pos += count;
+		}
+		if (pos < end)
+			sb.append(buffer, pos - spilledLength, end - spilledLength);
+		return sb.toString();
+	}
+
+	@NotNull
+	private char[] getBlock(int blockIndex) {
+		char[] block = blockCache.get(blockIndex);
+		if (block != null)
+			return block;
+		block = new char[BLOCK_SIZE];
+		try {
+			ByteBuffer bytes = ByteBuffer.allocate(BLOCK_SIZE * 2);
+			FileChannel channel = spillRaf.getChannel();
+			long position = blockIndex * (long) BLOCK_SIZE * 2;
+			while (bytes.hasRemaining()) {
+				int n = channel.read(bytes, position);
+				if (n < 0)
+					throw new IOException("Unexpected end of preview file.");
+				position += n;
+			}
+			bytes.flip();
+			bytes.asCharBuffer().get(block);
+		}
+		catch (IOException e) {
+			Util.printErr(e);
+			Arrays.fill(block, ' ');
+		}
+		blockCache.put(blockIndex, block);
+		return block;
+	}
+
+	// Removes the text and deletes the temporary file, if there is one
+	public void clear() {
+		buffer.setLength(0);
+		buffer.trimToSize();
+		blockCache.clear();
+		spilledLength = 0;
+		spillFailed = false;
+		if (spillRaf != null) {
+			Closeables.closeQuietly(spillRaf);
+			spillRaf = null;
+		}
+		if (spillFile != null) {
+			spillFile.delete();
+			spillFile = null;
+		}
+	}
+
+}
@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * A folder of cache files whose total size is limited by a program setting.
+ * When the limit is exceeded, the least recently used files are deleted.
+ * Recency is tracked via the last-modified values of the files, so it
+ * persists across program sessions.
+ * <p>
+ * Cache files are first written to temporary files, which are then renamed to
+ * their final names, so that readers never see incomplete cache files. The
+ * cache files are spread over subfolders named after the first two characters
+ * of their keys, which should therefore be hexadecimal hash values.
+ *
+ * @author Tran Nam Quang
+ */
+@ThreadSafe
+public final class DiskCache {
+
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	// Temporary files older than this were left behind by a crash
+	private static final long TEMP_FILE_MAX_AGE = 24 * 3600 * 1000L;
+
+	private final File dir;
+	private final ProgramConf.Int maxSizeMB;
+	private final AtomicLong size = new AtomicLong(-1); // -1 means unknown
+
+	public DiskCache(@NotNull File dir, @NotNull ProgramConf.Int maxSizeMB) {
+		this.dir = Util.checkNotNull(dir);
+		this.maxSizeMB = Util.checkNotNull(maxSizeMB);
+	}
+
+	/**
+	 * Returns the cache file for the given key, which may or may not exist.
+	 */
+	@NotNull
+	public File getFile(@NotNull String key) {
+		Util.checkThat(key.length() >= 2);
+		return new File(new File(dir, key.substring(0, 2)), key);
+	}
+
+	/**
+	 * Marks the given cache file as recently used.
+	 */
+	public void touch(@NotNull File file) {
+		file.setLastModified(System.currentTimeMillis());
+	}
+
+	/**
+	 * Creates a temporary file for writing the given cache file. The temporary
+	 * file must be passed to {@link #commit(File, File)} or deleted afterwards.
+	 */
+	@NotNull
+	public File createTempFile(@NotNull File file) throws IOException {
+		File parent = file.getParentFile();
+		parent.mkdirs();
+		return File.createTempFile(file.getName(), TEMP_SUFFIX, parent);
+	}
+
+	/**
+	 * Replaces the given cache file with the given temporary file, and evicts
+	 * the least recently used cache files if necessary. Returns false and
+	 * deletes the temporary file if the cache file couldn't be replaced.
+	 */
+	public boolean commit(@NotNull File tempFile, @NotNull File file) {
+		file.delete(); // renameTo fails on Windows if the target exists
+		if (!tempFile.renameTo(file)) {
+			tempFile.delete();
+			return false;
+		}
+		// The first listing of the cache already includes the new file
+		if (size.get() < 0) {
+			evict();
+			return true;
+		}
+		if (size.addAndGet(file.length()) > getMaxSize())
+			evict();
+		return true;
+	}
+
+	/**
+	 * Deletes the given cache file, if it exists.
+	 */
+	public void remove(@NotNull File file) {
+		long fileSize = file.length();
+		if (file.delete() && size.get() >= 0)
+			size.addAndGet(-fileSize);
+	}
+
+	private long getMaxSize() {
+		return maxSizeMB.get() * 1024L * 1024L;
+	}
+
+	/*
+	 * Deletes the least recently used cache files until the cache has shrunk
+	 * to three quarters of its maximum size, so that the cache doesn't have to
+	 * be listed each time a file is added. Also recomputes the cache size,
+	 * which may be inaccurate if several threads wrote the same cache file.
+	 */
+	private synchronized void evict() {
+		long maxSize = getMaxSize();
+		List<File> files = Lists.newArrayList();
+		final Map<File, Long> lastModifiedMap = Maps.newHashMap();
+		long total = 0;
+		long now = System.currentTimeMillis();
+		for (File subDir : Util.listFiles(dir)) {
+			for (File file : Util.listFiles(subDir)) {
+				long lastModified = file.lastModified();
+				if (file.getName().endsWith(TEMP_SUFFIX)) {
+					if (now - lastModified > TEMP_FILE_MAX_AGE)
+						file.delete();
+					continue;
+				}
+				files.add(file);
+				lastModifiedMap.put(file, lastModified);
+				total += file.length();
+			}
+		}
+		if (total > maxSize) {
+			Collections.sort(files, new Comparator<File>() {
+				public int compare(File f1, File f2) {
+					return lastModifiedMap.get(f1).compareTo(lastModifiedMap.get(f2));
+				}
+			});
+			for (File file : files) {
+				if (total <= maxSize / 4 * 3)
+					break;
+				long fileSize = file.length();
+				if (file.delete())
+					total -= fileSize;
+			}
+		}
+		size.set(total);
+	}
+
+}
@@ -11,6 +11,8 @@
 
 package net.sourceforge.docfetcher.model;
 
+import java.io.Reader;
+
 import javolution.io.CharSequenceReader;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
 import net.sourceforge.docfetcher.util.annotations.VisibleForPackageGroup;
@@ -96,8 +98,8 @@ public enum Fields {
 	}
 
 	@NotNull
-	private Field create(CharSequenceReader charSequenceReader) {
-		return new Field(key,charSequenceReader,type);
+	private Field create(Reader reader) {
+		return new Field(key,reader,type);
 	}
 
 	// Will create a tokenized and indexed field that is not stored if the given
@@ -108,6 +110,13 @@ public enum Fields {
 		return createContent(fieldValue, false);
 	}
 	
+	// Will create a tokenized and indexed field that is not stored; the given
+	// reader is consumed and closed by Lucene when the document is written
+	@NotNull
+	public static Field createContent(@NotNull Reader reader) {
+		return CONTENT.create(reader);
+	}
+	
 	@SuppressWarnings("resource")
 	@NotNull
 	public static Field createContent(	@NotNull CharSequence fieldValue,
@@ -32,6 +32,7 @@ import net.sourceforge.docfetcher.util.annotations.RecursiveMethod;
 import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
 import net.sourceforge.docfetcher.util.annotations.VisibleForPackageGroup;
 
+import com.google.common.base.Objects;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Maps;
 
@@ -105,6 +106,17 @@ public abstract class Folder
 
 	protected boolean isChecked = true;
 
+	/*
+	 * Change tracking for incremental saving, see TreeIndexJournal. A folder is
+	 * 'changed' if its attributes, documents or set of subfolders changed, and
+	 * 'added' if it was added to its parent, in which case its entire subtree
+	 * must be saved. These fields are reset when the folder is saved or
+	 * loaded.
+	 */
+	private transient volatile boolean isChanged;
+	private transient volatile boolean isAdded;
+	private transient volatile boolean hasChangedDescendants;
+
 	@SuppressWarnings("unchecked")
 	protected Folder(	@NotNull F parent,
 						@NotNull String name,
@@ -124,6 +136,22 @@ public abstract class Folder
 		updatePathHashCode();
 	}
 	
+	/**
+	 * Creates a folder from previously saved state. If the given path is null,
+	 * the folder must be attached to its parent via
+	 * {@link #attachSubFolder(Folder, int)} before it can be used.
+	 */
+	protected Folder(	@NotNull String name,
+						@Nullable String displayName,
+						@Nullable Path path,
+						@Nullable Long lastModified) {
+		super(name, displayName);
+		this.path = path;
+		this.lastModified = lastModified;
+		if (path != null)
+			updatePathHashCode();
+	}
+	
 	public final synchronized int getParentCount() {
 		int count = 0;
 		F current = parent;
@@ -204,7 +232,10 @@ public abstract class Folder
 	}
 
 	public synchronized final void setLastModified(@Nullable Long lastModified) {
+		if (Objects.equal(this.lastModified, lastModified))
+			return;
 		this.lastModified = lastModified;
+		markChanged();
 	}
 
 	// will replace document with identical name;
@@ -217,6 +248,7 @@ public abstract class Folder
 		if (doc.parent != null && doc.parent != this)
 			doc.parent.removeDocument(doc);
 		doc.parent = (F) this;
+		markChanged();
 	}
 
 	// will replace folder with identical name
@@ -233,9 +265,60 @@ public abstract class Folder
 			subFolder.updatePathHashCode();
 			subFolders.put(subFolder.getName(), subFolder);
 		}
+		markChanged();
+		((Folder<?, ?>) subFolder).isAdded = true;
+		subFolder.markChanged();
 		evtFolderAdded.fire(new FolderEvent(this, subFolder));
 	}
 
+	/**
+	 * Adds a subfolder created from previously saved state to the receiver.
+	 * Unlike {@link #putSubFolder(Folder)}, this method does not fire any
+	 * events, and it uses the given saved path hash code instead of computing
+	 * the subfolder's path.
+	 */
+	@SuppressWarnings("unchecked")
+	final synchronized void attachSubFolder(@NotNull F subFolder,
+											int pathHashCode) {
+		if (subFolders == null)
+			subFolders = Maps.newHashMap();
+		subFolder.parent = (F) this;
+		subFolder.path = null;
+		((Folder<?, ?>) subFolder).pathHashCode = pathHashCode;
+		subFolders.put(subFolder.getName(), subFolder);
+	}
+
+	/**
+	 * Adds a new subfolder to the receiver while applying previously saved
+	 * changes. Unlike {@link #putSubFolder(Folder)}, this method does not
+	 * fire any events.
+	 */
+	@SuppressWarnings("unchecked")
+	final synchronized void attachSubFolder(@NotNull F subFolder) {
+		if (subFolders == null)
+			subFolders = Maps.newHashMap();
+		subFolder.parent = (F) this;
+		subFolder.path = null;
+		subFolder.updatePathHashCode();
+		subFolders.put(subFolder.getName(), subFolder);
+	}
+
+	/**
+	 * Removes the given subfolder from the receiver while applying previously
+	 * saved changes. Unlike {@link #removeSubFolder(Folder)}, this method does
+	 * not fire any events.
+	 */
+	final synchronized void detachSubFolder(@NotNull F subFolder) {
+		if (subFolders == null)
+			return;
+		F candidate = subFolders.remove(subFolder.getName());
+		Util.checkThat(candidate == subFolder);
+		subFolder.path = subFolder.getPath();
+		subFolder.parent = null;
+		if (subFolders.isEmpty())
+			subFolders = null;
+	}
+
 	/**
 	 * Removes the given document from the receiver. Does nothing if the given
 	 * document is null.
@@ -247,6 +330,7 @@ public abstract class Folder
 		doc.parent = null;
 		if (documents.isEmpty())
 			documents = null;
+		markChanged();
 	}
 
 	public final void removeChildren() {
@@ -268,6 +352,7 @@ public abstract class Folder
 				}
 			}
 		}
+		markChanged();
 		for (F subFolder : toNotify)
 			evtFolderRemoved.fire(new FolderEvent(this, subFolder));
 	}
@@ -297,6 +382,7 @@ public abstract class Folder
 			if (subFolders.isEmpty())
 				subFolders = null;
 		}
+		markChanged();
 		evtFolderRemoved.fire(new FolderEvent(this, subFolder));
 	}
 
@@ -308,6 +394,7 @@ public abstract class Folder
 			if (predicate.apply(doc)) {
 				docIt.remove();
 				doc.parent = null;
+				markChanged();
 			}
 		}
 		if (documents.isEmpty())
@@ -336,6 +423,8 @@ public abstract class Folder
 			if (subFolders.isEmpty())
 				subFolders = null;
 		}
+		if (!toNotify.isEmpty())
+			markChanged();
 		for (F subFolder : toNotify)
 			evtFolderRemoved.fire(new FolderEvent(this, subFolder));
 	}
@@ -422,7 +511,37 @@ public abstract class Folder
 	}
 
 	public synchronized final void setChecked(boolean isChecked) {
+		if (this.isChecked == isChecked)
+			return;
 		this.isChecked = isChecked;
+		markChanged();
+	}
+
+	protected final void markChanged() {
+		isChanged = true;
+		Folder<?, ?> ancestor = parent;
+		while (ancestor != null && !ancestor.hasChangedDescendants) {
+			ancestor.hasChangedDescendants = true;
+			ancestor = ancestor.parent;
+		}
+	}
+
+	final boolean isChanged() {
+		return isChanged;
+	}
+
+	final boolean isAdded() {
+		return isAdded;
+	}
+
+	final boolean hasChangedDescendants() {
+		return hasChangedDescendants;
+	}
+
+	final void clearChanges() {
+		isChanged = false;
+		isAdded = false;
+		hasChangedDescendants = false;
 	}
 
 	@NotNull
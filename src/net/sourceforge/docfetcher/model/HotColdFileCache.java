@@ -11,11 +11,24 @@
 
 package net.sourceforge.docfetcher.model;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import net.sourceforge.docfetcher.model.Path.PathParts;
 import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
 import net.sourceforge.docfetcher.util.annotations.Nullable;
@@ -23,18 +36,36 @@ import net.sourceforge.docfetcher.util.annotations.VisibleForPackageGroup;
 import net.sourceforge.docfetcher.util.collect.SafeKeyMap;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Closeables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
- * Cold items are eligible for deletion, depending on the cold cache size. Cold
- * cache is a LRU cache. Hot items are not deleted until client calls dispose
- * method. Retrieving cold items moves them to the hot cache when get(key) is
- * called; if getCold(key) is called, cold items are left cold.
- * 
+ * Cold items are eligible for deletion, depending on the cold cache capacity
+ * and on the total size of the cache. Hot items are not deleted until client
+ * calls dispose method. Retrieving cold items moves them to the hot cache.
+ * <p>
+ * Cold items are evicted in LRU order, except that items that were retrieved
+ * from the cache since they last became eligible for eviction are given a
+ * second chance, so that a frequently used archive isn't evicted by a series
+ * of one-off previews. Evicted items are deleted on a background thread, since
+ * deleting a large unpacked archive can take a while.
+ * <p>
+ * If a cache directory is given, the unpacked files are moved into it and
+ * kept across program sessions. Items whose outermost file was modified or
+ * deleted in the meantime are discarded on the next program start. Unpacked
+ * files that can't be moved into the cache directory, e.g. because the latter
+ * is on another file system than the temporary directory, are only cached for
+ * the current session.
+ * <p>
  * The primary purpose of this file cache is not to improve performance (the
  * speedup is probably tiny in most cases), but to keep unpacked files around
  * for a while, so as to avoid the nasty surprise of deleting files which are
  * currently open in an external application.
- * 
+ *
  * @author Tran Nam Quang
  */
 @VisibleForPackageGroup
@@ -59,13 +90,18 @@ public final class HotColdFileCache {
 		private final HotColdFileCache cache;
 		private final String key;
 		private final File deletable;
+		private final long size;
+		@Nullable private final File metaFile; // null if not persistent
 		private volatile int useCount;
+		private int hitCount = 0; // guarded by the cache
 		
 		// Creates deletable resource
 		public TemporaryFileResource(	@NotNull File file,
 										@NotNull HotColdFileCache cache,
 										@NotNull String key,
 										@NotNull File deletable,
+										long size,
+										@Nullable File metaFile,
 										int useCount) {
 			Util.checkNotNull(file, cache, key, deletable);
 			Util.checkThat(!cache.coldCache.containsKeySafe(key));
@@ -74,6 +110,8 @@ public final class HotColdFileCache {
 			this.cache = cache;
 			this.key = key;
 			this.deletable = deletable;
+			this.size = size;
+			this.metaFile = metaFile;
 			assert useCount >= 0;
 			this.useCount = useCount;
 		}
@@ -108,18 +146,58 @@ public final class HotColdFileCache {
 		}
 	}
 	
+	private static final String META_FILENAME = "entry.meta";
+	private static final int META_VERSION = 1;
+
+	// Deletes evicted items and updates the metadata files
+	private static final ExecutorService fileExecutor = Executors.newSingleThreadExecutor(
+		new ThreadFactoryBuilder()
+			.setNameFormat(HotColdFileCache.class.getName() + " (file operations)")
+			.setDaemon(true)
+			.build());
+
+	private final int capacity;
+	private final long maxSize;
+	@Nullable private final File cacheDir;
 	private final SafeKeyMap<String, TemporaryFileResource> hotCache = SafeKeyMap.createHashMap();
-	private final SafeKeyMap<String, TemporaryFileResource> coldCache;
+	private final SafeKeyMap<String, TemporaryFileResource> coldCache = SafeKeyMap.create(
+		new LinkedHashMap<String, TemporaryFileResource>(16, 0.75f, true));
+	private long totalSize = 0; // hot and cold items
 	
+	/**
+	 * Creates a cache that holds at most the given number of cold items and is
+	 * only kept for the current session.
+	 */
 	public HotColdFileCache(int coldCacheSize) {
-		Util.checkThat(coldCacheSize >= 1);
-		coldCache = SafeKeyMap.create(new ColdCache(coldCacheSize));
+		this(coldCacheSize, Long.MAX_VALUE, null);
+	}
+
+	/**
+	 * Creates a cache that holds at most the given number of cold items, and
+	 * evicts cold items as long as the total size of the unpacked files
+	 * exceeds the given number of bytes. If the given cache directory is not
+	 * null, the items stored in it during earlier sessions are loaded.
+	 */
+	public HotColdFileCache(int coldCacheSize,
+							long maxSize,
+							@Nullable File cacheDir) {
+		Util.checkThat(coldCacheSize >= 1 && maxSize >= 0);
+		this.capacity = coldCacheSize;
+		this.maxSize = maxSize;
+		this.cacheDir = cacheDir;
+		if (cacheDir != null)
+			load(cacheDir);
 	}
 	
 	@VisibleForTesting
 	public synchronized int getActualCacheSize() {
 		return coldCache.size() + hotCache.size();
 	}
+
+	@VisibleForTesting
+	synchronized long getTotalSize() {
+		return totalSize;
+	}
 	
 	// Returns resource from either hot or cold cache.
 	// If item found in cold cache, item is moved to hot cache.
@@ -137,12 +215,16 @@ public final class HotColdFileCache {
 		if (hotItem != null) {
 			assert hotItem.useCount >= 1;
 			hotItem.useCount++;
+			hotItem.hitCount++;
+			touchLater(hotItem.metaFile);
 			return new DisposeOnceProxyResource(hotItem);
 		}
 		else if (coldItem != null) {
 			assert coldItem.useCount == 0;
 			coldItem.useCount = 1;
+			coldItem.hitCount++;
 			hotCache.put(absKey, coldItem);
+			touchLater(coldItem.metaFile);
 			return new DisposeOnceProxyResource(coldItem);
 		}
 		else {
@@ -151,80 +233,321 @@ public final class HotColdFileCache {
 	}
 	
 	@NotNull
-	public synchronized FileResource putIfAbsent(	@NotNull Path key,
-													@NotNull File deletableFile) {
+	public FileResource putIfAbsent(@NotNull Path key,
+									@NotNull File deletableFile) {
 		return putIfAbsent(key, deletableFile, deletableFile);
 	}
 	
 	// If the cache already contains the given key,
 	// returns the file resource associated with that key and deletes the given deletable
 	@NotNull
-	public synchronized FileResource putIfAbsent(	@NotNull Path key,
-													@NotNull File file,
-													@NotNull File deletable) {
+	public FileResource putIfAbsent(@NotNull Path key,
+									@NotNull File file,
+									@NotNull File deletable) {
 		Util.checkNotNull(key, file, deletable);
 		FileResource fileResource = get(key);
 		if (fileResource != null) {
-			try {
-				Util.deleteRecursively(deletable);
-			}
-			catch (IOException e) {
-				Util.printErr(e);
-			}
+			deleteLater(deletable);
 			return new DisposeOnceProxyResource(fileResource);
 		}
+
+		// Move the unpacked file into the cache directory without holding the lock
 		String absKey = key.getCanonicalPath();
-		TemporaryFileResource newFileResource = new TemporaryFileResource(
-			file, this, absKey, deletable, 1);
-		hotCache.put(absKey, newFileResource);
+		long size = getSize(deletable);
+		File metaFile = null;
+		File entryDir = cacheDir == null
+			? null
+			: store(cacheDir, absKey, file, deletable, size);
+		if (entryDir != null) {
+			String relPath = getStoredPath(file, deletable);
+			file = new File(entryDir, relPath);
+			deletable = entryDir;
+			metaFile = new File(entryDir, META_FILENAME);
+		}
+
+		List<File> evicted;
+		TemporaryFileResource newFileResource;
+		synchronized (this) {
+			// Another thread might have put the same key in the meantime
+			fileResource = get(key);
+			if (fileResource != null) {
+				deleteLater(deletable);
+				return new DisposeOnceProxyResource(fileResource);
+			}
+			newFileResource = new TemporaryFileResource(
+				file, this, absKey, deletable, size, metaFile, 1);
+			hotCache.put(absKey, newFileResource);
+			totalSize += size;
+			evicted = evict();
+		}
+		deleteLater(evicted);
 		return new DisposeOnceProxyResource(newFileResource);
 	}
 	
-	private synchronized void coolDown(@NotNull String absKey) {
-		TemporaryFileResource coldItem = coldCache.getValue(absKey);
-		TemporaryFileResource hotItem = hotCache.getValue(absKey);
+	private void coolDown(@NotNull String absKey) {
+		List<File> evicted;
+		synchronized (this) {
+			TemporaryFileResource coldItem = coldCache.getValue(absKey);
+			TemporaryFileResource hotItem = hotCache.getValue(absKey);
 		
-		// The same resource must not be present in both caches
-		if (hotItem != null && coldItem != null)
-			throw new IllegalStateException();
+			// The same resource must not be present in both caches
+			if (hotItem != null && coldItem != null)
+				throw new IllegalStateException();
 		
-		// Fail if item not in hot cache
-		if (hotItem == null)
-			throw new UnsupportedOperationException();
+			// Fail if item not in hot cache
+			if (hotItem == null)
+				throw new UnsupportedOperationException();
 		
-		// Decrease use count; move item to cold cache when use count hits zero
-		assert hotItem.useCount >= 1;
-		hotItem.useCount = Math.max(0, hotItem.useCount - 1);
-		if (hotItem.useCount == 0) {
+			// Decrease use count; move item to cold cache when use count hits zero
+			assert hotItem.useCount >= 1;
+			hotItem.useCount = Math.max(0, hotItem.useCount - 1);
+			if (hotItem.useCount > 0)
+				return;
 			hotCache.removeKey(absKey);
 			coldCache.put(absKey, hotItem); // Move to front
+			evicted = evict();
+		}
+		deleteLater(evicted);
+	}
+
+	/*
+	 * Removes cold items until both the capacity and the size limit are met,
+	 * and returns the files to delete. Items that were retrieved from the
+	 * cache since they last became eligible for eviction are moved to the
+	 * front once instead of being removed. Must be called with the lock held.
+	 */
+	@NotNull
+	private List<File> evict() {
+		assert Thread.holdsLock(this);
+		List<File> evicted = Lists.newArrayList();
+		while (!coldCache.isEmpty()
+				&& (coldCache.size() > capacity || totalSize > maxSize)) {
+			String eldestKey = coldCache.keySet().iterator().next();
+			TemporaryFileResource eldest = coldCache.removeKey(eldestKey);
+			if (eldest.hitCount > 0) {
+				eldest.hitCount = 0;
+				coldCache.put(eldestKey, eldest); // Second chance
+				continue;
+			}
+			totalSize -= eldest.size;
+			evicted.add(eldest.deletable);
+		}
+		return evicted;
+	}
+
+	/*
+	 * Moves the given deletable into a new subfolder of the cache directory
+	 * and writes a metadata file next to it. Returns the subfolder, or null if
+	 * the deletable couldn't be moved, in which case it is left where it is.
+	 */
+	@Nullable
+	private static File store(	@NotNull File cacheDir,
+								@NotNull String absKey,
+								@NotNull File file,
+								@NotNull File deletable,
+								long size) {
+		File sourceFile = getSourceFile(absKey);
+		if (sourceFile == null)
+			return null;
+		String relPath = getStoredPath(file, deletable);
+		if (relPath == null)
+			return null;
+		File entryDir = createEntryDir(cacheDir, absKey);
+		if (entryDir == null)
+			return null;
+		if (!deletable.renameTo(new File(entryDir, deletable.getName()))) {
+			entryDir.delete();
+			return null;
+		}
+
+		/*
+		 * If the metadata file can't be written, the item is still cached for
+		 * the current session, and the next program start will remove it.
+		 */
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(new File(entryDir, META_FILENAME))));
+			out.writeInt(META_VERSION);
+			out.writeUTF(absKey);
+			out.writeUTF(relPath);
+			out.writeLong(size);
+			out.writeLong(sourceFile.lastModified());
+			out.writeLong(sourceFile.length());
+		}
+		catch (IOException e) {
+			Util.printErr(e);
+		}
+		finally {
+			Closeables.closeQuietly(out);
+		}
+		return entryDir;
+	}
+
+	// Returns the path of the given file after moving the deletable into the cache
+	@Nullable
+	private static String getStoredPath(@NotNull File file,
+										@NotNull File deletable) {
+		String filePath = file.getPath();
+		String deletablePath = deletable.getPath();
+		if (filePath.equals(deletablePath))
+			return deletable.getName();
+		if (!filePath.startsWith(deletablePath + File.separator))
+			return null;
+		return deletable.getName() + filePath.substring(deletablePath.length());
+	}
+
+	@Nullable
+	private static File createEntryDir(	@NotNull File cacheDir,
+										@NotNull String absKey) {
+		cacheDir.mkdirs();
+		String prefix = Hashing.sha1().hashString(absKey, Charsets.UTF_8)
+			.toString().substring(0, 16);
+		for (int i = 0; i < 100; i++) {
+			File entryDir = new File(cacheDir, prefix + "-" + i);
+			if (entryDir.mkdir())
+				return entryDir;
+			if (!entryDir.exists())
+				return null;
+		}
+		return null;
+	}
+
+	// Returns the outermost existing file of the given cache key, which is
+	// used for detecting outdated items in the cache directory
+	@Nullable
+	private static File getSourceFile(@NotNull String absKey) {
+		try {
+			PathParts pathParts = new Path(absKey).splitAtExistingFile();
+			if (pathParts.getRight().isEmpty())
+				return null;
+			File sourceFile = pathParts.getLeft().getCanonicalFile();
+			return sourceFile.isFile() ? sourceFile : null;
+		}
+		catch (FileNotFoundException e) {
+			return null;
 		}
 	}
 	
-	// A simple LRU cache
-	private static final class ColdCache extends LinkedHashMap<String, TemporaryFileResource> {
-		private static final long serialVersionUID = 1L;
+	/*
+	 * Loads the items stored in the given cache directory during earlier
+	 * sessions, in the order they were last used, and deletes outdated and
+	 * incomplete items.
+	 */
+	private void load(@NotNull File cacheDir) {
+		final Map<TemporaryFileResource, Long> lastUsedMap = Maps.newHashMap();
+		List<TemporaryFileResource> items = Lists.newArrayList();
+		for (File entryDir : Util.listFiles(cacheDir)) {
+			File metaFile = new File(entryDir, META_FILENAME);
+			long lastUsed = metaFile.lastModified();
+			TemporaryFileResource item = readItem(entryDir, metaFile);
+			if (item == null) {
+				deleteLater(entryDir);
+				continue;
+			}
+			items.add(item);
+			lastUsedMap.put(item, lastUsed);
+		}
+		Collections.sort(items, new Comparator<TemporaryFileResource>() {
+			public int compare(TemporaryFileResource o1, TemporaryFileResource o2) {
+				return lastUsedMap.get(o1).compareTo(lastUsedMap.get(o2));
+			}
+		});
+		List<File> evicted;
+		synchronized (this) {
+			for (TemporaryFileResource item : items) {
+				TemporaryFileResource oldItem = coldCache.removeKey(item.key);
+				if (oldItem != null) { // Stored twice; keep the newer one
+					totalSize -= oldItem.size;
+					deleteLater(oldItem.deletable);
+				}
+				coldCache.put(item.key, item);
+				totalSize += item.size;
+			}
+			evicted = evict();
+		}
+		deleteLater(evicted);
+	}
 		
-		@VisibleForTesting final int capacity;
+	@Nullable
+	private TemporaryFileResource readItem(	@NotNull File entryDir,
+											@NotNull File metaFile) {
+		if (!metaFile.isFile())
+			return null;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(metaFile)));
+			if (in.readInt() != META_VERSION)
+				return null;
+			String absKey = in.readUTF();
+			File file = new File(entryDir, in.readUTF());
+			long size = in.readLong();
+			long sourceLastModified = in.readLong();
+			long sourceLength = in.readLong();
+			File sourceFile = getSourceFile(absKey);
+			if (sourceFile == null
+					|| sourceFile.lastModified() != sourceLastModified
+					|| sourceFile.length() != sourceLength
+					|| !file.exists())
+				return null;
+			return new TemporaryFileResource(
+				file, this, absKey, entryDir, size, metaFile, 0);
+		}
+		catch (IOException e) {
+			return null;
+		}
+		finally {
+			Closeables.closeQuietly(in);
+		}
+	}
 		
-		public ColdCache(int capacity) {
-			super(capacity + 1, 0.75f, true);
-			this.capacity = capacity;
-		}
-		protected boolean removeEldestEntry(Map.Entry<String, TemporaryFileResource> eldest) {
-			if (size() <= capacity)
-				return false;
-			TemporaryFileResource fileResource = eldest.getValue();
-			assert fileResource.deletable != null;
-			try {
-				// This will delete both files and directories
-				Util.deleteRecursively(fileResource.deletable);
+	private static long getSize(@NotNull File fileOrDir) {
+		if (!fileOrDir.isDirectory())
+			return fileOrDir.length();
+		long size = 0;
+		for (File child : Util.listFiles(fileOrDir))
+			size += getSize(child);
+		return size;
+	}
+
+	private static void touchLater(@Nullable final File metaFile) {
+		if (metaFile == null)
+			return;
+		fileExecutor.execute(new Runnable() {
+			public void run() {
+				metaFile.setLastModified(System.currentTimeMillis());
 			}
-			catch (IOException e) {
-				Util.printErr(e);
+		});
+	}
+
+	/**
+	 * Deletes the given cache directory, which was used by an earlier session,
+	 * on a background thread. Does nothing if the directory doesn't exist.
+	 */
+	public static void deleteCacheDir(@NotNull File cacheDir) {
+		if (cacheDir.exists())
+			deleteLater(cacheDir);
+	}
+
+	private static void deleteLater(@NotNull List<File> files) {
+		for (File file : files)
+			deleteLater(file);
+	}
+
+	private static void deleteLater(@NotNull final File file) {
+		fileExecutor.execute(new Runnable() {
+			public void run() {
+				try {
+					// This will delete both files and directories
+					Util.deleteRecursively(file);
+				}
+				catch (IOException e) {
+					if (file.exists()) // Might have been deleted by someone else
+						Util.printErr(e);
+				}
 			}
-			return true;
-		}
+		});
 	}
 
 }
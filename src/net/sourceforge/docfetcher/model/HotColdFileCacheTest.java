@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+
+import net.sourceforge.docfetcher.util.AppUtil;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.io.Files;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class HotColdFileCacheTest {
+
+	static {
+		AppUtil.Const.autoInit();
+	}
+
+	@Test
+	public void testSizeLimit() throws Exception {
+		File tempDir = Util.createTempDir();
+		try {
+			HotColdFileCache cache = new HotColdFileCache(20, 100, null);
+			for (int i = 0; i < 3; i++) {
+				File file = createFile(tempDir, "entry" + i + ".txt", 40);
+				Path key = new Path(tempDir.getPath() + "/archive.zip/" + file.getName());
+				cache.putIfAbsent(key, file).dispose();
+			}
+			assertEquals(2, cache.getActualCacheSize());
+			assertEquals(80, cache.getTotalSize());
+			assertNull(cache.get(new Path(tempDir.getPath() + "/archive.zip/entry0.txt")));
+		}
+		finally {
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+	@Test
+	public void testSecondChance() throws Exception {
+		File tempDir = Util.createTempDir();
+		try {
+			HotColdFileCache cache = new HotColdFileCache(2);
+			Path[] keys = new Path[3];
+			for (int i = 0; i < keys.length; i++) {
+				File file = createFile(tempDir, "entry" + i + ".txt", 10);
+				keys[i] = new Path(tempDir.getPath() + "/archive.zip/" + file.getName());
+				cache.putIfAbsent(keys[i], file).dispose();
+				if (i == 0)
+					cache.get(keys[0]).dispose();
+			}
+
+			// The least recently used item was used twice, so the next one goes
+			assertNull(cache.get(keys[1]));
+			assertNotNull(cache.get(keys[0]));
+			assertNotNull(cache.get(keys[2]));
+		}
+		finally {
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+	@Test
+	public void testPersistence() throws Exception {
+		File tempDir = Util.createTempDir();
+		try {
+			File cacheDir = new File(tempDir, "cache");
+			File archive = createFile(tempDir, "archive.zip", 10);
+			Path key = new Path(archive.getPath() + "/entry.txt");
+			File unpackedFile = createFile(Util.createTempDir(), "entry.txt", 20);
+
+			HotColdFileCache cache = new HotColdFileCache(20, 1000, cacheDir);
+			FileResource resource = cache.putIfAbsent(key, unpackedFile);
+			File cachedFile = resource.getFile();
+			resource.dispose();
+
+			// Next session
+			cache = new HotColdFileCache(20, 1000, cacheDir);
+			resource = cache.get(key);
+			assertNotNull(resource);
+			assertEquals(cachedFile, resource.getFile());
+			assertEquals(20, resource.getFile().length());
+			resource.dispose();
+
+			// Next session, after the archive was modified
+			Files.append("modified", archive, Charsets.UTF_8);
+			cache = new HotColdFileCache(20, 1000, cacheDir);
+			assertNull(cache.get(key));
+			assertEquals(0, cache.getTotalSize());
+		}
+		finally {
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+	@NotNull
+	private static File createFile(	@NotNull File dir,
+									@NotNull String name,
+									int length) throws IOException {
+		File file = new File(dir, name);
+		Files.write(Strings.repeat("x", length), file, Charsets.UTF_8);
+		return file;
+	}
+
+}
@@ -18,8 +18,9 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.nio.channels.FileLock;
@@ -63,6 +64,8 @@ import net.sourceforge.docfetcher.model.IndexLoadingProblems.CorruptedIndex;
 import net.sourceforge.docfetcher.model.IndexLoadingProblems.OverflowIndex;
 import net.sourceforge.docfetcher.model.index.IndexingQueue;
 import net.sourceforge.docfetcher.model.index.file.FileFactory;
+import net.sourceforge.docfetcher.model.index.file.FileIndexCodec;
+import net.sourceforge.docfetcher.model.index.outlook.OutlookIndexCodec;
 import net.sourceforge.docfetcher.model.index.outlook.OutlookMailFactory;
 import net.sourceforge.docfetcher.model.search.Searcher;
 import net.sourceforge.docfetcher.util.AppUtil;
@@ -102,8 +105,10 @@ public final class IndexRegistry {
 	@Nullable
 	public static volatile File indexPathOverride = null;
 
-	private static final String SER_FILENAME = "tree-index.ser";
+	private static final String TREE_FILENAME = "tree-index.bin";
+	private static final String SER_FILENAME = "tree-index.ser"; // Used before the binary format
 	private static final String NAME_FILENAME = "index-name.txt";
+	private static final String UNPACK_CACHE_DIRNAME = "unpack-cache";
 	
 	/*
 	 * This setting prevents errors that would otherwise occur if the user
@@ -120,7 +125,7 @@ public final class IndexRegistry {
 
 	/**
 	 * A map for storing the indexes, along with the last-modified values of the
-	 * indexes' ser files. A last-modified value may be null, which indicates
+	 * indexes' tree index files. A last-modified value may be null, which indicates
 	 * that the corresponding index hasn't been saved yet.
 	 */
 	private final Map<LuceneIndex, Long> indexes = Maps.newTreeMap(IndexComparator.instance); // guarded by read-write lock
@@ -171,8 +176,17 @@ public final class IndexRegistry {
 							int reporterCapacity) {
 		Util.checkNotNull(indexParentDir);
 		this.indexParentDir = indexParentDir;
-		this.unpackCache = new HotColdFileCache(cacheSize);
-		this.fileFactory = new FileFactory(unpackCache);
+		File unpackCacheDir = new File(indexParentDir, UNPACK_CACHE_DIRNAME);
+		if (!ProgramConf.Bool.KeepUnpackCache.get()) {
+			// Remove the unpack cache of a session in which it was kept
+			HotColdFileCache.deleteCacheDir(unpackCacheDir);
+			unpackCacheDir = null;
+		}
+		this.unpackCache = new HotColdFileCache(
+			cacheSize,
+			ProgramConf.Int.UnpackCacheSizeMB.get() * 1024L * 1024L,
+			unpackCacheDir);
+		this.fileFactory = new FileFactory(unpackCache, indexParentDir);
 		this.outlookMailFactory = new OutlookMailFactory(unpackCache);
 
 		/*
@@ -367,32 +381,41 @@ public final class IndexRegistry {
 			if (cancelable.isCanceled())
 				break;
 			if (file.isDirectory()) {
+				File treeFile = new File(file, TREE_FILENAME);
 				File serFile = new File(file, SER_FILENAME);
-				if (serFile.isFile()) {
+				if (treeFile.isFile()) {
+					if (loadIndex(treeFile) == null)
+						loadingProblems.addObsoleteFile(file);
+				}
+				else if (serFile.isFile()) {
 					/*
 					 * Try to load the tree-index.ser. If this fails, we're
 					 * probably dealing with a tree-index.ser from DocFetcher
 					 * 1.1 beta 1 through DocFetcher 1.1 beta 6, because the
 					 * serialization version UID was changed after 1.1 beta 6.
+					 * If loading succeeds, the index is converted to the
+					 * binary format, which also deletes the tree-index.ser.
 					 */
 					try {
-						if (!loadIndex(serFile)) {
+						LuceneIndex index = loadIndex(serFile);
+						if (index == null)
 							loadingProblems.addObsoleteFile(file);
-						}
+						else
+							save(index);
 					} catch (StackOverflowError e) {
 						loadingProblems.addOverflowIndex(new OverflowIndex(file, e));
 					}
 				}
-				else if (!serFile.exists()) {
+				else if (!treeFile.exists() && !serFile.exists()) {
 					/*
-					 * If no tree-index.ser exists and the containing folder has
+					 * If no tree index file exists and the containing folder has
 					 * a name that ends with a timestamp, it's probably an index
 					 * folder from DocFetcher 1.0.3 or earlier.
 					 */
 					if (file.getName().matches(".*?_\\d+"))
 						loadingProblems.addObsoleteFile(file);
 				}
-				// Ignore if tree-index.ser is a directory
+				// Ignore if the tree index file is a directory
 			}
 			else if (file.isFile()) {
 				/*
@@ -417,7 +440,10 @@ public final class IndexRegistry {
 
 			final int watchId = new SimpleJNotifyListener() {
 				protected void handleEvent(File targetFile, EventType eventType) {
-					if (!targetFile.getName().equals(SER_FILENAME))
+					String name = targetFile.getName();
+					if (!name.equals(TREE_FILENAME)
+							&& !name.equals(TreeIndexJournal.FILENAME)
+							&& !name.equals(SER_FILENAME))
 						return;
 					executor.schedule(new Runnable() {
 						public void run() {
@@ -446,14 +472,17 @@ public final class IndexRegistry {
 	}
 
 	/**
-	 * Load the given tree index file. Returns whether the file was successfully
-	 * loaded.
+	 * Load the given tree index file, which is either a tree-index.bin or a
+	 * tree-index.ser. Returns the loaded index, or null if the file couldn't
+	 * be loaded.
 	 */
+	@Nullable
 	@ThreadSafe
-	private boolean loadIndex(@NotNull File serFile) {
-		ObjectInputStream in = null;
+	private LuceneIndex loadIndex(@NotNull File treeFile) {
+		InputStream in = null;
 		try {
-			FileInputStream fin = new FileInputStream(serFile);
+			FileInputStream fin = new FileInputStream(treeFile);
+			in = fin;
 			FileLock lock = fin.getChannel().lock(0, Long.MAX_VALUE, true);
 			LuceneIndex index;
 			try {
@@ -461,20 +490,38 @@ public final class IndexRegistry {
 				 * Without this BufferedInputStream, there can be noticeable
 				 * performance problems if the index resides on a network drive.
 				 */
-				in = new ObjectInputStream(new BufferedInputStream(fin));
-				index = (LuceneIndex) in.readObject();
+				in = new BufferedInputStream(fin);
+				if (treeFile.getName().equals(SER_FILENAME)) {
+					in = new ObjectInputStream(in);
+					index = (LuceneIndex) ((ObjectInputStream) in).readObject();
+				}
+				else {
+					index = TreeIndexCodec.load(
+						in, FileIndexCodec.instance, OutlookIndexCodec.instance);
+					
+					/*
+					 * Apply the changes saved after the tree index file was
+					 * written. If the journal doesn't belong to the tree index
+					 * file, the program was interrupted after the file was
+					 * rewritten, so the journal is obsolete.
+					 */
+					File journalFile = new File(
+						treeFile.getParentFile(), TreeIndexJournal.FILENAME);
+					if (!TreeIndexJournal.replay(index, journalFile))
+						journalFile.delete();
+				}
 			}
 			finally {
 				lock.release();
 			}
 			//If index can be loaded, load the index name from file
 			index.getRootFolder().setDisplayName(loadIndexName(index.getIndexDirPath()));
-			addIndex(index, serFile.lastModified());
-			return true;
+			addIndex(index, treeFile.lastModified());
+			return index;
 		}
 		catch (Exception e) {
 			e.printStackTrace();
-			return false;
+			return null;
 		}
 		finally {
 			Closeables.closeQuietly(in);
@@ -498,20 +545,22 @@ public final class IndexRegistry {
 			for (File indexDir : Util.listFiles(indexParentDir)) {
 				if (!indexDir.isDirectory())
 					continue;
-				File serFile = new File(indexDir, SER_FILENAME);
-				if (!serFile.isFile())
+				File treeFile = new File(indexDir, TREE_FILENAME);
+				if (!treeFile.isFile())
+					treeFile = new File(indexDir, SER_FILENAME);
+				if (!treeFile.isFile())
 					continue;
 
 				LuceneIndex index = indexDirMap.remove(Util.getAbsFile(indexDir));
 
 				// New index found
 				if (index == null) {
-					loadIndex(serFile);
+					loadIndex(treeFile);
 				}
 				// Existing index; may have been modified
 				else {
 					Long oldLM = indexes.get(index);
-					long newLM = serFile.lastModified();
+					long newLM = treeFile.lastModified();
 					if (oldLM != null && oldLM.longValue() != newLM) {
 						/*
 						 * Remove the old version of the index and add the new
@@ -519,7 +568,33 @@ public final class IndexRegistry {
 						 * searched in right now.
 						 */
 						removeIndexes(Collections.singletonList(index), false);
-						loadIndex(serFile);
+						loadIndex(treeFile);
+					}
+					else if (oldLM != null
+							&& treeFile.getName().equals(TREE_FILENAME)) {
+						File journalFile = new File(
+							indexDir, TreeIndexJournal.FILENAME);
+						if (!TreeIndexJournal.hasNewChanges(index, journalFile))
+							continue;
+						
+						/*
+						 * Only the journal was modified, so instead of loading
+						 * the new version of the index, apply the new changes
+						 * to the old version. The index is removed and added
+						 * again so that the searcher and the GUI pick up the
+						 * changes.
+						 */
+						removeIndexes(Collections.singletonList(index), false);
+						try {
+							if (TreeIndexJournal.replay(index, journalFile)) {
+								addIndex(index, oldLM);
+								continue;
+							}
+						}
+						catch (IOException e) {
+							e.printStackTrace();
+						}
+						loadIndex(treeFile);
 					}
 				}
 			}
@@ -539,87 +614,139 @@ public final class IndexRegistry {
 		try {
 			File indexDir = index.getIndexDirPath().getCanonicalFile();
 			indexDir.mkdirs();
+			File treeFile = new File(indexDir, TREE_FILENAME);
 			File serFile = new File(indexDir, SER_FILENAME);
 			
 			/*
 			 * DocFetcher might have been burned onto a CD-ROM; if so, then just
 			 * ignore it.
 			 */
+			if (treeFile.exists() && !treeFile.canWrite())
+				return;
 			if (serFile.exists() && !serFile.canWrite())
 				return;
 			
 			/*
-			 * Instead of writing to the tree file directly, we'll write to a
-			 * temporary file and then rename it to the tree file, provided that
-			 * no errors occurred. This prevents the creation of broken tree
-			 * files.
+			 * If possible, only append the changes since the last save to the
+			 * journal. Otherwise, rewrite the tree file, which also compacts
+			 * the journal.
 			 */
-			File tempFile = new File(indexDir, SER_FILENAME + ".temp");
+			File journalFile = new File(indexDir, TreeIndexJournal.FILENAME);
+			boolean success = treeFile.isFile()
+				&& TreeIndexJournal.append(index, journalFile, treeFile.length());
+			if (!success)
+				success = saveTreeFile(index, treeFile, journalFile);
+			if (!success)
+				return;
 			
-			boolean success = false;
-			ObjectOutputStream out = null;
+			/*
+			 * The tree-index.ser has been superseded. Note that versions of
+			 * DocFetcher that only know the tree-index.ser can't load the index
+			 * anymore after this point. Keeping an outdated copy wouldn't help
+			 * them, since it wouldn't match the Lucene index.
+			 */
 			try {
-				tempFile.createNewFile();
-				FileOutputStream fout = new FileOutputStream(tempFile);
-				FileLock lock = fout.getChannel().lock();
-				try {
-					/*
-					 * Without this BufferedOutputStream, there can be
-					 * noticeable performance problems if the index resides on a
-					 * network drive.
-					 */
-					out = new ObjectOutputStream(new BufferedOutputStream(fout));
-					out.writeObject(index);
-					success = true;
-				}
-				finally {
-					lock.release();
-				}
-			}
-			catch (StackOverflowError e) {
-				AppUtil.showError("Couldn't save index '" + index.getDisplayName() + "': Folder hierarchy "
-						+ "is too deep! Please reduce the folder depth and rebuild the index.", true, false);
+				Files.deleteIfExists(serFile.toPath());
 			}
 			catch (IOException e) {
-				e.printStackTrace(); // The average user doesn't need to know
-			}
-			finally {
-				Closeables.closeQuietly(out);
+				e.printStackTrace();
 			}
 			
-			if (success) {
-				try {
-					/*
-					 * Don't use the old File.renameTo method here, it's not
-					 * reliable. Also, note that this file moving must be done
-					 * *after* the object output stream is closed.
-					 */
-					Files.move(
-						tempFile.toPath(), serFile.toPath(),
-						StandardCopyOption.REPLACE_EXISTING);
-				}
-				catch (IOException e) {
-					e.printStackTrace();
-				}
-				
-				if (ProgramConf.Bool.AllowIndexRenaming.get()) {
-					/*
-					 * If saving the index succeeded, save the indexName in a
-					 * separate file.
-					 */
-					if (!saveIndexName(new File(indexDir, NAME_FILENAME), index.getRootFolder().getDisplayName())) {
-						AppUtil.showError(Msg.rename_index_failed.get(), true, false);
-					}
+			if (ProgramConf.Bool.AllowIndexRenaming.get()) {
+				/*
+				 * If saving the index succeeded, save the indexName in a
+				 * separate file.
+				 */
+				if (!saveIndexName(new File(indexDir, NAME_FILENAME), index.getRootFolder().getDisplayName())) {
+					AppUtil.showError(Msg.rename_index_failed.get(), true, false);
 				}
-				
-				// Update cached last-modified value of index
-				indexes.put(index, serFile.lastModified());
 			}
+			
+			// Update cached last-modified value of index
+			indexes.put(index, treeFile.lastModified());
 		}
 		finally {
 			writeLock.unlock();
 		}
 	}
+	
+	/**
+	 * Writes the given index in full to the given tree file and deletes the
+	 * given journal file. Returns whether the tree file was written.
+	 */
+	private static boolean saveTreeFile(@NotNull LuceneIndex index,
+										@NotNull File treeFile,
+										@NotNull File journalFile) {
+		TreeIndex<?, ?> treeIndex = (TreeIndex<?, ?>) index;
+		long snapshotId = TreeIndexJournal.createSnapshotId();
+		
+		// Saving resets the change tracking, so the next save must be a full save if this one fails
+		treeIndex.setSnapshotId(0);
+		
+		/*
+		 * Instead of writing to the tree file directly, we'll write to a
+		 * temporary file and then rename it to the tree file, provided that
+		 * no errors occurred. This prevents the creation of broken tree
+		 * files.
+		 */
+		File tempFile = new File(
+			treeFile.getParentFile(), TREE_FILENAME + ".temp");
+		
+		boolean success = false;
+		OutputStream out = null;
+		try {
+			tempFile.createNewFile();
+			FileOutputStream fout = new FileOutputStream(tempFile);
+			out = fout;
+			FileLock lock = fout.getChannel().lock();
+			try {
+				/*
+				 * Without this BufferedOutputStream, there can be noticeable
+				 * performance problems if the index resides on a network drive.
+				 */
+				out = new BufferedOutputStream(fout);
+				TreeIndexCodec.save(index, out, snapshotId);
+				out.flush();
+				success = true;
+			}
+			finally {
+				lock.release();
+			}
+		}
+		catch (IOException e) {
+			e.printStackTrace(); // The average user doesn't need to know
+		}
+		finally {
+			Closeables.closeQuietly(out);
+		}
+		if (!success)
+			return false;
+		
+		try {
+			/*
+			 * Don't use the old File.renameTo method here, it's not reliable.
+			 * Also, note that this file moving must be done *after* the output
+			 * stream is closed.
+			 */
+			Files.move(
+				tempFile.toPath(), treeFile.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		
+		/*
+		 * If the program is interrupted before the journal is deleted, the
+		 * journal will be discarded on the next start, since it doesn't match
+		 * the ID of the new tree file.
+		 */
+		journalFile.delete();
+		treeIndex.setSnapshotId(snapshotId);
+		treeIndex.setJournalLength(0);
+		return true;
+	}
 
 	@NotNull
 	@ThreadSafe
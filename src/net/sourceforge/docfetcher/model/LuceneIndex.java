@@ -61,6 +61,15 @@ public interface LuceneIndex extends ViewNode, Serializable {
 	public IndexingResult update(	@Nullable IndexingReporter reporter,
 	                             	@Nullable Cancelable cancelable);
 	
+	/**
+	 * Updates the index. The given flag indicates whether the index is built
+	 * from scratch, i.e. by an index creation or rebuild.
+	 */
+	@NotNull
+	public IndexingResult update(	@Nullable IndexingReporter reporter,
+	                             	@Nullable Cancelable cancelable,
+	                             	boolean isRebuild);
+	
 	@NotNull
 	public Directory getLuceneDir() throws IOException;
 	
@@ -78,6 +78,23 @@ public final class Path implements Serializable {
 		 */
 		this.name = getDisplayName(canonicalFile);
 	}
+
+	private Path(@NotNull String path, @NotNull String name) {
+		this.path = path;
+		this.name = name;
+	}
+
+	/**
+	 * Recreates a path from the values previously returned by
+	 * {@link #getPath()} and {@link #getName()}. Unlike the public
+	 * constructors, this doesn't access the file system; the canonical file is
+	 * computed lazily.
+	 */
+	@NotNull
+	static Path restore(@NotNull String path, @NotNull String name) {
+		Util.checkNotNull(path, name);
+		return new Path(path, name);
+	}
 	
 	@NotNull
 	private static String getDisplayName(@NotNull File canonicalFile) {
@@ -54,25 +54,22 @@ public abstract class TreeIndex <
 	@Nullable private transient RAMDirectory ramIndexDir;
 	@Nullable private transient File indexParentDir;
 	
+	/*
+	 * The ID of the tree index file this index was last saved to or loaded
+	 * from, and the number of bytes of the corresponding journal that are
+	 * reflected in this index. A snapshot ID of 0 means that the index must be
+	 * saved in full the next time. See TreeIndexJournal.
+	 */
+	private transient volatile long snapshotId;
+	private transient volatile long journalLength;
+	
 	// if indexDir is null, all content is written to a RAM index, which
 	// can be retrieved via getLuceneDir
 	protected TreeIndex(@Nullable File indexParentDir,
 	                    @NotNull File rootFile) {
 		Util.checkNotNull(rootFile);
 		this.indexParentDir = indexParentDir;
-		
-		// Create config
-		this.config = new IndexingConfig() {
-			@Override
-			protected void onStoreRelativePathsChanged() {
-				File oldFile = rootFolder.getPath().getCanonicalFile();
-				Path newPath = config.getStorablePath(oldFile);
-				rootFolder.setPath(newPath);
-			}
-			protected void onWatchFoldersChanged() {
-				LuceneIndex.evtWatchFoldersChanged.fire(TreeIndex.this);
-			}
-		};
+		this.config = createConfig();
 		
 		// Create root folder
 		rootFile = Util.getCanonicalFile(rootFile);
@@ -96,6 +93,36 @@ public abstract class TreeIndex <
 		}
 	}
 	
+	/**
+	 * Creates an index from previously saved state. This is used by
+	 * {@link TreeIndexCodec}, which restores the indexing configuration
+	 * afterwards.
+	 */
+	protected TreeIndex(@NotNull F rootFolder,
+						long created,
+						@Nullable Path fileIndexDirPath) {
+		Util.checkNotNull(rootFolder);
+		this.config = createConfig();
+		this.rootFolder = rootFolder;
+		this.created = created;
+		this.fileIndexDirPath = fileIndexDirPath;
+	}
+	
+	@NotNull
+	private IndexingConfig createConfig() {
+		return new IndexingConfig() {
+			@Override
+			protected void onStoreRelativePathsChanged() {
+				File oldFile = rootFolder.getPath().getCanonicalFile();
+				Path newPath = config.getStorablePath(oldFile);
+				rootFolder.setPath(newPath);
+			}
+			protected void onWatchFoldersChanged() {
+				LuceneIndex.evtWatchFoldersChanged.fire(TreeIndex.this);
+			}
+		};
+	}
+	
 	public final long getCreated() {
 		return created;
 	}
@@ -110,6 +137,12 @@ public abstract class TreeIndex <
 	
 	@NotNull
 	protected abstract F createRootFolder(@NotNull Path path);
+	
+	/**
+	 * Returns the codec for saving and loading indexes of this type.
+	 */
+	@NotNull
+	protected abstract TreeIndexCodec<D, F> getCodec();
 
 	@NotNull
 	public final IndexingConfig getConfig() {
@@ -127,6 +160,28 @@ public abstract class TreeIndex <
 		return fileIndexDirPath;
 	}
 	
+	final long getSnapshotId() {
+		return snapshotId;
+	}
+	
+	final void setSnapshotId(long snapshotId) {
+		this.snapshotId = snapshotId;
+	}
+	
+	final long getJournalLength() {
+		return journalLength;
+	}
+	
+	final void setJournalLength(long journalLength) {
+		this.journalLength = journalLength;
+	}
+	
+	// Returns the stored index directory path, ignoring the path override
+	@Nullable
+	final Path getFileIndexDirPath() {
+		return fileIndexDirPath;
+	}
+	
 	@Nullable
 	protected final File getIndexParentDir() {
 		if (fileIndexDirPath == null)
@@ -139,18 +194,26 @@ public abstract class TreeIndex <
 	@NotNull
 	public final IndexingResult update(	@Nullable IndexingReporter reporter,
 										@Nullable Cancelable cancelable) {
+		return update(reporter, cancelable, false);
+	}
+	
+	@NotNull
+	public final IndexingResult update(	@Nullable IndexingReporter reporter,
+										@Nullable Cancelable cancelable,
+										boolean isRebuild) {
 		if (reporter == null)
 			reporter = IndexingReporter.nullReporter;
 		if (cancelable == null)
 			cancelable = Cancelable.nullCancelable;
 		if (cancelable.isCanceled())
 			return IndexingResult.SUCCESS_UNCHANGED;
-		return doUpdate(reporter, cancelable);
+		return doUpdate(reporter, cancelable, isRebuild);
 	}
 	
 	@NotNull
 	protected abstract IndexingResult doUpdate(	@NotNull IndexingReporter reporter,
-												@NotNull Cancelable cancelable);
+												@NotNull Cancelable cancelable,
+												boolean isRebuild);
 	
 	@NotNull
 	public final Directory getLuceneDir() throws IOException {
@@ -0,0 +1,778 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.sourceforge.docfetcher.model.index.IndexingError;
+import net.sourceforge.docfetcher.model.index.IndexingError.ErrorType;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.NotThreadSafe;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+import net.sourceforge.docfetcher.util.annotations.VisibleForPackageGroup;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.Maps;
+
+/**
+ * Saves and loads tree indexes in a compact binary format, which replaces the
+ * Java serialization of the entire index object graph.
+ * <p>
+ * The format starts with a header containing a magic number, a format version
+ * and the document type, followed by the folder tree and the indexing
+ * configuration. The tree is written in pre-order without recursion, so that
+ * the depth of the folder hierarchy is not limited by the stack size. Names
+ * that occur more than once are written only once and referred to by number
+ * afterwards, and the last-modified values of the documents in a folder are
+ * written as a contiguous block.
+ * <p>
+ * In addition, this class writes and reads the batches of changed folders that
+ * are appended to the {@link TreeIndexJournal} between full saves. The batches
+ * have the same format version as the tree index file they belong to.
+ * <p>
+ * Subclasses create the concrete index, folder and document instances and may
+ * save additional per-index and per-folder data.
+ *
+ * @author Tran Nam Quang
+ */
+@VisibleForPackageGroup
+public abstract class TreeIndexCodec<D extends Document<D, F>, F extends Folder<D, F>> {
+
+	private static final int MAGIC = 0x44465449; // "DFTI"
+	private static final int VERSION = 1;
+
+	// Limits the memory used by the string tables on very large trees
+	private static final int MAX_STRINGS = 1 << 16;
+
+	private static final int FOLDER_CHECKED = 1;
+	private static final int FOLDER_LAST_MODIFIED = 2;
+	private static final int FOLDER_ERRORS = 4;
+	private static final int FOLDER_ROOT = 8;
+
+	private static final int DOC_ERRORS = 1;
+	private static final int DOC_ATTACHED_FOLDER = 2;
+
+	/**
+	 * Writes the given index to the given output stream, along with the given
+	 * snapshot ID, which identifies the journal belonging to the written file.
+	 * The stream is not closed.
+	 * <p>
+	 * This resets the change tracking of the index, so if writing fails, the
+	 * next save must be a full save as well.
+	 */
+	public static void save(@NotNull LuceneIndex index,
+							@NotNull OutputStream out,
+							long snapshotId) throws IOException {
+		Util.checkNotNull(index, out);
+		DataOutputStream dataOut = new DataOutputStream(out);
+		write((TreeIndex<?, ?>) index, dataOut, snapshotId);
+		dataOut.flush();
+	}
+
+	private static <D extends Document<D, F>, F extends Folder<D, F>> void write(	@NotNull TreeIndex<D, F> index,
+																					@NotNull DataOutputStream out,
+																					long snapshotId)
+			throws IOException {
+		index.getCodec().writeIndex(index, out, snapshotId);
+	}
+
+	/**
+	 * Writes the folders of the given index that changed since the index was
+	 * last saved or loaded, and resets the change tracking of these folders.
+	 * The written batch can be applied to the saved state of the index via
+	 * {@link #readChanges(LuceneIndex, DataInputStream)}.
+	 */
+	static void writeChanges(	@NotNull LuceneIndex index,
+								@NotNull DataOutputStream out)
+			throws IOException {
+		writeChanges((TreeIndex<?, ?>) index, out);
+	}
+
+	private static <D extends Document<D, F>, F extends Folder<D, F>> void writeChanges(	@NotNull TreeIndex<D, F> index,
+																							@NotNull DataOutputStream out)
+			throws IOException {
+		index.getCodec().writeChangeBatch(index, out);
+	}
+
+	/**
+	 * Applies a batch of changes written by
+	 * {@link #writeChanges(LuceneIndex, DataOutputStream)} to the given index.
+	 */
+	static void readChanges(@NotNull LuceneIndex index,
+							@NotNull DataInputStream in) throws IOException {
+		readChanges((TreeIndex<?, ?>) index, in);
+	}
+
+	private static <D extends Document<D, F>, F extends Folder<D, F>> void readChanges(	@NotNull TreeIndex<D, F> index,
+																							@NotNull DataInputStream in)
+			throws IOException {
+		index.getCodec().readChangeBatch(index, in);
+	}
+
+	/**
+	 * Reads an index from the given input stream, using the codec among the
+	 * given ones that matches the document type stored in the stream. The
+	 * stream is not closed.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurred, if the stream doesn't contain a
+	 *             tree index, or if the stream was written in an unsupported
+	 *             format version.
+	 */
+	@NotNull
+	public static LuceneIndex load(	@NotNull InputStream in,
+									@NotNull TreeIndexCodec<?, ?>... codecs)
+			throws IOException {
+		DataInputStream dataIn = new DataInputStream(in);
+		if (dataIn.readInt() != MAGIC)
+			throw new IOException("Not a tree index file.");
+		int version = dataIn.readInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported tree index version: " + version);
+		String typeName = dataIn.readUTF();
+		long snapshotId = dataIn.readLong();
+		for (TreeIndexCodec<?, ?> codec : codecs) {
+			if (codec.getDocumentType().name().equals(typeName)) {
+				TreeIndex<?, ?> index = codec.readIndex(dataIn);
+				index.setSnapshotId(snapshotId);
+				return index;
+			}
+		}
+		throw new IOException("Unsupported document type: " + typeName);
+	}
+
+	@NotNull
+	protected abstract DocumentType getDocumentType();
+
+	/**
+	 * Creates a folder without parent. If the given path is null, the folder
+	 * will be attached to its parent afterwards.
+	 */
+	@NotNull
+	protected abstract F createFolder(	@NotNull String name,
+										@Nullable String displayName,
+										@Nullable Path path,
+										@Nullable Long lastModified);
+
+	/**
+	 * Creates a document and adds it to the given parent folder.
+	 */
+	@NotNull
+	protected abstract D createDocument(@NotNull F parent,
+										@NotNull String name,
+										@Nullable String displayName,
+										long lastModified);
+
+	@NotNull
+	protected abstract TreeIndex<D, F> createIndex(	@NotNull F rootFolder,
+													long created,
+													@Nullable Path fileIndexDirPath);
+
+	/**
+	 * Writes data specific to the given index type. The default implementation
+	 * does nothing.
+	 */
+	protected void writeIndexExtras(@NotNull TreeIndex<D, F> index,
+									@NotNull DataOutput out)
+			throws IOException {
+	}
+
+	/**
+	 * Reads the data written by
+	 * {@link #writeIndexExtras(TreeIndex, DataOutput)}. The default
+	 * implementation does nothing.
+	 */
+	protected void readIndexExtras(	@NotNull TreeIndex<D, F> index,
+									@NotNull DataInput in)
+			throws IOException {
+	}
+
+	/**
+	 * Writes data specific to the given folder type. The default
+	 * implementation does nothing.
+	 */
+	protected void writeFolderExtras(	@NotNull F folder,
+										@NotNull DataOutput out)
+			throws IOException {
+	}
+
+	/**
+	 * Reads the data written by {@link #writeFolderExtras(Folder, DataOutput)}.
+	 * The default implementation does nothing.
+	 */
+	protected void readFolderExtras(@NotNull F folder,
+									@NotNull DataInput in)
+			throws IOException {
+	}
+
+	/**
+	 * Returns the folder tree attached to the given document, such as the
+	 * folder of an HTML file, or null if there is none.
+	 */
+	@Nullable
+	protected abstract F getAttachedFolder(@NotNull D doc);
+
+	/**
+	 * Attaches the given folder tree to the given document. This is only
+	 * called if {@link #getAttachedFolder(Document)} returned a folder when
+	 * the index was saved, so implementations for document types without
+	 * attached folders should treat the input as corrupted.
+	 */
+	protected abstract void setAttachedFolder(	@NotNull D doc,
+												@NotNull F folder)
+			throws IOException;
+
+	private void writeIndex(@NotNull TreeIndex<D, F> index,
+							@NotNull DataOutputStream out,
+							long snapshotId) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeUTF(getDocumentType().name());
+		out.writeLong(snapshotId);
+		out.writeLong(index.getCreated());
+		Path fileIndexDirPath = index.getFileIndexDirPath();
+		out.writeBoolean(fileIndexDirPath != null);
+		if (fileIndexDirPath != null)
+			writePath(out, fileIndexDirPath);
+		writeTree(index.getRootFolder(), out, new StringTable());
+		index.getConfig().writeTo(out);
+		writeIndexExtras(index, out);
+	}
+
+	@NotNull
+	private TreeIndex<D, F> readIndex(@NotNull DataInputStream in)
+			throws IOException {
+		long created = in.readLong();
+		Path fileIndexDirPath = in.readBoolean() ? readPath(in) : null;
+		F rootFolder = readTree(in, new StringTable());
+		TreeIndex<D, F> index = createIndex(rootFolder, created, fileIndexDirPath);
+		index.getConfig().readFrom(in);
+		readIndexExtras(index, in);
+		return index;
+	}
+
+	private void writeTree(	@NotNull F root,
+							@NotNull DataOutputStream out,
+							@NotNull StringTable strings) throws IOException {
+		Deque<Iterator<F>> stack = new ArrayDeque<Iterator<F>>();
+		stack.push(writeFolder(root, out, strings));
+		while (!stack.isEmpty()) {
+			Iterator<F> subFolders = stack.peek();
+			if (subFolders.hasNext())
+				stack.push(writeFolder(subFolders.next(), out, strings));
+			else
+				stack.pop();
+		}
+	}
+
+	/*
+	 * Writes the given folder and its documents, but not its subfolders.
+	 * Returns an iterator over the subfolders, which must be written next.
+	 */
+	@NotNull
+	private Iterator<F> writeFolder(@NotNull F folder,
+									@NotNull DataOutputStream out,
+									@NotNull StringTable strings)
+			throws IOException {
+		/*
+		 * Reset the change tracking before reading the folder's state, so that
+		 * concurrent changes will be picked up by the next save.
+		 */
+		folder.clearChanges();
+		boolean isRoot = folder.getParent() == null;
+		Long lastModified = folder.getLastModified();
+		List<IndexingError> errors = folder.getErrors();
+
+		String name = folder.getName();
+		strings.write(out, name);
+		strings.write(out, getRawDisplayName(folder));
+		int flags = 0;
+		if (folder.isChecked())
+			flags |= FOLDER_CHECKED;
+		if (lastModified != null)
+			flags |= FOLDER_LAST_MODIFIED;
+		if (!errors.isEmpty())
+			flags |= FOLDER_ERRORS;
+		if (isRoot)
+			flags |= FOLDER_ROOT;
+		out.writeByte(flags);
+		if (isRoot)
+			writePath(out, folder.getPath());
+		else
+			out.writeInt(folder.getPathHashCode());
+		if (lastModified != null)
+			out.writeLong(lastModified);
+		if (!errors.isEmpty())
+			writeErrors(out, errors, strings);
+		writeFolderExtras(folder, out);
+		writeDocuments(folder, out, strings);
+
+		List<F> subFolders = folder.getSubFolders();
+		writeVarInt(out, subFolders.size());
+		return subFolders.iterator();
+	}
+
+	private void writeDocuments(@NotNull F folder,
+								@NotNull DataOutputStream out,
+								@NotNull StringTable strings)
+			throws IOException {
+		List<D> docs = folder.getDocuments();
+		writeVarInt(out, docs.size());
+		for (D doc : docs) {
+			F attachedFolder = getAttachedFolder(doc);
+			List<IndexingError> docErrors = doc.getErrors();
+			strings.write(out, doc.getName());
+			strings.write(out, getRawDisplayName(doc));
+			int docFlags = 0;
+			if (!docErrors.isEmpty())
+				docFlags |= DOC_ERRORS;
+			if (attachedFolder != null)
+				docFlags |= DOC_ATTACHED_FOLDER;
+			out.writeByte(docFlags);
+			if (!docErrors.isEmpty())
+				writeErrors(out, docErrors, strings);
+			if (attachedFolder != null)
+				writeTree(attachedFolder, out, strings);
+		}
+		for (D doc : docs)
+			out.writeLong(doc.getLastModified());
+	}
+
+	@NotNull
+	private F readTree(	@NotNull DataInputStream in,
+						@NotNull StringTable strings) throws IOException {
+		Deque<Frame<F>> stack = new ArrayDeque<Frame<F>>();
+		Frame<F> root = readFolder(in, null, strings);
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			Frame<F> frame = stack.peek();
+			if (frame.remainingSubFolders > 0) {
+				frame.remainingSubFolders--;
+				stack.push(readFolder(in, frame.folder, strings));
+			}
+			else {
+				stack.pop();
+			}
+		}
+		return root.folder;
+	}
+
+	@NotNull
+	private Frame<F> readFolder(@NotNull DataInputStream in,
+								@Nullable F parent,
+								@NotNull StringTable strings)
+			throws IOException {
+		String name = readName(in, strings);
+		String displayName = strings.read(in);
+		int flags = in.readByte();
+		boolean isRoot = (flags & FOLDER_ROOT) != 0;
+		if (isRoot != (parent == null))
+			throw new IOException("Corrupted tree index file.");
+		Path path = isRoot ? readPath(in) : null;
+		int pathHashCode = isRoot ? 0 : in.readInt();
+		Long lastModified = (flags & FOLDER_LAST_MODIFIED) != 0
+			? Long.valueOf(in.readLong())
+			: null;
+
+		F folder = createFolder(name, displayName, path, lastModified);
+		folder.setChecked((flags & FOLDER_CHECKED) != 0);
+		if ((flags & FOLDER_ERRORS) != 0)
+			folder.setErrors(readErrors(in, folder, strings));
+		readFolderExtras(folder, in);
+		readDocuments(folder, in, strings);
+
+		/*
+		 * The folder is attached to its parent only after its content has been
+		 * read, so that the change tracking doesn't propagate to the parent.
+		 */
+		folder.clearChanges();
+		if (parent != null)
+			parent.attachSubFolder(folder, pathHashCode);
+		return new Frame<F>(folder, readVarInt(in));
+	}
+
+	private void readDocuments(	@NotNull F folder,
+								@NotNull DataInputStream in,
+								@NotNull StringTable strings)
+			throws IOException {
+		int docCount = readVarInt(in);
+		List<D> docs = new ArrayList<D>(docCount);
+		for (int i = 0; i < docCount; i++) {
+			String docName = readName(in, strings);
+			String docDisplayName = strings.read(in);
+			int docFlags = in.readByte();
+			D doc = createDocument(folder, docName, docDisplayName, -1);
+			if ((docFlags & DOC_ERRORS) != 0)
+				doc.setErrors(readErrors(in, doc, strings));
+			if ((docFlags & DOC_ATTACHED_FOLDER) != 0)
+				setAttachedFolder(doc, readTree(in, strings));
+			docs.add(doc);
+		}
+		for (D doc : docs)
+			doc.setLastModified(in.readLong());
+	}
+
+	private void writeChangeBatch(	@NotNull TreeIndex<D, F> index,
+									@NotNull DataOutputStream out)
+			throws IOException {
+		F rootFolder = index.getRootFolder();
+		writePath(out, rootFolder.getPath());
+		index.getConfig().writeTo(out);
+		writeIndexExtras(index, out);
+		StringTable strings = new StringTable();
+
+		/*
+		 * Walk down the paths to the changed folders. Parents are written
+		 * before their subfolders, so that added subfolders exist when their
+		 * records are applied.
+		 */
+		Deque<F> stack = new ArrayDeque<F>();
+		Deque<Boolean> writeAllStack = new ArrayDeque<Boolean>();
+		stack.push(rootFolder);
+		writeAllStack.push(false);
+		while (!stack.isEmpty()) {
+			F folder = stack.pop();
+			boolean writeAll = writeAllStack.pop() || folder.isAdded();
+			boolean isChanged = folder.isChanged();
+			boolean descend = writeAll || folder.hasChangedDescendants();
+			folder.clearChanges();
+			if (writeAll || isChanged) {
+				out.writeBoolean(true);
+				writeFolderRecord(folder, out, strings);
+			}
+			if (!descend)
+				continue;
+			for (F subFolder : folder.getSubFolders()) {
+				if (writeAll || subFolder.isAdded() || subFolder.isChanged()
+						|| subFolder.hasChangedDescendants()) {
+					stack.push(subFolder);
+					writeAllStack.push(writeAll);
+				}
+			}
+		}
+		out.writeBoolean(false);
+	}
+
+	private void writeFolderRecord(	@NotNull F folder,
+									@NotNull DataOutputStream out,
+									@NotNull StringTable strings)
+			throws IOException {
+		LinkedList<String> names = new LinkedList<String>();
+		for (F f = folder; f.getParent() != null; f = f.getParent())
+			names.addFirst(f.getName());
+		writeVarInt(out, names.size());
+		for (String name : names)
+			strings.write(out, name);
+
+		Long lastModified = folder.getLastModified();
+		List<IndexingError> errors = folder.getErrors();
+		strings.write(out, getRawDisplayName(folder));
+		int flags = 0;
+		if (folder.isChecked())
+			flags |= FOLDER_CHECKED;
+		if (lastModified != null)
+			flags |= FOLDER_LAST_MODIFIED;
+		if (!errors.isEmpty())
+			flags |= FOLDER_ERRORS;
+		out.writeByte(flags);
+		if (lastModified != null)
+			out.writeLong(lastModified);
+		if (!errors.isEmpty())
+			writeErrors(out, errors, strings);
+		writeFolderExtras(folder, out);
+		writeDocuments(folder, out, strings);
+
+		List<F> subFolders = folder.getSubFolders();
+		writeVarInt(out, subFolders.size());
+		for (F subFolder : subFolders)
+			strings.write(out, subFolder.getName());
+	}
+
+	private void readChangeBatch(	@NotNull TreeIndex<D, F> index,
+									@NotNull DataInputStream in)
+			throws IOException {
+		F rootFolder = index.getRootFolder();
+		Path rootPath = readPath(in);
+		if (!rootPath.equals(rootFolder.getPath()))
+			rootFolder.setPath(rootPath);
+		index.getConfig().readFrom(in);
+		readIndexExtras(index, in);
+		StringTable strings = new StringTable();
+		while (in.readBoolean())
+			readFolderRecord(rootFolder, in, strings);
+		clearChangesDeep(rootFolder);
+	}
+
+	private void readFolderRecord(	@NotNull F rootFolder,
+									@NotNull DataInputStream in,
+									@NotNull StringTable strings)
+			throws IOException {
+		F folder = rootFolder;
+		int depth = readVarInt(in);
+		for (int i = 0; i < depth; i++)
+			folder = getOrCreateSubFolder(folder, readName(in, strings));
+
+		folder.setDisplayName(strings.read(in));
+		int flags = in.readByte();
+		folder.setChecked((flags & FOLDER_CHECKED) != 0);
+		folder.setLastModified((flags & FOLDER_LAST_MODIFIED) != 0
+			? Long.valueOf(in.readLong())
+			: null);
+		folder.setErrors((flags & FOLDER_ERRORS) != 0
+			? readErrors(in, folder, strings)
+			: null);
+		readFolderExtras(folder, in);
+		folder.removeDocuments(Predicates.<D>alwaysTrue());
+		readDocuments(folder, in, strings);
+
+		int subFolderCount = readVarInt(in);
+		Set<String> subFolderNames = new HashSet<String>();
+		for (int i = 0; i < subFolderCount; i++)
+			subFolderNames.add(readName(in, strings));
+		for (F subFolder : folder.getSubFolders())
+			if (!subFolderNames.contains(subFolder.getName()))
+				folder.detachSubFolder(subFolder);
+		for (String name : subFolderNames)
+			getOrCreateSubFolder(folder, name);
+	}
+
+	/*
+	 * Note: The tree is modified without firing folder events, since changes
+	 * are only applied to indexes that aren't registered, and the listeners
+	 * might need the registry lock.
+	 */
+	@NotNull
+	private F getOrCreateSubFolder(@NotNull F parent, @NotNull String name) {
+		F subFolder = parent.getSubFolder(name);
+		if (subFolder == null) {
+			subFolder = createFolder(name, null, null, null);
+			parent.attachSubFolder(subFolder);
+		}
+		return subFolder;
+	}
+
+	// Resets the change tracking of all changed folders in the given tree
+	private static void clearChangesDeep(@NotNull Folder<?, ?> rootFolder) {
+		Deque<Folder<?, ?>> stack = new ArrayDeque<Folder<?, ?>>();
+		stack.push(rootFolder);
+		while (!stack.isEmpty()) {
+			Folder<?, ?> folder = stack.pop();
+			boolean descend = folder.isAdded()
+				|| folder.hasChangedDescendants();
+			folder.clearChanges();
+			if (!descend)
+				continue;
+			for (Folder<?, ?> subFolder : folder.getSubFolders())
+				if (subFolder.isAdded() || subFolder.isChanged()
+						|| subFolder.hasChangedDescendants())
+					stack.push(subFolder);
+		}
+	}
+
+	private static final class Frame<F> {
+		private final F folder;
+		private int remainingSubFolders;
+
+		private Frame(@NotNull F folder, int remainingSubFolders) {
+			this.folder = folder;
+			this.remainingSubFolders = remainingSubFolders;
+		}
+	}
+
+	// Returns null if the display name is the same as the name
+	@Nullable
+	private static String getRawDisplayName(@NotNull TreeNode node) {
+		String displayName = node.getDisplayName();
+		return displayName.equals(node.getName()) ? null : displayName;
+	}
+
+	@NotNull
+	private static String readName(	@NotNull DataInput in,
+									@NotNull StringTable strings)
+			throws IOException {
+		String name = strings.read(in);
+		if (name == null)
+			throw new IOException("Corrupted tree index file.");
+		return name;
+	}
+
+	private static void writePath(@NotNull DataOutput out, @NotNull Path path)
+			throws IOException {
+		out.writeUTF(path.getPath());
+		out.writeUTF(path.getName());
+	}
+
+	@NotNull
+	private static Path readPath(@NotNull DataInput in) throws IOException {
+		String path = in.readUTF();
+		return Path.restore(path, in.readUTF());
+	}
+
+	private static void writeErrors(@NotNull DataOutput out,
+									@NotNull List<IndexingError> errors,
+									@NotNull StringTable strings)
+			throws IOException {
+		writeVarInt(out, errors.size());
+		for (IndexingError error : errors) {
+			strings.write(out, error.getErrorType().name());
+			byte[] throwable = serialize(error.getThrowable());
+			writeVarInt(out, throwable.length);
+			out.write(throwable);
+		}
+	}
+
+	@NotNull
+	private static List<IndexingError> readErrors(	@NotNull DataInput in,
+													@NotNull TreeNode treeNode,
+													@NotNull StringTable strings)
+			throws IOException {
+		int count = readVarInt(in);
+		List<IndexingError> errors = new ArrayList<IndexingError>(count);
+		for (int i = 0; i < count; i++) {
+			ErrorType errorType;
+			try {
+				errorType = ErrorType.valueOf(readName(in, strings));
+			}
+			catch (IllegalArgumentException e) {
+				throw new IOException(e);
+			}
+			byte[] throwable = new byte[readVarInt(in)];
+			in.readFully(throwable);
+			errors.add(new IndexingError(
+				errorType, treeNode, deserialize(throwable)));
+		}
+		return errors;
+	}
+
+	/*
+	 * Throwables are stored with Java serialization, since they may be of any
+	 * type. If this fails, e.g. because the throwable holds a reference to a
+	 * non-serializable object, the throwable is omitted.
+	 */
+	@NotNull
+	private static byte[] serialize(@Nullable Throwable throwable) {
+		if (throwable == null)
+			return new byte[0];
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(throwable);
+			out.close();
+			return bytes.toByteArray();
+		}
+		catch (IOException e) {
+			return new byte[0];
+		}
+	}
+
+	@Nullable
+	private static Throwable deserialize(@NotNull byte[] bytes) {
+		if (bytes.length == 0)
+			return null;
+		try {
+			ObjectInputStream in = new ObjectInputStream(
+				new ByteArrayInputStream(bytes));
+			return (Throwable) in.readObject();
+		}
+		catch (Exception e) {
+			return null;
+		}
+	}
+
+	private static void writeVarInt(@NotNull DataOutput out, int value)
+			throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static int readVarInt(@NotNull DataInput in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Corrupted tree index file.");
+	}
+
+	/**
+	 * Writes strings that occur repeatedly only once, and reads them back. A
+	 * string is written as a number, which is 0 for null, 1 for a new string
+	 * that follows in full, and the table index plus 2 for a string that was
+	 * written before. Writer and reader add new strings to their tables in the
+	 * same order and up to the same limit, so the tables never have to be
+	 * saved.
+	 */
+	@NotThreadSafe
+	private static final class StringTable {
+		private final Map<String, Integer> ids = Maps.newHashMap();
+		private final List<String> strings = new ArrayList<String>();
+
+		public void write(@NotNull DataOutput out, @Nullable String string)
+				throws IOException {
+			if (string == null) {
+				writeVarInt(out, 0);
+				return;
+			}
+			Integer id = ids.get(string);
+			if (id != null) {
+				writeVarInt(out, id + 2);
+				return;
+			}
+			writeVarInt(out, 1);
+			out.writeUTF(string);
+			if (ids.size() < MAX_STRINGS)
+				ids.put(string, ids.size());
+		}
+
+		@Nullable
+		public String read(@NotNull DataInput in) throws IOException {
+			int id = readVarInt(in);
+			if (id == 0)
+				return null;
+			if (id == 1) {
+				String string = in.readUTF();
+				if (strings.size() < MAX_STRINGS)
+					strings.add(string);
+				return string;
+			}
+			if (id - 2 >= strings.size())
+				throw new IOException("Corrupted tree index file.");
+			return strings.get(id - 2);
+		}
+	}
+
+}
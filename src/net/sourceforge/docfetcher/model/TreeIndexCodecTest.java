@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import net.sourceforge.docfetcher.model.index.IndexingConfig;
+import net.sourceforge.docfetcher.model.index.IndexingError;
+import net.sourceforge.docfetcher.model.index.IndexingError.ErrorType;
+import net.sourceforge.docfetcher.model.index.PatternAction;
+import net.sourceforge.docfetcher.model.index.PatternAction.MatchAction;
+import net.sourceforge.docfetcher.model.index.PatternAction.MatchTarget;
+import net.sourceforge.docfetcher.model.index.file.FileDocument;
+import net.sourceforge.docfetcher.model.index.file.FileFolder;
+import net.sourceforge.docfetcher.model.index.file.FileIndex;
+import net.sourceforge.docfetcher.model.index.file.FileIndexCodec;
+import net.sourceforge.docfetcher.model.index.outlook.OutlookIndexCodec;
+import net.sourceforge.docfetcher.util.AppUtil;
+import net.sourceforge.docfetcher.util.Util;
+
+import org.junit.Test;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class TreeIndexCodecTest {
+
+	static {
+		AppUtil.Const.autoInit();
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		FileIndex index = createIndex();
+		FileIndex loaded = roundTrip(index);
+		assertEquals(dump(index), dump(loaded));
+		assertEquals(index.getCreated(), loaded.getCreated());
+
+		IndexingConfig config = loaded.getConfig();
+		assertFalse(config.isHtmlPairing());
+		assertEquals(Arrays.asList("zip", "jar"), config.getZipExtensions());
+		assertEquals(1, config.getPatternActions().size());
+		assertEquals(".*\\.log", config.getPatternActions().get(0).getRegex());
+
+		FileFolder sub = loaded.getRootFolder().getSubFolder("sub");
+		assertTrue(sub.isScanUnchanged(5000L, 1, 77L));
+		assertFalse(sub.isScanUnchanged(5001L, 1, 77L));
+		assertFalse(loaded.getRootFolder().isScanUnchanged(0, 0, 0));
+		FileDocument doc = sub.getDocument("x.txt");
+		IndexingError error = doc.getErrors().get(0);
+		assertTrue(error.getTreeNode() == doc);
+		assertEquals("broken", error.getThrowable().getMessage());
+	}
+
+	@Test
+	public void testDeepTree() throws Exception {
+		FileIndex index = new FileIndex(null, Util.createTempDir());
+		FileFolder folder = index.getRootFolder();
+		int depth = 5000;
+		for (int i = 0; i < depth; i++)
+			folder = new FileFolder(folder, "f" + i, null);
+		new FileDocument(folder, "leaf.txt", 1L);
+		int pathHashCode = ((Folder<?, ?>) folder).getPathHashCode();
+
+		folder = roundTrip(index).getRootFolder();
+		for (int i = 0; i < depth; i++)
+			folder = folder.getSubFolder("f" + i);
+		assertEquals(pathHashCode, ((Folder<?, ?>) folder).getPathHashCode());
+		assertEquals(1L, folder.getDocument("leaf.txt").getLastModified());
+	}
+
+	@Test
+	public void testLegacyMigration() throws Exception {
+		FileIndex index = createIndex();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(index);
+		out.close();
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+			bytes.toByteArray()));
+		FileIndex legacyIndex = (FileIndex) in.readObject();
+
+		assertEquals(dump(index), dump(roundTrip(legacyIndex)));
+	}
+
+	@Test(expected = IOException.class)
+	public void testInvalidFile() throws Exception {
+		byte[] bytes = "not a tree index".getBytes("UTF-8");
+		TreeIndexCodec.load(
+			new ByteArrayInputStream(bytes), FileIndexCodec.instance,
+			OutlookIndexCodec.instance);
+	}
+
+	static FileIndex createIndex() throws IOException {
+		File rootDir = Util.createTempDir();
+		FileIndex index = new FileIndex(null, rootDir);
+		IndexingConfig config = index.getConfig();
+		config.setHtmlPairing(false);
+		config.setZipExtensions(Arrays.asList("zip", "jar"));
+		config.setPatternActions(Collections.singletonList(new PatternAction(
+			".*\\.log", MatchTarget.FILENAME, MatchAction.EXCLUDE)));
+
+		FileFolder root = index.getRootFolder();
+		FileFolder sub = new FileFolder(root, "sub", null);
+		sub.setChecked(false);
+		sub.setScanState(5000L, 1, 77L);
+		FileDocument doc = new FileDocument(sub, "x.txt", 1000L);
+		doc.setError(new IndexingError(
+			ErrorType.PARSING, doc, new Exception("broken")));
+
+		FileFolder archive = new FileFolder(root, "a.zip", 42L);
+		new FileDocument(archive, "x.txt", 1001L);
+		new FileDocument(new FileFolder(archive, "sub", null), "y.txt", 1002L);
+
+		FileDocument htmlDoc = new FileDocument(root, "page.html", 2000L);
+		FileFolder htmlFolder = new FileFolder(
+			new Path(new File(rootDir, "page_files")), null);
+		new FileDocument(htmlFolder, "image.txt", 3L);
+		htmlDoc.setHtmlFolder(htmlFolder);
+		return index;
+	}
+
+	private static FileIndex roundTrip(FileIndex index) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TreeIndexCodec.save(index, out, 1);
+		return (FileIndex) TreeIndexCodec.load(
+			new ByteArrayInputStream(out.toByteArray()),
+			OutlookIndexCodec.instance, FileIndexCodec.instance);
+	}
+
+	static String dump(FileIndex index) {
+		StringBuilder sb = new StringBuilder();
+		dump(index.getRootFolder(), sb);
+		return sb.toString();
+	}
+
+	private static void dump(FileFolder folder, StringBuilder sb) {
+		sb.append(folder.getPath()).append(' ');
+		sb.append(((Folder<?, ?>) folder).getPathHashCode());
+		sb.append(' ').append(folder.getDisplayName());
+		sb.append(' ').append(folder.getLastModified());
+		sb.append(' ').append(folder.isChecked());
+		dumpErrors(folder, sb);
+		for (FileDocument doc : folder.getDocuments()) {
+			sb.append(doc.getUniqueId()).append(' ').append(doc.getLastModified());
+			dumpErrors(doc, sb);
+			if (doc.getHtmlFolder() != null)
+				dump(doc.getHtmlFolder(), sb);
+		}
+		for (FileFolder subFolder : folder.getSubFolders())
+			dump(subFolder, sb);
+	}
+
+	private static void dumpErrors(TreeNode node, StringBuilder sb) {
+		for (IndexingError error : node.getErrors())
+			sb.append(' ').append(error.getErrorType()).append(
+				error.getLocalizedMessage());
+		sb.append('\n');
+	}
+
+}
@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+
+import com.google.common.io.Closeables;
+
+/**
+ * An append-only journal of the changes made to a tree index since its tree
+ * index file was last written in full. Instead of rewriting the entire tree
+ * after each index update, the folders that changed are appended to the
+ * journal as a batch, so that the cost of saving depends on the size of the
+ * change rather than on the size of the index.
+ * <p>
+ * The journal starts with a header containing the ID of the tree index file it
+ * belongs to. Each batch is prefixed with its length and followed by a
+ * checksum, and is forced to disk after writing. When the journal is replayed,
+ * it is read up to the first incomplete or damaged batch, so a crash during
+ * an append loses at most the batch being written. A journal whose ID doesn't
+ * match the tree index file is left over from an interrupted compaction and
+ * must be discarded.
+ * <p>
+ * The journal is compacted, i.e. the tree index file is rewritten and the
+ * journal deleted, when it would grow beyond half the size of the tree index
+ * file.
+ *
+ * @author Tran Nam Quang
+ */
+final class TreeIndexJournal {
+
+	public static final String FILENAME = "tree-index.journal";
+
+	private static final int MAGIC = 0x4446544A; // "DFTJ"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+	private static final int MAX_SIZE_PERCENT = 50;
+
+	private static final Random random = new Random();
+
+	private TreeIndexJournal() {
+	}
+
+	/**
+	 * Returns a new random ID for a tree index file.
+	 */
+	public static synchronized long createSnapshotId() {
+		long id;
+		do {
+			id = random.nextLong();
+		} while (id == 0);
+		return id;
+	}
+
+	/**
+	 * Appends the changes made to the given index since it was last saved or
+	 * loaded to the given journal file. Returns false if the changes couldn't
+	 * be appended, e.g. because the journal would grow too large, in which
+	 * case the index must be saved in full.
+	 *
+	 * @param snapshotSize
+	 *            the size of the tree index file the journal belongs to
+	 */
+	public static boolean append(	@NotNull LuceneIndex index,
+									@NotNull File journalFile,
+									long snapshotSize) {
+		TreeIndex<?, ?> treeIndex = (TreeIndex<?, ?>) index;
+		long snapshotId = treeIndex.getSnapshotId();
+		long journalLength = treeIndex.getJournalLength();
+		if (snapshotId == 0 || journalFile.length() != journalLength)
+			return false;
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			if (journalLength == 0) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(snapshotId);
+			}
+			ByteArrayOutputStream batch = new ByteArrayOutputStream();
+			TreeIndexCodec.writeChanges(index, new DataOutputStream(batch));
+			byte[] batchBytes = batch.toByteArray();
+			CRC32 crc = new CRC32();
+			crc.update(batchBytes);
+			out.writeInt(batchBytes.length);
+			out.write(batchBytes);
+			out.writeLong(crc.getValue());
+		}
+		catch (IOException e) {
+			return false;
+		}
+
+		long newLength = journalLength + bytes.size();
+		if (newLength > snapshotSize * MAX_SIZE_PERCENT / 100)
+			return false;
+
+		RandomAccessFile file = null;
+		try {
+			file = new RandomAccessFile(journalFile, "rw");
+			file.seek(journalLength);
+			file.write(bytes.toByteArray());
+			file.getChannel().force(false);
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		finally {
+			Closeables.closeQuietly(file);
+		}
+		treeIndex.setJournalLength(newLength);
+		return true;
+	}
+
+	/**
+	 * Returns whether the given journal file contains changes that haven't
+	 * been applied to the given index, or has been replaced or deleted.
+	 */
+	public static boolean hasNewChanges(@NotNull LuceneIndex index,
+										@NotNull File journalFile) {
+		long journalLength = ((TreeIndex<?, ?>) index).getJournalLength();
+		return journalFile.length() != journalLength;
+	}
+
+	/**
+	 * Applies the batches in the given journal file that haven't been applied
+	 * to the given index yet. Returns false if the journal doesn't belong to
+	 * the tree index file the index was loaded from.
+	 */
+	public static boolean replay(	@NotNull LuceneIndex index,
+									@NotNull File journalFile)
+			throws IOException {
+		TreeIndex<?, ?> treeIndex = (TreeIndex<?, ?>) index;
+		long offset = treeIndex.getJournalLength();
+		long length = journalFile.length(); // 0 if the file doesn't exist
+		if (length == offset)
+			return true;
+		if (length < offset)
+			return false;
+
+		byte[] bytes = new byte[(int) (length - offset)];
+		RandomAccessFile file = new RandomAccessFile(journalFile, "r");
+		try {
+			file.seek(offset);
+			file.readFully(bytes);
+		}
+		finally {
+			Closeables.closeQuietly(file);
+		}
+
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		if (offset == 0) {
+			if (buffer.remaining() < HEADER_SIZE)
+				return true; // Header incomplete, nothing to apply
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+				return false;
+			if (buffer.getLong() != treeIndex.getSnapshotId())
+				return false;
+		}
+
+		CRC32 crc = new CRC32();
+		while (buffer.remaining() >= 4) {
+			int start = buffer.position();
+			int batchLength = buffer.getInt();
+			if (batchLength < 0 || buffer.remaining() < batchLength + 8)
+				break; // Incomplete batch
+			crc.reset();
+			crc.update(bytes, start + 4, batchLength);
+			buffer.position(start + 4 + batchLength);
+			if (buffer.getLong() != crc.getValue())
+				break; // Damaged batch
+			TreeIndexCodec.readChanges(index, new DataInputStream(
+				new ByteArrayInputStream(bytes, start + 4, batchLength)));
+			treeIndex.setJournalLength(offset + buffer.position());
+		}
+		if (offset == 0 && treeIndex.getJournalLength() == 0)
+			treeIndex.setJournalLength(HEADER_SIZE);
+		return true;
+	}
+
+}
@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import net.sourceforge.docfetcher.model.index.file.FileDocument;
+import net.sourceforge.docfetcher.model.index.file.FileFolder;
+import net.sourceforge.docfetcher.model.index.file.FileIndex;
+import net.sourceforge.docfetcher.model.index.file.FileIndexCodec;
+import net.sourceforge.docfetcher.util.AppUtil;
+import net.sourceforge.docfetcher.util.Util;
+
+import org.junit.Test;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class TreeIndexJournalTest {
+
+	static {
+		AppUtil.Const.autoInit();
+	}
+
+	private static final long SNAPSHOT_SIZE = 1 << 20;
+
+	@Test
+	public void testReplay() throws Exception {
+		FileIndex index = TreeIndexCodecTest.createIndex();
+		byte[] snapshot = takeSnapshot(index, 1);
+		File journalFile = createJournalFile();
+
+		FileFolder root = index.getRootFolder();
+		new FileDocument(root, "new.txt", 5L);
+		root.getSubFolder("sub").getDocument("x.txt").setLastModified(1L);
+		assertTrue(TreeIndexJournal.append(index, journalFile, SNAPSHOT_SIZE));
+
+		root.removeSubFolder(root.getSubFolder("a.zip"));
+		FileFolder added = new FileFolder(root, "added", 7L);
+		new FileDocument(new FileFolder(added, "deep", null), "z.txt", 8L);
+		assertTrue(TreeIndexJournal.append(index, journalFile, SNAPSHOT_SIZE));
+
+		FileIndex loaded = load(snapshot);
+		assertTrue(TreeIndexJournal.replay(loaded, journalFile));
+		assertEquals(TreeIndexCodecTest.dump(index), TreeIndexCodecTest.dump(loaded));
+		assertFalse(TreeIndexJournal.hasNewChanges(loaded, journalFile));
+
+		// Changes appended by another instance are applied incrementally
+		root.getSubFolder("sub").setChecked(true);
+		assertTrue(TreeIndexJournal.append(index, journalFile, SNAPSHOT_SIZE));
+		assertTrue(TreeIndexJournal.hasNewChanges(loaded, journalFile));
+		assertTrue(TreeIndexJournal.replay(loaded, journalFile));
+		assertEquals(TreeIndexCodecTest.dump(index), TreeIndexCodecTest.dump(loaded));
+	}
+
+	@Test
+	public void testIncompleteBatch() throws Exception {
+		FileIndex index = TreeIndexCodecTest.createIndex();
+		byte[] snapshot = takeSnapshot(index, 1);
+		File journalFile = createJournalFile();
+
+		new FileDocument(index.getRootFolder(), "first.txt", 1L);
+		assertTrue(TreeIndexJournal.append(index, journalFile, SNAPSHOT_SIZE));
+		String expected = TreeIndexCodecTest.dump(index);
+		long length = journalFile.length();
+
+		new FileDocument(index.getRootFolder(), "second.txt", 2L);
+		assertTrue(TreeIndexJournal.append(index, journalFile, SNAPSHOT_SIZE));
+		truncate(journalFile, journalFile.length() - 3);
+
+		FileIndex loaded = load(snapshot);
+		assertTrue(TreeIndexJournal.replay(loaded, journalFile));
+		assertEquals(expected, TreeIndexCodecTest.dump(loaded));
+		assertEquals(length, ((TreeIndex<?, ?>) loaded).getJournalLength());
+	}
+
+	@Test
+	public void testSnapshotMismatch() throws Exception {
+		FileIndex index = TreeIndexCodecTest.createIndex();
+		takeSnapshot(index, 1);
+		File journalFile = createJournalFile();
+		new FileDocument(index.getRootFolder(), "new.txt", 1L);
+		assertTrue(TreeIndexJournal.append(index, journalFile, SNAPSHOT_SIZE));
+
+		FileIndex other = TreeIndexCodecTest.createIndex();
+		byte[] otherSnapshot = takeSnapshot(other, 2);
+		assertFalse(TreeIndexJournal.replay(load(otherSnapshot), journalFile));
+
+		// Appending to a journal that was modified elsewhere must fail
+		truncate(journalFile, 0);
+		new FileDocument(index.getRootFolder(), "other.txt", 1L);
+		assertFalse(TreeIndexJournal.append(index, journalFile, SNAPSHOT_SIZE));
+	}
+
+	@Test
+	public void testSizeLimit() throws Exception {
+		FileIndex index = TreeIndexCodecTest.createIndex();
+		takeSnapshot(index, 1);
+		File journalFile = createJournalFile();
+		new FileDocument(index.getRootFolder(), "new.txt", 1L);
+		assertFalse(TreeIndexJournal.append(index, journalFile, 10));
+		assertEquals(0, journalFile.length());
+	}
+
+	private static byte[] takeSnapshot(FileIndex index, long snapshotId)
+			throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TreeIndexCodec.save(index, out, snapshotId);
+		TreeIndex<?, ?> treeIndex = index;
+		treeIndex.setSnapshotId(snapshotId);
+		treeIndex.setJournalLength(0);
+		return out.toByteArray();
+	}
+
+	private static FileIndex load(byte[] snapshot) throws IOException {
+		return (FileIndex) TreeIndexCodec.load(
+			new ByteArrayInputStream(snapshot), FileIndexCodec.instance);
+	}
+
+	private static File createJournalFile() throws IOException {
+		return new File(Util.createTempDir(), TreeIndexJournal.FILENAME);
+	}
+
+	private static void truncate(File file, long length) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(length);
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+}
@@ -0,0 +1,299 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.index;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.sourceforge.docfetcher.model.parse.ParseException;
+import net.sourceforge.docfetcher.model.parse.ParseResult;
+import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.NotThreadSafe;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
+import net.sourceforge.docfetcher.util.annotations.VisibleForPackageGroup;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A bounded producer/consumer pipeline for text extraction. The indexing thread
+ * submits jobs, a pool of worker threads runs the parse tasks of the jobs, and
+ * the finished jobs are handed back to the indexing thread via
+ * {@link #complete(Job)} in submission order.
+ * <p>
+ * The number of submitted but not yet completed jobs is bounded, so the memory
+ * held by pending parse results doesn't grow with the size of the index. The
+ * total size of the files parsed by the pending jobs is bounded as well, since
+ * many parsers load the entire file into memory.
+ *
+ * @author Tran Nam Quang
+ */
+@NotThreadSafe
+@VisibleForPackageGroup
+public abstract class BoundedParsePipeline<J extends BoundedParsePipeline.Job>
+		implements Closeable {
+
+	private final ExecutorService executor;
+	private final int capacity;
+	private final long maxPendingBytes;
+	private final LinkedList<J> pending = new LinkedList<J>();
+	private long pendingBytes = 0;
+
+	protected BoundedParsePipeline(int threadCount, long maxPendingBytes) {
+		Util.checkThat(threadCount > 1 && maxPendingBytes > 0);
+		this.capacity = threadCount * 2;
+		this.maxPendingBytes = maxPendingBytes;
+		executor = Executors.newFixedThreadPool(
+			threadCount,
+			new ThreadFactoryBuilder()
+				.setNameFormat(getClass().getName() + " (parser %d)")
+				.setDaemon(true)
+				.build());
+	}
+
+	/**
+	 * Submits the parse tasks of the given job. If the pipeline is full, this
+	 * method blocks until enough pending jobs have been completed. Jobs whose
+	 * parse tasks have all finished are completed before this method returns.
+	 */
+	protected final void submit(@NotNull J job) throws IndexingException {
+		/*
+		 * Make room for the new job before its tasks are submitted, so that
+		 * they aren't run at the same time as the jobs that exceed the budget.
+		 * A job that exceeds the budget on its own is run when the pipeline is
+		 * empty.
+		 */
+		while (!pending.isEmpty()
+				&& pendingBytes + job.size > maxPendingBytes)
+			completeFirst();
+
+		for (ParseTask task : job.tasks)
+			task.future = executor.submit(task);
+		pending.add(job);
+		pendingBytes += job.size;
+		while (pending.size() > capacity)
+			completeFirst();
+		writeFinished();
+	}
+
+	/**
+	 * Completes all pending jobs whose parse tasks have finished, stopping at
+	 * the first job with tasks that are still running.
+	 */
+	public final void writeFinished() throws IndexingException {
+		while (!pending.isEmpty() && pending.getFirst().isDone())
+			completeFirst();
+	}
+
+	/**
+	 * Blocks until all pending jobs have been parsed and completed.
+	 */
+	public final void flush() throws IndexingException {
+		while (!pending.isEmpty())
+			completeFirst();
+	}
+
+	private void completeFirst() throws IndexingException {
+		J job = pending.removeFirst();
+		pendingBytes -= job.size;
+		complete(job);
+	}
+
+	/**
+	 * Handles the given job after all its parse tasks have finished. This is
+	 * called on the indexing thread, in submission order. Implementations are
+	 * responsible for the parse results of the job's tasks.
+	 */
+	protected abstract void complete(@NotNull J job) throws IndexingException;
+
+	/**
+	 * Handles the given job when it is discarded by {@link #close()}, e.g. by
+	 * marking its documents as modified. The parse tasks of the job have
+	 * already been discarded at this point.
+	 */
+	protected abstract void discard(@NotNull J job);
+
+	/**
+	 * Shuts down the worker threads. Jobs that are still pending at this point
+	 * are discarded, which only happens if the indexing was aborted by an
+	 * exception; in all other cases the pipeline should be flushed first.
+	 * <p>
+	 * This method doesn't wait for parse tasks that are still running; they
+	 * release their resources on the worker threads when they have finished.
+	 */
+	public final void close() {
+		for (J job : pending) {
+			for (ParseTask task : job.tasks) {
+				task.discard();
+				task.future.cancel(false);
+			}
+			discard(job);
+		}
+		pending.clear();
+		pendingBytes = 0;
+		executor.shutdown();
+	}
+
+	/**
+	 * A unit of work of the pipeline, consisting of zero or more parse tasks
+	 * that are run on the worker threads.
+	 */
+	public static class Job {
+		// Package-private, since private members can't be accessed via J
+		final List<ParseTask> tasks = new ArrayList<ParseTask>(2);
+		long size = 0;
+
+		/**
+		 * Adds the given parse task to the receiver. The given size is the
+		 * size of the file parsed by the task, which is counted against the
+		 * budget of the pipeline.
+		 */
+		protected final void addTask(@NotNull ParseTask task, long size) {
+			tasks.add(Util.checkNotNull(task));
+			this.size += size;
+		}
+
+		boolean isDone() {
+			for (ParseTask task : tasks)
+				if (!task.future.isDone())
+					return false;
+			return true;
+		}
+	}
+
+	/**
+	 * A text extraction that is run on a worker thread.
+	 */
+	public static abstract class ParseTask implements Callable<ParseResult> {
+		@Nullable private Future<ParseResult> future;
+
+		// Guarded by this task; see discard()
+		private boolean isStarted = false;
+		private boolean isFinished = false;
+		private boolean isDiscarded = false;
+		@Nullable private ParseResult result;
+
+		/**
+		 * Extracts the text. This is called on a worker thread, so it must not
+		 * access the document tree.
+		 */
+		@NotNull
+		protected abstract ParseResult parse() throws Exception;
+
+		/**
+		 * Releases the resources held by the receiver, such as temporary input
+		 * files, after it has been discarded. This is called exactly once,
+		 * either on the indexing thread or, if the receiver was running when it
+		 * was discarded, on the worker thread. The default implementation does
+		 * nothing.
+		 */
+		@ThreadSafe
+		protected void release() {
+		}
+
+		public final ParseResult call() throws Exception {
+			synchronized (this) {
+				if (isDiscarded)
+					return null;
+				isStarted = true;
+			}
+			ParseResult result = null;
+			try {
+				result = parse();
+				return result;
+			}
+			finally {
+				boolean release;
+				synchronized (this) {
+					isFinished = true;
+					this.result = result;
+					release = isDiscarded;
+				}
+				if (release)
+					release(result);
+			}
+		}
+
+		/*
+		 * Marks the task as discarded and releases its resources. If the task
+		 * is still running, this is left to the worker thread. The return
+		 * value of Future.cancel can't be used for this, since it also returns
+		 * true for running tasks.
+		 */
+		private void discard() {
+			ParseResult result;
+			synchronized (this) {
+				isDiscarded = true;
+				if (isStarted && !isFinished)
+					return;
+				result = this.result;
+			}
+			release(result);
+		}
+
+		private void release(@Nullable ParseResult result) {
+			try {
+				if (result != null)
+					result.dispose();
+			}
+			finally {
+				release();
+			}
+		}
+
+		/**
+		 * Waits for the task to finish and returns its parse result. Must
+		 * only be called from {@link BoundedParsePipeline#complete(Job)}.
+		 */
+		@NotNull
+		public final ParseResult getResult() throws ParseException,
+				CheckedOutOfMemoryError {
+			boolean interrupted = false;
+			try {
+				while (true) {
+					try {
+						return future.get();
+					}
+					catch (InterruptedException e) {
+						interrupted = true;
+					}
+					catch (ExecutionException e) {
+						Throwable cause = e.getCause();
+						if (cause instanceof ParseException)
+							throw (ParseException) cause;
+						if (cause instanceof CheckedOutOfMemoryError)
+							throw (CheckedOutOfMemoryError) cause;
+						if (cause instanceof RuntimeException)
+							throw (RuntimeException) cause;
+						if (cause instanceof Error)
+							throw (Error) cause;
+						throw new IllegalStateException(cause);
+					}
+				}
+			}
+			finally {
+				if (interrupted)
+					Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+}
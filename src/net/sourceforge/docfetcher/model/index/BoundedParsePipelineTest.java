@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sourceforge.docfetcher.model.parse.ParseResult;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+
+import org.junit.Test;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class BoundedParsePipelineTest {
+
+	@Test
+	public void testSubmissionOrder() throws Exception {
+		TestPipeline pipeline = new TestPipeline();
+		try {
+			for (int i = 0; i < 20; i++)
+				pipeline.submit(new TestJob("text" + i, null, null));
+			pipeline.flush();
+			assertEquals(20, pipeline.completed.size());
+			for (int i = 0; i < 20; i++)
+				assertEquals("text" + i, pipeline.completed.get(i));
+		}
+		finally {
+			pipeline.close();
+		}
+	}
+
+	/**
+	 * Checks that closing the pipeline releases the tasks that haven't been
+	 * completed exactly once, including tasks that are still running, which
+	 * are released by the worker threads when they have finished.
+	 */
+	@Test
+	public void testCloseWhileRunning() throws Exception {
+		CountDownLatch started = new CountDownLatch(2);
+		CountDownLatch resumed = new CountDownLatch(1);
+		TestPipeline pipeline = new TestPipeline();
+		TestJob[] jobs = new TestJob[4];
+		for (int i = 0; i < jobs.length; i++) {
+			jobs[i] = i < 2
+				? new TestJob("text" + i, started, resumed)
+				: new TestJob("text" + i, null, null);
+			pipeline.submit(jobs[i]);
+		}
+		assertTrue(started.await(30, TimeUnit.SECONDS));
+		pipeline.close();
+		assertEquals(4, pipeline.discardCount.get());
+
+		resumed.countDown();
+		for (TestJob job : jobs)
+			assertTrue(job.released.await(30, TimeUnit.SECONDS));
+		Thread.sleep(100);
+		for (TestJob job : jobs)
+			assertEquals(1, job.releaseCount.get());
+		assertEquals(0, pipeline.completed.size());
+	}
+
+	private static final class TestPipeline extends BoundedParsePipeline<TestJob> {
+		private final List<String> completed = new CopyOnWriteArrayList<String>();
+		private final AtomicInteger discardCount = new AtomicInteger();
+
+		public TestPipeline() {
+			super(2, 1000);
+		}
+
+		protected void complete(@NotNull TestJob job) {
+			try {
+				completed.add(job.task.getResult().getContent().toString());
+			}
+			catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		protected void discard(@NotNull TestJob job) {
+			discardCount.incrementAndGet();
+		}
+	}
+
+	private static final class TestJob extends BoundedParsePipeline.Job {
+		private final CountDownLatch released = new CountDownLatch(1);
+		private final AtomicInteger releaseCount = new AtomicInteger();
+		private final BoundedParsePipeline.ParseTask task;
+
+		public TestJob(	@NotNull final String text,
+						@Nullable final CountDownLatch started,
+						@Nullable final CountDownLatch resumed) {
+			task = new BoundedParsePipeline.ParseTask() {
+				protected ParseResult parse() throws Exception {
+					if (started != null) {
+						started.countDown();
+						Uninterruptibles.awaitUninterruptibly(
+							resumed, 30, TimeUnit.SECONDS);
+					}
+					return new ParseResult(text);
+				}
+				protected void release() {
+					releaseCount.incrementAndGet();
+					released.countDown();
+				}
+			};
+			addTask(task, 10);
+		}
+	}
+
+}
@@ -13,16 +13,17 @@ package net.sourceforge.docfetcher.model.index;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
 
 import net.sourceforge.docfetcher.model.Fields;
-import net.sourceforge.docfetcher.model.IndexRegistry;
 import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
+import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
 import net.sourceforge.docfetcher.util.annotations.VisibleForPackageGroup;
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.store.Directory;
 
@@ -38,19 +39,75 @@ public final class IndexWriterAdapter implements Closeable {
 	
 	public static final Term idTerm = new Term(Fields.UID.key());
 	
+	/*
+	 * The commit data key that marks periodic commits. If the last commit of
+	 * an index carries this marker, the update that made it didn't finish, so
+	 * the index may contain documents that the tree index doesn't know about.
+	 */
+	private static final String PERIODIC_COMMIT_KEY = "periodic-commit";
+	
 	@NotNull private IndexWriter writer;
+	private final IndexingProfile profile;
+	private final boolean isRebuild;
+	private long lastCommit = System.currentTimeMillis();
+	
+	/*
+	 * Whether documents are added via updateDocument rather than addDocument,
+	 * so that documents committed by an unfinished earlier update are replaced
+	 * instead of duplicated.
+	 */
+	private final boolean replaceOnAdd;
+	private boolean hasPeriodicCommit;
 
+	/**
+	 * Creates an IndexWriter adapter with the indexing profile from the
+	 * program configuration, for an index update.
+	 */
 	public IndexWriterAdapter(@NotNull Directory luceneDir) throws IOException {
-		IndexWriterConfig config
-				= new IndexWriterConfig(IndexRegistry.getAnalyzer());
-		writer = new IndexWriter(luceneDir, config);
+		this(luceneDir, false);
+	}
+
+	/**
+	 * Creates an IndexWriter adapter with the indexing profile from the
+	 * program configuration. The given flag indicates whether the index is
+	 * built from scratch, i.e. by an index creation or rebuild.
+	 */
+	public IndexWriterAdapter(	@NotNull Directory luceneDir,
+								boolean isRebuild) throws IOException {
+		this(luceneDir, IndexingProfile.fromProgramConf(), isRebuild);
+	}
+
+	public IndexWriterAdapter(	@NotNull Directory luceneDir,
+								@NotNull IndexingProfile profile,
+								boolean isRebuild)
+			throws IOException {
+		this.profile = Util.checkNotNull(profile);
+		this.isRebuild = isRebuild;
+		writer = new IndexWriter(luceneDir, profile.createWriterConfig());
+		replaceOnAdd = hasPeriodicCommitData(writer);
+		hasPeriodicCommit = replaceOnAdd;
+	}
+	
+	private static boolean hasPeriodicCommitData(@NotNull IndexWriter writer) {
+		Iterable<Map.Entry<String, String>> commitData = writer.getLiveCommitData();
+		if (commitData == null)
+			return false;
+		for (Map.Entry<String, String> entry : commitData)
+			if (entry.getKey().equals(PERIODIC_COMMIT_KEY))
+				return Boolean.parseBoolean(entry.getValue());
+		return false;
 	}
 
 	// may throw OutOfMemoryError
 	public void add(@NotNull Document document) throws IOException,
 			CheckedOutOfMemoryError {
+		if (replaceOnAdd) {
+			update(document.get(Fields.UID.key()), document);
+			return;
+		}
 		try {
 			writer.addDocument(document);
+			maybeCommit();
 		}
 		catch (OutOfMemoryError e) {
 			reopenWriterAndThrow(e);
@@ -69,6 +126,7 @@ public final class IndexWriterAdapter implements Closeable {
 			throws IOException, CheckedOutOfMemoryError {
 		try {
 			writer.updateDocument(new Term(idTerm.field(), uid), document);
+			maybeCommit();
 		}
 		catch (OutOfMemoryError e) {
 			reopenWriterAndThrow(e);
@@ -91,18 +149,61 @@ public final class IndexWriterAdapter implements Closeable {
 		 */
 		Directory indexDir = writer.getDirectory();
 		Closeables.closeQuietly(writer);
-		IndexWriterConfig config
-				= new IndexWriterConfig(IndexRegistry.getAnalyzer());
-		writer = new IndexWriter(indexDir, config);
+		writer = new IndexWriter(indexDir, profile.createWriterConfig());
 		throw new CheckedOutOfMemoryError(t);
 	}
 
 	public void delete(@NotNull String uid) throws IOException {
 		writer.deleteDocuments(new Term(idTerm.field(),uid));
+		maybeCommit();
+	}
+	
+	/**
+	 * Commits all pending changes if the commit interval of the indexing
+	 * profile has elapsed since the last commit. Periodic commits make
+	 * long-running index updates visible to searchers and bound the amount of
+	 * work lost if the program crashes.
+	 * <p>
+	 * Since the tree index is only saved after the update, a crash after a
+	 * periodic commit leaves documents in the Lucene index that the next update
+	 * will consider as added. Periodic commits are therefore marked in the
+	 * commit data, and if the next update finds the marker, it adds documents
+	 * by replacing documents with the same UID.
+	 */
+	private void maybeCommit() throws IOException {
+		long interval = profile.getCommitInterval();
+		if (interval <= 0)
+			return;
+		long now = System.currentTimeMillis();
+		if (now - lastCommit < interval)
+			return;
+		setPeriodicCommitData(true);
+		writer.commit();
+		hasPeriodicCommit = true;
+		lastCommit = now;
+	}
+	
+	private void setPeriodicCommitData(boolean isPeriodic) {
+		Map<String, String> commitData = Collections.singletonMap(
+			PERIODIC_COMMIT_KEY, String.valueOf(isPeriodic));
+		writer.setLiveCommitData(commitData.entrySet());
 	}
 	
+	/**
+	 * Closes the underlying IndexWriter. If the index was built from scratch
+	 * and the indexing profile asks for it, the index is merged down to a
+	 * single segment first.
+	 */
 	public void close() throws IOException {
-		writer.close();
+		try {
+			if (hasPeriodicCommit)
+				setPeriodicCommitData(false);
+			if (isRebuild && profile.isForceMergeAfterRebuild())
+				writer.forceMerge(1);
+		}
+		finally {
+			writer.close();
+		}
 	}
 
 }
@@ -11,9 +11,12 @@
 
 package net.sourceforge.docfetcher.model.index;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -27,11 +30,14 @@ import net.sourceforge.docfetcher.enums.Msg;
 import net.sourceforge.docfetcher.enums.ProgramConf;
 import net.sourceforge.docfetcher.model.Path;
 import net.sourceforge.docfetcher.model.UtilModel;
+import net.sourceforge.docfetcher.model.index.PatternAction.MatchAction;
+import net.sourceforge.docfetcher.model.index.PatternAction.MatchTarget;
 import net.sourceforge.docfetcher.model.index.file.SolidArchiveFactory;
 import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.Immutable;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
 import net.sourceforge.docfetcher.util.annotations.Nullable;
+import net.sourceforge.docfetcher.util.annotations.VisibleForPackageGroup;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
@@ -392,5 +398,80 @@ public class IndexingConfig implements Serializable {
 	public void setSkipTarArchives(boolean skipTarArchives) {
 		this.skipTarArchives = skipTarArchives;
 	}
+	
+	/**
+	 * Writes the settings of the receiver to the given output. This is used
+	 * for saving tree indexes; see {@link #readFrom(DataInput)}.
+	 */
+	@VisibleForPackageGroup
+	public final void writeTo(@NotNull DataOutput out) throws IOException {
+		out.writeBoolean(tempDir != null);
+		if (tempDir != null)
+			out.writeUTF(tempDir.getPath());
+		writeStrings(out, zipExtensions);
+		writeStrings(out, textExtensions);
+		out.writeInt(patternActions.size());
+		for (PatternAction patternAction : patternActions) {
+			out.writeUTF(patternAction.getRegex());
+			out.writeUTF(patternAction.getTarget().name());
+			out.writeUTF(patternAction.getAction().name());
+		}
+		out.writeBoolean(htmlPairing);
+		out.writeBoolean(detectExecutableArchives);
+		out.writeBoolean(indexFilenames);
+		out.writeBoolean(storeRelativePaths);
+		out.writeBoolean(watchFolders);
+		out.writeBoolean(skipTarArchives);
+	}
+	
+	/**
+	 * Replaces the settings of the receiver with the settings read from the
+	 * given input, which must have been written by
+	 * {@link #writeTo(DataOutput)}. No change notifications are sent.
+	 */
+	@VisibleForPackageGroup
+	public final void readFrom(@NotNull DataInput in) throws IOException {
+		tempDir = in.readBoolean() ? new File(in.readUTF()) : null;
+		zipExtensions = ImmutableList.copyOf(readStrings(in));
+		textExtensions = ImmutableList.copyOf(readStrings(in));
+		int patternCount = in.readInt();
+		List<PatternAction> patternActions = new ArrayList<PatternAction>(patternCount);
+		for (int i = 0; i < patternCount; i++) {
+			String regex = in.readUTF();
+			try {
+				MatchTarget target = MatchTarget.valueOf(in.readUTF());
+				MatchAction action = MatchAction.valueOf(in.readUTF());
+				patternActions.add(new PatternAction(regex, target, action));
+			}
+			catch (IllegalArgumentException e) {
+				throw new IOException(e);
+			}
+		}
+		this.patternActions = Collections.unmodifiableList(patternActions);
+		htmlPairing = in.readBoolean();
+		detectExecutableArchives = in.readBoolean();
+		indexFilenames = in.readBoolean();
+		storeRelativePaths = in.readBoolean();
+		watchFolders = in.readBoolean();
+		skipTarArchives = in.readBoolean();
+	}
+	
+	private static void writeStrings(	@NotNull DataOutput out,
+										@NotNull List<String> strings)
+			throws IOException {
+		out.writeInt(strings.size());
+		for (String string : strings)
+			out.writeUTF(string);
+	}
+	
+	@NotNull
+	private static List<String> readStrings(@NotNull DataInput in)
+			throws IOException {
+		int size = in.readInt();
+		List<String> strings = new ArrayList<String>(size);
+		for (int i = 0; i < size; i++)
+			strings.add(in.readUTF());
+		return strings;
+	}
 
 }
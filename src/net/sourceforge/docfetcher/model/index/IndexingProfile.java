@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.index;
+
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.model.IndexRegistry;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
+import net.sourceforge.docfetcher.util.annotations.VisibleForPackageGroup;
+
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.TieredMergePolicy;
+
+/**
+ * A set of tuning parameters for Lucene's IndexWriter, such as the size of the
+ * RAM buffer, the merge policy settings and how often pending changes are
+ * committed.
+ * <p>
+ * {@link #DEFAULT} corresponds to Lucene's defaults and is suitable for small,
+ * short-lived indexes. The profile used for regular indexing is read from the
+ * program configuration via {@link #fromProgramConf()}.
+ *
+ * @author Tran Nam Quang
+ */
+@ThreadSafe
+@VisibleForPackageGroup
+public final class IndexingProfile {
+
+	public static final IndexingProfile DEFAULT = new IndexingProfile(
+		IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB, 0, 0, 5 * 1024, 10, true,
+		0, false);
+
+	private final double ramBufferSizeMB;
+	private final int maxBufferedDocs; // 0 = flush by RAM usage only
+	private final int mergeThreads; // 0 = auto-detect
+	private final double maxMergedSegmentMB;
+	private final double segmentsPerTier;
+	private final boolean useCompoundFile;
+	private final long commitInterval; // in milliseconds, 0 = commit on close
+	private final boolean forceMergeAfterRebuild;
+
+	public IndexingProfile(	double ramBufferSizeMB,
+							int maxBufferedDocs,
+							int mergeThreads,
+							double maxMergedSegmentMB,
+							double segmentsPerTier,
+							boolean useCompoundFile,
+							long commitInterval,
+							boolean forceMergeAfterRebuild) {
+		Util.checkThat(ramBufferSizeMB > 0);
+		Util.checkThat(maxBufferedDocs == 0 || maxBufferedDocs >= 2);
+		Util.checkThat(mergeThreads >= 0);
+		Util.checkThat(segmentsPerTier >= 2);
+		Util.checkThat(commitInterval >= 0);
+		this.ramBufferSizeMB = ramBufferSizeMB;
+		this.maxBufferedDocs = maxBufferedDocs;
+		this.mergeThreads = mergeThreads;
+		this.maxMergedSegmentMB = maxMergedSegmentMB;
+		this.segmentsPerTier = segmentsPerTier;
+		this.useCompoundFile = useCompoundFile;
+		this.commitInterval = commitInterval;
+		this.forceMergeAfterRebuild = forceMergeAfterRebuild;
+	}
+
+	@NotNull
+	public static IndexingProfile fromProgramConf() {
+		int maxBufferedDocs = ProgramConf.Int.IndexMaxBufferedDocs.get();
+		return new IndexingProfile(
+			ProgramConf.Int.IndexRamBufferSizeMB.get(),
+			maxBufferedDocs == 1 ? 2 : maxBufferedDocs,
+			ProgramConf.Int.IndexMergeThreads.get(),
+			ProgramConf.Int.IndexMaxMergedSegmentMB.get(),
+			ProgramConf.Int.IndexSegmentsPerTier.get(),
+			ProgramConf.Bool.IndexUseCompoundFile.get(),
+			ProgramConf.Int.IndexCommitInterval.get() * 1000L,
+			ProgramConf.Bool.IndexForceMergeAfterRebuild.get());
+	}
+
+	/**
+	 * Returns a new IndexWriter configuration with the settings of the
+	 * receiver. A new configuration must be created for each IndexWriter.
+	 */
+	@NotNull
+	public IndexWriterConfig createWriterConfig() {
+		IndexWriterConfig config = new IndexWriterConfig(
+			IndexRegistry.getAnalyzer());
+		config.setRAMBufferSizeMB(ramBufferSizeMB);
+		if (maxBufferedDocs > 0)
+			config.setMaxBufferedDocs(maxBufferedDocs);
+		config.setUseCompoundFile(useCompoundFile);
+
+		TieredMergePolicy mergePolicy = new TieredMergePolicy();
+		mergePolicy.setMaxMergedSegmentMB(maxMergedSegmentMB);
+		mergePolicy.setSegmentsPerTier(segmentsPerTier);
+		if (!useCompoundFile)
+			mergePolicy.setNoCFSRatio(0);
+		config.setMergePolicy(mergePolicy);
+
+		if (mergeThreads > 0) {
+			ConcurrentMergeScheduler scheduler = new ConcurrentMergeScheduler();
+			scheduler.setMaxMergesAndThreads(mergeThreads + 5, mergeThreads);
+			config.setMergeScheduler(scheduler);
+		}
+		return config;
+	}
+
+	/**
+	 * Returns the interval in milliseconds at which pending changes should be
+	 * committed, or 0 if changes should only be committed when the writer is
+	 * closed.
+	 */
+	public long getCommitInterval() {
+		return commitInterval;
+	}
+
+	/**
+	 * Returns whether an index that was built from scratch should be merged
+	 * down to a single segment before the writer is closed.
+	 */
+	public boolean isForceMergeAfterRebuild() {
+		return forceMergeAfterRebuild;
+	}
+
+}
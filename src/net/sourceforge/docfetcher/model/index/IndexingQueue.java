@@ -12,6 +12,7 @@
 package net.sourceforge.docfetcher.model.index;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -19,6 +20,7 @@ import java.util.List;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 
+import net.sourceforge.docfetcher.enums.ProgramConf;
 import net.sourceforge.docfetcher.model.IndexRegistry;
 import net.sourceforge.docfetcher.model.LuceneIndex;
 import net.sourceforge.docfetcher.model.PendingDeletion;
@@ -41,6 +43,11 @@ import net.sourceforge.docfetcher.util.collect.LazyList;
 import com.google.common.collect.ImmutableList;
 
 /**
+ * The queue of indexing tasks. The tasks are run by a fixed number of worker
+ * threads, so that tasks on different indexes can run in parallel. Tasks whose
+ * targets overlap are never run at the same time. Among the tasks that are
+ * ready to run, index updates are run before index creations and rebuilds.
+ *
  * @author Tran Nam Quang
  */
 public final class IndexingQueue {
@@ -66,10 +73,17 @@ public final class IndexingQueue {
 	private final Event<Task> evtAdded = new Event<Task>();
 	private final Event<Task> evtRemoved = new Event<Task>();
 
-	private final Thread thread;
 	private final IndexRegistry indexRegistry;
 	private final LinkedList<Task> tasks = new LinkedList<Task>(); // guarded by lock
 
+	/*
+	 * The tasks currently being run by the worker threads. A running task may
+	 * already have been removed from the task list, e.g. after it was
+	 * canceled, so the running tasks must be tracked separately.
+	 */
+	private final List<Task> runningTasks = new ArrayList<Task>(); // guarded by lock
+	private int runningWorkerCount; // guarded by lock
+
 	private volatile boolean shutdown = false; // guarded by lock
 	final Lock readLock;
 	final Lock writeLock;
@@ -113,13 +127,28 @@ public final class IndexingQueue {
 			}
 		});
 		
-		thread = new Thread(IndexingQueue.class.getName()) {
-			public void run() {
-				while (threadLoop());
-				evtWorkerThreadTerminated.fire(null);
-			}
-		};
-		thread.start();
+		int workerCount = ProgramConf.Int.IndexingThreads.get();
+		runningWorkerCount = workerCount;
+		for (int i = 0; i < workerCount; i++) {
+			String name = IndexingQueue.class.getName() + " (worker " + (i + 1) + ")";
+			new Thread(name) {
+				public void run() {
+					while (threadLoop());
+					
+					// Fire event only after the last worker has terminated
+					boolean isLastWorker;
+					writeLock.lock();
+					try {
+						isLastWorker = --runningWorkerCount == 0;
+					}
+					finally {
+						writeLock.unlock();
+					}
+					if (isLastWorker)
+						evtWorkerThreadTerminated.fire(null);
+				}
+			}.start();
+		}
 	}
 	
 	// returns whether the loop should continue
@@ -130,19 +159,7 @@ public final class IndexingQueue {
 		Task task;
 		writeLock.lock();
 		try {
-			task = getReadyTask();
-			
-			// See comment below
-			if (task != null && task.is(IndexAction.UPDATE)
-					&& !indexRegistry.getIndexes().contains(
-						task.getLuceneIndex())) {
-				tasks.remove(task);
-				fireRemovedOrphaned.add(task);
-				task = null;
-			}
-			
-			while (task == null && !shutdown) {
-				readyTaskAvailable.await();
+			while (true) {
 				task = getReadyTask();
 				
 				/* Special case: Sometimes an index is reloaded from disk after
@@ -155,8 +172,11 @@ public final class IndexingQueue {
 							task.getLuceneIndex())) {
 					tasks.remove(task);
 					fireRemovedOrphaned.add(task);
-					task = null;
+					continue;
 				}
+				if (task != null || shutdown)
+					break;
+				readyTaskAvailable.await();
 			}
 			if (shutdown)
 				return false;
@@ -167,6 +187,11 @@ public final class IndexingQueue {
 			 * between user-triggered index deletions and automatic index
 			 * updating. */
 			assertValidRegistryState(indexRegistry, task);
+			
+			/* The task must enter the indexing state while we're still holding
+			 * the lock, otherwise another worker thread might pick it up. */
+			task.set(TaskState.INDEXING);
+			runningTasks.add(task);
 		}
 		catch (InterruptedException e) {
 			// Do not interrupt this thread, call Condition.signal*() instead.
@@ -177,7 +202,6 @@ public final class IndexingQueue {
 		}
 		
 		// Indexing
-		task.set(TaskState.INDEXING);
 		LuceneIndex luceneIndex = task.getLuceneIndex();
 		if (task.is(IndexAction.REBUILD)) {
 			/*
@@ -187,7 +211,8 @@ public final class IndexingQueue {
 			 * clearing the index, we must signal the searcher to let go of it
 			 * by refreshing the searcher's internal Lucene searcher.
 			 */
-			indexRegistry.getSearcher().replaceLuceneSearcher();
+			indexRegistry.getSearcher().replaceLuceneSearcher(
+				Collections.singleton(luceneIndex));
 			luceneIndex.clear();
 		}
 		IndexingResult result = task.update(); // Long-running process
@@ -226,7 +251,7 @@ public final class IndexingQueue {
 					 */
 					if (indexRegistry.getIndexes().contains(luceneIndex)) {
 						indexRegistry.save(luceneIndex);
-						indexRegistry.getSearcher().replaceLuceneSearcher();
+						indexRegistry.getSearcher().refreshLuceneSearcher();
 					}
 					
 					// Output for index updates from the command-line
@@ -254,6 +279,10 @@ public final class IndexingQueue {
 					fireRemoved = tasks.remove(task);
 			}
 			task.set(TaskState.FINISHED);
+			
+			// Tasks that were blocked by this task can run now
+			runningTasks.remove(task);
+			readyTaskAvailable.signalAll();
 		}
 		finally {
 			writeLock.unlock();
@@ -291,13 +320,39 @@ public final class IndexingQueue {
 		return true;
 	}
 
+	/*
+	 * Returns the first task that is ready and doesn't overlap with a running
+	 * task, giving precedence to index updates over index creations and
+	 * rebuilds, or null if there is no such task.
+	 */
 	@NotThreadSafe
 	@Nullable
 	private Task getReadyTask() {
-		for (Task task : tasks)
-			if (task.is(TaskState.READY) && task.cancelAction == null)
+		Task firstNonUpdate = null;
+		for (Task task : tasks) {
+			if (!task.is(TaskState.READY) || task.cancelAction != null)
+				continue;
+			if (isBlocked(task))
+				continue;
+			if (task.is(IndexAction.UPDATE))
 				return task;
-		return null;
+			if (firstNonUpdate == null)
+				firstNonUpdate = task;
+		}
+		return firstNonUpdate;
+	}
+
+	@NotThreadSafe
+	private boolean isBlocked(@NotNull Task task) {
+		File f1 = task.getLuceneIndex().getCanonicalRootFile();
+		for (Task runningTask : runningTasks) {
+			if (runningTask.getLuceneIndex() == task.getLuceneIndex())
+				return true;
+			File f2 = runningTask.getLuceneIndex().getCanonicalRootFile();
+			if (f1.equals(f2) || isOverlapping(f1, f2))
+				return true;
+		}
+		return false;
 	}
 
 	@NotThreadSafe
@@ -471,7 +526,7 @@ public final class IndexingQueue {
 
 			tasks.add(task);
 			if (task.is(TaskState.READY))
-				readyTaskAvailable.signal();
+				readyTaskAvailable.signalAll();
 		}
 		finally {
 			writeLock.unlock();
@@ -536,20 +591,27 @@ public final class IndexingQueue {
 	private boolean removeAll(	@NotNull CancelHandler handler,
 								@NotNull LazyList<Task> removedTasks) {
 		/*
-		 * Cancel active task if there is one. Note that if the cancel
-		 * handler returns null, no tasks are removed.
+		 * Cancel the active tasks if there are any. The cancel handler is
+		 * called at most once, and its answer applies to all active creation
+		 * and rebuild tasks. Note that if the cancel handler returns null, no
+		 * tasks are removed and no task is canceled.
 		 */
+		CancelAction cancelAction = null;
+		for (Task task : tasks) {
+			if (task.is(TaskState.INDEXING) && !task.is(IndexAction.UPDATE)) {
+				cancelAction = handler.cancel();
+				if (cancelAction == null)
+					return false;
+				break;
+			}
+		}
 		for (Task task : tasks) {
 			if (!task.is(TaskState.INDEXING))
 				continue;
-			if (task.is(IndexAction.UPDATE)) {
+			if (task.is(IndexAction.UPDATE))
 				task.cancelAction = CancelAction.KEEP;
-			}
-			else {
-				task.cancelAction = handler.cancel();
-				if (task.cancelAction == null)
-					return false;
-			}
+			else
+				task.cancelAction = cancelAction;
 		}
 
 		// Remove all tasks (including active task)
@@ -643,7 +705,7 @@ public final class IndexingQueue {
 				}
 			}
 
-			readyTaskAvailable.signal();
+			readyTaskAvailable.signalAll();
 		}
 		finally {
 			writeLock.unlock();
@@ -726,11 +788,12 @@ public final class IndexingQueue {
 			shutdown = true;
 			
 			/*
-			 * Wake up and terminate worker thread if it was waiting. Do *not*
-			 * call thread.interrupt here, otherwise we'll get an exception when
-			 * trying to close the current Lucene index, if there is one.
+			 * Wake up and terminate worker threads that are waiting. Do *not*
+			 * interrupt the worker threads here, otherwise we'll get an
+			 * exception when trying to close the current Lucene indexes, if
+			 * there are any.
 			 */
-			readyTaskAvailable.signal();
+			readyTaskAvailable.signalAll();
 		}
 		finally {
 			writeLock.unlock();
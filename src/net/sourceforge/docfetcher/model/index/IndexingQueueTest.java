@@ -0,0 +1,235 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.model.IndexRegistry;
+import net.sourceforge.docfetcher.model.LuceneIndex;
+import net.sourceforge.docfetcher.model.index.DelegatingReporter.ExistingMessagesHandler;
+import net.sourceforge.docfetcher.model.index.IndexingQueue.ExistingTasksHandler;
+import net.sourceforge.docfetcher.model.index.IndexingQueue.Rejection;
+import net.sourceforge.docfetcher.model.index.Task.CancelAction;
+import net.sourceforge.docfetcher.model.index.Task.CancelHandler;
+import net.sourceforge.docfetcher.model.index.Task.IndexAction;
+import net.sourceforge.docfetcher.model.index.file.FileIndex;
+import net.sourceforge.docfetcher.util.AppUtil;
+import net.sourceforge.docfetcher.util.Event;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class IndexingQueueTest {
+
+	static {
+		AppUtil.Const.autoInit();
+	}
+
+	@Test
+	public void testParallelTasks() throws Exception {
+		File indexParentDir = Util.createTempDir();
+		File root1 = createRoot("a.txt");
+		File root2 = createRoot("b.txt");
+		FileIndex index1 = new FileIndex(indexParentDir, root1);
+		FileIndex index2 = new FileIndex(indexParentDir, root2);
+
+		indexParentDir = Util.getParentFile(index1.getIndexDirPath().getCanonicalFile());
+		IndexRegistry registry = createRegistry(indexParentDir);
+		IndexingQueue queue = registry.getQueue();
+
+		final CountDownLatch latch = new CountDownLatch(2);
+		final CountDownLatch started = new CountDownLatch(2);
+		final AtomicInteger overlapCount = new AtomicInteger();
+		Event.Listener<Task> addedListener = new Event.Listener<Task>() {
+			public void update(Task task) {
+				task.evtFinished.add(new Event.Listener<Boolean>() {
+					public void update(Boolean hasErrors) {
+						latch.countDown();
+					}
+				});
+				// Each task waits until the other task has started as well
+				attachStartListener(task, new Runnable() {
+					public void run() {
+						started.countDown();
+						if (Uninterruptibles.awaitUninterruptibly(
+								started, 30, TimeUnit.SECONDS))
+							overlapCount.incrementAndGet();
+					}
+				});
+				task.setReady();
+			}
+		};
+		Event.Listener<Task> removedListener = new Event.Listener<Task>() {
+			public void update(Task task) {
+			}
+		};
+		queue.addListeners(new ExistingTasksHandler() {
+			public void handleExistingTasks(List<Task> tasks) {
+			}
+		}, addedListener, removedListener);
+
+		assertNull(queue.addTask(index1, IndexAction.CREATE));
+		assertNull(queue.addTask(index2, IndexAction.CREATE));
+
+		// Overlapping tasks are still rejected
+		FileIndex index3 = new FileIndex(indexParentDir, new File(root1, "sub"));
+		Rejection rejection = queue.addTask(index3, IndexAction.CREATE);
+		assertTrue(rejection == Rejection.OVERLAP_WITH_QUEUE
+				|| rejection == Rejection.OVERLAP_WITH_REGISTRY);
+
+		assertTrue(latch.await(60, TimeUnit.SECONDS));
+		assertEquals(2, overlapCount.get());
+		List<LuceneIndex> indexes = registry.getIndexes();
+		assertEquals(2, indexes.size());
+		assertTrue(indexes.contains(index1));
+		assertTrue(indexes.contains(index2));
+
+		queue.shutdown(new CancelHandler() {
+			public CancelAction cancel() {
+				return CancelAction.DISCARD;
+			}
+		});
+	}
+
+	@Test
+	public void testRemoveAllAsksOnce() throws Exception {
+		File indexParentDir = Util.createTempDir();
+		FileIndex index1 = new FileIndex(indexParentDir, createRoot("a.txt"));
+		FileIndex index2 = new FileIndex(indexParentDir, createRoot("b.txt"));
+
+		indexParentDir = Util.getParentFile(index1.getIndexDirPath().getCanonicalFile());
+		IndexRegistry registry = createRegistry(indexParentDir);
+		IndexingQueue queue = registry.getQueue();
+
+		final CountDownLatch latch = new CountDownLatch(2);
+		final CountDownLatch started = new CountDownLatch(2);
+		final CountDownLatch released = new CountDownLatch(1);
+		final List<Task> addedTasks = new CopyOnWriteArrayList<Task>();
+		Event.Listener<Task> addedListener = new Event.Listener<Task>() {
+			public void update(Task task) {
+				addedTasks.add(task);
+				task.evtFinished.add(new Event.Listener<Boolean>() {
+					public void update(Boolean hasErrors) {
+						latch.countDown();
+					}
+				});
+				// Keep both tasks running until they have been removed
+				attachStartListener(task, new Runnable() {
+					public void run() {
+						started.countDown();
+						Uninterruptibles.awaitUninterruptibly(
+							released, 30, TimeUnit.SECONDS);
+					}
+				});
+				task.setReady();
+			}
+		};
+		Event.Listener<Task> removedListener = new Event.Listener<Task>() {
+			public void update(Task task) {
+			}
+		};
+		queue.addListeners(new ExistingTasksHandler() {
+			public void handleExistingTasks(List<Task> tasks) {
+			}
+		}, addedListener, removedListener);
+
+		assertNull(queue.addTask(index1, IndexAction.CREATE));
+		assertNull(queue.addTask(index2, IndexAction.CREATE));
+		assertTrue(started.await(60, TimeUnit.SECONDS));
+
+		// If the user doesn't answer, no task is canceled
+		final AtomicInteger cancelCount = new AtomicInteger();
+		queue.removeAll(new CancelHandler() {
+			public CancelAction cancel() {
+				cancelCount.incrementAndGet();
+				return null;
+			}
+		}, addedListener, removedListener);
+		assertEquals(1, cancelCount.get());
+		for (Task task : addedTasks)
+			assertNull(task.cancelAction);
+
+		// The user is asked only once for both running tasks
+		cancelCount.set(0);
+		queue.removeAll(new CancelHandler() {
+			public CancelAction cancel() {
+				cancelCount.incrementAndGet();
+				return CancelAction.DISCARD;
+			}
+		}, addedListener, removedListener);
+		assertEquals(1, cancelCount.get());
+		assertEquals(2, addedTasks.size());
+		for (Task task : addedTasks)
+			assertEquals(CancelAction.DISCARD, task.cancelAction);
+
+		released.countDown();
+		assertTrue(latch.await(60, TimeUnit.SECONDS));
+		assertTrue(registry.getIndexes().isEmpty());
+
+		queue.shutdown(new CancelHandler() {
+			public CancelAction cancel() {
+				return CancelAction.DISCARD;
+			}
+		});
+	}
+
+	// Runs the given runnable on the indexing thread when the task starts
+	private static void attachStartListener(@NotNull Task task,
+											@NotNull final Runnable runnable) {
+		task.attachReporter(new IndexingReporter() {
+			public void setStartTime(long time) {
+				runnable.run();
+			}
+		}, new ExistingMessagesHandler() {
+			public void handleMessages(	List<IndexingInfo> infos,
+										List<IndexingError> errors) {
+			}
+		});
+	}
+
+	// Returns a registry whose indexing queue runs two tasks at the same time
+	private static IndexRegistry createRegistry(File indexParentDir) {
+		ProgramConf.Int.IndexingThreads.load("2");
+		try {
+			return new IndexRegistry(indexParentDir, 10, 100);
+		}
+		finally {
+			ProgramConf.Int.IndexingThreads.load("1");
+		}
+	}
+
+	private static File createRoot(String filename) throws Exception {
+		File root = Util.createTempDir();
+		new File(root, "sub").mkdir();
+		Files.write("contents", new File(root, filename), Charsets.UTF_8);
+		return root;
+	}
+
+}
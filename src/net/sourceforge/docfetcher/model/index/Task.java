@@ -99,7 +99,7 @@ public final class Task {
 			public boolean isCanceled() {
 				return cancelAction != null;
 			}
-		});
+		}, !is(IndexAction.UPDATE));
 	}
 
 	@NotNull
@@ -11,7 +11,6 @@
 
 package net.sourceforge.docfetcher.model.index.file;
 
-import java.io.File;
 import java.io.IOException;
 
 import net.sourceforge.docfetcher.model.Fields;
@@ -45,7 +44,7 @@ final class AppendingDocWriter extends LuceneDocWriter {
 	}
 
 	public void update(	@NotNull FileDocument doc,
-						@NotNull File file,
+						long fileSize,
 						@NotNull ParseResult parseResult) throws IOException {
 		throw new UnsupportedOperationException();
 	}
@@ -0,0 +1,267 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.index.file;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.model.DiskCache;
+import net.sourceforge.docfetcher.model.Path;
+import net.sourceforge.docfetcher.model.index.IndexingConfig;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Closeables;
+
+/**
+ * A disk cache for the entry lists of solid archives, which are recorded when
+ * the archives are indexed. This allows unpacking a single archive entry for
+ * the preview by its entry index, without building a {@link SolidArchiveTree}
+ * or searching through the archive entries. The cache is shared by all indexes
+ * in the same index directory.
+ * <p>
+ * Each entry list belongs to an archive path and is only valid for the size
+ * the archive had when it was indexed. Since the archive may still have been
+ * modified without changing its size, clients should additionally check that
+ * the entry names at the returned indices are the expected ones.
+ * <p>
+ * The cache size is limited by {@link ProgramConf.Int#ArchiveDirectoryCacheSizeMB}.
+ *
+ * @author Tran Nam Quang
+ */
+@ThreadSafe
+final class ArchiveEntryDirectory {
+
+	public static final class Entry {
+		public final String path; // relative to the archive root
+		public final int index;
+		public final long size; // uncompressed
+
+		public Entry(@NotNull String path, int index, long size) {
+			this.path = Util.checkNotNull(path);
+			this.index = index;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * The result of looking up an archive entry path in an entry list.
+	 */
+	public static final class Match {
+		/**
+		 * Either the entry with the given path, or the inner archive
+		 * containing it.
+		 */
+		public final Entry entry;
+		/**
+		 * The path of the requested entry relative to the inner archive, or
+		 * null if the requested entry was found directly.
+		 */
+		@Nullable public final String remainingPath;
+		/**
+		 * If the requested entry is an HTML file, the files in its HTML
+		 * folder; otherwise an empty list.
+		 */
+		public final List<Entry> htmlFolderEntries;
+
+		private Match(	@NotNull Entry entry,
+						@Nullable String remainingPath,
+						@NotNull List<Entry> htmlFolderEntries) {
+			this.entry = entry;
+			this.remainingPath = remainingPath;
+			this.htmlFolderEntries = htmlFolderEntries;
+		}
+	}
+
+	private static final String DIRNAME = "archive-directory";
+	private static final int FORMAT_VERSION = 1;
+
+	private static final Map<File, ArchiveEntryDirectory> instances = Maps.newHashMap();
+
+	/**
+	 * Returns the archive entry directory for the given index parent
+	 * directory, or null if the index parent directory is null or the cache is
+	 * disabled.
+	 */
+	@Nullable
+	public static ArchiveEntryDirectory getInstance(@Nullable File indexParentDir) {
+		if (indexParentDir == null
+				|| ProgramConf.Int.ArchiveDirectoryCacheSizeMB.get() <= 0)
+			return null;
+		File cacheDir = Util.getCanonicalFile(new File(indexParentDir, DIRNAME));
+		synchronized (instances) {
+			ArchiveEntryDirectory directory = instances.get(cacheDir);
+			if (directory == null) {
+				directory = new ArchiveEntryDirectory(cacheDir);
+				instances.put(cacheDir, directory);
+			}
+			return directory;
+		}
+	}
+
+	private final DiskCache diskCache;
+
+	private ArchiveEntryDirectory(@NotNull File cacheDir) {
+		diskCache = new DiskCache(
+			cacheDir, ProgramConf.Int.ArchiveDirectoryCacheSizeMB);
+	}
+
+	/**
+	 * Stores the given entry list for the given archive path, replacing the
+	 * previous one.
+	 */
+	public void put(@NotNull Path archivePath,
+					@NotNull File archiveFile,
+					@NotNull List<Entry> entries) {
+		String key = archivePath.getCanonicalPath();
+		File file = getFile(key);
+		File tempFile = null;
+		DataOutputStream out = null;
+		try {
+			tempFile = diskCache.createTempFile(file);
+			out = new DataOutputStream(new BufferedOutputStream(
+				new GZIPOutputStream(new FileOutputStream(tempFile))));
+			out.writeInt(FORMAT_VERSION);
+			out.writeUTF(key);
+			out.writeLong(archiveFile.length());
+			out.writeInt(entries.size());
+			for (Entry entry : entries) {
+				out.writeUTF(entry.path);
+				out.writeInt(entry.index);
+				out.writeLong(entry.size);
+			}
+			out.close();
+			out = null;
+			diskCache.commit(tempFile, file);
+		}
+		catch (IOException e) {
+			Util.printErr(e);
+			Closeables.closeQuietly(out);
+			if (tempFile != null)
+				tempFile.delete();
+		}
+	}
+
+	/**
+	 * Looks up the given entry path in the entry list of the given archive.
+	 * Returns null if there is no valid entry list for the archive, or if
+	 * neither the entry nor an inner archive containing it is in the list.
+	 */
+	@Nullable
+	public Match find(	@NotNull IndexingConfig config,
+						@NotNull Path archivePath,
+						@NotNull File archiveFile,
+						@NotNull String entryPath) {
+		String key = archivePath.getCanonicalPath();
+		File file = getFile(key);
+		if (!file.isFile())
+			return null;
+
+		/*
+		 * The HTML folder of an HTML file is a sibling folder whose name
+		 * consists of the HTML file's basename and one of the HTML folder
+		 * suffixes, see SolidArchiveTree.applyHtmlPairing.
+		 */
+		String parentPrefix = null;
+		String htmlBasename = null;
+		if (Util.hasExtension(entryPath, config.getHtmlExtensions())) {
+			int sep = entryPath.lastIndexOf('/');
+			parentPrefix = entryPath.substring(0, sep + 1);
+			htmlBasename = Util.splitFilename(entryPath.substring(sep + 1))[0];
+		}
+
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+				new GZIPInputStream(new FileInputStream(file))));
+			if (in.readInt() != FORMAT_VERSION
+					|| !in.readUTF().equals(key)
+					|| in.readLong() != archiveFile.length()) {
+				Closeables.closeQuietly(in);
+				diskCache.remove(file); // Outdated entry list
+				return null;
+			}
+			int count = in.readInt();
+			Entry match = null;
+			String remainingPath = null;
+			List<Entry> htmlFolderEntries = Lists.newArrayList();
+			for (int i = 0; i < count; i++) {
+				Entry entry = new Entry(in.readUTF(), in.readInt(), in.readLong());
+				if (entry.path.equals(entryPath)) {
+					match = entry;
+					remainingPath = null;
+				}
+				else if (match == null
+						&& entryPath.startsWith(entry.path + "/")
+						&& config.isArchive(entry.path)) {
+					match = entry;
+					remainingPath = entryPath.substring(entry.path.length() + 1);
+				}
+				else if (htmlBasename != null
+						&& entry.path.startsWith(parentPrefix)) {
+					String rest = entry.path.substring(parentPrefix.length());
+					int sep = rest.indexOf('/');
+					if (sep > 0 && htmlBasename.equals(
+							HtmlUtil.getHtmlDirBasename(rest.substring(0, sep))))
+						htmlFolderEntries.add(entry);
+				}
+			}
+			diskCache.touch(file);
+			if (match == null)
+				return null;
+			if (remainingPath != null)
+				htmlFolderEntries = Collections.emptyList();
+			return new Match(match, remainingPath, htmlFolderEntries);
+		}
+		catch (IOException e) {
+			Closeables.closeQuietly(in);
+			diskCache.remove(file);
+			return null;
+		}
+		finally {
+			Closeables.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Removes the entry list of the given archive, e.g. because it turned out
+	 * to be outdated.
+	 */
+	public void remove(@NotNull Path archivePath) {
+		diskCache.remove(getFile(archivePath.getCanonicalPath()));
+	}
+
+	@NotNull
+	private File getFile(@NotNull String key) {
+		return diskCache.getFile(
+			Hashing.sha1().hashString(key, Charsets.UTF_8).toString());
+	}
+
+}
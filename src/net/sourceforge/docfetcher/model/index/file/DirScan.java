@@ -0,0 +1,334 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.index.file;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.model.UtilModel;
+import net.sourceforge.docfetcher.model.index.IndexingConfig;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+
+import com.google.common.collect.Maps;
+
+import de.schlichtherle.truezip.file.TFile;
+import de.schlichtherle.truezip.file.TVFS;
+import de.schlichtherle.truezip.fs.FsSyncException;
+
+/**
+ * The result of comparing a directory and its subdirectories with the
+ * corresponding folders in the tree, which is computed before the tree is
+ * updated. The subdirectories are compared concurrently on a fork/join pool,
+ * so that on storage with high latency, the time spent waiting for directory
+ * listings and file attributes is spread over several threads.
+ * <p>
+ * A directory is unchanged if each of its entries corresponds to a document or
+ * folder in the tree with the same last-modified value, and vice versa. The
+ * update of the tree doesn't have to look at the entries of unchanged
+ * directories again, only at their subdirectories, and it takes the entries of
+ * changed directories from the comparison instead of listing them again.
+ * Since comparing HTML
+ * folders requires the HTML pairing of {@link HtmlFileLister}, directories
+ * that may contain HTML folders are always reported as changed. So are
+ * directories that couldn't be compared, e.g. because the comparison was
+ * canceled.
+ * <p>
+ * The comparison only reads from the tree. It must be completed before the
+ * tree is modified.
+ * <p>
+ * This is only a prefilter for the tree update, which still lists, compares
+ * and indexes the entries of changed directories itself. It is therefore
+ * disabled by default, see {@link ProgramConf.Int#IndexingScanThreads}.
+ *
+ * @author Tran Nam Quang
+ */
+final class DirScan {
+
+	private volatile boolean isChanged = true;
+	private final Map<String, DirScan> subScans = Maps.newHashMap();
+	@Nullable private volatile List<File> files;
+
+	// State for fast index updates, see FileFolder; null if not recorded
+	@Nullable private volatile Long scanLastModified;
+	private volatile int scanEntryCount;
+	private volatile long scanEntryHash;
+
+	private DirScan() {
+	}
+
+	/**
+	 * Compares the given directory with the given folder, using the number of
+	 * threads given by {@link ProgramConf.Int#IndexingScanThreads}. Returns
+	 * null if there's only one thread, or if the given directory is a zip
+	 * archive or inside a zip archive.
+	 */
+	@Nullable
+	public static DirScan scan(	@NotNull FileContext context,
+								@NotNull FileFolder folder,
+								@NotNull File dir) {
+		int threads = ProgramConf.Int.IndexingScanThreads.get();
+		if (threads <= 1 || FileStat.isInsideArchive(dir))
+			return null;
+		DirScan scan = new DirScan();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.invoke(new ScanTask(context, folder, dir, scan));
+		}
+		finally {
+			pool.shutdown();
+		}
+		return scan;
+	}
+
+	public boolean isChanged() {
+		return isChanged;
+	}
+
+	/**
+	 * Returns the entries of the directory that were listed during the
+	 * comparison, or null if the directory wasn't listed or was found to be
+	 * unchanged. The entries are only returned once, so that they don't stay
+	 * in memory after the directory has been visited.
+	 */
+	@Nullable
+	public List<File> takeFiles() {
+		List<File> files = this.files;
+		this.files = null;
+		return files;
+	}
+
+	/**
+	 * Returns the last-modified value of the directory that was recorded
+	 * during the comparison for fast index updates, or null if it wasn't
+	 * recorded.
+	 */
+	@Nullable
+	public Long getScanLastModified() {
+		return scanLastModified;
+	}
+
+	public long getScanEntryHash() {
+		return scanEntryHash;
+	}
+
+	/**
+	 * Returns the comparison result for the subdirectory with the given name,
+	 * or null if the subdirectory wasn't compared, e.g. because it has no
+	 * corresponding folder in the tree.
+	 */
+	@Nullable
+	public DirScan getSubScan(@NotNull String name) {
+		return subScans.get(name);
+	}
+
+	/**
+	 * Saves the directory state used for fast index updates in the given
+	 * folder, if the state was recorded during the comparison.
+	 */
+	public void saveScanState(@NotNull FileFolder folder) {
+		Long lastModified = scanLastModified;
+		if (lastModified != null)
+			folder.setScanState(lastModified, scanEntryCount, scanEntryHash);
+	}
+
+	// Returns a hash of the names of the given files that doesn't depend on their order
+	static long hashNames(@NotNull List<File> files) {
+		long hash = 0;
+		for (File file : files) {
+			String name = file.getName();
+			long nameHash = 0xcbf29ce484222325L; // 64-bit FNV-1a
+			for (int i = 0; i < name.length(); i++) {
+				nameHash ^= name.charAt(i);
+				nameHash *= 0x100000001b3L;
+			}
+			hash += nameHash;
+		}
+		return hash;
+	}
+
+	private static final class ScanTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final FileContext context;
+		private final FileFolder folder;
+		private final File dir;
+		private final DirScan scan;
+		private final List<ScanTask> subTasks = new ArrayList<ScanTask>();
+
+		public ScanTask(@NotNull FileContext context,
+						@NotNull FileFolder folder,
+						@NotNull File dir,
+						@NotNull DirScan scan) {
+			this.context = context;
+			this.folder = folder;
+			this.dir = dir;
+			this.scan = scan;
+		}
+
+		protected void compute() {
+			try {
+				if (context.isStopped())
+					return;
+				if (Util.isCanonicallyEqual(context.getIndexParentDir(), dir))
+					return;
+				scan.isChanged = !compareDir();
+				if (!scan.isChanged)
+					scan.files = null;
+			}
+			catch (StackOverflowError e) {
+				/*
+				 * Folder hierarchy was too deep. The tree update will handle
+				 * the subdirectories that haven't been compared.
+				 */
+				subTasks.clear();
+			}
+			invokeAll(subTasks);
+		}
+
+		// Returns whether the directory is unchanged
+		private boolean compareDir() {
+			long dirLastModified = 0;
+			if (context.isRecordScanState())
+				dirLastModified = dir.lastModified();
+			List<File> files = HtmlFileLister.listFiles(dir);
+			scan.files = files;
+
+			if (context.isRecordScanState()) {
+				long entryHash = hashNames(files);
+				scan.scanLastModified = dirLastModified;
+				scan.scanEntryCount = files.size();
+				scan.scanEntryHash = entryHash;
+				if (context.isSkipUnchangedDirs() && folder.isScanUnchanged(
+						dirLastModified, files.size(), entryHash)) {
+					for (FileFolder subFolder : folder.getSubFolders())
+						if (!subFolder.isArchive())
+							addSubTask(subFolder, new TFile(dir, subFolder.getName()));
+					return true;
+				}
+			}
+
+			Set<String> unseenDocs = new HashSet<String>(
+				folder.getDocumentMap().keySet());
+			Set<String> unseenSubFolders = new HashSet<String>(
+				folder.getSubFolderMap().keySet());
+			boolean unchanged = !folder.hasErrors();
+			for (File file : files) {
+				if (context.isStopped())
+					return false;
+				try {
+					unchanged &= compareEntry(
+						file, unseenDocs, unseenSubFolders);
+				}
+				catch (RuntimeException e) {
+					// Will be reported by the tree update
+					unchanged = false;
+				}
+			}
+			return unchanged && unseenDocs.isEmpty()
+					&& unseenSubFolders.isEmpty();
+		}
+
+		/*
+		 * Returns whether the given entry of the directory is unchanged. This
+		 * mirrors the decisions of HtmlFileLister and the tree update in
+		 * FileIndex, but errs on the side of reporting changes.
+		 */
+		private boolean compareEntry(	@NotNull File file,
+										@NotNull Set<String> unseenDocs,
+										@NotNull Set<String> unseenSubFolders) {
+			IndexingConfig config = context.getConfig();
+			String name = file.getName();
+			if (config.isHtmlPairing() && HtmlUtil.getHtmlDirBasename(name) != null)
+				return false;
+
+			FileStat stat = statAndUnmount((TFile) file);
+			if (stat == null || stat.isSymLink())
+				return true;
+			if (ProgramConf.Bool.IgnoreJunctionsAndSymlinks.get()
+					&& !stat.isFile() && Util.isJunctionOrSymlink(file))
+				return true;
+			if (context.skip((TFile) file, stat))
+				return true;
+
+			if (stat.isFile()) {
+				if (config.isSolidArchive(name)) {
+					unseenSubFolders.remove(name);
+					FileFolder archive = folder.getSubFolder(name);
+					return archive != null && UtilModel.isUnmodifiedArchive(
+						archive, stat.lastModified());
+				}
+				unseenDocs.remove(name);
+				FileDocument doc = folder.getDocument(name);
+				return doc != null && isUnmodifiedDoc(doc, stat);
+			}
+
+			if (stat.isDirectory()) {
+				unseenSubFolders.remove(name);
+				FileFolder subFolder = folder.getSubFolder(name);
+				if (subFolder == null)
+					return false;
+				if (stat.isZipArchive())
+					return UtilModel.isUnmodifiedArchive(
+						subFolder, stat.lastModified());
+				if (subFolder.isArchive())
+					return false;
+				addSubTask(subFolder, file);
+			}
+			return true;
+		}
+
+		/*
+		 * Returns the attributes of the given file. Like the tree update,
+		 * this mounts zip archives in order to get their last-modified
+		 * values, so they must be unmounted again afterwards.
+		 */
+		@Nullable
+		private static FileStat statAndUnmount(@NotNull TFile file) {
+			try {
+				return FileStat.of(file);
+			}
+			finally {
+				if (file.isArchive() && file.getEnclArchive() == null) {
+					try {
+						TVFS.umount(file);
+					}
+					catch (FsSyncException e) {
+						// Ignore, the tree update will try again
+					}
+				}
+			}
+		}
+
+		private static boolean isUnmodifiedDoc(	@NotNull FileDocument doc,
+												@NotNull FileStat stat) {
+			return doc.getLastModified() == stat.lastModified()
+					&& doc.getHtmlFolder() == null;
+		}
+
+		private void addSubTask(@NotNull FileFolder subFolder,
+								@NotNull File subDir) {
+			DirScan subScan = new DirScan();
+			scan.subScans.put(subFolder.getName(), subScan);
+			subTasks.add(new ScanTask(context, subFolder, subDir, subScan));
+		}
+	}
+
+}
@@ -0,0 +1,188 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.index.file;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
+
+/**
+ * A bounded in-memory pipe for passing the bytes of an archive entry from the
+ * thread that unpacks the archive to the thread that parses the entry. The
+ * writing thread blocks while the buffer is full.
+ * <p>
+ * Unlike {@link java.io.PipedOutputStream}, writing to the pipe after the input
+ * stream has been closed is not an error: The remaining bytes are silently
+ * discarded. This is necessary for solid archives, where the unpacker must
+ * keep decompressing an entry even if the parser doesn't need all of it.
+ *
+ * @author Tran Nam Quang
+ */
+@ThreadSafe
+final class EntryPipe {
+
+	private final byte[] buffer;
+	private int readPos = 0;
+	private int count = 0;
+	private boolean isOutputClosed = false;
+	private boolean isInputClosed = false;
+	@Nullable private IOException failure;
+
+	private final InputStream in = new InputStream() {
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			int n = EntryPipe.this.read(b, 0, 1);
+			return n < 0 ? -1 : b[0] & 0xff;
+		}
+		public int read(byte[] b, int off, int len) throws IOException {
+			return EntryPipe.this.read(b, off, len);
+		}
+		public int available() {
+			synchronized (EntryPipe.this) {
+				return count;
+			}
+		}
+		public void close() {
+			closeInput();
+		}
+	};
+
+	private final OutputStream out = new OutputStream() {
+		public void write(int b) throws IOException {
+			EntryPipe.this.write(new byte[] { (byte) b }, 0, 1);
+		}
+		public void write(byte[] b, int off, int len) throws IOException {
+			EntryPipe.this.write(b, off, len);
+		}
+		public void close() {
+			closeOutput();
+		}
+	};
+
+	public EntryPipe(int bufferSize) {
+		Util.checkThat(bufferSize > 0);
+		buffer = new byte[bufferSize];
+	}
+
+	@NotNull
+	public InputStream getInputStream() {
+		return in;
+	}
+
+	@NotNull
+	public OutputStream getOutputStream() {
+		return out;
+	}
+
+	private synchronized int read(byte[] b, int off, int len)
+			throws IOException {
+		if (len == 0)
+			return 0;
+		while (count == 0) {
+			if (failure != null)
+				throw failure;
+			if (isOutputClosed || isInputClosed)
+				return -1;
+			waitUninterruptibly();
+		}
+		int n = Math.min(len, Math.min(count, buffer.length - readPos));
+		System.arraycopy(buffer, readPos, b, off, n);
+		readPos = (readPos + n) % buffer.length;
+		count -= n;
+		notifyAll();
+		return n;
+	}
+
+	private synchronized void write(byte[] b, int off, int len)
+			throws IOException {
+		if (isOutputClosed)
+			throw new IOException("Pipe closed.");
+		while (len > 0) {
+			while (count == buffer.length && !isInputClosed) {
+				try {
+					wait();
+				}
+				catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+			}
+			if (isInputClosed)
+				return; // discard
+			int writePos = (readPos + count) % buffer.length;
+			int n = Math.min(len, Math.min(
+				buffer.length - count, buffer.length - writePos));
+			System.arraycopy(b, off, buffer, writePos, n);
+			count += n;
+			off += n;
+			len -= n;
+			notifyAll();
+		}
+	}
+
+	/*
+	 * The reading thread is the indexing thread, which must not stop waiting
+	 * until the unpacking thread has either written or closed the pipe.
+	 */
+	private void waitUninterruptibly() {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				wait();
+				break;
+			}
+			catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	// Marks the end of the entry
+	public synchronized void closeOutput() {
+		isOutputClosed = true;
+		notifyAll();
+	}
+
+	// Any bytes written from now on will be discarded
+	public synchronized void closeInput() {
+		isInputClosed = true;
+		count = 0;
+		notifyAll();
+	}
+
+	/**
+	 * Marks the entry as broken. The reading thread will receive the given
+	 * exception after reading the bytes that are still in the buffer.
+	 */
+	public synchronized void fail(@NotNull IOException e) {
+		failure = Util.checkNotNull(e);
+		isOutputClosed = true;
+		notifyAll();
+	}
+
+	/**
+	 * Same as {@link #fail(IOException)}, but does nothing if the end of the
+	 * entry has already been marked.
+	 */
+	public synchronized void failIfOpen(@NotNull IOException e) {
+		if (!isOutputClosed)
+			fail(e);
+	}
+
+}
@@ -13,6 +13,7 @@ package net.sourceforge.docfetcher.model.index.file;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 
 import net.sourceforge.docfetcher.model.Cancelable;
 import net.sourceforge.docfetcher.model.Path;
@@ -26,9 +27,11 @@ import net.sourceforge.docfetcher.model.index.IndexingInfo.InfoType;
 import net.sourceforge.docfetcher.model.index.IndexingReporter;
 import net.sourceforge.docfetcher.model.index.MutableInt;
 import net.sourceforge.docfetcher.model.index.PatternAction;
+import net.sourceforge.docfetcher.model.parse.ExtractionCache;
 import net.sourceforge.docfetcher.model.parse.ParseException;
 import net.sourceforge.docfetcher.model.parse.ParseResult;
 import net.sourceforge.docfetcher.model.parse.ParseService;
+import net.sourceforge.docfetcher.model.search.PreviewTextCache;
 import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
 import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
@@ -49,6 +52,17 @@ class FileContext {
 	private final Cancelable cancelable;
 	private final MutableInt fileCount;
 	@Nullable private final File indexParentDir; // null if index only exists in RAM
+	@Nullable private final ParsePipeline pipeline; // null if parsing is sequential
+	@Nullable private final ExtractionCache extractionCache; // null if disabled
+	@Nullable private final PreviewTextCache previewTextCache; // null if disabled
+	
+	/*
+	 * Whether the states of the visited directories are recorded for fast
+	 * index updates, and whether directories whose state hasn't changed are
+	 * skipped. Not inherited by sub-contexts.
+	 */
+	private boolean recordScanState = false;
+	private boolean skipUnchangedDirs = false;
 
 	protected FileContext(	@NotNull IndexingConfig config,
 							@NotNull TArchiveDetector zipDetector,
@@ -57,7 +71,8 @@ class FileContext {
 							@Nullable Path originalPath,
 							@NotNull Cancelable cancelable,
 							@NotNull MutableInt fileCount,
-							@Nullable File indexParentDir) {
+							@Nullable File indexParentDir,
+							@Nullable ParsePipeline pipeline) {
 		Util.checkNotNull(config, zipDetector, writer, cancelable, fileCount);
 		this.config = config;
 		this.zipDetector = zipDetector;
@@ -66,6 +81,9 @@ class FileContext {
 		this.cancelable = cancelable;
 		this.fileCount = fileCount;
 		this.indexParentDir = indexParentDir;
+		this.pipeline = pipeline;
+		this.extractionCache = ExtractionCache.getInstance(indexParentDir);
+		this.previewTextCache = PreviewTextCache.getInstance(indexParentDir);
 		setReporter(reporter);
 	}
 	
@@ -79,7 +97,8 @@ class FileContext {
 				originalPath,
 				superContext.cancelable,
 				superContext.fileCount,
-				superContext.indexParentDir
+				superContext.indexParentDir,
+				superContext.pipeline
 		);
 	}
 	
@@ -110,6 +129,21 @@ class FileContext {
 			: reporter;
 	}
 	
+	public final void setScanMode(	boolean recordScanState,
+									boolean skipUnchangedDirs) {
+		Util.checkThat(recordScanState || !skipUnchangedDirs);
+		this.recordScanState = recordScanState;
+		this.skipUnchangedDirs = skipUnchangedDirs;
+	}
+	
+	public final boolean isRecordScanState() {
+		return recordScanState;
+	}
+	
+	public final boolean isSkipUnchangedDirs() {
+		return skipUnchangedDirs;
+	}
+	
 	@Nullable
 	public final Path getOriginalPath() {
 		return originalPath;
@@ -143,24 +177,137 @@ class FileContext {
 		info(InfoType.EXTRACTING, doc);
 		try {
 			// Text extraction; may throw OutOfMemoryErrors
+			ParseResult parseResult = parse(
+				file, doc.getName(), doc.getPath(), reporter);
+			return write(doc, file.length(), parseResult, isAdded);
+		}
+		catch (ParseException e) {
+			fail(ErrorType.PARSING, doc, e);
+		}
+		catch (CheckedOutOfMemoryError e) {
+			fail(ErrorType.OUT_OF_MEMORY, doc, e.getCause());
+		}
+		return false;
+	}
+	
+	/**
+	 * Indexes the given document by parsing the given input stream, which is
+	 * not closed by this method. The document must be parsable from a stream,
+	 * as determined by {@link ParseService#canParseStream}. The extraction
+	 * cache is not used, since the contents of the stream can't be hashed
+	 * before parsing. Returns success.
+	 * <p>
+	 * The stream is read to the end before the document is written, and the
+	 * document is neither written nor reported if reading the stream fails:
+	 * In that case, the archive entry is broken, and the failure is reported
+	 * by the unpacker.
+	 */
+	public final boolean index(	@NotNull FileDocument doc,
+								@NotNull InputStream in,
+								long fileSize,
+								boolean isAdded) throws IndexingException {
+		info(InfoType.EXTRACTING, doc);
+		try {
 			ParseResult parseResult = ParseService.parse(
-				config, file, doc.getName(), doc.getPath(), reporter, cancelable);
-			
-			/*
-			 * If we detect a cancel request at this point, the request probably
-			 * came in during the parsing step above. In that case, we'll keep
-			 * the partially extracted text and feed it to Lucene, but set the
-			 * stored last-modified value to -1 so that the next index update
-			 * will see the file as "modified" and therefore reindex it.
-			 */
-			if (cancelable.isCanceled())
-				doc.setLastModified(-1);
-
-			// Add to index or update in index; may also throw OutOfMemoryErrors
-			if (isAdded)
-				writer.add(doc, file, parseResult);
-			else
-				writer.update(doc, file, parseResult);
+				config, in, doc.getName(), reporter, cancelable);
+			if (!readToEnd(in)) {
+				parseResult.dispose();
+				return false;
+			}
+			return write(doc, fileSize, parseResult, isAdded);
+		}
+		catch (ParseException e) {
+			if (readToEnd(in))
+				fail(ErrorType.PARSING, doc, e);
+		}
+		catch (CheckedOutOfMemoryError e) {
+			fail(ErrorType.OUT_OF_MEMORY, doc, e.getCause());
+		}
+		return false;
+	}
+	
+	// Returns false if the end of the given stream couldn't be reached
+	private static boolean readToEnd(@NotNull InputStream in) {
+		byte[] buffer = new byte[8192];
+		try {
+			while (in.read(buffer) != -1);
+			return true;
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Extracts the text of the given file, or takes it from the extraction
+	 * cache if the cache is enabled. Can be called from any thread.
+	 */
+	@NotNull
+	final ParseResult parse(@NotNull File file,
+							@NotNull String filename,
+							@NotNull Path filepath,
+							@NotNull IndexingReporter reporter)
+			throws ParseException, CheckedOutOfMemoryError {
+		if (extractionCache == null)
+			return ParseService.parse(
+				config, file, filename, filepath, reporter, cancelable);
+		return extractionCache.parse(
+			config, file, filename, filepath, reporter, cancelable);
+	}
+	
+	/**
+	 * Indexes the given document, possibly on the parse pipeline's worker
+	 * threads, in which case this method returns before the document has been
+	 * written to the Lucene index. This includes zip entries, which is why
+	 * {@link #flushPipeline()} must be called before unmounting a zip archive.
+	 * If indexing a modified document fails, it is removed from the Lucene
+	 * index, but kept in the tree.
+	 */
+	public final void indexOrSubmit(@NotNull FileDocument doc,
+									@NotNull File file,
+									boolean isAdded) throws IndexingException {
+		if (pipeline == null) {
+			if (!index(doc, file, isAdded) && !isAdded)
+				deleteFromIndex(doc.getUniqueId());
+			return;
+		}
+		info(InfoType.EXTRACTING, doc);
+		pipeline.submit(this, doc, file, isAdded);
+	}
+	
+	/**
+	 * Parses and writes all documents that were submitted to the parse
+	 * pipeline, if there is one.
+	 */
+	public final void flushPipeline() throws IndexingException {
+		if (pipeline != null)
+			pipeline.flush();
+	}
+	
+	// returns success
+	final boolean write(@NotNull FileDocument doc,
+						long fileSize,
+						@NotNull ParseResult parseResult,
+						boolean isAdded) throws IndexingException {
+		/*
+		 * If we detect a cancel request at this point, the request probably
+		 * came in during the parsing step. In that case, we'll keep the
+		 * partially extracted text and feed it to Lucene, but set the stored
+		 * last-modified value to -1 so that the next index update will see the
+		 * file as "modified" and therefore reindex it.
+		 */
+		if (cancelable.isCanceled())
+			doc.setLastModified(-1);
+		
+		try {
+			// Add to index or update in index; may throw OutOfMemoryErrors
+			if (isAdded) {
+				writer.add(doc, fileSize, parseResult);
+			}
+			else {
+				writer.update(doc, fileSize, parseResult);
+				removeFromPreviewCache(doc.getUniqueId());
+			}
 			
 			// Clear errors from previous indexing operations
 			doc.setError(null);
@@ -170,9 +317,6 @@ class FileContext {
 		catch (IOException e) {
 			throw new IndexingException(e);
 		}
-		catch (ParseException e) {
-			fail(ErrorType.PARSING, doc, e);
-		}
 		catch (CheckedOutOfMemoryError e) {
 			fail(ErrorType.OUT_OF_MEMORY, doc, e.getCause());
 		}
@@ -199,6 +343,13 @@ class FileContext {
 		catch (IOException e) {
 			throw new IndexingException(e);
 		}
+		removeFromPreviewCache(uid);
+	}
+	
+	// The preview text of modified and deleted documents is outdated
+	private void removeFromPreviewCache(@NotNull String uid) {
+		if (previewTextCache != null)
+			previewTextCache.remove(uid);
 	}
 	
 	public void info(@NotNull InfoType type, @NotNull TreeNode treeNode) {
@@ -230,17 +381,15 @@ class FileContext {
 	
 	/**
 	 * Returns whether the given TrueZIP file or directory should be skipped,
-	 * given the various settings of the receiver.
+	 * given the various settings of the receiver. The given attributes must
+	 * belong to the given file or directory.
 	 */
-	public final boolean skip(@NotNull TFile fileOrDir) {
+	public final boolean skip(@NotNull TFile fileOrDir, @NotNull FileStat stat) {
 		String filename = fileOrDir.getName();
 		Path filepath = getDirOrZipPath(fileOrDir);
 		
-		boolean isFileOrSolidArchive = fileOrDir.isFile();
-		boolean isZipArchiveOrFolder = !isFileOrSolidArchive;
-		boolean isZipArchive = isZipArchiveOrFolder
-			? UtilModel.isZipArchive(fileOrDir)
-			: false;
+		boolean isFileOrSolidArchive = stat.isFile();
+		boolean isZipArchive = stat.isZipArchive();
 		boolean isFileOrArchive = isFileOrSolidArchive || isZipArchive;
 		boolean isFile = isFileOrSolidArchive
 				&& !config.isSolidArchive(filename);
@@ -51,15 +51,25 @@ public final class FileDocument extends Document<FileDocument, FileFolder> {
 		return htmlFolder;
 	}
 	
+	/**
+	 * Sets the HTML folder of the receiver. HTML folders are saved as part of
+	 * the document, so an HTML folder whose content has changed must be
+	 * replaced via this method, rather than modified in place, in order to be
+	 * included in incremental saves.
+	 */
 	public void setHtmlFolder(@Nullable FileFolder htmlFolder) {
+		if (this.htmlFolder == htmlFolder)
+			return;
 		this.htmlFolder = htmlFolder;
+		markChanged();
 	}
 	
 	public boolean isModified(	@NotNull FileContext context,
 	                          	@NotNull File file,
+	                          	@NotNull FileStat stat,
 								@Nullable File htmlFolder) {
 		Util.checkThat(getName().equals(file.getName()));
-		if (getLastModified() != file.lastModified())
+		if (getLastModified() != stat.lastModified())
 			return true;
 		return isFolderModified(context, this.htmlFolder, htmlFolder);
 	}
@@ -81,30 +91,30 @@ public final class FileDocument extends Document<FileDocument, FileFolder> {
 		final boolean[] modificationFound = { false };
 		
 		new HtmlFileLister <Exception> (newFolder, config, null) {
-			protected void handleFile(File file) {
+			protected void handleFile(File file, FileStat stat) {
 				if (config.isSolidArchive(file.getName())) {
 					FileFolder subFolder = unseenSubFolders.remove(file.getName());
-					if (subFolder == null || !Objects.equal(subFolder.getLastModified(), file.lastModified()))
+					if (subFolder == null || !Objects.equal(subFolder.getLastModified(), stat.lastModified()))
 						modified();
 				}
 				else {
 					FileDocument doc = unseenDocs.remove(file.getName());
-					if (doc == null || doc.getLastModified() != file.lastModified())
+					if (doc == null || doc.getLastModified() != stat.lastModified())
 						modified();
 				}
 			}
-			protected void handleHtmlPair(File htmlFile, File htmlDir) {
+			protected void handleHtmlPair(File htmlFile, FileStat htmlStat, File htmlDir) {
 				FileDocument doc = unseenDocs.remove(htmlFile.getName());
-				if (doc == null || doc.isModified(context, htmlFile, htmlDir))
+				if (doc == null || doc.isModified(context, htmlFile, htmlStat, htmlDir))
 					modified();
 			}
-			protected void handleDir(File dir) {
+			protected void handleDir(File dir, FileStat stat) {
 				FileFolder subFolder = unseenSubFolders.remove(dir.getName());
 				if (subFolder == null || isFolderModified(context, subFolder, dir))
 					modified();
 			}
-			protected boolean skip(File fileOrDir) {
-				return context.skip((TFile) fileOrDir);
+			protected boolean skip(File fileOrDir, FileStat stat) {
+				return context.skip((TFile) fileOrDir, stat);
 			}
 			private void modified() {
 				modificationFound[0] = true;
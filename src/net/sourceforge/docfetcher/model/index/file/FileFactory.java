@@ -17,6 +17,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.List;
+import java.util.Map;
 
 import net.sourceforge.docfetcher.enums.Msg;
 import net.sourceforge.docfetcher.model.FileResource;
@@ -29,17 +30,23 @@ import net.sourceforge.docfetcher.model.UtilModel;
 import net.sourceforge.docfetcher.model.index.DiskSpaceException;
 import net.sourceforge.docfetcher.model.index.IndexingConfig;
 import net.sourceforge.docfetcher.model.index.IndexingException;
+import net.sourceforge.docfetcher.model.index.file.ArchiveEntryDirectory.Entry;
+import net.sourceforge.docfetcher.model.index.file.ArchiveEntryDirectory.Match;
 import net.sourceforge.docfetcher.model.index.file.FileFolder.FileFolderVisitor;
 import net.sourceforge.docfetcher.model.parse.ParseException;
 import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
 import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
 import SevenZip.Archive.IInArchive;
 import SevenZip.Archive.SevenZipEntry;
 import SevenZip.Archive.SevenZip.Handler;
 
 import com.google.common.base.Predicate;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.io.Closeables;
+import com.google.common.io.Files;
 import com.google.common.io.NullOutputStream;
 
 import de.innosystec.unrar.Archive;
@@ -55,9 +62,16 @@ import de.schlichtherle.truezip.fs.FsSyncException;
 public final class FileFactory {
 	
 	private final HotColdFileCache unpackCache;
+	@Nullable private final ArchiveEntryDirectory archiveDirectory; // null if disabled
 	
 	public FileFactory(@NotNull HotColdFileCache unpackCache) {
+		this(unpackCache, null);
+	}
+	
+	public FileFactory(	@NotNull HotColdFileCache unpackCache,
+						@Nullable File indexParentDir) {
 		this.unpackCache = Util.checkNotNull(unpackCache);
+		this.archiveDirectory = ArchiveEntryDirectory.getInstance(indexParentDir);
 	}
 	
 	// thrown parse exception has localized error message
@@ -148,6 +162,13 @@ public final class FileFactory {
 		File archiveFile = archiveResource.getFile();
 		String archiveExt = Util.splitFilename(archiveFile)[1];
 		
+		if (archiveExt.equals("exe") || archiveExt.equals("7z")) {
+			FileResource fileResource = unpackFrom7zDirectory(
+				config, originalArchivePath, archiveResource, entryPath);
+			if (fileResource != null)
+				return fileResource;
+		}
+		
 		if (! Util.hasExtension(entryPath, config.getHtmlExtensions())) { // Without HTML pairing
 			if (archiveExt.equals("exe") || archiveExt.equals("7z"))
 				return unpackFrom7zArchive(config, originalArchivePath, archiveResource, entryPath);
@@ -387,16 +408,117 @@ public final class FileFactory {
 		throw new FileNotFoundException();
 	}
 	
+	/*
+	 * Unpacks the given entry by its index in the archive entry list that was
+	 * recorded during indexing. Unlike unpackFrom7zArchive, this supports HTML
+	 * pairing, and unlike the SevenZipTree, it doesn't need to go through all
+	 * archive entries. Returns null without disposing the archive resource if
+	 * there's no valid entry list for the archive.
+	 */
+	@Nullable
+	private FileResource unpackFrom7zDirectory(	@NotNull IndexingConfig config,
+												@NotNull Path originalArchivePath,
+												@NotNull FileResource archiveResource,
+												@NotNull String entryPath)
+			throws ArchiveEncryptedException, DiskSpaceException, IOException {
+		if (archiveDirectory == null)
+			return null;
+		File archiveFile = archiveResource.getFile();
+		Match match = archiveDirectory.find(
+			config, originalArchivePath, archiveFile, entryPath);
+		if (match == null)
+			return null;
+		
+		IInArchive archive = new Handler();
+		SevenZipInputStream istream = new SevenZipInputStream(archiveFile);
+		if (archive.Open(istream) != 0) {
+			archive.close();
+			return null;
+		}
+		
+		// The archive might have been modified without changing its size
+		List<Entry> entries = Lists.newArrayList(match.htmlFolderEntries);
+		entries.add(match.entry);
+		long requiredSpace = 0;
+		for (Entry entry : entries) {
+			if (entry.index >= archive.size()
+					|| !entry.path.equals(archive.getEntry(entry.index).getName())) {
+				archive.close();
+				archiveDirectory.remove(originalArchivePath);
+				return null;
+			}
+			requiredSpace += entry.size;
+		}
+		
+		try {
+			config.checkDiskSpaceInTempDir(requiredSpace);
+			Path cacheKey = originalArchivePath.createSubPath(match.entry.path);
+			if (match.remainingPath != null) { // Inner archive
+				File innerArchiveFile;
+				try {
+					innerArchiveFile = unpack7zEntry(
+						config, archive, match.entry.path, match.entry.index);
+				}
+				finally {
+					archiveResource.dispose();
+				}
+				FileResource innerArchive = unpackCache.putIfAbsent(cacheKey, innerArchiveFile);
+				return unpackFromArchive(
+					config, cacheKey, innerArchive, match.remainingPath);
+			}
+			else if (match.htmlFolderEntries.isEmpty()) { // File without HTML folder
+				File unpackedFile = unpack7zEntry(
+					config, archive, match.entry.path, match.entry.index);
+				return unpackCache.putIfAbsent(cacheKey, unpackedFile);
+			}
+			else { // HTML file with HTML folder
+				File tempDir = Util.createTempDir();
+				unpack7zEntries(archive, entries, tempDir);
+				File htmlFile = new File(tempDir, match.entry.path);
+				return unpackCache.putIfAbsent(cacheKey, htmlFile, tempDir);
+			}
+		}
+		finally {
+			archive.close();
+			archiveResource.dispose();
+		}
+	}
+	
+	// Preserves the inner directory structure, with destDir as archive root
+	private static void unpack7zEntries(@NotNull IInArchive archive,
+										@NotNull List<Entry> entries,
+										@NotNull final File destDir)
+			throws IOException {
+		final Map<Integer, String> pathMap = Maps.newHashMap();
+		int[] indices = new int[entries.size()];
+		for (int i = 0; i < indices.length; i++) {
+			Entry entry = entries.get(i);
+			indices[i] = entry.index;
+			pathMap.put(entry.index, entry.path);
+		}
+		new SevenZipUnpacker<Void>(archive) {
+			public OutputStream getOutputStream(int index) throws IOException {
+				File file = new File(destDir, pathMap.get(index));
+				Files.createParentDirs(file);
+				return new FileOutputStream(file);
+			}
+			public Void getUnpackResult() {
+				return null;
+			}
+		}.unpack(indices);
+	}
+	
 	private static File unpack7zEntry(	@NotNull final IndexingConfig config,
 										@NotNull IInArchive archive,
 										@NotNull final String entryPath,
 										int index) throws IOException {
 		return new SevenZipUnpacker<File>(archive) {
 			private File unpackedFile;
-			public File getOutputFile(int index) throws IOException {
+			public OutputStream getOutputStream(int index) throws IOException {
 				String entryName = getLastPathPart(entryPath);
 				try {
-					return unpackedFile = config.createDerivedTempFile(entryName);
+					unpackedFile = config.createDerivedTempFile(entryName);
+					return new FileOutputStream(unpackedFile);
 				}
 				catch (IndexingException e) {
 					throw e.getIOException();
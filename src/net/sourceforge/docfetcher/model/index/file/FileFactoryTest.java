@@ -23,6 +23,7 @@ import net.sourceforge.docfetcher.model.FileResource;
 import net.sourceforge.docfetcher.model.HotColdFileCache;
 import net.sourceforge.docfetcher.model.Path;
 import net.sourceforge.docfetcher.model.index.IndexingConfig;
+import net.sourceforge.docfetcher.model.index.file.ArchiveEntryDirectory.Match;
 import net.sourceforge.docfetcher.model.parse.ParseException;
 import net.sourceforge.docfetcher.util.AppUtil;
 import net.sourceforge.docfetcher.util.Util;
@@ -135,4 +136,36 @@ public final class FileFactoryTest {
 		fileResource.dispose();
 	}
 
+	@Test
+	public void testUnpackWithArchiveDirectory() throws Exception {
+		File indexParentDir = Util.createTempDir();
+		File tempDir = Util.createTempDir();
+		try {
+			File archive = new File(tempDir, "test.7z");
+			Files.copy(new File(
+				TestFiles.index_update_html_in_7z.get(), "00_original.7z"), archive);
+			new FileIndex(indexParentDir, tempDir).update(null, null);
+			
+			// The entry list was recorded during indexing
+			IndexingConfig config = new IndexingConfig();
+			ArchiveEntryDirectory directory = ArchiveEntryDirectory.getInstance(indexParentDir);
+			Match match = directory.find(config, new Path(archive), archive, "test.html");
+			assertEquals(0, match.entry.index);
+			assertEquals(1, match.htmlFolderEntries.size());
+			
+			HotColdFileCache unpackCache = new HotColdFileCache(20);
+			FileFactory fileFactory = new FileFactory(unpackCache, indexParentDir);
+			String path = Util.joinPath(Util.getAbsPath(archive), "test.html");
+			FileResource fileResource = fileFactory.createFile(config, new Path(path));
+			File htmlFile = fileResource.getFile();
+			assertTrue(htmlFile.isFile());
+			assertTrue(new File(htmlFile.getParentFile(), "test_files/test.txt").isFile());
+			fileResource.dispose();
+		}
+		finally {
+			Util.deleteRecursively(indexParentDir);
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
 }
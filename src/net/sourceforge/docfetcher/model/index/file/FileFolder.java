@@ -25,6 +25,17 @@ import net.sourceforge.docfetcher.util.annotations.VisibleForPackageGroup;
 public class FileFolder extends Folder<FileDocument, FileFolder> {
 	
 	private static final long serialVersionUID = 1L;
+	
+	/*
+	 * The state of the directory when its entries were last compared with the
+	 * content of this folder, which allows fast index updates to skip
+	 * unchanged directories: The directory's last-modified value, the number
+	 * of entries and a hash of the entry names. A null last-modified value
+	 * means that no state was recorded.
+	 */
+	@Nullable private Long scanLastModified;
+	private int scanEntryCount;
+	private long scanEntryHash;
 
 	public static class FileFolderVisitor <T extends Throwable>
 			extends FolderVisitor<FileDocument, FileFolder, T> {
@@ -47,8 +58,64 @@ public class FileFolder extends Folder<FileDocument, FileFolder> {
 		super(path, lastModified);
 	}
 	
+	// Used by FileIndexCodec
+	FileFolder(	@NotNull String name,
+				@Nullable String displayName,
+				@Nullable Path path,
+				@Nullable Long lastModified) {
+		super(name, displayName, path, lastModified);
+	}
+	
 	public final boolean isArchive() {
 		return getLastModified() != null;
 	}
+	
+	/**
+	 * Returns whether the given directory state is the same as the state
+	 * recorded via {@link #setScanState(long, int, long)}.
+	 */
+	public synchronized final boolean isScanUnchanged(	long lastModified,
+														int entryCount,
+														long entryHash) {
+		return scanLastModified != null
+				&& scanLastModified.longValue() == lastModified
+				&& scanEntryCount == entryCount
+				&& scanEntryHash == entryHash;
+	}
+	
+	public synchronized final void setScanState(long lastModified,
+												int entryCount,
+												long entryHash) {
+		if (isScanUnchanged(lastModified, entryCount, entryHash))
+			return;
+		this.scanLastModified = lastModified;
+		this.scanEntryCount = entryCount;
+		this.scanEntryHash = entryHash;
+		markChanged();
+	}
+	
+	// Used by FileIndexCodec
+	synchronized final void clearScanState() {
+		if (scanLastModified == null)
+			return;
+		scanLastModified = null;
+		markChanged();
+	}
+	
+	// Used by FileIndexCodec
+	@Nullable
+	synchronized final Long getScanLastModified() {
+		return scanLastModified;
+	}
+	
+	// Used by FileIndexCodec
+	synchronized final int getScanEntryCount() {
+		return scanEntryCount;
+	}
+	
+	// Used by FileIndexCodec
+	synchronized final long getScanEntryHash() {
+		return scanEntryHash;
+	}
 
 }
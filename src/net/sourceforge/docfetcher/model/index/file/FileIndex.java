@@ -13,10 +13,13 @@ package net.sourceforge.docfetcher.model.index.file;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
 import net.sourceforge.docfetcher.enums.Msg;
+import net.sourceforge.docfetcher.enums.ProgramConf;
 import net.sourceforge.docfetcher.model.Cancelable;
 import net.sourceforge.docfetcher.model.DocumentType;
 import net.sourceforge.docfetcher.model.Path;
@@ -32,6 +35,7 @@ import net.sourceforge.docfetcher.model.index.IndexingInfo.InfoType;
 import net.sourceforge.docfetcher.model.index.IndexingReporter;
 import net.sourceforge.docfetcher.model.index.MutableInt;
 import net.sourceforge.docfetcher.model.index.file.FileFolder.FileFolderVisitor;
+import net.sourceforge.docfetcher.model.index.file.SolidArchiveTree.EntryStreamHandler;
 import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
 import net.sourceforge.docfetcher.util.annotations.Nullable;
@@ -71,6 +75,12 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 	 */
 	
 	private static final long serialVersionUID = 1L;
+	
+	/*
+	 * The start time of the last completed index update that didn't skip any
+	 * unchanged directories, or 0 if the next update must not skip any.
+	 */
+	private volatile long lastFullUpdate;
 
 	// if indexParentDir is null, all content is written to a RAM index, which
 	// can be retrieved via getLuceneDir
@@ -99,6 +109,13 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 		}
 	}
 	
+	// Used by FileIndexCodec
+	FileIndex(	@NotNull FileFolder rootFolder,
+				long created,
+				@Nullable Path fileIndexDirPath) {
+		super(rootFolder, created, fileIndexDirPath);
+	}
+	
 	@NotNull
 	protected String getIndexDirName(@NotNull File rootFile) {
 		return Util.getNameOrLetter(rootFile, "");
@@ -108,6 +125,11 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 	protected FileFolder createRootFolder(@NotNull Path path) {
 		return new FileFolder(path, null);
 	}
+	
+	@NotNull
+	protected FileIndexCodec getCodec() {
+		return FileIndexCodec.instance;
+	}
 
 	public boolean isEmailIndex() {
 		return false;
@@ -116,14 +138,27 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 	public DocumentType getDocumentType() {
 		return DocumentType.FILE;
 	}
+	
+	// Used by FileIndexCodec
+	long getLastFullUpdate() {
+		return lastFullUpdate;
+	}
+	
+	// Used by FileIndexCodec
+	void setLastFullUpdate(long lastFullUpdate) {
+		this.lastFullUpdate = lastFullUpdate;
+	}
 
 	public IndexingResult doUpdate(	@NotNull IndexingReporter reporter,
-									@NotNull Cancelable cancelable) {
-		reporter.setStartTime(System.currentTimeMillis());
+									@NotNull Cancelable cancelable,
+									boolean isRebuild) {
+		long startTime = System.currentTimeMillis();
+		reporter.setStartTime(startTime);
 		IndexingConfig config = getConfig();
 		FileFolder rootFolder = getRootFolder();
 		rootFolder.setError(null);
 		SimpleDocWriter writer = null;
+		ParsePipeline pipeline = null;
 
 		/*
 		 * Wrap the stored root file in a TFile to enable zip archive support.
@@ -152,11 +187,49 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 					return IndexingResult.SUCCESS_UNCHANGED;
 				rootFolder.setLastModified(newLastModified);
 				
-				writer = new SimpleDocWriter(getLuceneDir());
+				writer = new SimpleDocWriter(getLuceneDir(), isRebuild);
+				int parserThreads = ProgramConf.Int.IndexingParserThreads.get();
+				if (parserThreads > 1)
+					pipeline = new ParsePipeline(
+						parserThreads,
+						ProgramConf.Int.IndexingParserBudgetMB.get() * 1024L * 1024L);
 				FileContext context = new FileContext(
 					config, zipDetector, writer, reporter, null, cancelable,
-					new MutableInt(0), getIndexParentDir());
-				visitDirOrZip(context, rootFolder, rootFile);
+					new MutableInt(0), getIndexParentDir(), pipeline);
+				
+				/*
+				 * Fast index updates skip the files in directories whose
+				 * entries haven't changed, but at regular intervals, all
+				 * files are checked again. An update that doesn't complete
+				 * forces the next update to check all files, since it may
+				 * have recorded directory states before the documents in
+				 * these directories were written.
+				 */
+				boolean fastUpdates = ProgramConf.Bool.FastIndexUpdates.get();
+				long fullUpdateInterval = ProgramConf.Int.FullIndexUpdateHours.get() * 3600000L;
+				long previousFullUpdate = lastFullUpdate;
+				boolean skipUnchangedDirs = fastUpdates
+						&& previousFullUpdate > 0
+						&& startTime - previousFullUpdate < fullUpdateInterval;
+				context.setScanMode(fastUpdates, skipUnchangedDirs);
+				lastFullUpdate = 0;
+				
+				/*
+				 * Compare the directory tree with the index tree on several
+				 * threads first, so that the update below only has to look
+				 * at the entries of directories that have changed.
+				 */
+				DirScan scan = DirScan.scan(context, rootFolder, rootFile);
+				visitDirOrZip(context, rootFolder, rootFile, scan);
+				
+				// Write the documents that are still being parsed
+				if (pipeline != null)
+					pipeline.flush();
+				
+				if (!cancelable.isCanceled())
+					lastFullUpdate = skipUnchangedDirs
+						? previousFullUpdate
+						: startTime;
 			}
 			else {
 				// Return immediately if the root file wasn't modified
@@ -179,7 +252,7 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 					return IndexingResult.FAILURE;
 				}
 				
-				writer = new SimpleDocWriter(getLuceneDir());
+				writer = new SimpleDocWriter(getLuceneDir(), isRebuild);
 				SolidArchiveContext context = new SolidArchiveContext(
 					config, zipDetector, writer, reporter, null, cancelable,
 					new MutableInt(0), false, getIndexParentDir());
@@ -206,6 +279,8 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 			report(ErrorType.STACK_OVERFLOW, reporter, e);
 		}
 		finally {
+			if (pipeline != null)
+				pipeline.close();
 			Closeables.closeQuietly(writer);
 			reporter.setEndTime(System.currentTimeMillis());
 		}
@@ -245,18 +320,27 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 
 	@NotNull
 	private static FileDocument createFileDoc(	@NotNull FileFolder parentFolder,
-												@NotNull File file) {
-		return new FileDocument(parentFolder, file.getName(), file.lastModified());
+												@NotNull File file,
+												@NotNull FileStat stat) {
+		return new FileDocument(parentFolder, file.getName(), stat.lastModified());
 	}
 
 	// Will clean up temporary zip files
 	@RecursiveMethod
 	private static void visitDirOrZip(	@NotNull final FileContext context,
 										@NotNull final FileFolder folder,
-										@NotNull final File dirOrZip)
+										@NotNull final File dirOrZip,
+										@Nullable final DirScan scan)
 			throws IndexingException {
 		assert !folder.hasErrors();
 		
+		// The entries of the directory were found to be unchanged by DirScan
+		if (scan != null && !scan.isChanged()) {
+			scan.saveScanState(folder);
+			visitUnchangedDir(context, folder, dirOrZip, scan);
+			return;
+		}
+		
 		/*
 		 * The user may have deleted the directory in the meantime. See for
 		 * example: https://sourceforge.net/p/docfetcher/bugs/1004
@@ -272,6 +356,38 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 		if (Util.isCanonicallyEqual(context.getIndexParentDir(), dirOrZip))
 			return;
 		
+		/*
+		 * For fast index updates, compare the directory's last-modified value
+		 * and entries with the state recorded during the last update. The
+		 * last-modified value is read before the directory is listed, so that
+		 * changes made while the directory is being processed will be seen by
+		 * the next update. If DirScan has listed the directory, the entries and
+		 * the state are taken from DirScan, which has already compared them.
+		 */
+		List<File> files = scan == null ? null : scan.takeFiles();
+		boolean recordScanState = false;
+		long dirLastModified = 0;
+		long entryHash = 0;
+		if (files != null) {
+			Long scanLastModified = scan.getScanLastModified();
+			if (scanLastModified != null) {
+				recordScanState = true;
+				dirLastModified = scanLastModified;
+				entryHash = scan.getScanEntryHash();
+			}
+		}
+		else if (context.isRecordScanState() && !FileStat.isInsideArchive(dirOrZip)) {
+			recordScanState = true;
+			dirLastModified = dirOrZip.lastModified();
+			files = HtmlFileLister.listFiles(dirOrZip);
+			entryHash = DirScan.hashNames(files);
+			if (context.isSkipUnchangedDirs() && folder.isScanUnchanged(
+					dirLastModified, files.size(), entryHash)) {
+				visitUnchangedDir(context, folder, dirOrZip, null);
+				return;
+			}
+		}
+		
 		final Map<String, FileDocument> unseenDocs = Maps.newHashMap(folder.getDocumentMap());
 		final Map<String, FileFolder> unseenSubFolders = Maps.newHashMap(folder.getSubFolderMap());
 
@@ -280,32 +396,32 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 		 * a consistent state, so that the user can continue indexing later.
 		 */
 		new HtmlFileLister<IndexingException>(
-			dirOrZip, context.getConfig(), context.getReporter()) {
-			protected void handleFile(@NotNull File file) {
+			dirOrZip, files, context.getConfig(), context.getReporter()) {
+			protected void handleFile(	@NotNull File file,
+										@NotNull FileStat stat) {
 				if (context.isStopped()) stop();
 				try {
-					if (switchDirZipToSolid(context, folder, file)) {
+					if (switchDirZipToSolid(context, folder, file, stat)) {
 						unseenSubFolders.remove(file.getName());
 						return;
 					}
 					FileDocument doc = unseenDocs.remove(file.getName());
 					// File added
 					if (doc == null) {
-						doc = createFileDoc(folder, file);
-						context.index(doc, file, true);
+						doc = createFileDoc(folder, file, stat);
+						context.indexOrSubmit(doc, file, true);
 					}
 					// File modified
-					else if (doc.isModified(context, file, null)) {
-						doc.setLastModified(file.lastModified());
+					else if (doc.isModified(context, file, stat, null)) {
+						doc.setLastModified(stat.lastModified());
 						doc.setHtmlFolder(null);
 						
 						/*
-						 * Try to index the file. If this fails, remove it from
-						 * the Lucene index, but keep it in the tree so we won't
-						 * index it again on the next index update.
+						 * Try to index the file. If this fails, it will be
+						 * removed from the Lucene index, but kept in the tree
+						 * so we won't index it again on the next index update.
 						 */
-						if (!context.index(doc, file, false))
-							context.deleteFromIndex(doc.getUniqueId());
+						context.indexOrSubmit(doc, file, false);
 					}
 				}
 				catch (IndexingException e) {
@@ -314,13 +430,14 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 			}
 
 			protected void handleHtmlPair(	@NotNull File htmlFile,
+											@NotNull FileStat htmlStat,
 											@Nullable File htmlDir) {
 				if (context.isStopped()) stop();
 				try {
 					FileDocument doc = unseenDocs.remove(htmlFile.getName());
 					// HTML pair added
 					if (doc == null) {
-						doc = createFileDoc(folder, htmlFile);
+						doc = createFileDoc(folder, htmlFile, htmlStat);
 						FileFolder htmlFolder = htmlDir == null
 							? null
 							: new FileFolder(
@@ -332,13 +449,13 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 						if (htmlDir != null) {
 							subContext.setReporter(null);
 							visitDirOrZip(
-								subContext, doc.getHtmlFolder(), htmlDir);
+								subContext, doc.getHtmlFolder(), htmlDir, null);
 						}
 						subContext.appendToOuter(doc, true);
 					}
 					// HTML pair modified
-					else if (doc.isModified(context, htmlFile, htmlDir)) {
-						doc.setLastModified(htmlFile.lastModified());
+					else if (doc.isModified(context, htmlFile, htmlStat, htmlDir)) {
+						doc.setLastModified(htmlStat.lastModified());
 						/*
 						 * Here, we replace any previous HTML folder with a new
 						 * empty one, which effectively causes all files
@@ -356,7 +473,7 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 							if (htmlDir != null) {
 								subContext.setReporter(null);
 								visitDirOrZip(
-									subContext, doc.getHtmlFolder(), htmlDir);
+									subContext, doc.getHtmlFolder(), htmlDir, null);
 							}
 							subContext.appendToOuter(doc, false);
 						}
@@ -370,7 +487,8 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 				}
 			}
 
-			protected void handleDir(@NotNull File dir) {
+			protected void handleDir(	@NotNull File dir,
+										@NotNull FileStat stat) {
 				if (context.isStopped()) stop();
 				/*
 				 * The Folder object's last-modified attribute is non-null for
@@ -378,8 +496,9 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 				 * unmodified zip archives.
 				 */
 				FileFolder subFolder = unseenSubFolders.remove(dir.getName());
-				Long newLastModified = getZipArchiveLastModified(
-					context.getConfig(), dir);
+				Long newLastModified = stat.isZipArchive()
+					? stat.lastModified()
+					: null;
 				if (subFolder == null) { // Folder added
 					subFolder = new FileFolder(folder, dir.getName(), newLastModified);
 				}
@@ -390,50 +509,60 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 					subFolder.setError(null);
 				}
 				try {
-					visitDirOrZip(context, subFolder, dir);
-				}
-				catch (StackOverflowError e) {
-					/*
-					 * Folder hierarchy was too deep. Throw wrapped
-					 * StackOverflowError with a more helpful error message.
-					 */
-					int depth = subFolder.getParentCount();
-					String path = subFolder.getPath().getCanonicalPath();
-					String msg = Msg.folder_hierarchy_too_deep.format(depth, path);
-					throw new WrappedStackOverflowError(msg, e);
+					DirScan subScan = scan == null
+						? null
+						: scan.getSubScan(dir.getName());
+					visitSubFolder(context, subFolder, dir, subScan);
 				}
 				catch (IndexingException e) {
 					stop(e);
 				}
 			}
 
-			protected boolean skip(@NotNull File fileOrDir) {
-				return context.skip((TFile) fileOrDir);
+			protected boolean skip(	@NotNull File fileOrDir,
+									@NotNull FileStat stat) {
+				return context.skip((TFile) fileOrDir, stat);
 			}
 
 			protected void runFinally() {
 				// Delete temporary zip files
+				if (!(dirOrZip instanceof TFile))
+					return;
+				TFile tzFile = (TFile) dirOrZip;
+				/*
+				 * We must not only unmount the directory itself, but also all
+				 * child archives, since we might have called isFile/isDirectory
+				 * on them, triggering mounting. Note that doing this only makes
+				 * sense if the directory is a TFile, otherwise the children
+				 * couldn't be TFile instances either.
+				 */
+				List<TFile> archives = new ArrayList<TFile>();
+				for (File child : Util.listFiles(tzFile)) {
+					TFile tzChild = (TFile) child;
+					if (tzChild.isArchive() && tzChild.getEnclArchive() == null)
+						archives.add(tzChild);
+				}
+				// Without the following if-clause TrueZIP would throw an
+				// exception
+				if (tzFile.isArchive() && tzFile.getEnclArchive() == null)
+					archives.add(tzFile);
+				if (archives.isEmpty())
+					return;
+				
+				/*
+				 * Zip entries that were submitted to the parse pipeline can't
+				 * be read anymore after their archive has been unmounted, so
+				 * they must be parsed and written first.
+				 */
 				try {
-					if (!(dirOrZip instanceof TFile))
-						return;
-					TFile tzFile = (TFile) dirOrZip;
-					/*
-					 * We must not only unmount the directory itself, but also
-					 * all child archives, since we might have called
-					 * isFile/isDirectory on them, triggering mounting. Note
-					 * that doing this only makes sense if the directory is a
-					 * TFile, otherwise the children couldn't be TFile instances
-					 * either.
-					 */
-					for (File child : Util.listFiles(tzFile)) {
-						TFile tzChild = (TFile) child;
-						if (tzChild.isArchive() && tzChild.getEnclArchive() == null)
-							TVFS.umount(tzChild);
-					}
-					// Without the following if-clause TrueZIP would throw an
-					// exception
-					if (tzFile.isArchive() && tzFile.getEnclArchive() == null)
-						TVFS.umount(tzFile);
+					context.flushPipeline();
+				}
+				catch (IndexingException e) {
+					stop(e);
+				}
+				try {
+					for (TFile archive : archives)
+						TVFS.umount(archive);
 				}
 				catch (FsSyncException e) {
 					stop(new IndexingException(e));
@@ -442,6 +571,9 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 		}.run();
 
 		if (context.isStopped()) return;
+		
+		if (recordScanState)
+			folder.setScanState(dirLastModified, files.size(), entryHash);
 
 		// Handle missing files and folders
 		for (FileDocument doc : unseenDocs.values()) {
@@ -458,6 +590,54 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 			detachMissingSubFolder(context, folder, subFolder);
 	}
 	
+	@RecursiveMethod
+	private static void visitSubFolder(	@NotNull FileContext context,
+										@NotNull FileFolder subFolder,
+										@NotNull File dir,
+										@Nullable DirScan subScan)
+			throws IndexingException {
+		try {
+			visitDirOrZip(context, subFolder, dir, subScan);
+		}
+		catch (StackOverflowError e) {
+			/*
+			 * Folder hierarchy was too deep. Throw wrapped StackOverflowError
+			 * with a more helpful error message.
+			 */
+			int depth = subFolder.getParentCount();
+			String path = subFolder.getPath().getCanonicalPath();
+			String msg = Msg.folder_hierarchy_too_deep.format(depth, path);
+			throw new WrappedStackOverflowError(msg, e);
+		}
+	}
+	
+	/*
+	 * Visits the subfolders of a directory whose entries haven't changed since
+	 * the last update, without looking at the files in the directory. Zip and
+	 * solid archives are skipped as well: Either they were found to be
+	 * unmodified by DirScan, or we're doing a fast index update, in which case
+	 * modifying them doesn't change the state of the directory.
+	 */
+	@RecursiveMethod
+	private static void visitUnchangedDir(	@NotNull FileContext context,
+											@NotNull FileFolder folder,
+											@NotNull File dir,
+											@Nullable DirScan scan)
+			throws IndexingException {
+		for (FileFolder subFolder : folder.getSubFolders()) {
+			if (context.isStopped())
+				return;
+			if (subFolder.isArchive())
+				continue;
+			subFolder.setError(null);
+			DirScan subScan = scan == null
+				? null
+				: scan.getSubScan(subFolder.getName());
+			visitSubFolder(
+				context, subFolder, new TFile(dir, subFolder.getName()), subScan);
+		}
+	}
+	
 	private static void detachMissingSubFolder(	@NotNull final FileContext context,
 												@NotNull final FileFolder parent,
 												@NotNull FileFolder missingFolder)
@@ -479,7 +659,8 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 	// Returns true if the caller can skip processing the given archive file
 	private static boolean switchDirZipToSolid(	@NotNull FileContext context,
 												@NotNull FileFolder parentFolder,
-												@NotNull File archiveFile)
+												@NotNull File archiveFile,
+												@NotNull FileStat archiveStat)
 			throws IndexingException {
 		String archiveName = archiveFile.getName();
 		SolidArchiveFactory factory = context.getConfig()
@@ -488,7 +669,7 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 
 		// Create or get subfolder object
 		FileFolder archiveFolder = parentFolder.getSubFolder(archiveName);
-		long newLastModified = archiveFile.lastModified();
+		long newLastModified = archiveStat.lastModified();
 		if (archiveFolder == null) { // Found new archive
 			archiveFolder = new FileFolder(
 				parentFolder, archiveName, newLastModified);
@@ -531,23 +712,65 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 	}
 
 	// will close the archive tree
-	private static void visitSolidArchive(	@NotNull SolidArchiveContext context,
+	private static void visitSolidArchive(	@NotNull final SolidArchiveContext context,
 											@NotNull FileFolder archiveFolder,
 											@NotNull SolidArchiveTree<?> archiveTree)
 			throws IndexingException {
 		assert !archiveFolder.hasErrors();
 		FileFolder newArchiveFolder = archiveTree.getArchiveFolder();
+		
+		/*
+		 * Record the archive entries, so that the preview can unpack single
+		 * entries by their index. Only J7Zip can unpack an entry by index,
+		 * decoding just the solid block containing it; JUnRar has to go
+		 * through the archive from the start anyway.
+		 */
+		ArchiveEntryDirectory directory = ArchiveEntryDirectory.getInstance(
+			context.getIndexParentDir());
+		if (directory != null && archiveTree instanceof SevenZipTree)
+			directory.put(
+				newArchiveFolder.getPath(), archiveTree.archiveFile,
+				archiveTree.getFileEntries());
+		
 		try {
 			// Collect files to unpack
 			visitSolidArchiveFolder(
 				context, archiveTree, archiveFolder, newArchiveFolder);
 			List<TreeNode> unpackList = context.getUnpackList();
-			if (unpackList.isEmpty())
+			List<FileDocument> streamList = context.getStreamList();
+			if (unpackList.isEmpty() && streamList.isEmpty())
 				return;
 
-			// Unpack added and modified files
+			/*
+			 * Unpack added and modified files. Documents that can be parsed
+			 * from a stream are indexed while the archive is unpacked, so
+			 * they don't take up space in the temporary folder.
+			 */
 			context.info(InfoType.UNPACKING, archiveFolder);
-			archiveTree.unpack(unpackList, null);
+			archiveTree.unpackAndStream(
+				unpackList, streamList, new EntryStreamHandler() {
+				public boolean handleEntry(	TreeNode treeNode,
+											InputStream in,
+											long size)
+						throws IndexingException {
+					/*
+					 * Remove the document from the added or modified
+					 * documents, so it won't be processed again below.
+					 */
+					FileDocument doc = (FileDocument) treeNode;
+					boolean added = context.addedDocs.containsKey(doc);
+					FileFolder parent = added
+						? context.addedDocs.remove(doc)
+						: context.modifiedDocs.remove(doc);
+					if (context.isStopped()) {
+						// Detach document from tree
+						parent.removeDocument(doc);
+						return true;
+					}
+					context.index(doc, in, size, added);
+					return false;
+				}
+			});
 		}
 		catch (IOException e) {
 			archiveFolder.removeChildren();
@@ -824,7 +1047,7 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 		if (unpackedFile.isDirectory()) { // Zip file
 			FileContext subContext = new FileContext(context, archive.getPath());
 			try {
-				visitDirOrZip(subContext, archive, unpackedFile);
+				visitDirOrZip(subContext, archive, unpackedFile, null);
 			}
 			finally {
 				unpackedFile.delete();
@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+
+package net.sourceforge.docfetcher.model.index.file;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import net.sourceforge.docfetcher.model.DocumentType;
+import net.sourceforge.docfetcher.model.Path;
+import net.sourceforge.docfetcher.model.TreeIndex;
+import net.sourceforge.docfetcher.model.TreeIndexCodec;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+import net.sourceforge.docfetcher.util.annotations.VisibleForPackageGroup;
+
+/**
+ * The codec for saving and loading file indexes. The HTML folders of the
+ * documents are saved as folder trees attached to the documents, and the
+ * directory states used for fast index updates are saved as well.
+ * 
+ * @author Tran Nam Quang
+ */
+@VisibleForPackageGroup
+public final class FileIndexCodec extends TreeIndexCodec<FileDocument, FileFolder> {
+	
+	public static final FileIndexCodec instance = new FileIndexCodec();
+	
+	private FileIndexCodec() {
+	}
+	
+	@NotNull
+	protected DocumentType getDocumentType() {
+		return DocumentType.FILE;
+	}
+	
+	@NotNull
+	protected FileFolder createFolder(	@NotNull String name,
+										@Nullable String displayName,
+										@Nullable Path path,
+										@Nullable Long lastModified) {
+		return new FileFolder(name, displayName, path, lastModified);
+	}
+	
+	@NotNull
+	protected FileDocument createDocument(	@NotNull FileFolder parent,
+											@NotNull String name,
+											@Nullable String displayName,
+											long lastModified) {
+		FileDocument doc = new FileDocument(parent, name, lastModified);
+		if (displayName != null)
+			doc.setDisplayName(displayName);
+		return doc;
+	}
+	
+	@NotNull
+	protected FileIndex createIndex(@NotNull FileFolder rootFolder,
+									long created,
+									@Nullable Path fileIndexDirPath) {
+		return new FileIndex(rootFolder, created, fileIndexDirPath);
+	}
+	
+	protected void writeIndexExtras(@NotNull TreeIndex<FileDocument, FileFolder> index,
+									@NotNull DataOutput out)
+			throws IOException {
+		out.writeLong(((FileIndex) index).getLastFullUpdate());
+	}
+	
+	protected void readIndexExtras(	@NotNull TreeIndex<FileDocument, FileFolder> index,
+									@NotNull DataInput in)
+			throws IOException {
+		((FileIndex) index).setLastFullUpdate(in.readLong());
+	}
+	
+	protected void writeFolderExtras(	@NotNull FileFolder folder,
+										@NotNull DataOutput out)
+			throws IOException {
+		Long scanLastModified = folder.getScanLastModified();
+		out.writeBoolean(scanLastModified != null);
+		if (scanLastModified == null)
+			return;
+		out.writeLong(scanLastModified);
+		out.writeInt(folder.getScanEntryCount());
+		out.writeLong(folder.getScanEntryHash());
+	}
+	
+	protected void readFolderExtras(@NotNull FileFolder folder,
+									@NotNull DataInput in)
+			throws IOException {
+		if (!in.readBoolean()) {
+			folder.clearScanState();
+			return;
+		}
+		long scanLastModified = in.readLong();
+		int scanEntryCount = in.readInt();
+		folder.setScanState(scanLastModified, scanEntryCount, in.readLong());
+	}
+	
+	@Nullable
+	protected FileFolder getAttachedFolder(@NotNull FileDocument doc) {
+		return doc.getHtmlFolder();
+	}
+	
+	protected void setAttachedFolder(	@NotNull FileDocument doc,
+										@NotNull FileFolder folder) {
+		doc.setHtmlFolder(folder);
+	}
+
+}
@@ -15,12 +15,17 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import net.sourceforge.docfetcher.TestFiles;
+import net.sourceforge.docfetcher.enums.ProgramConf;
 import net.sourceforge.docfetcher.model.TreeIndex.IndexingResult;
 import net.sourceforge.docfetcher.model.UtilModel;
 import net.sourceforge.docfetcher.model.index.IndexingError;
@@ -29,6 +34,7 @@ import net.sourceforge.docfetcher.model.index.IndexingInfo.InfoType;
 import net.sourceforge.docfetcher.model.index.IndexingReporter;
 import net.sourceforge.docfetcher.util.AppUtil;
 import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
 import net.sourceforge.docfetcher.util.collect.ListMap;
 import net.sourceforge.docfetcher.util.collect.ListMap.Entry;
 
@@ -333,6 +339,256 @@ public final class FileIndexTest {
 		System.setErr(stdErr);
 	}
 	
+	/**
+	 * Checks that indexing with multiple parser threads produces the same
+	 * results as sequential indexing, and that subsequent index updates
+	 * correctly detect added, modified and removed files.
+	 */
+	@Test
+	public void testParallelParsing() throws Exception {
+		File tempDir = Util.createTempDir();
+		int fileCount = 50;
+		for (int i = 0; i < fileCount; i++) {
+			File subDir = new File(tempDir, "dir" + (i % 5));
+			subDir.mkdirs();
+			File textFile = new File(subDir, "file" + i + ".txt");
+			Files.write("Hello World " + i, textFile, Charsets.UTF_8);
+		}
+		
+		ProgramConf.Int.IndexingParserThreads.load("4");
+		try {
+			FileIndex index = new FileIndex(null, tempDir);
+			CountingReporter reporter = new CountingReporter();
+			index.update(reporter, null);
+			assertEquals(fileCount, reporter.extractCount);
+			assertEquals(0, reporter.errorCount);
+			UtilModel.assertDocCount(index.getLuceneDir(), fileCount);
+			UtilModel.assertResultCount(index.getLuceneDir(), "hello", fileCount);
+			
+			File modifiedFile = new File(tempDir, "dir1/file1.txt");
+			Files.write("Goodbye", modifiedFile, Charsets.UTF_8);
+			modifiedFile.setLastModified(System.currentTimeMillis() + 1000);
+			new File(tempDir, "dir2/file2.txt").delete();
+			
+			reporter = new CountingReporter();
+			index.update(reporter, null);
+			assertEquals(1, reporter.extractCount);
+			UtilModel.assertDocCount(index.getLuceneDir(), fileCount - 1);
+			UtilModel.assertResultCount(index.getLuceneDir(), "hello", fileCount - 2);
+			UtilModel.assertResultCount(index.getLuceneDir(), "goodbye", 1);
+		}
+		finally {
+			ProgramConf.Int.IndexingParserThreads.load("1");
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+	/**
+	 * Checks that the entries of zip archives, including those of nested zip
+	 * archives, are correctly indexed with multiple parser threads.
+	 */
+	@Test
+	public void testParallelParsingInZip() throws Exception {
+		File tempDir = Util.createTempDir();
+		File zipFile = new File(tempDir, "archive.zip");
+		int entryCount = 30;
+		ZipOutputStream zipOut = new ZipOutputStream(
+			new FileOutputStream(zipFile));
+		try {
+			for (int i = 0; i < entryCount; i++) {
+				zipOut.putNextEntry(new ZipEntry("dir" + (i % 3) + "/file" + i + ".txt"));
+				zipOut.write(("Hello World " + i).getBytes(Charsets.UTF_8));
+				zipOut.closeEntry();
+			}
+			zipOut.putNextEntry(new ZipEntry("nested.zip"));
+			ZipOutputStream nestedOut = new ZipOutputStream(zipOut);
+			for (int i = 0; i < entryCount; i++) {
+				nestedOut.putNextEntry(new ZipEntry("nested" + i + ".txt"));
+				nestedOut.write(("Hello Nested " + i).getBytes(Charsets.UTF_8));
+				nestedOut.closeEntry();
+			}
+			nestedOut.finish();
+			zipOut.closeEntry();
+		}
+		finally {
+			zipOut.close();
+		}
+
+		ProgramConf.Int.IndexingParserThreads.load("4");
+		try {
+			FileIndex index = new FileIndex(null, tempDir);
+			CountingReporter reporter = new CountingReporter();
+			index.update(reporter, null);
+			assertEquals(2 * entryCount, reporter.extractCount);
+			assertEquals(0, reporter.errorCount);
+			UtilModel.assertDocCount(index.getLuceneDir(), 2 * entryCount);
+			UtilModel.assertResultCount(index.getLuceneDir(), "hello", 2 * entryCount);
+			UtilModel.assertResultCount(index.getLuceneDir(), "nested", entryCount);
+
+			reporter = new CountingReporter();
+			index.update(reporter, null);
+			assertEquals(0, reporter.extractCount);
+			UtilModel.assertDocCount(index.getLuceneDir(), 2 * entryCount);
+		}
+		finally {
+			ProgramConf.Int.IndexingParserThreads.load("1");
+			Util.deleteRecursively(tempDir);
+		}
+	}
+	
+	/**
+	 * Checks that an index update without changes on disk doesn't extract
+	 * anything, and that symlinks are skipped while zip archives on disk are
+	 * treated as folders.
+	 */
+	@Test
+	public void testUnchangedUpdateWithSymlinkAndZip() throws Exception {
+		File tempDir = Util.createTempDir();
+		try {
+			File textFile = new File(tempDir, "test.txt");
+			Files.write("Hello World", textFile, Charsets.UTF_8);
+			
+			writeZip(
+				new File(tempDir, "archive.zip"), "Hello Zip",
+				System.currentTimeMillis());
+			
+			if (!Util.IS_WINDOWS)
+				java.nio.file.Files.createSymbolicLink(
+					new File(tempDir, "link.txt").toPath(), textFile.toPath());
+			
+			FileIndex index = new FileIndex(null, tempDir);
+			CountingReporter reporter = new CountingReporter();
+			index.update(reporter, null);
+			assertEquals(2, reporter.extractCount);
+			UtilModel.assertDocCount(index.getLuceneDir(), 2);
+			
+			reporter = new CountingReporter();
+			index.update(reporter, null);
+			assertEquals(0, reporter.extractCount);
+			UtilModel.assertDocCount(index.getLuceneDir(), 2);
+		}
+		finally {
+			Util.deleteRecursively(tempDir);
+		}
+	}
+	
+	/**
+	 * Checks that index updates that compare the folders with the index on
+	 * several threads first detect changes in nested folders.
+	 */
+	@Test
+	public void testScannedUpdate() throws Exception {
+		File tempDir = Util.createTempDir();
+		File deepDir = new File(tempDir, "a/b/c");
+		deepDir.mkdirs();
+		File deepFile = new File(deepDir, "deep.txt");
+		Files.write("Hello Deep", deepFile, Charsets.UTF_8);
+		File midFile = new File(tempDir, "a/mid.txt");
+		Files.write("Hello Mid", midFile, Charsets.UTF_8);
+		File zipFile = new File(tempDir, "a/b/archive.zip");
+		writeZip(zipFile, "Hello Zip", System.currentTimeMillis() - 10000);
+
+		ProgramConf.Int.IndexingScanThreads.load("4");
+		try {
+			FileIndex index = new FileIndex(null, tempDir);
+			CountingReporter reporter = new CountingReporter();
+			index.update(reporter, null);
+			assertEquals(3, reporter.extractCount);
+
+			reporter = new CountingReporter();
+			index.update(reporter, null);
+			assertEquals(0, reporter.extractCount);
+
+			// Modified file and modified zip archive in different folders
+			Files.write("Goodbye Deep", deepFile, Charsets.UTF_8);
+			deepFile.setLastModified(deepFile.lastModified() + 2000);
+			writeZip(zipFile, "Goodbye Zip", System.currentTimeMillis());
+			zipFile.setLastModified(zipFile.lastModified() + 2000);
+			reporter = new CountingReporter();
+			index.update(reporter, null);
+			assertEquals(2, reporter.extractCount);
+			UtilModel.assertResultCount(index.getLuceneDir(), "goodbye", 2);
+
+			// Added and removed files
+			midFile.delete();
+			Files.write("Hello New", new File(deepDir, "new.txt"), Charsets.UTF_8);
+			reporter = new CountingReporter();
+			index.update(reporter, null);
+			assertEquals(1, reporter.extractCount);
+			UtilModel.assertDocCount(index.getLuceneDir(), 3);
+			UtilModel.assertResultCount(index.getLuceneDir(), "mid", 0);
+			assertEquals(0, reporter.errorCount);
+		}
+		finally {
+			ProgramConf.Int.IndexingScanThreads.load("1");
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+	private static void writeZip(	@NotNull File zipFile,
+									@NotNull String text,
+									long entryTime) throws IOException {
+		ZipOutputStream zipOut = new ZipOutputStream(
+			new FileOutputStream(zipFile));
+		try {
+			ZipEntry entry = new ZipEntry("entry.txt");
+			entry.setTime(entryTime);
+			zipOut.putNextEntry(entry);
+			zipOut.write(text.getBytes(Charsets.UTF_8));
+			zipOut.closeEntry();
+		}
+		finally {
+			zipOut.close();
+		}
+	}
+
+	/**
+	 * Checks that fast index updates skip the files in unchanged folders, but
+	 * detect added files, and that a full update detects modified files.
+	 */
+	@Test
+	public void testFastUpdate() throws Exception {
+		File tempDir = Util.createTempDir();
+		File subDir = new File(tempDir, "sub");
+		subDir.mkdir();
+		File textFile = new File(tempDir, "test.txt");
+		Files.write("Hello World", textFile, Charsets.UTF_8);
+		
+		ProgramConf.Bool.FastIndexUpdates.load("true");
+		try {
+			FileIndex index = new FileIndex(null, tempDir);
+			CountingReporter reporter = new CountingReporter();
+			index.update(reporter, null);
+			assertEquals(1, reporter.extractCount);
+			
+			// Modifying a file doesn't change the state of its folder
+			Files.write("Goodbye", textFile, Charsets.UTF_8);
+			textFile.setLastModified(textFile.lastModified() + 2000);
+			reporter = new CountingReporter();
+			index.update(reporter, null);
+			assertEquals(0, reporter.extractCount);
+			
+			// Adding a file changes the state of its folder
+			Files.write("Hello again", new File(subDir, "test2.txt"), Charsets.UTF_8);
+			reporter = new CountingReporter();
+			index.update(reporter, null);
+			assertEquals(1, reporter.extractCount);
+			UtilModel.assertDocCount(index.getLuceneDir(), 2);
+			
+			// A full update detects the modified file
+			ProgramConf.Int.FullIndexUpdateHours.load("0");
+			reporter = new CountingReporter();
+			index.update(reporter, null);
+			assertEquals(1, reporter.extractCount);
+			UtilModel.assertResultCount(index.getLuceneDir(), "goodbye", 1);
+		}
+		finally {
+			ProgramConf.Bool.FastIndexUpdates.load("false");
+			ProgramConf.Int.FullIndexUpdateHours.load("24");
+			Util.deleteRecursively(tempDir);
+		}
+	}
+	
 	// This test should not crash. See bug #3465544.
 	@Test
 	public void testFakeZipInsideSolid() {
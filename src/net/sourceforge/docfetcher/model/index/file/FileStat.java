@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.index.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import net.sourceforge.docfetcher.model.UtilModel;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+import de.schlichtherle.truezip.file.TFile;
+
+/**
+ * The attributes of a file or directory that are needed during indexing,
+ * fetched once per file so that the file system doesn't have to be queried
+ * again for each of them. For files on disk, all attributes are read with a
+ * single call that does not follow symlinks. Files inside zip archives are
+ * queried through TrueZIP instead.
+ * <p>
+ * The file/directory distinction follows TrueZIP's view: Zip archives are
+ * considered directories, while all other archives are considered files.
+ *
+ * @author Tran Nam Quang
+ */
+final class FileStat {
+
+	private final boolean isFile;
+	private final boolean isDirectory;
+	private final boolean isZipArchive;
+	private final boolean isSymLink;
+	private final long length;
+	private final long lastModified;
+
+	private FileStat(	boolean isFile,
+						boolean isDirectory,
+						boolean isZipArchive,
+						boolean isSymLink,
+						long length,
+						long lastModified) {
+		this.isFile = isFile;
+		this.isDirectory = isDirectory;
+		this.isZipArchive = isZipArchive;
+		this.isSymLink = isSymLink;
+		this.length = length;
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * Returns the attributes of the given file, or null if the file doesn't
+	 * exist anymore or its attributes can't be read.
+	 */
+	@Nullable
+	public static FileStat of(@NotNull File file) {
+		if (file instanceof TFile && ((TFile) file).isEntry())
+			return ofArchiveEntry(file);
+		BasicFileAttributes attrs;
+		try {
+			attrs = Files.readAttributes(
+				Paths.get(file.getPath()), BasicFileAttributes.class,
+				LinkOption.NOFOLLOW_LINKS);
+		}
+		catch (InvalidPathException e) {
+			return ofArchiveEntry(file);
+		}
+		catch (IOException e) {
+			return null;
+		}
+
+		boolean isFile = attrs.isRegularFile();
+		boolean isDirectory = attrs.isDirectory();
+		long lastModified = attrs.lastModifiedTime().toMillis();
+
+		/*
+		 * Files whose names look like zip archives must be checked by TrueZIP,
+		 * since it will only treat them as directories if they're valid
+		 * archives. The last-modified value of zip archives is taken from
+		 * TrueZIP as well, for consistency with earlier index updates.
+		 */
+		if (isFile && file instanceof TFile && ((TFile) file).isArchive()
+				&& file.isDirectory()) {
+			return new FileStat(
+				false, true, true, false, attrs.size(), file.lastModified());
+		}
+
+		return new FileStat(
+			isFile, isDirectory, false, attrs.isSymbolicLink(), attrs.size(),
+			lastModified);
+	}
+
+	@Nullable
+	private static FileStat ofArchiveEntry(@NotNull File file) {
+		boolean isFile = file.isFile();
+		boolean isDirectory = !isFile && file.isDirectory();
+		if (!isFile && !isDirectory)
+			return null;
+		boolean isZipArchive = isDirectory && file instanceof TFile
+				&& UtilModel.isZipArchive((TFile) file);
+		return new FileStat(
+			isFile, isDirectory, isZipArchive, Util.isSymLink(file),
+			file.length(), file.lastModified());
+	}
+
+	/**
+	 * Returns whether the given file is an entry of a zip archive, or a zip
+	 * archive itself, so that its children can only be listed by TrueZIP.
+	 */
+	static boolean isInsideArchive(@NotNull File file) {
+		return file instanceof TFile && ((TFile) file).getInnerArchive() != null;
+	}
+
+	// Returns true for files and solid archives
+	public boolean isFile() {
+		return isFile;
+	}
+
+	// Returns true for directories and zip archives
+	public boolean isDirectory() {
+		return isDirectory;
+	}
+
+	public boolean isZipArchive() {
+		return isZipArchive;
+	}
+
+	public boolean isSymLink() {
+		return isSymLink;
+	}
+
+	public long length() {
+		return length;
+	}
+
+	public long lastModified() {
+		return lastModified;
+	}
+
+}
@@ -12,8 +12,16 @@
 package net.sourceforge.docfetcher.model.index.file;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -30,6 +38,10 @@ import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
 import net.sourceforge.docfetcher.util.annotations.Nullable;
 
+import com.google.common.io.Closeables;
+
+import de.schlichtherle.truezip.file.TFile;
+
 /**
  * @author Tran Nam Quang
  */
@@ -40,12 +52,26 @@ abstract class HtmlFileLister<T extends Throwable> extends Stoppable<T> {
 	private final Collection<String> htmlExtensions;
 	private final boolean htmlPairing;
 	@Nullable private final IndexingReporter reporter;
+	@Nullable private final List<File> files;
 	
 	public HtmlFileLister(	@NotNull File parentDir,
 							@NotNull IndexingConfig config,
 							@Nullable IndexingReporter reporter) {
+		this(parentDir, null, config, reporter);
+	}
+	
+	/**
+	 * Creates a lister for the given files of the parent directory, as
+	 * returned by {@link #listFiles(File)}. If the given files are null, the
+	 * parent directory will be listed when the lister is run.
+	 */
+	public HtmlFileLister(	@NotNull File parentDir,
+							@Nullable List<File> files,
+							@NotNull IndexingConfig config,
+							@Nullable IndexingReporter reporter) {
 		Util.checkNotNull(parentDir, config);
 		this.parentDir = parentDir;
+		this.files = files;
 		this.config = config;
 		this.htmlExtensions = config.getHtmlExtensions();
 		this.htmlPairing = config.isHtmlPairing();
@@ -60,19 +86,19 @@ abstract class HtmlFileLister<T extends Throwable> extends Stoppable<T> {
 	}
 	
 	private void runWithoutHtmlPairing() {
-		for (File fileOrDir : Util.listFiles(parentDir)) {
+		for (File fileOrDir : getFiles()) {
 			if (isStopped())
 				return;
 			
-			boolean isFile;
+			FileStat stat;
 			try {
-				if (Util.isSymLink(fileOrDir))
+				stat = FileStat.of(fileOrDir);
+				if (stat == null || stat.isSymLink())
 					continue;
-				if (skip(fileOrDir))
+				if (skip(fileOrDir, stat))
 					continue;
-				isFile = fileOrDir.isFile();
 				if (ProgramConf.Bool.IgnoreJunctionsAndSymlinks.get()
-						&& !isFile && Util.isJunctionOrSymlink(fileOrDir))
+						&& !stat.isFile() && Util.isJunctionOrSymlink(fileOrDir))
 					continue;
 			}
 			catch (Throwable t) {
@@ -80,20 +106,20 @@ abstract class HtmlFileLister<T extends Throwable> extends Stoppable<T> {
 				continue;
 			}
 			
-			if (isFile) {
+			if (stat.isFile()) {
 				if (isHtmlFile(fileOrDir))
-					handleHtmlPair(fileOrDir, null);
+					handleHtmlPair(fileOrDir, stat, null);
 				else
-					handleFile(fileOrDir);
-			} else if (fileOrDir.isDirectory()) {
-				handleDir(fileOrDir);
+					handleFile(fileOrDir, stat);
+			} else if (stat.isDirectory()) {
+				handleDir(fileOrDir, stat);
 			}
 		}
 	}
 	
 	private void runWithHtmlPairing() {
-		File[] filesOrDirs = Util.listFiles(parentDir);
-		if (filesOrDirs.length == 0)
+		List<File> filesOrDirs = getFiles();
+		if (filesOrDirs.isEmpty())
 			return; // Returning early avoids allocating the two lists below
 		
 		List<File> htmlFiles = new LinkedList<File> ();
@@ -105,13 +131,13 @@ abstract class HtmlFileLister<T extends Throwable> extends Stoppable<T> {
 			if (isStopped())
 				return;
 			
-			boolean isFile;
+			FileStat stat;
 			try {
-				if (Util.isSymLink(fileOrDir))
+				stat = FileStat.of(fileOrDir);
+				if (stat == null || stat.isSymLink())
 					continue;
-				isFile = fileOrDir.isFile();
 				if (ProgramConf.Bool.IgnoreJunctionsAndSymlinks.get()
-						&& !isFile && Util.isJunctionOrSymlink(fileOrDir))
+						&& !stat.isFile() && Util.isJunctionOrSymlink(fileOrDir))
 					continue;
 			}
 			catch (Throwable t) {
@@ -119,22 +145,22 @@ abstract class HtmlFileLister<T extends Throwable> extends Stoppable<T> {
 				continue;
 			}
 			
-			if (isFile) {
+			if (stat.isFile()) {
 				if (isHtmlFile(fileOrDir))
 					htmlFiles.add(fileOrDir);
-				else if (!skip(fileOrDir))
-					handleFile(fileOrDir);
+				else if (!skip(fileOrDir, stat))
+					handleFile(fileOrDir, stat);
 			}
-			else if (fileOrDir.isDirectory()) {
+			else if (stat.isDirectory()) {
 				tempDirs.add(fileOrDir);
 			}
 		}
 		
 		/*
-		 * Bug #3538230: We've already called isFile() and isDirectory() on all
-		 * found files and directories in the previous loop, but we must do it
-		 * again in the two following loops, because enough time may have passed
-		 * due to indexing to allow the user to delete any of the files and
+		 * Bug #3538230: We've already read the attributes of all found files
+		 * and directories in the previous loop, but we must do it again in the
+		 * two following loops, because enough time may have passed due to
+		 * indexing to allow the user to delete any of the files and
 		 * directories from outside.
 		 */
 		
@@ -143,34 +169,91 @@ abstract class HtmlFileLister<T extends Throwable> extends Stoppable<T> {
 				return;
 			String dirBasename = HtmlUtil.getHtmlDirBasename(dirCandidate);
 			if (dirBasename == null) {
-				if (!skip(dirCandidate) && dirCandidate.isDirectory())
-					handleDir(dirCandidate);
+				FileStat dirStat = getDirStat(dirCandidate);
+				if (dirStat != null && !skip(dirCandidate, dirStat))
+					handleDir(dirCandidate, dirStat);
 				continue;
 			}
 			boolean htmlPairFound = false;
 			for (Iterator<File> it = htmlFiles.iterator(); it.hasNext(); ) {
 				File htmlCandidate = it.next();
 				if (Util.splitFilename(htmlCandidate)[0].equals(dirBasename)) {
-					if (!skip(htmlCandidate) && htmlCandidate.isFile()
-							&& dirCandidate.isDirectory())
-						handleHtmlPair(htmlCandidate, dirCandidate);
+					FileStat htmlStat = getFileStat(htmlCandidate);
+					if (htmlStat != null && !skip(htmlCandidate, htmlStat)
+							&& getDirStat(dirCandidate) != null)
+						handleHtmlPair(htmlCandidate, htmlStat, dirCandidate);
 					it.remove();
 					htmlPairFound = true;
 					break;
 				}
 			}
-			if (!htmlPairFound && !skip(dirCandidate)
-					&& dirCandidate.isDirectory())
-				handleDir(dirCandidate);
+			if (!htmlPairFound) {
+				FileStat dirStat = getDirStat(dirCandidate);
+				if (dirStat != null && !skip(dirCandidate, dirStat))
+					handleDir(dirCandidate, dirStat);
+			}
 		}
 		
 		// Visit unpaired html files
 		for (File htmlFile : htmlFiles) {
 			if (isStopped())
 				return;
-			if (!skip(htmlFile) && htmlFile.isFile())
-				handleHtmlPair(htmlFile, null);
+			FileStat htmlStat = getFileStat(htmlFile);
+			if (htmlStat != null && !skip(htmlFile, htmlStat))
+				handleHtmlPair(htmlFile, htmlStat, null);
+		}
+	}
+	
+	@NotNull
+	private List<File> getFiles() {
+		return files != null ? files : listFiles(parentDir);
+	}
+	
+	/**
+	 * Returns the files and directories in the given directory. Directories on
+	 * disk are listed via NIO, directories inside zip archives via TrueZIP.
+	 * Returns an empty list if the directory can't be read.
+	 */
+	@NotNull
+	static List<File> listFiles(@NotNull File parentDir) {
+		if (FileStat.isInsideArchive(parentDir))
+			return Arrays.asList(Util.listFiles(parentDir));
+		List<File> files = new ArrayList<File> ();
+		DirectoryStream<java.nio.file.Path> stream = null;
+		try {
+			stream = Files.newDirectoryStream(Paths.get(parentDir.getPath()));
+			for (java.nio.file.Path child : stream) {
+				String name = child.getFileName().toString();
+				files.add(parentDir instanceof TFile
+					? new TFile((TFile) parentDir, name)
+					: new File(parentDir, name));
+			}
+			return files;
+		}
+		catch (InvalidPathException e) {
+			return Arrays.asList(Util.listFiles(parentDir));
+		}
+		catch (IOException e) {
+			return Collections.emptyList();
+		}
+		catch (DirectoryIteratorException e) {
+			return Collections.emptyList();
 		}
+		finally {
+			Closeables.closeQuietly(stream);
+		}
+	}
+	
+	@Nullable
+	private static FileStat getFileStat(@NotNull File file) {
+		FileStat stat = FileStat.of(file);
+		return stat != null && stat.isFile() ? stat : null;
+	}
+	
+	@Nullable
+	private static FileStat getDirStat(@NotNull File dir) {
+		FileStat stat = FileStat.of(dir);
+		return stat != null && stat.isDirectory() ? stat : null;
 	}
 
 	private boolean isHtmlFile(@NotNull File file) {
@@ -201,17 +284,21 @@ abstract class HtmlFileLister<T extends Throwable> extends Stoppable<T> {
 	}
 	
 	// guaranteed not to be an HTML file
-	protected abstract void handleFile(@NotNull File file);
+	protected abstract void handleFile(	@NotNull File file,
+										@NotNull FileStat stat);
 	
 	// if HTML pairing is off, this method will be called on HTML files as well,
 	// but with empty htmlDir argument
 	protected abstract void handleHtmlPair(	@NotNull File htmlFile,
+											@NotNull FileStat htmlStat,
 											@Nullable File htmlDir);
 	
 	// dir will never be a symlink
-	protected abstract void handleDir(@NotNull File dir);
+	protected abstract void handleDir(	@NotNull File dir,
+										@NotNull FileStat stat);
 	
 	// Will be called before any of the handle methods is called
-	protected abstract boolean skip(@NotNull File fileOrDir);
+	protected abstract boolean skip(@NotNull File fileOrDir,
+									@NotNull FileStat stat);
 
 }
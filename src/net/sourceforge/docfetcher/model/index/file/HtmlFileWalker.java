@@ -38,20 +38,21 @@ abstract class HtmlFileWalker extends Stoppable <Exception> {
 	
 	private void run(@NotNull File parentDir) {
 		new HtmlFileLister <Exception> (parentDir, config, null) {
-			protected void handleFile(File file) {
+			protected void handleFile(File file, FileStat stat) {
 				if (HtmlFileWalker.this.isStopped())
 					stop(); // Stop HTMML file lister
 				else
 					HtmlFileWalker.this.handleFile(file);
 			}
 			protected void handleHtmlPair(	File htmlFile,
+											FileStat htmlStat,
 											File htmlDir) {
 				if (HtmlFileWalker.this.isStopped())
 					stop(); // Stop HTMML file lister
 				else
 					HtmlFileWalker.this.handleHtmlPair(htmlFile, htmlDir);
 			}
-			protected void handleDir(File dir) {
+			protected void handleDir(File dir, FileStat stat) {
 				if (HtmlFileWalker.this.isStopped()) {
 					stop(); // Stop HTMML file lister
 					return;
@@ -59,7 +60,7 @@ abstract class HtmlFileWalker extends Stoppable <Exception> {
 				HtmlFileWalker.this.handleDir(dir);
 				HtmlFileWalker.this.run(dir);
 			}
-			protected boolean skip(File fileOrDir) {
+			protected boolean skip(File fileOrDir, FileStat stat) {
 				return HtmlFileWalker.this.skip(fileOrDir);
 			}
 		}.runSilently();
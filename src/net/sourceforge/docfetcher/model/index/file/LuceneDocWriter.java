@@ -11,7 +11,6 @@
 
 package net.sourceforge.docfetcher.model.index.file;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.List;
 
@@ -29,28 +28,30 @@ import org.apache.lucene.document.Document;
 abstract class LuceneDocWriter {
 	
 	public final void add(	@NotNull FileDocument doc,
-							@NotNull File file,
+							long fileSize,
 							@NotNull ParseResult parseResult)
 			throws IOException, CheckedOutOfMemoryError {
-		Document luceneDoc = createLuceneDoc(doc, file, parseResult);
+		Document luceneDoc = createLuceneDoc(doc, fileSize, parseResult);
 		write(doc, luceneDoc, true);
 	}
 	
 	public void update(	@NotNull FileDocument doc,
-						@NotNull File file,
+						long fileSize,
 						@NotNull ParseResult parseResult)
 			throws IOException, CheckedOutOfMemoryError {
-		Document luceneDoc = createLuceneDoc(doc, file, parseResult);
+		Document luceneDoc = createLuceneDoc(doc, fileSize, parseResult);
 		write(doc, luceneDoc, false);
 	}
 
 	@NotNull
 	private Document createLuceneDoc(	@NotNull FileDocument doc,
-										@NotNull File file,
-										@NotNull ParseResult parseResult) {
+										long fileSize,
+										@NotNull ParseResult parseResult)
+			throws IOException {
 		/*
-		 * The given file might be a temporary one, so we'll have to get the
-		 * original filename and last-modified value from the document.
+		 * The document might have been parsed from a temporary file or from
+		 * a stream, so we'll have to get the original filename and
+		 * last-modified value from the document.
 		 */
 		Document luceneDoc = new Document();
 		String filename = doc.getName();
@@ -66,7 +67,7 @@ abstract class LuceneDocWriter {
 				luceneDoc.add(Fields.TITLE.create(Util.splitFilename(filename)[0]));
 			else
 				luceneDoc.add(Fields.TITLE.create(title));
-			luceneDoc.add(Fields.SIZE.create(file.length()));
+			luceneDoc.add(Fields.SIZE.create(fileSize));
 			luceneDoc.add(Fields.LAST_MODIFIED.create(String.valueOf(doc.getLastModified())));
 			List<String> authors = parseResult.getAuthors();
 			if (authors != null)
@@ -81,8 +82,12 @@ abstract class LuceneDocWriter {
 		 * won't split the filename at the dot before the file extension, so the
 		 * user wouldn't find the file if we store only the full filename and
 		 * the user searches for the filename without extension.
+		 * 
+		 * The content is handed to Lucene as a reader, so that large texts
+		 * that were spilled to disk by the parser are tokenized as they are
+		 * read, rather than being loaded into memory first.
 		 */
-		luceneDoc.add(Fields.createContent(parseResult.getContent()));
+		luceneDoc.add(Fields.createContent(parseResult.getContentReader()));
 		StringBuilder metadata = parseResult.getMetadata();
 		metadata.append(filename);
 		String basename = Util.splitFilename(filename)[0];
@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.index.file;
+
+import java.io.File;
+
+import net.sourceforge.docfetcher.model.Path;
+import net.sourceforge.docfetcher.model.index.BoundedParsePipeline;
+import net.sourceforge.docfetcher.model.index.IndexingError.ErrorType;
+import net.sourceforge.docfetcher.model.index.IndexingException;
+import net.sourceforge.docfetcher.model.index.IndexingReporter;
+import net.sourceforge.docfetcher.model.parse.ParseException;
+import net.sourceforge.docfetcher.model.parse.ParseResult;
+import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.NotThreadSafe;
+
+/**
+ * The parse pipeline of file indexes. The indexing thread walks the file tree and submits added and modified files, a pool of worker
+ * threads extracts their text via {@link FileContext#parse}, and the parse
+ * results are handed back to the indexing thread, which writes them to the
+ * Lucene index in submission order.
+ * <p>
+ * Only the text extraction runs on the worker threads. All modifications of
+ * the document tree and all writes to the Lucene index remain on the indexing
+ * thread, so that the tree is left in a consistent state if the indexing is
+ * canceled or fails.
+ * <p>
+ * Zip entries can be submitted too. TrueZIP reads the central directory of a
+ * zip archive only once when mounting it, and the entries are then inflated
+ * and parsed on the worker threads. The pipeline must be flushed before the
+ * archive is unmounted.
+ *
+ * @author Tran Nam Quang
+ */
+@NotThreadSafe
+final class ParsePipeline extends BoundedParsePipeline<ParsePipeline.FileJob> {
+
+	public ParsePipeline(int threadCount, long maxPendingBytes) {
+		super(threadCount, maxPendingBytes);
+	}
+
+	/**
+	 * Submits the given document for text extraction. If the pipeline is full,
+	 * this method blocks until enough pending documents have been written.
+	 * Documents whose extraction has already finished are written before this
+	 * method returns.
+	 */
+	public void submit(	@NotNull FileContext context,
+						@NotNull FileDocument doc,
+						@NotNull File file,
+						boolean added) throws IndexingException {
+		submit(new FileJob(context, doc, file, added));
+	}
+
+	protected void complete(@NotNull FileJob job) throws IndexingException {
+		FileContext context = job.context;
+		FileDocument doc = job.doc;
+		boolean success = false;
+		try {
+			success = context.write(
+				doc, job.size, job.task.getResult(), job.added);
+		}
+		catch (ParseException e) {
+			context.fail(ErrorType.PARSING, doc, e);
+		}
+		catch (CheckedOutOfMemoryError e) {
+			context.fail(ErrorType.OUT_OF_MEMORY, doc, e.getCause());
+		}
+
+		/*
+		 * If a modified document couldn't be indexed, remove it from the Lucene
+		 * index, but keep it in the tree so we won't index it again on the next
+		 * index update.
+		 */
+		if (!success && !job.added)
+			context.deleteFromIndex(doc.getUniqueId());
+	}
+
+	// Marks the document as modified, so the next update will index it again
+	protected void discard(@NotNull FileJob job) {
+		job.doc.setLastModified(-1);
+	}
+
+	static final class FileJob extends Job {
+		private final FileContext context;
+		private final FileDocument doc;
+		private final boolean added;
+		private final long size;
+		private final ParseTask task;
+
+		public FileJob(	@NotNull final FileContext context,
+						@NotNull FileDocument doc,
+						@NotNull final File file,
+						boolean added) {
+			this.context = context;
+			this.doc = doc;
+			this.added = added;
+			this.size = file.length();
+
+			// Captured on the indexing thread, since the tree isn't thread-safe
+			final String filename = doc.getName();
+			final Path path = doc.getPath();
+
+			task = new ParseTask() {
+				protected ParseResult parse() throws Exception {
+					/*
+					 * Progress reports from the parsers are discarded, since
+					 * the reporter attaches them to the most recently reported
+					 * document, which isn't necessarily the one being parsed
+					 * here.
+					 */
+					return context.parse(
+						file, filename, path, IndexingReporter.nullReporter);
+				}
+			};
+			addTask(task, size);
+		}
+	}
+
+}
@@ -12,7 +12,6 @@
 package net.sourceforge.docfetcher.model.index.file;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Map;
@@ -25,7 +24,6 @@ import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
 import net.sourceforge.docfetcher.util.annotations.Nullable;
 
-import com.google.common.collect.Maps;
 import com.google.common.io.Closeables;
 import com.google.common.io.NullOutputStream;
 
@@ -120,10 +118,8 @@ final class RarTree extends SolidArchiveTree<FileHeader> {
 		return RarEntryReader.instance;
 	}
 	
-	protected Map<Integer, File> doUnpack(	Map<Integer, TreeNode> unpackMap,
-											TempFileFactory tempFileFactory)
+	protected void doUnpack(Map<Integer, TreeNode> unpackMap, EntrySink sink)
 			throws IOException {
-		Map<Integer, File> indexFileMap = Maps.newHashMap();
 		Archive archive = null;
 		try {
 			archive = new Archive(archiveFile);
@@ -148,9 +144,10 @@ final class RarTree extends SolidArchiveTree<FileHeader> {
 			for (int i = 0;; i++) {
 				/*
 				 * We can abort early if we've extracted all needed files before
-				 * reaching the end of the archive.
+				 * reaching the end of the archive, or if the unpacking was
+				 * aborted.
 				 */
-				if (unpackMap.isEmpty())
+				if (unpackMap.isEmpty() || sink.isAborted())
 					break;
 				
 				fh = archive.nextFileHeader();
@@ -172,11 +169,14 @@ final class RarTree extends SolidArchiveTree<FileHeader> {
 				
 				try {
 					if (treeNode != null) {
-						File file = tempFileFactory.createTempFile(treeNode);
-						OutputStream out = new FileOutputStream(file);
+						/*
+						 * The stream is only closed on success; on failure,
+						 * it is closed by the sink, after the entry has been
+						 * marked as broken.
+						 */
+						OutputStream out = sink.open(i);
 						archive.extractFile(fh, out);
-						Closeables.closeQuietly(out);
-						indexFileMap.put(i, file);
+						out.close();
 					}
 					else if (isSolid) {
 						archive.extractFile(fh, nullOut);
@@ -188,14 +188,13 @@ final class RarTree extends SolidArchiveTree<FileHeader> {
 					 * bug #3443490.
 					 */
 					if (treeNode != null) // Ignore errors for entries written to NullOutputStream
-						failReporter.fail(ErrorType.OUT_OF_MEMORY, treeNode, e);
+						sink.fail(i, ErrorType.OUT_OF_MEMORY, e);
 				}
 				catch (Exception e) {
 					if (treeNode != null) // Ignore errors for entries written to NullOutputStream
-						failReporter.fail(ErrorType.ARCHIVE_ENTRY, treeNode, e);
+						sink.fail(i, ErrorType.ARCHIVE_ENTRY, e);
 				}
 			}
-			return indexFileMap;
 		} catch (RarException e) {
 			throw new IOException(e);
 		} finally {
@@ -13,6 +13,7 @@ package net.sourceforge.docfetcher.model.index.file;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Map;
 import java.util.NoSuchElementException;
 
@@ -20,14 +21,13 @@ import net.sourceforge.docfetcher.model.Path;
 import net.sourceforge.docfetcher.model.TreeNode;
 import net.sourceforge.docfetcher.model.index.IndexingConfig;
 import net.sourceforge.docfetcher.model.index.IndexingError.ErrorType;
-import net.sourceforge.docfetcher.model.index.IndexingException;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
 import net.sourceforge.docfetcher.util.annotations.Nullable;
 import SevenZip.Archive.IInArchive;
 import SevenZip.Archive.SevenZipEntry;
 import SevenZip.Archive.SevenZip.Handler;
 
-import com.google.common.collect.Maps;
+import com.google.common.io.NullOutputStream;
 
 final class SevenZipTree extends SolidArchiveTree <SevenZipEntry> {
 	
@@ -104,9 +104,8 @@ final class SevenZipTree extends SolidArchiveTree <SevenZipEntry> {
 		archive.close();
 	}
 	
-	protected Map<Integer, File> doUnpack(	Map<Integer, TreeNode> unpackMap,
-											TempFileFactory tempFileFactory)
-			throws IOException {
+	protected void doUnpack(Map<Integer, TreeNode> unpackMap,
+							final EntrySink sink) throws IOException {
 		// Put indices in an int array
 		int[] indices = new int[unpackMap.size()];
 		int i = 0;
@@ -114,8 +113,25 @@ final class SevenZipTree extends SolidArchiveTree <SevenZipEntry> {
 			indices[i++] = index;
 		
 		// Unpack files
-		Unpacker unpacker = new Unpacker(unpackMap, tempFileFactory);
-		return unpacker.unpack(indices);
+		new SevenZipUnpacker<Void>(archive) {
+			public OutputStream getOutputStream(int index) throws IOException {
+				try {
+					OutputStream out = sink.open(index);
+					return out == null ? new NullOutputStream() : out;
+				}
+				catch (IOException e) {
+					sink.fail(index, ErrorType.ARCHIVE_ENTRY, e);
+					throw e;
+				}
+			}
+			public Void getUnpackResult() {
+				return null;
+			}
+			protected void handleCrcError(int index) {
+				sink.fail(index, ErrorType.ARCHIVE_ENTRY, new IOException(
+					"CRC error in archive entry."));
+			}
+		}.unpack(indices);
 	}
 	
 	private static final class SevenZipEntryReader implements
@@ -150,32 +166,4 @@ final class SevenZipTree extends SolidArchiveTree <SevenZipEntry> {
 		}
 	}
 
-	private class Unpacker extends SevenZipUnpacker <Map<Integer, File>> {
-		private final Map<Integer, TreeNode> unpackMap;
-		private final TempFileFactory tempFileFactory;
-		private Map<Integer, File> indexFileMap = Maps.newHashMap();
-		
-		public Unpacker(Map<Integer, TreeNode> unpackMap, TempFileFactory tempFileFactory) {
-			super(archive);
-			this.unpackMap = unpackMap;
-			this.tempFileFactory = tempFileFactory;
-		}
-		
-		public File getOutputFile(int index) throws IOException {
-			TreeNode treeNode = unpackMap.get(index);
-			try {
-				File file = tempFileFactory.createTempFile(treeNode);
-				indexFileMap.put(index, file);
-				return file;
-			} catch (IndexingException e) {
-				failReporter.fail(ErrorType.ARCHIVE_ENTRY, treeNode, e);
-				throw e.getIOException();
-			}
-		}
-		
-		public Map<Integer, File> getUnpackResult() {
-			return indexFileMap;
-		}
-	}
-	
 }
\ No newline at end of file
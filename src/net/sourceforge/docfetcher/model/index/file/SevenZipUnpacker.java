@@ -11,8 +11,6 @@
 
 package net.sourceforge.docfetcher.model.index.file;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Arrays;
@@ -56,12 +54,22 @@ abstract class SevenZipUnpacker<T> {
 		return getUnpackResult();
 	}
 
-	public abstract File getOutputFile(int index) throws IOException;
+	// the returned stream will be closed by J7Zip after the entry was unpacked
+	@NotNull
+	public abstract OutputStream getOutputStream(int index) throws IOException;
 
 	public abstract T getUnpackResult();
 
+	/*
+	 * Called if the entry with the given index failed the CRC check, before
+	 * J7Zip closes the entry's stream.
+	 */
+	protected void handleCrcError(int index) throws IOException {
+	}
+
 	private class Callback implements IArchiveExtractCallback {
 		private final int[] indices;
+		private int currentIndex = -1; // -1 if the entry isn't unpacked
 
 		public Callback(int[] indices) {
 			this.indices = Util.checkNotNull(indices);
@@ -79,17 +87,21 @@ abstract class SevenZipUnpacker<T> {
 			 * including those we don't need. For the latter, we can give J7Zip
 			 * a NullOutputStream in order to avoid consuming disk space.
 			 * 
-			 * 2) Wrapping the FileOutputStream into a BufferedOutputStream does
+			 * 2) Wrapping a FileOutputStream into a BufferedOutputStream does
 			 * not seem to have a significant effect on performance.
 			 * 
 			 * 3) Not sure what to do if we fail to create the output stream.
 			 * Here we're letting the IOException propagate outwards, but J7zip
 			 * might expect HRESULT.E_FAIL or something else.
 			 */
-			if (Arrays.binarySearch(indices, index) < 0)
+			if (Arrays.binarySearch(indices, index) < 0) {
+				currentIndex = -1;
 				outStream[0] = new NullOutputStream();
-			else
-				outStream[0] = new FileOutputStream(getOutputFile(index));
+			}
+			else {
+				currentIndex = index;
+				outStream[0] = getOutputStream(index);
+			}
 			return HRESULT.S_OK;
 		}
 
@@ -103,6 +115,14 @@ abstract class SevenZipUnpacker<T> {
 
 		public final int SetOperationResult(int resultEOperationResult)
 				throws IOException {
+			/*
+			 * Data errors are not reported here, since J7Zip also reports
+			 * them for encrypted entries (see the note about encrypted
+			 * archives above).
+			 */
+			if (currentIndex >= 0
+					&& resultEOperationResult == IInArchive.NExtract_NOperationResult_kCRCError)
+				handleCrcError(currentIndex);
 			return HRESULT.S_OK;
 		}
 
@@ -28,8 +28,9 @@ final class SimpleDocWriter extends LuceneDocWriter implements Closeable {
 	
 	private final IndexWriterAdapter writer;
 	
-	public SimpleDocWriter(@NotNull Directory luceneDir) throws IOException {
-		writer = new IndexWriterAdapter(luceneDir);
+	public SimpleDocWriter(	@NotNull Directory luceneDir,
+							boolean isRebuild) throws IOException {
+		writer = new IndexWriterAdapter(luceneDir, isRebuild);
 	}
 	
 	protected boolean appendMetadata() {
@@ -17,6 +17,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import net.sourceforge.docfetcher.enums.ProgramConf;
 import net.sourceforge.docfetcher.model.Cancelable;
 import net.sourceforge.docfetcher.model.Path;
 import net.sourceforge.docfetcher.model.TreeNode;
@@ -24,6 +25,7 @@ import net.sourceforge.docfetcher.model.index.IndexingConfig;
 import net.sourceforge.docfetcher.model.index.IndexingReporter;
 import net.sourceforge.docfetcher.model.index.MutableInt;
 import net.sourceforge.docfetcher.model.index.file.SolidArchiveTree.FailReporter;
+import net.sourceforge.docfetcher.model.parse.ParseService;
 import net.sourceforge.docfetcher.util.annotations.MutableCopy;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
 import net.sourceforge.docfetcher.util.annotations.Nullable;
@@ -55,7 +57,7 @@ final class SolidArchiveContext extends FileContext implements FailReporter {
 	                              	boolean isTempArchive,
 	                              	@Nullable File indexParentDir) {
 		super(config, zipDetector, writer, reporter, originalPath, cancelable,
-			fileCount, indexParentDir);
+			fileCount, indexParentDir, null);
 		this.isTempArchive = isTempArchive;
 	}
 	
@@ -80,19 +82,51 @@ final class SolidArchiveContext extends FileContext implements FailReporter {
 		return getConfig();
 	}
 	
+	// Returns the added and modified documents and nested archives that must
+	// be unpacked to temporary files, i.e. all those not returned by getStreamList
 	@MutableCopy
 	@NotNull
 	public List<TreeNode> getUnpackList() {
 		int size = addedDocs.size() + modifiedDocs.size() + nestedArchives.size();
 		List<TreeNode> unpackList = new ArrayList<TreeNode>(size);
 		if (size > 0) {
-			unpackList.addAll(addedDocs.keySet());
-			unpackList.addAll(modifiedDocs.keySet());
+			for (FileDocument doc : addedDocs.keySet())
+				if (!isStreamable(doc))
+					unpackList.add(doc);
+			for (FileDocument doc : modifiedDocs.keySet())
+				if (!isStreamable(doc))
+					unpackList.add(doc);
 			unpackList.addAll(nestedArchives.keySet());
 		}
 		return unpackList;
 	}
 	
+	// Returns the added and modified documents that can be parsed while
+	// they're unpacked
+	@MutableCopy
+	@NotNull
+	public List<FileDocument> getStreamList() {
+		List<FileDocument> streamList = new ArrayList<FileDocument>();
+		for (FileDocument doc : addedDocs.keySet())
+			if (isStreamable(doc))
+				streamList.add(doc);
+		for (FileDocument doc : modifiedDocs.keySet())
+			if (isStreamable(doc))
+				streamList.add(doc);
+		return streamList;
+	}
+	
+	/*
+	 * Documents with HTML folders must be unpacked, since the files in the
+	 * HTML folder are appended to them after they have been parsed.
+	 */
+	private boolean isStreamable(@NotNull FileDocument doc) {
+		return ProgramConf.Bool.StreamArchiveEntries.get()
+				&& doc.getHtmlFolder() == null
+				&& ParseService.canParseStream(
+					getConfig(), doc.getName(), doc.getPath());
+	}
+	
 	public boolean isTempArchive() {
 		return isTempArchive;
 	}
@@ -13,10 +13,16 @@ package net.sourceforge.docfetcher.model.index.file;
 
 import java.io.Closeable;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import net.sourceforge.docfetcher.enums.ProgramConf;
 import net.sourceforge.docfetcher.model.Folder;
@@ -39,8 +45,11 @@ import net.sourceforge.docfetcher.util.collect.LazyList;
 import net.sourceforge.docfetcher.util.collect.SafeKeyMap;
 
 import com.google.common.base.Predicate;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.io.Closeables;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 /**
  * Generic parameter E is the type of the archive entries.
@@ -89,6 +98,23 @@ abstract class SolidArchiveTree<E> implements Closeable {
 		public boolean isEncrypted(E entry);
 	}
 	
+	/**
+	 * Receives the archive entries that are streamed by
+	 * {@link SolidArchiveTree#unpackAndStream(Iterable, Iterable, EntryStreamHandler)}
+	 * instead of being unpacked to temporary files.
+	 */
+	public interface EntryStreamHandler {
+		/**
+		 * Handles the given archive entry, which is still being unpacked on
+		 * another thread while this method reads from the given input stream.
+		 * The input stream is closed after this method returns, and any unread
+		 * bytes are skipped. Returns whether the unpacking should be stopped.
+		 */
+		boolean handleEntry(@NotNull TreeNode treeNode,
+							@NotNull InputStream in,
+							long size) throws IndexingException;
+	}
+	
 	protected class TempFileFactory {
 		@NotNull
 		public File createTempFile(@NotNull TreeNode treeNode)
@@ -123,6 +149,7 @@ abstract class SolidArchiveTree<E> implements Closeable {
 	
 	private final FileFolder archiveFolder;
 	private final SafeKeyMap<Path, EntryData> entryDataMap = SafeKeyMap.createHashMap();
+	private final List<ArchiveEntryDirectory.Entry> fileEntries = Lists.newArrayList();
 	private final TempFileFactory defaultTempFileFactory = new TempFileFactory();
 	private final IndexingConfig config;
 	protected final FailReporter failReporter;
@@ -210,6 +237,8 @@ abstract class SolidArchiveTree<E> implements Closeable {
 					EntryData entryData = new EntryData(
 						i, unpackedSize, innerPath, isEncrypted);
 					entryDataMap.put(childPath, entryData);
+					fileEntries.add(new ArchiveEntryDirectory.Entry(
+						innerPath, i, unpackedSize));
 				}
 			}
 		}
@@ -291,6 +320,15 @@ abstract class SolidArchiveTree<E> implements Closeable {
 	protected abstract ArchiveEntryReader<E> getArchiveEntryReader();
 	
 	public abstract void close() throws IOException;
+	
+	/**
+	 * Returns all file entries of the archive, including the ones that were
+	 * removed from the tree by the filters, in archive order.
+	 */
+	@NotNull
+	public final List<ArchiveEntryDirectory.Entry> getFileEntries() {
+		return Collections.unmodifiableList(fileEntries);
+	}
 
 	@RecursiveMethod
 	private static void applyHtmlPairing(@NotNull FileFolder folder) {
@@ -356,28 +394,8 @@ abstract class SolidArchiveTree<E> implements Closeable {
 	public final void unpack(	@NotNull Iterable<? extends TreeNode> unpackEntries,
 								@Nullable final File tempDir)
 			throws IOException, DiskSpaceException {
-		final long[] requiredSpace = { 0 };
-		final Map<Integer, TreeNode> unpackMap = Maps.newHashMap();
-		
-		// Collect entries to unpack, calculate required diskspace
-		for (TreeNode entry : unpackEntries) {
-			EntryData entryData = entryDataMap.getValue(entry.getPath());
-			unpackMap.put(entryData.index, entry);
-			requiredSpace[0] += entryData.size;
-			
-			// Unpack files under HTML folders if there are any
-			if (!hasHtmlFolder(entry))
-				continue;
-			new FileFolderVisitor<Exception>((FileDocument) entry) {
-				protected void visitDocument(	FileFolder parent,
-				                             	FileDocument fileDocument) {
-					Path path = fileDocument.getPath();
-					EntryData entryData = entryDataMap.getValue(path);
-					unpackMap.put(entryData.index, fileDocument);
-					requiredSpace[0] += entryData.size;
-				}
-			}.runSilently();
-		}
+		Map<Integer, TreeNode> unpackMap = Maps.newHashMap();
+		long requiredSpace = collectUnpackEntries(unpackEntries, unpackMap);
 		
 		/*
 		 * We can't check emptiness on the given Iterable in an efficient way,
@@ -386,7 +404,7 @@ abstract class SolidArchiveTree<E> implements Closeable {
 		if (unpackMap.isEmpty()) return;
 		
 		// Fail if there's not enough disk space for unpacking
-		config.checkDiskSpaceInTempDir(requiredSpace[0]);
+		config.checkDiskSpaceInTempDir(requiredSpace);
 		
 		// Create temporary file factory
 		final TempFileFactory tempFileFactory;
@@ -413,14 +431,130 @@ abstract class SolidArchiveTree<E> implements Closeable {
 		}
 		
 		// Unpack files
-		final Map<Integer, File> indexFileMap = doUnpack(unpackMap, tempFileFactory);
+		Map<Integer, TreeNode> noStreamMap = Collections.emptyMap();
+		EntrySink sink = new EntrySink(
+			unpackMap, noStreamMap, tempFileFactory, null);
+		doUnpack(Maps.newHashMap(unpackMap), sink);
+	}
+	
+	/**
+	 * Unpacks the given entries to temporary files like
+	 * {@link #unpack(Iterable, File)}, and at the same time passes the bytes of
+	 * the given stream entries to the given handler, so that the stream entries
+	 * don't have to be written to disk. Only the unpacked entries are taken
+	 * into account when checking the available disk space. The stream entries
+	 * must be documents without HTML folders.
+	 * <p>
+	 * The archive is unpacked on a separate thread in a single pass, while the
+	 * handler is called on the calling thread, in archive order. This way, the
+	 * entries of a solid archive are only decompressed once, and the memory
+	 * needed for buffering the stream entries is bounded.
+	 */
+	public final void unpackAndStream(	@NotNull Iterable<? extends TreeNode> unpackEntries,
+										@NotNull Iterable<? extends TreeNode> streamEntries,
+										@NotNull EntryStreamHandler handler)
+			throws IOException, DiskSpaceException, IndexingException {
+		final Map<Integer, TreeNode> unpackMap = Maps.newHashMap();
+		long requiredSpace = collectUnpackEntries(unpackEntries, unpackMap);
+		Map<Integer, TreeNode> streamMap = Maps.newHashMap();
+		for (TreeNode entry : streamEntries) {
+			Util.checkThat(entry instanceof FileDocument && !hasHtmlFolder(entry));
+			streamMap.put(entryDataMap.getValue(entry.getPath()).index, entry);
+		}
+		if (streamMap.isEmpty()) {
+			unpack(unpackEntries, null);
+			return;
+		}
+		
+		// Fail if there's not enough disk space for the unpacked entries
+		config.checkDiskSpaceInTempDir(requiredSpace);
+		
+		final Map<Integer, TreeNode> allEntriesMap = Maps.newHashMap(unpackMap);
+		allEntriesMap.putAll(streamMap);
+		final EntrySink sink = new EntrySink(
+			unpackMap, streamMap, defaultTempFileFactory,
+			new ArrayBlockingQueue<StreamedEntry>(MAX_QUEUED_ENTRIES));
+		final Throwable[] unpackError = { null };
+		Thread unpackThread = new Thread(getClass().getSimpleName()) {
+			public void run() {
+				try {
+					doUnpack(allEntriesMap, sink);
+				}
+				catch (Throwable t) {
+					unpackError[0] = t;
+				}
+				finally {
+					/*
+					 * An Error thrown while unpacking an entry can leave the
+					 * entry's pipe open, and the handler would then wait for
+					 * it forever.
+					 */
+					sink.failOpenPipes();
+					sink.finish();
+				}
+			}
+		};
+		unpackThread.setDaemon(true);
+		unpackThread.start();
 		
-		// Store the unpacked entries
+		boolean finished = false;
+		try {
+			while (true) {
+				StreamedEntry entry = sink.take();
+				if (entry.treeNode == null)
+					break;
+				InputStream in = entry.pipe.getInputStream();
+				try {
+					if (!sink.isAborted()
+							&& handler.handleEntry(entry.treeNode, in, entry.size))
+						sink.abort();
+				}
+				finally {
+					Closeables.closeQuietly(in);
+				}
+				sink.reportFailures();
+			}
+			finished = true;
+		}
+		finally {
+			/*
+			 * If the handler threw an exception, the unpacking thread might
+			 * still be waiting for us to read the remaining entries.
+			 */
+			if (!finished) {
+				sink.abort();
+				StreamedEntry entry;
+				while ((entry = sink.take()).treeNode != null)
+					entry.pipe.closeInput();
+			}
+			Uninterruptibles.joinUninterruptibly(unpackThread);
+		}
+		sink.reportFailures();
+		
+		// Errors caused by aborting the unpacking are expected
+		Throwable t = unpackError[0];
+		if (t == null || sink.isAborted())
+			return;
+		if (t instanceof IOException)
+			throw (IOException) t;
+		if (t instanceof RuntimeException)
+			throw (RuntimeException) t;
+		if (t instanceof Error)
+			throw (Error) t;
+		throw new IOException(t);
+	}
+	
+	// Puts the given entries and the files under their HTML folders into the
+	// given map and returns the required disk space
+	private long collectUnpackEntries(	@NotNull Iterable<? extends TreeNode> unpackEntries,
+										@NotNull final Map<Integer, TreeNode> unpackMap) {
+		final long[] requiredSpace = { 0 };
 		for (TreeNode entry : unpackEntries) {
 			EntryData entryData = entryDataMap.getValue(entry.getPath());
-			entryData.file = indexFileMap.get(entryData.index); // file may be null
+			unpackMap.put(entryData.index, entry);
+			requiredSpace[0] += entryData.size;
 			
-			// Store unpacked entries underneath HTML folders
+			// Unpack files under HTML folders if there are any
 			if (!hasHtmlFolder(entry))
 				continue;
 			new FileFolderVisitor<Exception>((FileDocument) entry) {
@@ -428,10 +562,12 @@ abstract class SolidArchiveTree<E> implements Closeable {
 				                             	FileDocument fileDocument) {
 					Path path = fileDocument.getPath();
 					EntryData entryData = entryDataMap.getValue(path);
-					entryData.file = indexFileMap.get(entryData.index); // file may be null
+					unpackMap.put(entryData.index, fileDocument);
+					requiredSpace[0] += entryData.size;
 				}
 			}.runSilently();
 		}
+		return requiredSpace[0];
 	}
 	
 	private static boolean hasHtmlFolder(@NotNull TreeNode treeNode) {
@@ -440,16 +576,197 @@ abstract class SolidArchiveTree<E> implements Closeable {
 		return ((FileDocument) treeNode).getHtmlFolder() != null;
 	}
 	
-	// Subclasser should not report anything except failure on single archive entries
-	// Subclasser can use this.getTreeNode(int) to get the document associated with an index,
-	// which is useful for naming temporary files
+	// Subclasser should not report anything except failure on single archive entries,
+	// which must be reported via EntrySink.fail
+	// The unpacked entries must be written to the output streams returned by EntrySink.open
 	// The list of indices may not be sorted
 	// Subclasser is allowed to modify the unpackMap
-	@NotNull
-	protected abstract Map<Integer, File> doUnpack(	@NotNull Map<Integer, TreeNode> unpackMap,
-													@NotNull TempFileFactory tempFileFactory)
+	// May be called on a thread other than the one that created the receiver
+	protected abstract void doUnpack(	@NotNull Map<Integer, TreeNode> unpackMap,
+										@NotNull EntrySink sink)
 			throws IOException;
 	
+	private static final class StreamedEntry {
+		@Nullable private final TreeNode treeNode; // null marks the last entry
+		@Nullable private final EntryPipe pipe;
+		private final long size;
+
+		public StreamedEntry(	@Nullable TreeNode treeNode,
+								@Nullable EntryPipe pipe,
+								long size) {
+			this.treeNode = treeNode;
+			this.pipe = pipe;
+			this.size = size;
+		}
+	}
+	
+	private static final class EntryFailure {
+		private final ErrorType type;
+		private final TreeNode treeNode;
+		@Nullable private final Throwable cause;
+
+		public EntryFailure(@NotNull ErrorType type,
+							@NotNull TreeNode treeNode,
+							@Nullable Throwable cause) {
+			this.type = type;
+			this.treeNode = treeNode;
+			this.cause = cause;
+		}
+	}
+	
+	/*
+	 * Bounds the memory used for streaming: The unpacking thread can be at
+	 * most this many entries ahead of the handler, each of which occupies at
+	 * most one pipe buffer.
+	 */
+	private static final int MAX_QUEUED_ENTRIES = 16;
+	private static final int PIPE_BUFFER_SIZE = 64 * 1024;
+	
+	/**
+	 * Provides the output streams for the unpacked archive entries: Either
+	 * streams to temporary files, or, when streaming, pipes to the entry stream
+	 * handler. When streaming, failures on single archive entries are reported
+	 * on the thread of the entry stream handler.
+	 */
+	protected final class EntrySink {
+		private final Map<Integer, TreeNode> unpackMap;
+		private final Map<Integer, TreeNode> streamMap;
+		private final TempFileFactory tempFileFactory;
+		@Nullable private final BlockingQueue<StreamedEntry> queue; // null if not streaming
+		private final Map<Integer, EntryPipe> pipes = Maps.newHashMap();
+		private final Map<Integer, OutputStream> fileOutputs = Maps.newHashMap();
+		private final List<EntryFailure> failures = Lists.newArrayList();
+		private volatile boolean isAborted = false;
+		
+		private EntrySink(	@NotNull Map<Integer, TreeNode> unpackMap,
+							@NotNull Map<Integer, TreeNode> streamMap,
+							@NotNull TempFileFactory tempFileFactory,
+							@Nullable BlockingQueue<StreamedEntry> queue) {
+			this.unpackMap = unpackMap;
+			this.streamMap = streamMap;
+			this.tempFileFactory = tempFileFactory;
+			this.queue = queue;
+			
+			// Forget files from previous unpack operations
+			for (TreeNode treeNode : unpackMap.values())
+				entryDataMap.getValue(treeNode.getPath()).file = null;
+		}
+		
+		/**
+		 * Returns the output stream for the archive entry with the given index,
+		 * or null if the entry doesn't need to be unpacked. The caller is
+		 * responsible for closing the returned stream.
+		 */
+		@Nullable
+		public OutputStream open(int index) throws IOException {
+			TreeNode treeNode = streamMap.get(index);
+			if (treeNode != null) {
+				if (isAborted)
+					throw new IOException("Unpacking was aborted.");
+				long size = entryDataMap.getValue(treeNode.getPath()).size;
+				EntryPipe pipe = new EntryPipe(PIPE_BUFFER_SIZE);
+				pipes.put(index, pipe);
+				Uninterruptibles.putUninterruptibly(
+					queue, new StreamedEntry(treeNode, pipe, size));
+				return pipe.getOutputStream();
+			}
+			treeNode = unpackMap.get(index);
+			if (treeNode == null)
+				return null;
+			File file;
+			try {
+				file = tempFileFactory.createTempFile(treeNode);
+			}
+			catch (IndexingException e) {
+				throw e.getIOException();
+			}
+			OutputStream out = new FileOutputStream(file);
+			entryDataMap.getValue(treeNode.getPath()).file = file;
+			fileOutputs.put(index, out);
+			return out;
+		}
+		
+		/**
+		 * Reports that the archive entry with the given index couldn't be
+		 * unpacked. Failures on entries that don't need to be unpacked are
+		 * ignored. This method closes the output stream of the entry, which
+		 * must not be closed before calling this method, since closing the
+		 * stream of a streamed entry marks the end of the entry.
+		 */
+		public void fail(	int index,
+							@NotNull ErrorType type,
+							@Nullable Throwable cause) {
+			TreeNode treeNode = streamMap.get(index);
+			if (treeNode == null)
+				treeNode = unpackMap.get(index);
+			if (treeNode == null)
+				return;
+			
+			/*
+			 * The failure must be recorded before the pipe is failed, so that
+			 * it is reported as soon as the handler is done with the entry.
+			 */
+			if (!isAborted) {
+				if (queue == null) {
+					failReporter.fail(type, treeNode, cause);
+				}
+				else {
+					synchronized (failures) {
+						failures.add(new EntryFailure(type, treeNode, cause));
+					}
+				}
+			}
+			
+			EntryPipe pipe = pipes.remove(index);
+			if (pipe != null) {
+				pipe.fail(new IOException(cause));
+			}
+			else {
+				Closeables.closeQuietly(fileOutputs.remove(index));
+				EntryData entryData = entryDataMap.getValue(treeNode.getPath());
+				if (entryData.file != null) {
+					entryData.file.delete();
+					entryData.file = null;
+				}
+			}
+		}
+		
+		// Fails the pipes of all streamed entries whose end hasn't been reached
+		private void failOpenPipes() {
+			for (EntryPipe pipe : pipes.values())
+				pipe.failIfOpen(new IOException("Unpacking was aborted."));
+			pipes.clear();
+		}
+		
+		public boolean isAborted() {
+			return isAborted;
+		}
+		
+		private void abort() {
+			isAborted = true;
+		}
+		
+		private void finish() {
+			Uninterruptibles.putUninterruptibly(
+				queue, new StreamedEntry(null, null, 0));
+		}
+		
+		@NotNull
+		private StreamedEntry take() {
+			return Uninterruptibles.takeUninterruptibly(queue);
+		}
+		
+		private void reportFailures() {
+			List<EntryFailure> failuresCopy;
+			synchronized (failures) {
+				failuresCopy = Lists.newArrayList(failures);
+				failures.clear();
+			}
+			for (EntryFailure failure : failuresCopy)
+				failReporter.fail(failure.type, failure.treeNode, failure.cause);
+		}
+	}
+	
 	@NotNull
 	public final File getArchiveFile() {
 		return archiveFile;
@@ -11,25 +11,37 @@
 
 package net.sourceforge.docfetcher.model.index.file;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import net.sourceforge.docfetcher.TestFiles;
 import net.sourceforge.docfetcher.model.TreeNode;
 import net.sourceforge.docfetcher.model.index.IndexingConfig;
+import net.sourceforge.docfetcher.model.index.IndexingError.ErrorType;
 import net.sourceforge.docfetcher.model.index.file.FileFolder.FileFolderVisitor;
+import net.sourceforge.docfetcher.model.index.file.SolidArchiveTree.EntryStreamHandler;
+import net.sourceforge.docfetcher.model.index.file.SolidArchiveTree.FailReporter;
 import net.sourceforge.docfetcher.util.AppUtil;
 import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
 
 import org.junit.Test;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Closeables;
+import com.google.common.io.Files;
 
 /**
  * @author Tran Nam Quang
@@ -80,6 +92,139 @@ public final class SolidArchiveTreeTest {
 		}
 	}
 	
+	@Test
+	public void testUnpackAndStream() throws Exception {
+		IndexingConfig config = new IndexingConfig();
+		List<SolidArchiveTree<?>> archives = Lists.newArrayList();
+		try {
+			archives.add(new SevenZipTree(TestFiles.multiple_dirs_7z.get(), config, null, null));
+			archives.add(new SevenZipTree(TestFiles.simple_7z.get(), config, null, null));
+			archives.add(new RarTree(TestFiles.multiple_dirs_rar.get(), config, null, null));
+			archives.add(new RarTree(TestFiles.rar_solid.get(), config, null, null));
+
+			for (SolidArchiveTree<?> archive : archives) {
+				final List<TreeNode> docs = new ArrayList<TreeNode> ();
+				new FileFolderVisitor <Exception> (archive.getArchiveFolder()) {
+					protected void visitDocument(	FileFolder parent,
+					                             	FileDocument fileDocument) {
+						docs.add(fileDocument);
+					}
+				}.runSilently();
+				assertFalse(docs.isEmpty());
+				
+				// If possible, unpack one entry and stream the others
+				final Map<TreeNode, byte[]> streamed = Maps.newHashMap();
+				int unpackCount = docs.size() > 1 ? 1 : 0;
+				List<TreeNode> unpackList = docs.subList(0, unpackCount);
+				List<TreeNode> streamList = docs.subList(unpackCount, docs.size());
+				archive.unpackAndStream(unpackList, streamList, new EntryStreamHandler() {
+					public boolean handleEntry(	TreeNode treeNode,
+												InputStream in,
+												long size) {
+						try {
+							byte[] bytes = ByteStreams.toByteArray(in);
+							assertEquals(size, bytes.length);
+							streamed.put(treeNode, bytes);
+						}
+						catch (Exception e) {
+							throw new RuntimeException(e);
+						}
+						return false;
+					}
+				});
+				assertEquals(streamList.size(), streamed.size());
+				for (TreeNode doc : unpackList) {
+					File unpackedFile = archive.getFile(doc);
+					assertTrue(unpackedFile.isFile());
+					unpackedFile.delete();
+				}
+				
+				// Compare with the unpacked entries
+				for (TreeNode doc : streamList) {
+					assertTrue(archive.getFile(doc) == null);
+					archive.unpack(Collections.singleton(doc), null);
+					File file = archive.getFile(doc);
+					byte[] expected = Files.toByteArray(file);
+					file.delete();
+					assertArrayEquals(expected, streamed.get(doc));
+				}
+			}
+		} finally {
+			for (SolidArchiveTree<?> archive : archives)
+				Closeables.closeQuietly(archive);
+		}
+	}
+	
+	@Test
+	public void testBrokenStreamedEntry() throws Exception {
+		// Overwrite a byte in the compressed data, so that the CRC check fails
+		File sevenZipFile = corrupt(TestFiles.simple_7z.get(), 0x38);
+		File rarFile = corrupt(TestFiles.rar_solid.get(), 0x50);
+		List<SolidArchiveTree<?>> archives = Lists.newArrayList();
+		final List<TreeNode> failed = Lists.newArrayList();
+		FailReporter failReporter = new FailReporter() {
+			public void fail(	ErrorType type,
+								TreeNode treeNode,
+								Throwable cause) {
+				failed.add(treeNode);
+			}
+		};
+		try {
+			IndexingConfig config = new IndexingConfig();
+			archives.add(new SevenZipTree(sevenZipFile, config, null, failReporter));
+			archives.add(new RarTree(rarFile, config, null, failReporter));
+			
+			for (SolidArchiveTree<?> archive : archives) {
+				final List<TreeNode> docs = new ArrayList<TreeNode> ();
+				new FileFolderVisitor <Exception> (archive.getArchiveFolder()) {
+					protected void visitDocument(	FileFolder parent,
+					                             	FileDocument fileDocument) {
+						docs.add(fileDocument);
+					}
+				}.runSilently();
+				assertFalse(docs.isEmpty());
+				
+				/*
+				 * A broken entry must not look like a complete entry to the
+				 * handler, and must be reported exactly once.
+				 */
+				failed.clear();
+				final List<TreeNode> unreadable = Lists.newArrayList();
+				List<TreeNode> noUnpack = Collections.emptyList();
+				archive.unpackAndStream(noUnpack, docs, new EntryStreamHandler() {
+					public boolean handleEntry(	TreeNode treeNode,
+												InputStream in,
+												long size) {
+						try {
+							ByteStreams.toByteArray(in);
+						}
+						catch (IOException e) {
+							unreadable.add(treeNode);
+						}
+						return false;
+					}
+				});
+				assertFalse(archive.getArchiveFile().getName(), unreadable.isEmpty());
+				assertEquals(unreadable, failed);
+			}
+		} finally {
+			for (SolidArchiveTree<?> archive : archives)
+				Closeables.closeQuietly(archive);
+			sevenZipFile.delete();
+			rarFile.delete();
+		}
+	}
+	
+	@NotNull
+	private static File corrupt(@NotNull File file, int offset)
+			throws IOException {
+		byte[] bytes = Files.toByteArray(file);
+		bytes[offset] ^= 0xff;
+		File corruptFile = Util.createTempFile("corrupt", "." + Util.getExtension(file));
+		Files.write(bytes, corruptFile);
+		return corruptFile;
+	}
+	
 	@Test
 	public void test7zEntryWithoutName() throws Exception {
 		File file = TestFiles.entry_without_name_7z.get();
@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.index.outlook;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sourceforge.docfetcher.model.Path;
+import net.sourceforge.docfetcher.model.index.BoundedParsePipeline;
+import net.sourceforge.docfetcher.model.index.IndexingError;
+import net.sourceforge.docfetcher.model.index.IndexingException;
+import net.sourceforge.docfetcher.model.parse.ParseResult;
+import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.NotThreadSafe;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+
+import org.apache.lucene.document.Document;
+
+import com.pff.PSTMessage;
+
+/**
+ * The parse pipeline for the attachments of emails. The indexing thread reads
+ * the emails from the PST file and writes their attachments to temporary
+ * files, a pool of worker threads extracts the text of the attachments, and
+ * the finished emails are handed back to the indexing thread, which writes
+ * them to the Lucene index in submission order.
+ * <p>
+ * The PST file is only read on the indexing thread, since java-libpst reads
+ * from a single file handle. All modifications of the document tree and all
+ * writes to the Lucene index remain on the indexing thread as well.
+ *
+ * @author Tran Nam Quang
+ */
+@NotThreadSafe
+final class AttachmentPipeline extends BoundedParsePipeline<AttachmentPipeline.MailJob> {
+
+	public AttachmentPipeline(int threadCount, long maxPendingBytes) {
+		super(threadCount, maxPendingBytes);
+	}
+
+	/**
+	 * Submits the given email for indexing. The attachments of the email are
+	 * extracted from the PST file before this method returns, and are then
+	 * parsed on the worker threads. If the pipeline is full, this method blocks
+	 * until enough pending emails have been written. Emails whose attachments
+	 * have all been parsed are written before this method returns.
+	 */
+	public void submit(	@NotNull final OutlookContext context,
+						@NotNull final MailDocument doc,
+						@NotNull PSTMessage email,
+						boolean added) throws IndexingException {
+		final MailJob job = new MailJob(
+			context, doc, context.createLuceneDoc(doc, email), added);
+
+		/*
+		 * Extraction failures are reported when the email is written, so that
+		 * the attachment errors are reported in the order of the attachments.
+		 */
+		new AttachmentVisitor(context.getConfig(), email, false) {
+			protected void handleAttachment(String filename,
+											File tempFile) {
+				Path path = doc.getPath().createSubPath(filename);
+				job.addAttachment(new Attachment(
+					context, filename, path, tempFile, null));
+			}
+			protected void handleException(	String filename,
+											Throwable t) {
+				job.addAttachment(new Attachment(
+					context, filename, null, null, t));
+			}
+		}.run();
+
+		submit(job);
+	}
+
+	protected void complete(@NotNull MailJob job) throws IndexingException {
+		OutlookContext context = job.context;
+		MailDocument doc = job.doc;
+		List<IndexingError> errors = null;
+		for (Attachment attachment : job.attachments) {
+			Throwable failure = attachment.failure;
+			if (failure == null) {
+				try {
+					context.addAttachment(
+						job.luceneDoc, attachment.filename,
+						attachment.getResult());
+				}
+				catch (CheckedOutOfMemoryError e) {
+					failure = e.getCause();
+				}
+				catch (Exception e) {
+					failure = e;
+				}
+				finally {
+					attachment.tempFile.delete();
+				}
+			}
+			if (failure != null) {
+				if (errors == null)
+					errors = new ArrayList<IndexingError>(5);
+				errors.add(context.failAttachment(
+					doc, attachment.filename, failure));
+			}
+		}
+		doc.setErrors(errors);
+		context.write(doc, job.luceneDoc, job.added);
+	}
+
+	// Marks the email as modified, so the next update will index it again
+	protected void discard(@NotNull MailJob job) {
+		job.doc.setLastModified(-1);
+	}
+
+	static final class MailJob extends Job {
+		private final OutlookContext context;
+		private final MailDocument doc;
+		private final Document luceneDoc;
+		private final boolean added;
+		private final List<Attachment> attachments = new ArrayList<Attachment>(2);
+
+		public MailJob(	@NotNull OutlookContext context,
+						@NotNull MailDocument doc,
+						@NotNull Document luceneDoc,
+						boolean added) {
+			this.context = context;
+			this.doc = doc;
+			this.luceneDoc = luceneDoc;
+			this.added = added;
+		}
+
+		private void addAttachment(@NotNull Attachment attachment) {
+			attachments.add(attachment);
+			if (attachment.tempFile != null)
+				addTask(attachment, attachment.tempFile.length());
+		}
+	}
+
+	private static final class Attachment extends ParseTask {
+		private final OutlookContext context;
+		private final String filename;
+		@Nullable private final Path path; // null if the extraction failed
+		@Nullable private final File tempFile; // null if the extraction failed
+		@Nullable private final Throwable failure;
+
+		public Attachment(	@NotNull OutlookContext context,
+							@NotNull String filename,
+							@Nullable Path path,
+							@Nullable File tempFile,
+							@Nullable Throwable failure) {
+			this.context = context;
+			this.filename = filename;
+			this.path = path;
+			this.tempFile = tempFile;
+			this.failure = failure;
+		}
+
+		protected ParseResult parse() throws Exception {
+			return context.parseAttachment(tempFile, filename, path);
+		}
+
+		// Deletes the temporary file once it isn't being parsed anymore
+		protected void release() {
+			tempFile.delete();
+		}
+	}
+
+}
@@ -14,6 +14,7 @@ package net.sourceforge.docfetcher.model.index.outlook;
 import net.sourceforge.docfetcher.model.Folder;
 import net.sourceforge.docfetcher.model.Path;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
 
 /**
  * This class is intended to be a generics-free middleman for the Folder class,
@@ -28,6 +29,17 @@ final class MailFolder extends Folder<MailDocument, MailFolder> {
 	
 	private boolean hasDeepContent = false;
 	
+	/*
+	 * The state of the PST folder when its emails were last compared with the
+	 * documents in this folder, which allows fast index updates to skip
+	 * unchanged PST folders: The folder's descriptor node ID, its content count
+	 * and a hash of the descriptor node IDs of its emails. A null descriptor
+	 * node ID means that no state was recorded.
+	 */
+	@Nullable private Long scanDescriptorId;
+	private int scanContentCount;
+	private long scanChildHash;
+	
 	public MailFolder(@NotNull MailFolder parent, @NotNull String name) {
 		super(parent, name, null);
 	}
@@ -36,12 +48,70 @@ final class MailFolder extends Folder<MailDocument, MailFolder> {
 		super(path, null);
 	}
 	
+	// Used by OutlookIndexCodec
+	MailFolder(	@NotNull String name,
+				@Nullable String displayName,
+				@Nullable Path path,
+				@Nullable Long lastModified) {
+		super(name, displayName, path, lastModified);
+	}
+	
 	public void setHasDeepContent(boolean hasDeepContent) {
+		if (this.hasDeepContent == hasDeepContent)
+			return;
 		this.hasDeepContent = hasDeepContent;
+		markChanged();
 	}
 	
 	public boolean hasDeepContent() {
 		return hasDeepContent;
 	}
+	
+	/**
+	 * Returns whether the given PST folder state is the same as the state
+	 * recorded via {@link #setScanState(long, int, long)}.
+	 */
+	public boolean isScanUnchanged(	long descriptorId,
+									int contentCount,
+									long childHash) {
+		return scanDescriptorId != null
+				&& scanDescriptorId.longValue() == descriptorId
+				&& scanContentCount == contentCount
+				&& scanChildHash == childHash;
+	}
+	
+	public void setScanState(	long descriptorId,
+								int contentCount,
+								long childHash) {
+		if (isScanUnchanged(descriptorId, contentCount, childHash))
+			return;
+		this.scanDescriptorId = descriptorId;
+		this.scanContentCount = contentCount;
+		this.scanChildHash = childHash;
+		markChanged();
+	}
+	
+	public void clearScanState() {
+		if (scanDescriptorId == null)
+			return;
+		scanDescriptorId = null;
+		markChanged();
+	}
+	
+	// Used by OutlookIndexCodec
+	@Nullable
+	Long getScanDescriptorId() {
+		return scanDescriptorId;
+	}
+	
+	// Used by OutlookIndexCodec
+	int getScanContentCount() {
+		return scanContentCount;
+	}
+	
+	// Used by OutlookIndexCodec
+	long getScanChildHash() {
+		return scanChildHash;
+	}
 
 }
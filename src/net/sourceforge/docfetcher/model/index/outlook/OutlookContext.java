@@ -43,31 +43,72 @@ final class OutlookContext {
 	private final IndexingReporter reporter;
 	private final Cancelable cancelable;
 	private final MutableInt fileCount = new MutableInt(0);
+	@Nullable private final AttachmentPipeline pipeline; // null if parsing is sequential
+	private boolean recordScanState = false;
+	private boolean skipUnchangedFolders = false;
 
 	public OutlookContext(	@NotNull IndexingConfig config,
 	                      	@NotNull IndexWriterAdapter writer,
 							@NotNull IndexingReporter reporter,
-							@NotNull Cancelable cancelable) {
+							@NotNull Cancelable cancelable,
+							@Nullable AttachmentPipeline pipeline) {
 		Util.checkNotNull(config, writer, reporter, cancelable);
 		this.config = config;
 		this.writer = writer;
 		this.reporter = reporter;
 		this.cancelable = cancelable;
+		this.pipeline = pipeline;
 	}
 	
 	public final boolean isStopped() {
 		return cancelable.isCanceled();
 	}
 	
-	// Will handle attachments
+	@NotNull
+	public IndexingConfig getConfig() {
+		return config;
+	}
+	
+	public void setScanMode(boolean recordScanState,
+							boolean skipUnchangedFolders) {
+		Util.checkThat(recordScanState || !skipUnchangedFolders);
+		this.recordScanState = recordScanState;
+		this.skipUnchangedFolders = skipUnchangedFolders;
+	}
+	
+	public boolean isRecordScanState() {
+		return recordScanState;
+	}
+	
+	public boolean isSkipUnchangedFolders() {
+		return skipUnchangedFolders;
+	}
+	
+	/**
+	 * Indexes the given email and its attachments. If there is an attachment
+	 * pipeline, the attachments are parsed on its worker threads, and the
+	 * email is written to the index after this method has returned.
+	 */
 	public void index(	@NotNull MailDocument doc,
 						@NotNull PSTMessage email,
 						boolean added) throws IndexingException {
 		fileCount.increment();
 		reporter.info(new IndexingInfo(InfoType.EXTRACTING, doc, fileCount.get()));
+		doc.setError(null);
+		if (pipeline != null) {
+			pipeline.submit(this, doc, email, added);
+			return;
+		}
+		Document luceneDoc = createLuceneDoc(doc, email);
+		parseAttachments(doc, email, luceneDoc); // might store some errors
+		write(doc, luceneDoc, added);
+	}
+	
+	// Writes the given email to the index
+	void write(	@NotNull MailDocument doc,
+				@NotNull Document luceneDoc,
+				boolean added) throws IndexingException {
 		try {
-			doc.setError(null);
-			Document luceneDoc = createLuceneDoc(doc, email); // might store some errors
 			if (added)
 				writer.add(luceneDoc);
 			else
@@ -81,6 +122,15 @@ final class OutlookContext {
 		}
 	}
 	
+	/**
+	 * Writes all pending emails to the index if there is an attachment
+	 * pipeline.
+	 */
+	public void flushPipeline() throws IndexingException {
+		if (pipeline != null)
+			pipeline.flush();
+	}
+	
 	public void deleteFromIndex(@NotNull String uid) throws IndexingException {
 		try {
 			writer.delete(uid);
@@ -89,9 +139,10 @@ final class OutlookContext {
 		}
 	}
 	
+	// Returns a Lucene document with the fields of the given email, without attachments
 	@NotNull
-	private Document createLuceneDoc(	@NotNull final MailDocument doc,
-										@NotNull final PSTMessage email) {
+	Document createLuceneDoc(	@NotNull MailDocument doc,
+								@NotNull PSTMessage email) {
 		final Document luceneDoc = new Document();
 		String subject = email.getSubject();
 		String body = email.getBody();
@@ -129,47 +180,84 @@ final class OutlookContext {
 		contents.append(body).append(" ");
 		luceneDoc.add(Fields.createContent(contents));
 		
-		// Parse and append attachments
+		return luceneDoc;
+	}
+	
+	private void parseAttachments(	@NotNull final MailDocument doc,
+									@NotNull PSTMessage email,
+									@NotNull final Document luceneDoc) {
 		new AttachmentVisitor(config, email, true) {
 			@Nullable private List<IndexingError> errors;
 			
 			protected void handleAttachment(String filename,
 											File tempFile)
 					throws ParseException, CheckedOutOfMemoryError {
-				// TODO post-release-1.1: Maybe recurse into archive attachments
-
-				/*
-				 * It is assumed here that mime type detection is turned on for
-				 * all attachments, so we'll just hand over all attachments to
-				 * the parse service.
-				 */
 				Path path = doc.getPath().createSubPath(filename);
 				ParseResult parseResult = ParseService.parse(
 					config, tempFile, filename, path, reporter, cancelable);
-				luceneDoc.add(Fields.createContent(parseResult.getContent()));
-				StringBuilder metadata = parseResult.getMetadata();
-				metadata.append(filename);
-				luceneDoc.add(Fields.createContent(metadata));
+				addAttachment(luceneDoc, filename, parseResult);
 			}
 			protected void handleException(	String filename,
 											Throwable t) {
-				Path path = doc.getPath().createSubPath(filename);
-				TreeNode attachNode = new AttachNode(path);
-
 				// Put error in temporary list and report it
 				if (errors == null)
 					errors = new ArrayList<IndexingError>(5);
-				IndexingError error = new IndexingError(
-					ErrorType.ATTACHMENT, attachNode, t);
-				errors.add(error);
-				reporter.fail(error);
+				errors.add(failAttachment(doc, filename, t));
 			}
 			protected void runFinally() {
 				doc.setErrors(errors);
 			}
 		}.run();
-		
-		return luceneDoc;
+	}
+	
+	/**
+	 * Parses the given attachment file. This method may be called from any
+	 * thread; progress reports from the parsers are discarded.
+	 */
+	@NotNull
+	ParseResult parseAttachment(@NotNull File tempFile,
+								@NotNull String filename,
+								@NotNull Path path)
+			throws ParseException, CheckedOutOfMemoryError {
+		return ParseService.parse(
+			config, tempFile, filename, path, IndexingReporter.nullReporter,
+			cancelable);
+	}
+	
+	// Appends the given parse result of an attachment to the Lucene document
+	void addAttachment(	@NotNull Document luceneDoc,
+						@NotNull String filename,
+						@NotNull ParseResult parseResult)
+			throws ParseException {
+		// TODO post-release-1.1: Maybe recurse into archive attachments
+
+		/*
+		 * It is assumed here that mime type detection is turned on for all
+		 * attachments, so we'll just hand over all attachments to the parse
+		 * service.
+		 */
+		try {
+			luceneDoc.add(Fields.createContent(parseResult.getContentReader()));
+		}
+		catch (IOException e) {
+			throw new ParseException(e);
+		}
+		StringBuilder metadata = parseResult.getMetadata();
+		metadata.append(filename);
+		luceneDoc.add(Fields.createContent(metadata));
+	}
+	
+	// Creates and reports an error for the given attachment
+	@NotNull
+	IndexingError failAttachment(	@NotNull MailDocument doc,
+									@NotNull String filename,
+									@NotNull Throwable t) {
+		Path path = doc.getPath().createSubPath(filename);
+		TreeNode attachNode = new AttachNode(path);
+		IndexingError error = new IndexingError(
+			ErrorType.ATTACHMENT, attachNode, t);
+		reporter.fail(error);
+		return error;
 	}
 	
 	/*
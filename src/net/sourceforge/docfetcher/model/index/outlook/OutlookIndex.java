@@ -19,6 +19,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
+import net.sourceforge.docfetcher.enums.ProgramConf;
 import net.sourceforge.docfetcher.model.Cancelable;
 import net.sourceforge.docfetcher.model.DocumentType;
 import net.sourceforge.docfetcher.model.Path;
@@ -60,12 +61,25 @@ public final class OutlookIndex extends TreeIndex<MailDocument, MailFolder> {
 	
 	private static final long serialVersionUID = 1L;
 	
+	/*
+	 * The start time of the last completed index update that didn't skip any
+	 * unchanged PST folders, or 0 if the next update must not skip any.
+	 */
+	private volatile long lastFullUpdate;
+	
 	private MailFolder simplifiedRootFolder;
 	
 	public OutlookIndex(@Nullable File indexParentDir, @NotNull File pstFile) {
 		super(indexParentDir, pstFile);
 	}
 	
+	// Used by OutlookIndexCodec
+	OutlookIndex(	@NotNull MailFolder rootFolder,
+					long created,
+					@Nullable Path fileIndexDirPath) {
+		super(rootFolder, created, fileIndexDirPath);
+	}
+	
 	@NotNull
 	protected String getIndexDirName(@NotNull File pstFile) {
 		return Util.splitFilename(pstFile)[0];
@@ -76,6 +90,11 @@ public final class OutlookIndex extends TreeIndex<MailDocument, MailFolder> {
 		return new MailFolder(path);
 	}
 	
+	@NotNull
+	protected OutlookIndexCodec getCodec() {
+		return OutlookIndexCodec.instance;
+	}
+	
 	public boolean isEmailIndex() {
 		return true;
 	}
@@ -84,12 +103,25 @@ public final class OutlookIndex extends TreeIndex<MailDocument, MailFolder> {
 		return DocumentType.OUTLOOK;
 	}
 	
+	// Used by OutlookIndexCodec
+	long getLastFullUpdate() {
+		return lastFullUpdate;
+	}
+	
+	// Used by OutlookIndexCodec
+	void setLastFullUpdate(long lastFullUpdate) {
+		this.lastFullUpdate = lastFullUpdate;
+	}
+	
 	public IndexingResult doUpdate(	@NotNull IndexingReporter reporter,
-									@NotNull Cancelable cancelable) {
-		reporter.setStartTime(System.currentTimeMillis());
+									@NotNull Cancelable cancelable,
+									boolean isRebuild) {
+		long startTime = System.currentTimeMillis();
+		reporter.setStartTime(startTime);
 		MailFolder rootFolder = getRootFolder();
 		rootFolder.setError(null);
 		IndexWriterAdapter writer = null;
+		AttachmentPipeline pipeline = null;
 		
 		PSTFile pstFile = null;
 		try {
@@ -103,13 +135,42 @@ public final class OutlookIndex extends TreeIndex<MailDocument, MailFolder> {
 				return IndexingResult.SUCCESS_UNCHANGED;
 			rootFolder.setLastModified(newLastModified);
 			
-			writer = new IndexWriterAdapter(getLuceneDir());
+			writer = new IndexWriterAdapter(getLuceneDir(), isRebuild);
+			int parserThreads = ProgramConf.Int.IndexingParserThreads.get();
+			if (parserThreads > 1)
+				pipeline = new AttachmentPipeline(
+					parserThreads,
+					ProgramConf.Int.IndexingParserBudgetMB.get() * 1024L * 1024L);
 			OutlookContext context = new OutlookContext(
-					getConfig(), writer, reporter, cancelable
+					getConfig(), writer, reporter, cancelable, pipeline
 			);
+			
+			/*
+			 * Fast index updates skip the emails in PST folders whose content
+			 * hasn't changed, but at regular intervals, all emails are checked
+			 * again, since emails can be modified in place. An update that
+			 * doesn't complete forces the next update to check all emails.
+			 */
+			boolean fastUpdates = ProgramConf.Bool.FastIndexUpdates.get();
+			long fullUpdateInterval = ProgramConf.Int.FullIndexUpdateHours.get() * 3600000L;
+			long previousFullUpdate = lastFullUpdate;
+			boolean skipUnchangedFolders = fastUpdates
+					&& previousFullUpdate > 0
+					&& startTime - previousFullUpdate < fullUpdateInterval;
+			context.setScanMode(fastUpdates, skipUnchangedFolders);
+			lastFullUpdate = 0;
+			
 			pstFile = new PSTFile(rootFile.getPath());
 			visitFolder(context, rootFolder, pstFile.getRootFolder());
 			
+			// Write the emails whose attachments are still being parsed
+			context.flushPipeline();
+			
+			if (!cancelable.isCanceled())
+				lastFullUpdate = skipUnchangedFolders
+					? previousFullUpdate
+					: startTime;
+			
 			simplifiedRootFolder = new TreeRootSimplifier<MailFolder> () {
 				protected boolean hasContent(MailFolder node) {
 					return node.getDocumentCount() > 0;
@@ -134,6 +195,8 @@ public final class OutlookIndex extends TreeIndex<MailDocument, MailFolder> {
 			report(reporter, e.getIOException());
 		}
 		finally {
+			if (pipeline != null)
+				pipeline.close();
 			if (pstFile != null) {
 				Closeables.closeQuietly(pstFile.getFileHandle());
 			}
@@ -160,7 +223,18 @@ public final class OutlookIndex extends TreeIndex<MailDocument, MailFolder> {
 		return simplifiedRootFolder;
 	}
 	
-	// TODO doc: stores in the given folder whether it has 'deep' content or not.
+	/*
+	 * Stores in the given folder whether it has 'deep' content or not.
+	 * 
+	 * If fast index updates are enabled, the state of the PST folder is
+	 * recorded after its emails have been compared with the documents in the
+	 * given folder: The descriptor node ID of the PST folder, its content
+	 * count and a hash of the descriptor node IDs of its emails. The emails of
+	 * a PST folder with the same state are skipped on the next update. These
+	 * values can be read from the folder's contents table without loading any
+	 * emails, and they change whenever an email is added, deleted or moved to
+	 * another folder. The subfolders are visited in any case.
+	 */
 	@RecursiveMethod
 	private static void visitFolder(@NotNull OutlookContext context,
 									@NotNull MailFolder folder,
@@ -171,8 +245,40 @@ public final class OutlookIndex extends TreeIndex<MailDocument, MailFolder> {
 		final Map<String, MailFolder> unseenSubFolders = Maps.newHashMap(folder.getSubFolderMap());
 		final List<PSTFolder> subFoldersToVisit = new LinkedList<PSTFolder>();
 		
+		int contentCount = pstFolder.getContentCount();
+		long descriptorId = pstFolder.getDescriptorNodeId();
+		long childHash = 0;
+		boolean recordScanState = context.isRecordScanState();
+		boolean skipMails = false;
+		if (recordScanState) {
+			try {
+				childHash = hashIds(pstFolder.getChildDescriptorNodes());
+				skipMails = context.isSkipUnchangedFolders()
+						&& folder.isScanUnchanged(descriptorId, contentCount, childHash);
+			}
+			catch (IndexOutOfBoundsException e) {
+				// See bug #374 below
+				Util.printErr(e.getMessage());
+				recordScanState = false;
+			}
+			catch (IOException e) {
+				throw new IndexingException(e);
+			}
+		}
+		
+		if (skipMails) {
+			/*
+			 * Since the emails weren't loaded, we don't know which subfolders
+			 * can only be found among the emails (see bug #3561223 below), so
+			 * subfolders that aren't found below are kept until the next full
+			 * update.
+			 */
+			unseenMails.clear();
+			if (contentCount > 0)
+				folder.setHasDeepContent(true);
+		}
 		// Visit mails
-		if (pstFolder.getContentCount() > 0) {
+		else if (contentCount > 0) {
 			try {
 				PSTObject pstObject;
 				try {
@@ -182,6 +288,7 @@ public final class OutlookIndex extends TreeIndex<MailDocument, MailFolder> {
 					// Bug #374. See similar bugfix inside the following loop.
 					Util.printErr(e.getMessage());
 					pstObject = null; // skip following loop
+					recordScanState = false;
 				}
 				
 				while (pstObject != null) {
@@ -254,6 +361,7 @@ public final class OutlookIndex extends TreeIndex<MailDocument, MailFolder> {
 						 */
 						Util.printErr(e.getMessage());
 						pstObject = null; // get out of loop
+						recordScanState = false;
 					}
 				}
 			} catch (IOException e) {
@@ -261,6 +369,10 @@ public final class OutlookIndex extends TreeIndex<MailDocument, MailFolder> {
 			}
 			folder.setHasDeepContent(true);
 		}
+		if (!recordScanState)
+			folder.clearScanState();
+		else if (!context.isStopped())
+			folder.setScanState(descriptorId, contentCount, childHash);
 		
 		// Visit subfolders
 		if (pstFolder.hasSubfolders() || !subFoldersToVisit.isEmpty()) {
@@ -293,8 +405,19 @@ public final class OutlookIndex extends TreeIndex<MailDocument, MailFolder> {
 			context.deleteFromIndex(mail.getUniqueId());
 			folder.removeDocument(mail);
 		}
-		for (MailFolder subFolder : unseenSubFolders.values())
-			folder.removeSubFolder(subFolder);
+		if (!skipMails)
+			for (MailFolder subFolder : unseenSubFolders.values())
+				folder.removeSubFolder(subFolder);
+	}
+	
+	// Returns a hash of the given IDs that doesn't depend on their order
+	private static long hashIds(@NotNull List<Integer> ids) {
+		long hash = 0;
+		for (Integer id : ids) {
+			long idHash = id * 0x9e3779b97f4a7c15L;
+			hash += idHash ^ (idHash >>> 29);
+		}
+		return hash;
 	}
 
 }
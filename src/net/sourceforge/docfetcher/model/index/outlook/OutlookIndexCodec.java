@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+
+package net.sourceforge.docfetcher.model.index.outlook;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import net.sourceforge.docfetcher.model.DocumentType;
+import net.sourceforge.docfetcher.model.Path;
+import net.sourceforge.docfetcher.model.TreeIndex;
+import net.sourceforge.docfetcher.model.TreeIndexCodec;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+import net.sourceforge.docfetcher.util.annotations.VisibleForPackageGroup;
+
+/**
+ * The codec for saving and loading Outlook indexes. The PST folder states used
+ * for fast index updates are saved along with the folders.
+ * 
+ * @author Tran Nam Quang
+ */
+@VisibleForPackageGroup
+public final class OutlookIndexCodec extends TreeIndexCodec<MailDocument, MailFolder> {
+	
+	public static final OutlookIndexCodec instance = new OutlookIndexCodec();
+	
+	private OutlookIndexCodec() {
+	}
+	
+	@NotNull
+	protected DocumentType getDocumentType() {
+		return DocumentType.OUTLOOK;
+	}
+	
+	@NotNull
+	protected MailFolder createFolder(	@NotNull String name,
+										@Nullable String displayName,
+										@Nullable Path path,
+										@Nullable Long lastModified) {
+		return new MailFolder(name, displayName, path, lastModified);
+	}
+	
+	@NotNull
+	protected MailDocument createDocument(	@NotNull MailFolder parent,
+											@NotNull String name,
+											@Nullable String displayName,
+											long lastModified) {
+		return new MailDocument(
+			parent, name, displayName == null ? name : displayName,
+			lastModified);
+	}
+	
+	@NotNull
+	protected OutlookIndex createIndex(	@NotNull MailFolder rootFolder,
+										long created,
+										@Nullable Path fileIndexDirPath) {
+		return new OutlookIndex(rootFolder, created, fileIndexDirPath);
+	}
+	
+	protected void writeIndexExtras(@NotNull TreeIndex<MailDocument, MailFolder> index,
+									@NotNull DataOutput out)
+			throws IOException {
+		out.writeLong(((OutlookIndex) index).getLastFullUpdate());
+	}
+	
+	protected void readIndexExtras(	@NotNull TreeIndex<MailDocument, MailFolder> index,
+									@NotNull DataInput in)
+			throws IOException {
+		((OutlookIndex) index).setLastFullUpdate(in.readLong());
+	}
+	
+	protected void writeFolderExtras(	@NotNull MailFolder folder,
+										@NotNull DataOutput out)
+			throws IOException {
+		out.writeBoolean(folder.hasDeepContent());
+		Long scanDescriptorId = folder.getScanDescriptorId();
+		out.writeBoolean(scanDescriptorId != null);
+		if (scanDescriptorId == null)
+			return;
+		out.writeLong(scanDescriptorId);
+		out.writeInt(folder.getScanContentCount());
+		out.writeLong(folder.getScanChildHash());
+	}
+	
+	protected void readFolderExtras(@NotNull MailFolder folder,
+									@NotNull DataInput in)
+			throws IOException {
+		folder.setHasDeepContent(in.readBoolean());
+		if (!in.readBoolean()) {
+			folder.clearScanState();
+			return;
+		}
+		long scanDescriptorId = in.readLong();
+		int scanContentCount = in.readInt();
+		folder.setScanState(scanDescriptorId, scanContentCount, in.readLong());
+	}
+	
+	@Nullable
+	protected MailFolder getAttachedFolder(@NotNull MailDocument doc) {
+		return null;
+	}
+	
+	protected void setAttachedFolder(	@NotNull MailDocument doc,
+										@NotNull MailFolder folder)
+			throws IOException {
+		throw new IOException("Emails can't have attached folders.");
+	}
+
+}
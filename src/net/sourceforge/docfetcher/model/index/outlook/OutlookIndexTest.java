@@ -11,15 +11,25 @@
 
 package net.sourceforge.docfetcher.model.index.outlook;
 
+import static org.junit.Assert.assertEquals;
+
 import java.io.File;
 
 import net.sourceforge.docfetcher.TestFiles;
+import net.sourceforge.docfetcher.enums.ProgramConf;
 import net.sourceforge.docfetcher.model.UtilModel;
+import net.sourceforge.docfetcher.model.index.IndexingError;
+import net.sourceforge.docfetcher.model.index.IndexingInfo;
+import net.sourceforge.docfetcher.model.index.IndexingInfo.InfoType;
+import net.sourceforge.docfetcher.model.index.IndexingReporter;
 import net.sourceforge.docfetcher.util.AppUtil;
+import net.sourceforge.docfetcher.util.Util;
 
 import org.apache.lucene.store.Directory;
 import org.junit.Test;
 
+import com.google.common.io.Files;
+
 /**
  * @author Tran Nam Quang
  */
@@ -45,6 +55,69 @@ public final class OutlookIndexTest {
 		UtilModel.assertResultCount(luceneDir, "\"test.pdf\"", 1);
 	}
 	
-	// TODO test
+	/**
+	 * Tests that a fast update with attachments parsed in parallel skips the
+	 * emails of unchanged PST folders, and that a full update checks them
+	 * again.
+	 */
+	@Test
+	public void testFastUpdate() throws Exception {
+		File tempDir = Util.createTempDir();
+		File pstFile = new File(tempDir, "test.pst");
+		Files.copy(TestFiles.outlook_test.get(), pstFile);
+		
+		ProgramConf.Bool.FastIndexUpdates.load("true");
+		ProgramConf.Int.IndexingParserThreads.load("4");
+		try {
+			OutlookIndex index = new OutlookIndex(null, pstFile);
+			CountingReporter reporter = new CountingReporter();
+			index.update(reporter, null);
+			assertEquals(1, reporter.extractCount);
+			assertEquals(0, reporter.errorCount);
+			Directory luceneDir = index.getLuceneDir();
+			UtilModel.assertDocCount(luceneDir, 1);
+			UtilModel.assertResultCount(luceneDir, "\"test.pdf\"", 1);
+			
+			/*
+			 * Pretend the email was modified in place, which doesn't change the
+			 * state of its PST folder.
+			 */
+			MailDocument mail = index.getRootFolder().getDocumentsDeep().get(0);
+			mail.setLastModified(1);
+			pstFile.setLastModified(pstFile.lastModified() + 2000);
+			reporter = new CountingReporter();
+			index.update(reporter, null);
+			assertEquals(0, reporter.extractCount);
+			
+			// A full update detects the modified email
+			ProgramConf.Int.FullIndexUpdateHours.load("0");
+			pstFile.setLastModified(pstFile.lastModified() + 2000);
+			reporter = new CountingReporter();
+			index.update(reporter, null);
+			assertEquals(1, reporter.extractCount);
+			UtilModel.assertDocCount(luceneDir, 1);
+			UtilModel.assertResultCount(luceneDir, "\"test.pdf\"", 1);
+		}
+		finally {
+			ProgramConf.Bool.FastIndexUpdates.load("false");
+			ProgramConf.Int.IndexingParserThreads.load("1");
+			ProgramConf.Int.FullIndexUpdateHours.load("24");
+			Util.deleteRecursively(tempDir);
+		}
+	}
+	
+	private static class CountingReporter extends IndexingReporter {
+		private int extractCount = 0;
+		private int errorCount = 0;
+		
+		public void info(IndexingInfo info) {
+			if (info.is(InfoType.EXTRACTING))
+				extractCount++;
+		}
+		
+		public void fail(IndexingError error) {
+			errorCount++;
+		}
+	}
 	
 }
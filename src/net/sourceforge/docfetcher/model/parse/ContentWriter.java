@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.parse;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+
+import javolution.io.CharSequenceReader;
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.NotThreadSafe;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.CharStreams;
+import com.google.common.io.Closeables;
+
+/**
+ * A writer that parsers can write extracted text into incrementally, instead of
+ * building up the entire text of a document in memory.
+ * <p>
+ * The first {@link #MEMORY_LIMIT} characters are kept in memory. If the text
+ * grows beyond that, it is spilled to a temporary file, so that the memory
+ * held per document is bounded regardless of the document's size. In addition,
+ * all characters beyond the per-document budget set via
+ * {@link ProgramConf.Int#MaxCharsPerDocument} are silently discarded.
+ * <p>
+ * The written text is handed to Lucene via {@link #getReader()}, which lets
+ * Lucene tokenize the text as it reads it. The temporary file, if any, is
+ * deleted when the returned reader is closed, or when {@link #dispose()} is
+ * called.
+ *
+ * @author Tran Nam Quang
+ */
+@NotThreadSafe
+public final class ContentWriter extends Writer {
+
+	/** The maximum number of characters kept in memory. */
+	public static final int MEMORY_LIMIT = 1024 * 1024;
+
+	private final int maxChars;
+	private final StringBuilder buffer = new StringBuilder();
+	@Nullable private File spillFile;
+	@Nullable private Writer spillWriter;
+	private long charCount = 0;
+	private boolean truncated = false;
+	private boolean closed = false;
+
+	public ContentWriter() {
+		this(ProgramConf.Int.MaxCharsPerDocument.get());
+	}
+
+	public ContentWriter(int maxChars) {
+		Util.checkThat(maxChars > 0);
+		this.maxChars = maxChars;
+	}
+
+	public void write(@NotNull char[] cbuf, int off, int len) throws IOException {
+		checkOpen();
+		long remaining = maxChars - charCount;
+		if (len > remaining) {
+			len = (int) remaining;
+			truncated = true;
+		}
+		if (len <= 0)
+			return;
+		charCount += len;
+		if (spillWriter == null && buffer.length() + len > MEMORY_LIMIT)
+			spill();
+		if (spillWriter == null)
+			buffer.append(cbuf, off, len);
+		else
+			spillWriter.write(cbuf, off, len);
+	}
+
+	public void write(@NotNull String str, int off, int len) throws IOException {
+		checkOpen();
+		long remaining = maxChars - charCount;
+		if (len > remaining) {
+			len = (int) remaining;
+			truncated = true;
+		}
+		if (len <= 0)
+			return;
+		charCount += len;
+		if (spillWriter == null && buffer.length() + len > MEMORY_LIMIT)
+			spill();
+		if (spillWriter == null)
+			buffer.append(str, off, off + len);
+		else
+			spillWriter.write(str, off, len);
+	}
+
+	private void spill() throws IOException {
+		spillFile = Util.createTempFile("content", ".txt");
+		spillWriter = new BufferedWriter(new OutputStreamWriter(
+			new FileOutputStream(spillFile), Charsets.UTF_8));
+		spillWriter.append(buffer);
+		buffer.setLength(0);
+		buffer.trimToSize();
+	}
+
+	private void checkOpen() throws IOException {
+		if (closed)
+			throw new IOException("Content writer is closed.");
+	}
+
+	public void flush() throws IOException {
+		if (spillWriter != null)
+			spillWriter.flush();
+	}
+
+	/**
+	 * Closes the receiver for writing. The written text remains available via
+	 * {@link #getReader()} and {@link #toCharSequence()}.
+	 */
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		if (spillWriter != null)
+			spillWriter.close();
+	}
+
+	/**
+	 * Returns the number of characters written, not counting the characters
+	 * that were discarded because the per-document budget was exceeded.
+	 */
+	public long getCharCount() {
+		return charCount;
+	}
+
+	/**
+	 * Returns whether some of the written characters were discarded because
+	 * the per-document budget was exceeded.
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	/**
+	 * Returns whether the written text was spilled to a temporary file.
+	 */
+	public boolean isSpilled() {
+		return spillFile != null;
+	}
+
+	/**
+	 * Closes the receiver for writing and returns a reader over the written
+	 * text. Closing the returned reader deletes the temporary file holding the
+	 * text, if there is one, so this method should only be called once.
+	 */
+	@NotNull
+	public Reader getReader() throws IOException {
+		close();
+		if (spillFile == null)
+			return new CharSequenceReader().setInput(buffer);
+		final File file = spillFile;
+		return new BufferedReader(new InputStreamReader(
+			new FileInputStream(file), Charsets.UTF_8)) {
+			public void close() throws IOException {
+				try {
+					super.close();
+				}
+				finally {
+					file.delete();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Closes the receiver for writing and returns the written text. If the
+	 * text was spilled to a temporary file, it is loaded into memory, so this
+	 * method should be avoided for indexing.
+	 */
+	@NotNull
+	public CharSequence toCharSequence() throws IOException {
+		close();
+		if (spillFile == null)
+			return buffer;
+		Reader reader = new InputStreamReader(
+			new FileInputStream(spillFile), Charsets.UTF_8);
+		try {
+			return CharStreams.toString(reader);
+		}
+		finally {
+			Closeables.closeQuietly(reader);
+		}
+	}
+
+	/**
+	 * Deletes the temporary file holding the written text, if there is one.
+	 * This method should be called if the text won't be consumed, e.g. because
+	 * the parsing failed.
+	 */
+	public void dispose() {
+		closed = true;
+		Closeables.closeQuietly(spillWriter);
+		if (spillFile != null)
+			spillFile.delete();
+	}
+
+}
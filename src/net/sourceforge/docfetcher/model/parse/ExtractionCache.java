@@ -0,0 +1,375 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.parse;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.model.Cancelable;
+import net.sourceforge.docfetcher.model.DiskCache;
+import net.sourceforge.docfetcher.model.Path;
+import net.sourceforge.docfetcher.model.index.IndexingConfig;
+import net.sourceforge.docfetcher.model.index.IndexingReporter;
+import net.sourceforge.docfetcher.model.index.PatternAction;
+import net.sourceforge.docfetcher.model.index.PatternAction.MatchAction;
+import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
+import net.sourceforge.docfetcher.util.AppUtil;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Closeables;
+
+import de.schlichtherle.truezip.file.TFileInputStream;
+
+/**
+ * A disk cache for extracted text, shared by all indexes in the same index
+ * directory. The cached text is looked up by the size and the SHA-1 hash of
+ * the file contents, so that copies of the same file, and files that were
+ * renamed or moved, are only parsed once. Since the cache lives outside of
+ * the individual indexes, it also survives index rebuilds.
+ * <p>
+ * The cache size is limited by {@link ProgramConf.Int#ExtractionCacheSizeMB}.
+ * When the limit is exceeded, the least recently used entries are deleted.
+ * Recency is tracked via the last-modified values of the cache files.
+ *
+ * @author Tran Nam Quang
+ */
+@ThreadSafe
+public final class ExtractionCache {
+
+	private static final String DIRNAME = "extraction-cache";
+	private static final int FORMAT_VERSION = 1;
+
+	private static final Map<File, ExtractionCache> instances = Maps.newHashMap();
+
+	/**
+	 * Returns the extraction cache for the given index parent directory, or
+	 * null if the index parent directory is null or the cache is disabled.
+	 */
+	@Nullable
+	public static ExtractionCache getInstance(@Nullable File indexParentDir) {
+		if (indexParentDir == null
+				|| ProgramConf.Int.ExtractionCacheSizeMB.get() <= 0)
+			return null;
+		File cacheDir = Util.getCanonicalFile(new File(indexParentDir, DIRNAME));
+		synchronized (instances) {
+			ExtractionCache cache = instances.get(cacheDir);
+			if (cache == null) {
+				cache = new ExtractionCache(cacheDir);
+				instances.put(cacheDir, cache);
+			}
+			return cache;
+		}
+	}
+
+	private final DiskCache diskCache;
+	private final AtomicInteger hitCount = new AtomicInteger();
+
+	private ExtractionCache(@NotNull File cacheDir) {
+		diskCache = new DiskCache(
+			cacheDir, ProgramConf.Int.ExtractionCacheSizeMB);
+	}
+
+	/**
+	 * Returns the cached text for the given file if there is one, and
+	 * otherwise parses the file via
+	 * {@link ParseService#parse(IndexingConfig, File, String, Path, IndexingReporter, Cancelable)
+	 * ParseService.parse} and stores the result in the cache. Accepts TrueZIP
+	 * files.
+	 */
+	@NotNull
+	public ParseResult parse(	@NotNull IndexingConfig config,
+								@NotNull File file,
+								@NotNull String filename,
+								@NotNull Path filepath,
+								@NotNull IndexingReporter reporter,
+								@NotNull Cancelable cancelable)
+			throws ParseException, CheckedOutOfMemoryError {
+		if (ProgramConf.Bool.DryRun.get())
+			return ParseService.parse(
+				config, file, filename, filepath, reporter, cancelable);
+
+		File entryFile = null;
+		try {
+			entryFile = getEntryFile(config, file, filename, filepath);
+			if (entryFile.isFile()) {
+				ParseResult result = load(entryFile);
+				hitCount.incrementAndGet();
+				return result;
+			}
+		}
+		catch (IOException e) {
+			// Fall back to parsing the file
+			if (entryFile != null)
+				diskCache.remove(entryFile);
+		}
+		catch (OutOfMemoryError e) {
+			throw new CheckedOutOfMemoryError(e);
+		}
+
+		ParseResult result = ParseService.parse(
+			config, file, filename, filepath, reporter, cancelable);
+
+		/*
+		 * Don't store the text if the parsing was canceled, since it may be
+		 * incomplete. The filename parser doesn't extract any text.
+		 */
+		if (entryFile == null || cancelable.isCanceled()
+				|| ParseService.FILENAME_PARSER.equals(result.getParserName()))
+			return result;
+		try {
+			return store(entryFile, result);
+		}
+		catch (IOException e) {
+			throw new ParseException(e);
+		}
+		catch (OutOfMemoryError e) {
+			throw new CheckedOutOfMemoryError(e);
+		}
+	}
+
+	@VisibleForTesting
+	int getHitCount() {
+		return hitCount.get();
+	}
+
+	/*
+	 * Returns the cache file for the given file. Besides the file contents,
+	 * the key contains everything that determines which parser is chosen and
+	 * how much text is kept, since copies of a file may be parsed differently
+	 * depending on their filenames. It also contains the settings that change
+	 * the output of the parsers, and the program version, so that text
+	 * extracted by an older version of a parser isn't reused after an upgrade.
+	 */
+	@NotNull
+	private File getEntryFile(	@NotNull IndexingConfig config,
+								@NotNull File file,
+								@NotNull String filename,
+								@NotNull Path filepath) throws IOException {
+		Hasher hasher = Hashing.sha1().newHasher();
+		long length = 0;
+		InputStream in = new TFileInputStream(file);
+		try {
+			byte[] buffer = new byte[64 * 1024];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				hasher.putBytes(buffer, 0, n);
+				length += n;
+			}
+		}
+		finally {
+			Closeables.closeQuietly(in);
+		}
+
+		boolean detectMime = false;
+		for (PatternAction patternAction : config.getPatternActions()) {
+			if (patternAction.getAction() == MatchAction.DETECT_MIME
+					&& patternAction.matches(filename, filepath, true)) {
+				detectMime = true;
+				break;
+			}
+		}
+		Parser parser = ParseService.findParserByName(config, file.getName());
+		hasher.putInt(FORMAT_VERSION);
+		hasher.putBoolean(detectMime);
+		hasher.putString(parser == null ? "" : parser.getClass().getName());
+		hasher.putInt(ProgramConf.Int.MaxCharsPerDocument.get());
+		hasher.putString(ProgramConf.Str.TextEncodingOverride.get());
+		hasher.putBoolean(ProgramConf.Bool.IndexExcelFormulas.get());
+		hasher.putString(Strings.nullToEmpty(AppUtil.Const.PROGRAM_VERSION.get()));
+
+		String hash = hasher.hash().toString();
+		return diskCache.getFile(hash + "-" + Long.toHexString(length));
+	}
+
+	@NotNull
+	private ParseResult load(@NotNull File entryFile) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+			new FileInputStream(entryFile)));
+		ContentWriter content = new ContentWriter();
+		try {
+			if (in.readInt() != FORMAT_VERSION)
+				throw new IOException("Unknown extraction cache format.");
+			String parserName = readString(in);
+			String title = in.readBoolean() ? readString(in) : null;
+			ParseResult result = new ParseResult(content)
+				.setParserName(parserName).setTitle(title);
+			for (int i = in.readInt(); i > 0; i--)
+				result.addAuthor(readString(in));
+			for (int i = in.readInt(); i > 0; i--)
+				result.addMiscMetadata(readString(in));
+			copy(new InputStreamReader(in, Charsets.UTF_8), content, null);
+			content.close();
+			diskCache.touch(entryFile);
+			return result;
+		}
+		catch (IOException e) {
+			content.dispose();
+			throw e;
+		}
+		finally {
+			Closeables.closeQuietly(in);
+		}
+	}
+
+	/*
+	 * Writes the given parse result to the given cache file. Since the content
+	 * of the parse result can only be read once, it is copied into a new parse
+	 * result, which is returned. If the cache file can't be written, the
+	 * content is still copied.
+	 */
+	@NotNull
+	private ParseResult store(	@NotNull File entryFile,
+								@NotNull ParseResult result)
+			throws IOException {
+		ContentWriter content = new ContentWriter();
+		ParseResult copy = new ParseResult(content)
+			.setParserName(result.getParserName())
+			.setTitle(result.getTitle());
+		List<String> authors = result.getAuthors();
+		if (authors != null)
+			for (String author : authors)
+				copy.addAuthor(author);
+		List<String> miscMetadata = result.getMiscMetadata();
+		if (miscMetadata != null)
+			for (String metadata : miscMetadata)
+				copy.addMiscMetadata(metadata);
+
+		File tempFile = null;
+		Writer cacheWriter = null;
+		try {
+			tempFile = diskCache.createTempFile(entryFile);
+			DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tempFile)));
+			cacheWriter = new OutputStreamWriter(out, Charsets.UTF_8);
+			out.writeInt(FORMAT_VERSION);
+			writeString(out, result.getParserName());
+			String title = result.getTitle();
+			out.writeBoolean(title != null);
+			if (title != null)
+				writeString(out, title);
+			writeStrings(out, authors);
+			writeStrings(out, miscMetadata);
+		}
+		catch (IOException e) {
+			Util.printErr(e);
+			Closeables.closeQuietly(cacheWriter);
+			cacheWriter = null;
+		}
+
+		Reader in = result.getContentReader();
+		boolean stored = false;
+		try {
+			stored = copy(in, content, cacheWriter);
+			content.close();
+			if (stored) {
+				cacheWriter.close();
+				stored = diskCache.commit(tempFile, entryFile);
+			}
+		}
+		catch (IOException e) {
+			content.dispose();
+			throw e;
+		}
+		finally {
+			Closeables.closeQuietly(in);
+			Closeables.closeQuietly(cacheWriter);
+			if (tempFile != null && !stored)
+				tempFile.delete();
+		}
+		return copy;
+	}
+
+	/*
+	 * Copies the given reader to the given content writer, and also to the
+	 * given cache writer if it isn't null. Returns whether all characters were
+	 * written to the cache writer. IOExceptions are only thrown if reading or
+	 * writing the content fails.
+	 */
+	private static boolean copy(@NotNull Reader in,
+								@NotNull ContentWriter content,
+								@Nullable Writer cacheWriter)
+			throws IOException {
+		char[] buffer = new char[8 * 1024];
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+			content.write(buffer, 0, n);
+			if (cacheWriter == null)
+				continue;
+			try {
+				cacheWriter.write(buffer, 0, n);
+			}
+			catch (IOException e) {
+				Util.printErr(e);
+				Closeables.closeQuietly(cacheWriter);
+				cacheWriter = null;
+			}
+		}
+		return cacheWriter != null;
+	}
+
+	private static void writeStrings(	@NotNull DataOutputStream out,
+										@Nullable List<String> strings)
+			throws IOException {
+		if (strings == null) {
+			out.writeInt(0);
+			return;
+		}
+		out.writeInt(strings.size());
+		for (String string : strings)
+			writeString(out, string);
+	}
+
+	// Unlike writeUTF, this isn't limited to 64 KB
+	private static void writeString(@NotNull DataOutputStream out,
+									@NotNull String string)
+			throws IOException {
+		byte[] bytes = string.getBytes(Charsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	@NotNull
+	private static String readString(@NotNull DataInputStream in)
+			throws IOException {
+		int length = in.readInt();
+		if (length < 0)
+			throw new IOException("Invalid string length: " + length);
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, Charsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.Reader;
+
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.model.Cancelable;
+import net.sourceforge.docfetcher.model.Path;
+import net.sourceforge.docfetcher.model.index.IndexingConfig;
+import net.sourceforge.docfetcher.model.index.IndexingReporter;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.io.CharStreams;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class ExtractionCacheTest {
+
+	@Test
+	public void testCopiesAreParsedOnce() throws Exception {
+		File tempDir = Util.createTempDir();
+		ProgramConf.Int.ExtractionCacheSizeMB.load("10");
+		try {
+			File file1 = new File(tempDir, "dir1/test1.txt");
+			File file2 = new File(tempDir, "dir2/test2.txt");
+			file1.getParentFile().mkdirs();
+			file2.getParentFile().mkdirs();
+			Files.write("Hello World", file1, Charsets.UTF_8);
+			Files.copy(file1, file2);
+
+			ExtractionCache cache = ExtractionCache.getInstance(tempDir);
+			assertNotNull(cache);
+			assertEquals("Hello World", parse(cache, file1));
+			assertEquals(0, cache.getHitCount());
+			assertEquals("Hello World", parse(cache, file2));
+			assertEquals(1, cache.getHitCount());
+
+			// Same content, but different parser
+			File file3 = new File(tempDir, "test3.html");
+			Files.copy(file1, file3);
+			parse(cache, file3);
+			assertEquals(1, cache.getHitCount());
+		}
+		finally {
+			ProgramConf.Int.ExtractionCacheSizeMB.load("0");
+			Util.deleteRecursively(tempDir);
+		}
+		assertNull(ExtractionCache.getInstance(tempDir));
+	}
+
+	@Test
+	public void testParserSettingsInKey() throws Exception {
+		File tempDir = Util.createTempDir();
+		ProgramConf.Int.ExtractionCacheSizeMB.load("10");
+		try {
+			File file = new File(tempDir, "test.txt");
+			Files.write("Hello World", file, Charsets.UTF_8);
+
+			ExtractionCache cache = ExtractionCache.getInstance(tempDir);
+			parse(cache, file);
+			parse(cache, file);
+			assertEquals(1, cache.getHitCount());
+
+			// Changing a setting that affects the parser output is a miss
+			ProgramConf.Str.TextEncodingOverride.load("UTF-8");
+			parse(cache, file);
+			assertEquals(1, cache.getHitCount());
+		}
+		finally {
+			ProgramConf.Str.TextEncodingOverride.load("");
+			ProgramConf.Int.ExtractionCacheSizeMB.load("0");
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		File tempDir = Util.createTempDir();
+		ProgramConf.Int.ExtractionCacheSizeMB.load("1");
+		try {
+			// Each text takes up more than half of the cache
+			File file1 = new File(tempDir, "test1.txt");
+			File file2 = new File(tempDir, "test2.txt");
+			String text1 = Strings.repeat("a", 600 * 1024);
+			String text2 = Strings.repeat("b", 600 * 1024);
+			Files.write(text1, file1, Charsets.UTF_8);
+			Files.write(text2, file2, Charsets.UTF_8);
+
+			ExtractionCache cache = ExtractionCache.getInstance(tempDir);
+			assertEquals(text1, parse(cache, file1));
+			Thread.sleep(1000); // Make sure the entries have different ages
+			assertEquals(text2, parse(cache, file2));
+
+			// The least recently used text was evicted
+			assertEquals(text2, parse(cache, file2));
+			assertEquals(1, cache.getHitCount());
+			assertEquals(text1, parse(cache, file1));
+			assertEquals(1, cache.getHitCount());
+		}
+		finally {
+			ProgramConf.Int.ExtractionCacheSizeMB.load("0");
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+	@NotNull
+	private static String parse(@NotNull ExtractionCache cache,
+								@NotNull File file) throws Exception {
+		ParseResult result = cache.parse(
+			new IndexingConfig(), file, file.getName(), new Path(file),
+			IndexingReporter.nullReporter, Cancelable.nullCancelable);
+		Reader reader = result.getContentReader();
+		try {
+			return CharStreams.toString(reader).trim();
+		}
+		finally {
+			Closeables.closeQuietly(reader);
+		}
+	}
+
+}
@@ -50,4 +50,19 @@ abstract class FileParser extends Parser {
 		return parse(file, context).getContent().toString();
 	}
 
+	/**
+	 * This method extracts text from the given file for presentation on
+	 * the preview pane and passes it to the given page handler, possibly in
+	 * several pieces, so that the preview can be shown before the entire
+	 * text has been extracted. Extraction should stop as soon as the page
+	 * handler returns true. The default implementation passes the output of
+	 * the <tt>renderText</tt> method as a single piece.
+	 */
+	protected void renderChunks(@NotNull File file,
+	                            @NotNull String filename,
+	                            @NotNull PageHandler handler)
+			throws ParseException {
+		handler.handlePage(renderText(file, filename));
+	}
+
 }
@@ -11,9 +11,13 @@
 
 package net.sourceforge.docfetcher.model.parse;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
 
+import javolution.io.CharSequenceReader;
+import net.sourceforge.docfetcher.enums.ProgramConf;
 import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.MutableCopy;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
@@ -27,7 +31,9 @@ import net.sourceforge.docfetcher.util.annotations.Nullable;
  */
 public final class ParseResult {
 	
-	@NotNull private CharSequence content;
+	@NotNull private CharSequence content = "";
+	@Nullable private ContentWriter contentWriter;
+	private boolean isContentReaderTaken = false;
 	@Nullable private String title;
 	@Nullable private List<String> authors;
 	@Nullable private List<String> miscMetadata;
@@ -37,17 +43,87 @@ public final class ParseResult {
 		setContent(content);
 	}
 	
+	/**
+	 * Creates a parse result whose content is the text written to the given
+	 * content writer. This avoids holding the entire text in memory, and
+	 * should be preferred by parsers that produce large amounts of text.
+	 */
+	public ParseResult(@NotNull ContentWriter contentWriter) {
+		this.contentWriter = Util.checkNotNull(contentWriter);
+	}
+	
+	/**
+	 * Returns the entire content as a character sequence. If the content was
+	 * written to a content writer and spilled to disk, it is loaded into
+	 * memory and the temporary file is deleted, so for indexing,
+	 * {@link #getContentReader()} should be used instead.
+	 * 
+	 * @throws IllegalStateException
+	 *             if the content was written to a content writer and has
+	 *             already been consumed via {@link #getContentReader()}.
+	 */
 	@NotNull
-	public CharSequence getContent() {
+	public CharSequence getContent() throws ParseException {
+		if (contentWriter == null)
+			return content;
+		if (isContentReaderTaken)
+			throw new IllegalStateException(
+				"Content has already been consumed by a reader.");
+		try {
+			content = contentWriter.toCharSequence();
+		}
+		catch (IOException e) {
+			contentWriter.dispose();
+			throw new ParseException(e);
+		}
+		contentWriter.dispose();
+		contentWriter = null;
 		return content;
 	}
 	
+	/**
+	 * Returns a reader over the content. If the content was written to a
+	 * content writer, this method should only be called once, since closing
+	 * the returned reader will release any temporary resources held by the
+	 * content.
+	 */
+	@NotNull
+	public Reader getContentReader() throws IOException {
+		if (contentWriter == null)
+			return new CharSequenceReader().setInput(content);
+		isContentReaderTaken = true;
+		return contentWriter.getReader();
+	}
+	
+	// Content exceeding the per-document budget will be truncated
 	@NotNull
 	public ParseResult setContent(@Nullable CharSequence content) {
-		this.content = content == null ? "" : content;
+		if (contentWriter != null) {
+			contentWriter.dispose();
+			contentWriter = null;
+			isContentReaderTaken = false;
+		}
+		if (content == null) {
+			this.content = "";
+		}
+		else {
+			int maxChars = ProgramConf.Int.MaxCharsPerDocument.get();
+			this.content = content.length() > maxChars
+				? content.subSequence(0, maxChars)
+				: content;
+		}
 		return this;
 	}
 	
+	/**
+	 * Releases any temporary resources held by the content. This method should
+	 * be called if the content is discarded without being read.
+	 */
+	public void dispose() {
+		if (contentWriter != null)
+			contentWriter.dispose();
+	}
+	
 	@Nullable
 	public String getTitle() {
 		return title;
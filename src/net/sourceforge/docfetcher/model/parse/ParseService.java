@@ -74,7 +74,7 @@ public final class ParseService {
 	 * single instance of it.
 	 */
 	private static final MagicMimeMimeDetector mimeDetector = new MagicMimeMimeDetector();
-	private static final String FILENAME_PARSER = "FilenameParser";
+	static final String FILENAME_PARSER = "FilenameParser";
 	
 	private static final TextParser textParser;
 	private static final HtmlParser htmlParser;
@@ -315,16 +315,8 @@ public final class ParseService {
 			String parserName = parser.getClass().getSimpleName();
 			return result.setParserName(parserName);
 		}
-		catch (final RuntimeException e) {
-			// Show stacktrace, but keep indexing. Referencing the GUI from here
-			// is bad coding practice, but the easiest solution.
-			Display.getDefault().asyncExec(new Runnable() {
-				public void run() {
-					if (StackTraceWindow.windowCount < 1) {
-						AppUtil.showStackTrace(e, file);
-					}
-				}
-			});
+		catch (RuntimeException e) {
+			showStackTrace(e, file);
 			throw new ParseException(e);
 		}
 		catch (OutOfMemoryError e) {
@@ -332,10 +324,78 @@ public final class ParseService {
 		}
 	}
 	
+	private static void showStackTrace(	@NotNull final RuntimeException e,
+										@Nullable final File file) {
+		// Show stacktrace, but keep indexing. Referencing the GUI from here
+		// is bad coding practice, but the easiest solution.
+		Display.getDefault().asyncExec(new Runnable() {
+			public void run() {
+				if (StackTraceWindow.windowCount < 1) {
+					AppUtil.showStackTrace(e, file);
+				}
+			}
+		});
+	}
+	
 	private static boolean isZipEntry(@NotNull File file) {
 		return file instanceof TFile && ((TFile) file).isEntry();
 	}
 	
+	/**
+	 * Returns whether a document with the given name and path can be parsed
+	 * from an input stream with
+	 * {@link #parse(IndexingConfig, InputStream, String, IndexingReporter, Cancelable)}.
+	 * This is not the case if the document type must be detected by mime type,
+	 * or if the matching parser needs a file.
+	 */
+	public static boolean canParseStream(	@NotNull IndexingConfig config,
+											@NotNull String filename,
+											@NotNull Path filepath) {
+		for (PatternAction patternAction : config.getPatternActions()) {
+			if (patternAction.getAction() == MatchAction.DETECT_MIME
+					&& patternAction.matches(filename, filepath, true))
+				return false;
+		}
+		Parser parser = findParserByName(config, filename);
+		if (parser == null)
+			return config.isIndexFilenames();
+		return parser instanceof StreamParser;
+	}
+	
+	// Only accepts documents for which canParseStream returns true
+	// Does not close the given input stream
+	@NotNull
+	public static ParseResult parse(@NotNull IndexingConfig config,
+									@NotNull InputStream in,
+									@NotNull String filename,
+									@NotNull IndexingReporter reporter,
+									@NotNull Cancelable cancelable)
+			throws ParseException, CheckedOutOfMemoryError {
+		Parser parser = findParserByName(config, filename);
+		if (parser == null) {
+			if (config.isIndexFilenames())
+				return new ParseResult("").setParserName(FILENAME_PARSER);
+			throw new ParseException(Msg.parser_not_found.get());
+		}
+		Util.checkThat(parser instanceof StreamParser);
+		ParseContext context = new ParseContext(filename, reporter, cancelable);
+		try {
+			ParseResult result;
+			if (ProgramConf.Bool.DryRun.get())
+				result = new ParseResult("");
+			else
+				result = ((StreamParser) parser).parse(in, context);
+			return result.setParserName(parser.getClass().getSimpleName());
+		}
+		catch (RuntimeException e) {
+			showStackTrace(e, null);
+			throw new ParseException(e);
+		}
+		catch (OutOfMemoryError e) {
+			throw new CheckedOutOfMemoryError(e);
+		}
+	}
+	
 	// does not accept TrueZIP files
 	// may throw OutOfMemoryErrors
 	@NotNull
@@ -386,8 +446,60 @@ public final class ParseService {
 //		throw new IllegalArgumentException();
 	}
 	
+	/**
+	 * Same as
+	 * {@link #renderText(IndexingConfig, File, String, String) renderText},
+	 * except that the text is passed to the given page handler in chunks of
+	 * roughly {@link TextChunker#CHUNK_SIZE} characters as it is extracted.
+	 * Extraction stops as soon as the page handler returns true.
+	 */
+	// does not accept TrueZIP files
+	public static void renderChunks(@NotNull IndexingConfig config,
+	                                @NotNull File file,
+	                                @NotNull String filename,
+	                                @NotNull String parserName,
+	                                @NotNull PageHandler handler)
+			throws ParseException, CheckedOutOfMemoryError {
+		Util.checkThat(! (file instanceof TFile));
+		if (parserName.equals(FILENAME_PARSER))
+			return;
+		
+		TextChunker chunker = new TextChunker(handler);
+		for (Parser parser : parsers) {
+			if (!parser.getClass().getSimpleName().equals(parserName))
+				continue;
+			try {
+				if (parser instanceof StreamParser) {
+					InputStream in = null;
+					try {
+						in = new FileInputStream(file);
+						((StreamParser) parser).renderChunks(in, filename, chunker);
+					}
+					catch (FileNotFoundException e) {
+						throw new ParseException(e);
+					}
+					finally {
+						Closeables.closeQuietly(in);
+					}
+				}
+				else if (parser instanceof FileParser) {
+					((FileParser) parser).renderChunks(file, filename, chunker);
+				}
+				else {
+					continue;
+				}
+				chunker.flush();
+				return;
+			}
+			catch (OutOfMemoryError e) {
+				throw new CheckedOutOfMemoryError(e);
+			}
+		}
+		throw new ParseException(Msg.parser_not_found.get());
+	}
+	
 	@Nullable
-	private static Parser findParserByName(	@NotNull IndexingConfig config,
+	static Parser findParserByName(	@NotNull IndexingConfig config,
 											@NotNull String filename) {
 		String ext = Util.getExtension(filename);
 		for (Parser parser : parsers)
@@ -11,12 +11,19 @@
 
 package net.sourceforge.docfetcher.model.parse;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.io.Reader;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import net.sourceforge.docfetcher.TestFiles;
 import net.sourceforge.docfetcher.model.index.IndexingConfig;
@@ -30,6 +37,8 @@ import net.sourceforge.docfetcher.util.collect.ListMap.Entry;
 
 import org.junit.Test;
 
+import com.google.common.io.CharStreams;
+
 /**
  * @author Tran Nam Quang
  */
@@ -115,6 +124,85 @@ public final class ParseServiceTest {
 		return true;
 	}
 	
+	/**
+	 * Checks that large texts are spilled to disk instead of being held in
+	 * memory, and that the per-document character budget is enforced.
+	 */
+	@Test
+	public void testContentWriterSpillAndBudget() throws Exception {
+		char[] chunk = new char[1000];
+		Arrays.fill(chunk, 'a');
+		
+		ContentWriter writer = new ContentWriter(Integer.MAX_VALUE);
+		int count = ContentWriter.MEMORY_LIMIT / chunk.length + 10;
+		for (int i = 0; i < count; i++)
+			writer.write(chunk);
+		assertTrue(writer.isSpilled());
+		assertFalse(writer.isTruncated());
+		Reader reader = writer.getReader();
+		assertEquals(count * chunk.length, CharStreams.toString(reader).length());
+		reader.close();
+		
+		writer = new ContentWriter(1500);
+		writer.write(chunk);
+		writer.write(chunk);
+		assertTrue(writer.isTruncated());
+		assertEquals(1500, writer.getCharCount());
+		assertEquals(1500, writer.toCharSequence().length());
+	}
+	
+	/**
+	 * Checks that reading the spilled content of a parse result into memory
+	 * deletes the temporary file, and that the content can't be read again
+	 * after it has been consumed by a reader.
+	 */
+	@Test
+	public void testParseResultSpilledContent() throws Exception {
+		char[] chunk = new char[1000];
+		Arrays.fill(chunk, 'a');
+		int count = ContentWriter.MEMORY_LIMIT / chunk.length + 10;
+		Set<String> oldSpillFiles = listSpillFiles();
+		
+		ContentWriter writer = new ContentWriter(Integer.MAX_VALUE);
+		for (int i = 0; i < count; i++)
+			writer.write(chunk);
+		assertTrue(writer.isSpilled());
+		assertFalse(listSpillFiles().equals(oldSpillFiles));
+		ParseResult result = new ParseResult(writer);
+		assertEquals(count * chunk.length, result.getContent().length());
+		assertEquals(oldSpillFiles, listSpillFiles());
+		assertEquals(count * chunk.length, result.getContent().length());
+		Reader reader = result.getContentReader();
+		assertEquals(count * chunk.length, CharStreams.toString(reader).length());
+		reader.close();
+		
+		writer = new ContentWriter(Integer.MAX_VALUE);
+		for (int i = 0; i < count; i++)
+			writer.write(chunk);
+		result = new ParseResult(writer);
+		reader = result.getContentReader();
+		assertEquals(count * chunk.length, CharStreams.toString(reader).length());
+		reader.close();
+		assertEquals(oldSpillFiles, listSpillFiles());
+		try {
+			result.getContent();
+			fail();
+		}
+		catch (IllegalStateException e) {
+			// Expected
+		}
+	}
+	
+	@NotNull
+	private static Set<String> listSpillFiles() {
+		Set<String> names = new HashSet<String>();
+		File tempDir = new File(System.getProperty("java.io.tmpdir"));
+		for (String name : tempDir.list())
+			if (name.startsWith("content") && name.endsWith(".txt"))
+				names.add(name);
+		return names;
+	}
+	
 	// TODO test: What happens when a parser (e.g. AbiWordParser) is fed with the wrong filetype, e.g. binary files?
 
 }
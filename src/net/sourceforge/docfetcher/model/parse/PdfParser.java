@@ -13,7 +13,6 @@ package net.sourceforge.docfetcher.model.parse;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringWriter;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -81,7 +80,7 @@ public final class PdfParser extends StreamParser {
 				 */
 				throw new ParseException(e);
 			}
-			StringWriter writer = new StringWriter();
+			final ContentWriter writer = new ContentWriter();
 			final StringBuilder annotations = new StringBuilder();
 			
 			/*
@@ -114,7 +113,8 @@ public final class PdfParser extends StreamParser {
 					} catch (IOException e) {
 						System.err.println(e.getMessage());
 					}
-					if (context.getCancelable().isCanceled()) {
+					if (context.getCancelable().isCanceled()
+							|| writer.isTruncated()) {
 						setEndPage(0);
 					}
 				}
@@ -122,25 +122,30 @@ public final class PdfParser extends StreamParser {
 			
 			try {
 				stripper.writeText(pdfDoc, writer);
+				writer.write(" ");
+				writer.write(annotations.toString());
 			}
 			catch (RuntimeException e) {
 				/*
 				 * PDFTextStripper.writeText can throw various
 				 * RuntimeExceptions, see bugs #3446010, #3448272, #3444887.
 				 */
+				writer.dispose();
 				throw new ParseException(e);
 			}
 			catch (ExceptionInInitializerError e) {
 				/*
 				 * Thrown since PDFBox 2.0.9, see bug #1477.
 				 */
+				writer.dispose();
 				throw new ParseException(e);
 			}
+			catch (IOException e) {
+				writer.dispose();
+				throw e;
+			}
 			
-			writer.write(" ");
-			writer.write(annotations.toString());
-			
-			ParseResult result = new ParseResult(writer.getBuffer());
+			ParseResult result = new ParseResult(writer);
 			extractMetadata(pdfDoc, result);
 			return result;
 		}
@@ -56,4 +56,22 @@ abstract class StreamParser extends Parser {
 		return parse(in, context).getContent().toString();
 	}
 
+	/**
+	 * This method extracts text from the given input stream for presentation on
+	 * the preview pane and passes it to the given page handler, possibly in
+	 * several pieces, so that the preview can be shown before the entire
+	 * text has been extracted. Extraction should stop as soon as the page
+	 * handler returns true. The default implementation passes the output of
+	 * the <tt>renderText</tt> method as a single piece.
+	 * <p>
+	 * Note: The given input stream is closed automatically after this method
+	 * returns.
+	 */
+	protected void renderChunks(@NotNull InputStream in,
+	                            @NotNull String filename,
+	                            @NotNull PageHandler handler)
+			throws ParseException {
+		handler.handlePage(renderText(in, filename));
+	}
+
 }
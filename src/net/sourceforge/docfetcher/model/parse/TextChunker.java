@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.parse;
+
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.NotThreadSafe;
+
+/**
+ * A page handler that collects the text passed to it, regardless of how it is
+ * split up, and passes it on to another page handler in chunks of roughly
+ * {@link #CHUNK_SIZE} characters. This allows displaying and highlighting a
+ * large text piece by piece.
+ * <p>
+ * Chunks end after a line break where possible, otherwise after whitespace.
+ * Line breaks consisting of two characters and surrogate pairs are never split
+ * up. After the last piece of text, {@link #flush()} must be called to pass on
+ * the remaining text.
+ *
+ * @author Tran Nam Quang
+ */
+@NotThreadSafe
+public final class TextChunker implements PageHandler {
+
+	public static final int CHUNK_SIZE = 64 * 1024;
+
+	private final PageHandler handler;
+	private final StringBuilder buffer = new StringBuilder();
+	private boolean isStopped = false;
+
+	public TextChunker(@NotNull PageHandler handler) {
+		this.handler = Util.checkNotNull(handler);
+	}
+
+	public boolean handlePage(String text) {
+		if (isStopped)
+			return true;
+		buffer.append(text);
+		int start = 0;
+		while (!isStopped && buffer.length() - start >= CHUNK_SIZE) {
+			int end = findChunkEnd(buffer, start);
+			isStopped = handler.handlePage(buffer.substring(start, end));
+			start = end;
+		}
+		buffer.delete(0, start);
+		return isStopped;
+	}
+
+	/**
+	 * Passes on the remaining text. Returns whether the receiving page handler
+	 * requested to stop.
+	 */
+	public boolean flush() {
+		if (!isStopped && buffer.length() > 0)
+			isStopped = handler.handlePage(buffer.toString());
+		buffer.setLength(0);
+		return isStopped;
+	}
+
+	// Assumes that there are at least CHUNK_SIZE characters after start
+	private static int findChunkEnd(@NotNull CharSequence text, int start) {
+		int maxEnd = start + CHUNK_SIZE;
+		int minEnd = start + CHUNK_SIZE / 2;
+		int end = maxEnd;
+		for (int i = maxEnd - 1; i >= minEnd; i--) {
+			if (text.charAt(i) == '\n') {
+				return i + 1;
+			}
+			else if (end == maxEnd && Character.isWhitespace(text.charAt(i))) {
+				end = i + 1; // fallback if there's no line break
+			}
+		}
+		char last = text.charAt(end - 1);
+		if (last == '\r' || Character.isHighSurrogate(last))
+			end--;
+		return end;
+	}
+
+}
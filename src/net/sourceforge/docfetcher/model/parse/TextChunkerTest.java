@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import net.sourceforge.docfetcher.model.index.IndexingConfig;
+import net.sourceforge.docfetcher.util.Util;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class TextChunkerTest {
+
+	@Test
+	public void testChunksEndAtLineBreaks() {
+		String line = Strings.repeat("x", 99) + "\r\n";
+		String text = Strings.repeat(line, 2000);
+		ChunkCollector collector = new ChunkCollector(Integer.MAX_VALUE);
+		TextChunker chunker = new TextChunker(collector);
+
+		// The way the text is passed in doesn't matter
+		for (int i = 0; i < text.length(); i += 1000)
+			chunker.handlePage(text.substring(i, Math.min(i + 1000, text.length())));
+		chunker.flush();
+
+		assertEquals(text, Joiner.on("").join(collector.chunks));
+		assertTrue(collector.chunks.size() > 1);
+		for (String chunk : collector.chunks) {
+			assertTrue(chunk.length() <= TextChunker.CHUNK_SIZE);
+			assertTrue(chunk.endsWith("\r\n"));
+		}
+	}
+
+	@Test
+	public void testLongLines() {
+		String text = Strings.repeat("x", 3 * TextChunker.CHUNK_SIZE);
+		ChunkCollector collector = new ChunkCollector(Integer.MAX_VALUE);
+		TextChunker chunker = new TextChunker(collector);
+		chunker.handlePage(text);
+		chunker.flush();
+		assertEquals(3, collector.chunks.size());
+		assertEquals(text, Joiner.on("").join(collector.chunks));
+	}
+
+	@Test
+	public void testStop() {
+		String text = Strings.repeat("x ", 3 * TextChunker.CHUNK_SIZE);
+		ChunkCollector collector = new ChunkCollector(2);
+		TextChunker chunker = new TextChunker(collector);
+		assertTrue(chunker.handlePage(text));
+		assertTrue(chunker.flush());
+		assertEquals(2, collector.chunks.size());
+	}
+
+	@Test
+	public void testRenderTextFile() throws Exception {
+		File tempDir = Util.createTempDir();
+		try {
+			File file = new File(tempDir, "test.txt");
+			String text = Strings.repeat("Hello World\n", 20000);
+			Files.write(text, file, Charsets.UTF_8);
+			ChunkCollector collector = new ChunkCollector(Integer.MAX_VALUE);
+			ParseService.renderChunks(
+				new IndexingConfig(), file, file.getName(),
+				TextParser.class.getSimpleName(), collector);
+			assertTrue(collector.chunks.size() > 1);
+			assertEquals(text, Joiner.on("").join(collector.chunks));
+		}
+		finally {
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+	private static final class ChunkCollector implements PageHandler {
+		private final List<String> chunks = Lists.newArrayList();
+		private final int maxChunks;
+
+		public ChunkCollector(int maxChunks) {
+			this.maxChunks = maxChunks;
+		}
+
+		public boolean handlePage(String pageText) {
+			chunks.add(pageText);
+			return chunks.size() >= maxChunks;
+		}
+	}
+
+}
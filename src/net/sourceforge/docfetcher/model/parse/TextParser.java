@@ -13,6 +13,7 @@ package net.sourceforge.docfetcher.model.parse;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
 import java.util.Collection;
 
 import net.sourceforge.docfetcher.enums.Msg;
@@ -32,11 +33,52 @@ public final class TextParser extends StreamParser {
 	@Override
 	protected ParseResult parse(InputStream in,
 	                            ParseContext context) throws ParseException {
+		/*
+		 * Decode directly into the content writer instead of going through an
+		 * intermediate byte array and string. Reading stops early if the
+		 * per-document character budget is exhausted.
+		 */
+		ContentWriter contents = new ContentWriter();
 		try {
-			CharsetDetectorHelper.charsetOverride = ProgramConf.Str.TextEncodingOverride.get().trim();
-			String contents = CharsetDetectorHelper.toString(in);
+			Reader reader = CharsetDetectorHelper.toReader(
+				in, ProgramConf.Str.TextEncodingOverride.get());
+			char[] buf = new char[8192];
+			int nread;
+			while ((nread = reader.read(buf)) != -1) {
+				contents.write(buf, 0, nread);
+				if (contents.isTruncated() || context.getCancelable().isCanceled())
+					break;
+			}
 			return new ParseResult(contents);
 		}
+		catch (IOException e) {
+			contents.dispose();
+			throw new ParseException(e);
+		}
+	}
+	
+	/*
+	 * Passes the decoded text on as it is read, so that the preview of large
+	 * text files can be shown almost immediately. As with the parse method,
+	 * reading stops when the per-document character budget is exhausted.
+	 */
+	@Override
+	protected void renderChunks(InputStream in,
+	                            String filename,
+	                            PageHandler handler) throws ParseException {
+		try {
+			Reader reader = CharsetDetectorHelper.toReader(
+				in, ProgramConf.Str.TextEncodingOverride.get());
+			long remaining = ProgramConf.Int.MaxCharsPerDocument.get();
+			char[] buf = new char[8192];
+			int nread;
+			while (remaining > 0 && (nread = reader.read(buf)) != -1) {
+				nread = (int) Math.min(nread, remaining);
+				remaining -= nread;
+				if (handler.handlePage(new String(buf, 0, nread)))
+					break;
+			}
+		}
 		catch (IOException e) {
 			throw new ParseException(e);
 		}
@@ -14,7 +14,6 @@ package net.sourceforge.docfetcher.model.parse;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
-import java.io.StringReader;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -22,6 +21,7 @@ import net.htmlparser.jericho.Element;
 import net.htmlparser.jericho.Segment;
 import net.htmlparser.jericho.Source;
 import net.sourceforge.docfetcher.enums.Msg;
+import net.sourceforge.docfetcher.enums.ProgramConf;
 import net.sourceforge.docfetcher.util.CharsetDetectorHelper;
 import net.sourceforge.docfetcher.util.annotations.Nullable;
 
@@ -38,7 +38,8 @@ final class UtilParser {
 	// does charset detection
 	// does not close the given InputStream
 	public static Source getSource(InputStream in) throws IOException {
-		Reader reader = new StringReader(CharsetDetectorHelper.toString(in));
+		Reader reader = CharsetDetectorHelper.toReader(
+			in, ProgramConf.Str.TextEncodingOverride.get());
 		Source source = new Source(reader);
 		return source;
 	}
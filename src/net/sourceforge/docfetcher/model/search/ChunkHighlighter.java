@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.search;
+
+import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.NotThreadSafe;
+
+import org.apache.lucene.search.Query;
+
+/**
+ * Highlights a text that is passed to it in consecutive chunks. The
+ * highlighted pieces returned by the receiver can be joined together, and
+ * yield the same text and highlighting as
+ * {@link HighlightService#highlight(Query, boolean, String)} applied to the
+ * whole text.
+ * <p>
+ * To achieve this, the end of each chunk is held back and highlighted again
+ * together with the next chunk, so that matches spanning a chunk boundary
+ * aren't lost. The same goes for trailing whitespace, which is dropped at the
+ * end of the text, and for leading empty lines, which are dropped at the
+ * beginning.
+ *
+ * @author Tran Nam Quang
+ */
+@NotThreadSafe
+final class ChunkHighlighter {
+
+	/*
+	 * The minimum number of characters held back at the end of each chunk. A
+	 * phrase match spanning a chunk boundary is highlighted if it is shorter
+	 * than this.
+	 */
+	static final int OVERLAP = 4 * 1024;
+
+	private final Query query;
+	private final boolean isPhraseQuery;
+	private String pending = "";
+	private boolean isStarted = false;
+
+	public ChunkHighlighter(@NotNull Query query, boolean isPhraseQuery) {
+		this.query = Util.checkNotNull(query);
+		this.isPhraseQuery = isPhraseQuery;
+	}
+
+	/**
+	 * Highlights the given chunk and returns the part of the text that can be
+	 * displayed so far, which may be empty.
+	 */
+	@NotNull
+	public HighlightedString add(@NotNull String chunk)
+			throws CheckedOutOfMemoryError {
+		String text = pending + chunk;
+		if (!isStarted) {
+			int start = getFirstLineStart(text);
+			if (start < 0) {
+				// Keep the last line, whose leading whitespace might be needed
+				pending = text.substring(getLastLineStart(text));
+				return empty();
+			}
+			text = text.substring(start);
+			isStarted = true;
+		}
+
+		int cut = findCut(text);
+		if (cut <= 0) {
+			pending = text;
+			return empty();
+		}
+		RangeList ranges = HighlightService.getRanges(
+			query, isPhraseQuery, text);
+
+		// Don't cut through a match; it will be highlighted again later
+		int i = ranges.indexOfFirstEndingAfter(cut);
+		if (i < ranges.size() && ranges.getStart(i) < cut)
+			cut = ranges.getStart(i);
+
+		RangeList head = new RangeList();
+		for (int j = 0; j < ranges.size() && ranges.getEnd(j) <= cut; j++)
+			head.add(ranges.getStart(j), ranges.getLength(j));
+		pending = text.substring(cut);
+		return new HighlightedString(text.substring(0, cut), head);
+	}
+
+	/**
+	 * Highlights and returns the rest of the text. This must be called after
+	 * the last chunk.
+	 */
+	@NotNull
+	public HighlightedString finish() throws CheckedOutOfMemoryError {
+		String text = Util.trimRight(pending);
+		pending = "";
+		RangeList ranges = HighlightService.getRanges(
+			query, isPhraseQuery, text);
+		return new HighlightedString(text, ranges);
+	}
+
+	@NotNull
+	private static HighlightedString empty() {
+		return new HighlightedString("", new RangeList(0));
+	}
+
+	/*
+	 * Returns the offset at which the given text can be cut so that at least
+	 * OVERLAP characters and all trailing whitespace are held back, or -1 if
+	 * the text is too short. The text is cut after a line break if possible,
+	 * otherwise after whitespace, so that no word is split up. If there's
+	 * neither near the end of the text, -1 is returned as well.
+	 */
+	private static int findCut(@NotNull String text) {
+		int end = text.length();
+		while (end > 0 && Character.isWhitespace(text.charAt(end - 1)))
+			end--;
+		int maxCut = end - OVERLAP;
+		int minCut = Math.max(1, maxCut - OVERLAP);
+		int cut = -1;
+		for (int i = maxCut - 1; i >= minCut - 1; i--) {
+			char c = text.charAt(i);
+			if (c == '\n')
+				return i + 1;
+			if (cut < 0 && c != '\r' && Character.isWhitespace(c))
+				cut = i + 1; // fallback if there's no line break
+		}
+		return cut;
+	}
+
+	/*
+	 * Returns the start of the first line that contains non-whitespace
+	 * characters, or -1 if there is no such line.
+	 */
+	private static int getFirstLineStart(@NotNull String text) {
+		int lineStart = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '\r' || c == '\n')
+				lineStart = i + 1;
+			else if (!Character.isWhitespace(c))
+				return lineStart;
+		}
+		return -1;
+	}
+
+	private static int getLastLineStart(@NotNull String text) {
+		for (int i = text.length() - 1; i >= 0; i--) {
+			char c = text.charAt(i);
+			if (c == '\r' || c == '\n')
+				return i + 1;
+		}
+		return 0;
+	}
+
+}
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.search;
+
+import static org.junit.Assert.assertEquals;
+
+import net.sourceforge.docfetcher.model.IndexRegistry;
+import net.sourceforge.docfetcher.model.parse.PageHandler;
+import net.sourceforge.docfetcher.model.parse.TextChunker;
+import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.Query;
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class ChunkHighlighterTest {
+
+	private final QueryParser queryParser = new QueryParser(
+		"content", IndexRegistry.getAnalyzer());
+
+	@Test
+	public void testPhraseAcrossChunks() throws Exception {
+		// The first chunk ends after the line break within the phrase
+		String filler = Strings.repeat("filler ", (TextChunker.CHUNK_SIZE - 8) / 7);
+		String text = filler + "some\ntext " + filler + "some text";
+		Query query = queryParser.parse("\"some text\"");
+		assertSameAsWhole(query, true, text);
+
+		HighlightedString string = highlightChunks(query, true, text);
+		assertEquals(2, string.getRangeCount());
+		assertEquals(filler.length(), string.getRanges().getStart(0));
+		assertEquals(9, string.getRanges().getLength(0));
+	}
+
+	@Test
+	public void testTrimming() throws Exception {
+		String filler = Strings.repeat("filler\n", TextChunker.CHUNK_SIZE / 7);
+		String text = " \n\n  some text" + filler + "text\n  \n"
+				+ Strings.repeat(" ", TextChunker.CHUNK_SIZE);
+		Query query = queryParser.parse("text");
+		assertSameAsWhole(query, false, text);
+		assertEquals(
+			"  some text" + filler + "text",
+			highlightChunks(query, false, text).getString());
+
+		// Texts consisting only of whitespace
+		assertSameAsWhole(query, false, Strings.repeat(" \n", 100000));
+		assertSameAsWhole(query, false, "");
+	}
+
+	private void assertSameAsWhole(	@NotNull Query query,
+									boolean isPhraseQuery,
+									@NotNull String text) throws Exception {
+		HighlightedString expected = HighlightService.highlight(
+			query, isPhraseQuery, text);
+		HighlightedString actual = highlightChunks(query, isPhraseQuery, text);
+		assertEquals(expected.getString(), actual.getString());
+		RangeList expectedRanges = expected.getRanges();
+		RangeList actualRanges = actual.getRanges();
+		assertEquals(expectedRanges.size(), actualRanges.size());
+		for (int i = 0; i < expectedRanges.size(); i++) {
+			assertEquals(expectedRanges.getStart(i), actualRanges.getStart(i));
+			assertEquals(expectedRanges.getLength(i), actualRanges.getLength(i));
+		}
+	}
+
+	@NotNull
+	private static HighlightedString highlightChunks(	@NotNull Query query,
+														boolean isPhraseQuery,
+														@NotNull String text)
+			throws CheckedOutOfMemoryError {
+		final ChunkHighlighter highlighter = new ChunkHighlighter(
+			query, isPhraseQuery);
+		final HighlightedString string = new HighlightedString(
+			"", new RangeList(0));
+		TextChunker chunker = new TextChunker(new PageHandler() {
+			public boolean handlePage(String pageText) {
+				try {
+					string.add(highlighter.add(pageText));
+				}
+				catch (CheckedOutOfMemoryError e) {
+					throw new IllegalStateException(e);
+				}
+				return false;
+			}
+		});
+		chunker.handlePage(text);
+		chunker.flush();
+		string.add(highlighter.finish());
+		return string;
+	}
+
+}
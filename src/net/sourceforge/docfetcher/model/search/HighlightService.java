@@ -11,38 +11,22 @@
 
 package net.sourceforge.docfetcher.model.search;
 
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
+import java.text.BreakIterator;
 
 import net.sourceforge.docfetcher.model.Fields;
 import net.sourceforge.docfetcher.model.IndexRegistry;
-import net.sourceforge.docfetcher.model.index.IndexWriterAdapter;
 import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
 import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.MutableCopy;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
 import net.sourceforge.docfetcher.util.annotations.VisibleForPackageGroup;
 
-import org.apache.lucene.analysis.Token;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.search.highlight.Formatter;
-import org.apache.lucene.search.highlight.Highlighter;
-import org.apache.lucene.search.highlight.NullFragmenter;
-import org.apache.lucene.search.highlight.QueryScorer;
-import org.apache.lucene.search.highlight.TokenGroup;
-import org.apache.lucene.search.vectorhighlight.FastVectorHighlighter;
-import org.apache.lucene.search.vectorhighlight.FieldPhraseList;
-import org.apache.lucene.search.vectorhighlight.FieldPhraseList.WeightedPhraseInfo;
-import org.apache.lucene.search.vectorhighlight.FieldQuery;
-import org.apache.lucene.search.vectorhighlight.FieldTermStack;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.RAMDirectory;
-
-import com.google.common.io.Closeables;
+import org.apache.lucene.search.postingshighlight.WholeBreakIterator;
+import org.apache.lucene.search.uhighlight.Passage;
+import org.apache.lucene.search.uhighlight.PassageFormatter;
+import org.apache.lucene.search.uhighlight.UnifiedHighlighter;
 
 /**
  * @author Tran Nam Quang
@@ -60,11 +44,7 @@ public final class HighlightService {
 												@NotNull String text)
 			throws CheckedOutOfMemoryError {
 		text = trimDocument(text);
-		List<Range> ranges;
-		if (isPhraseQuery)
-			ranges = highlightPhrases(query, text);
-		else
-			ranges = highlight(query, text);
+		RangeList ranges = getRanges(query, isPhraseQuery, text);
 		return new HighlightedString(text, ranges);
 	}
 	
@@ -91,97 +71,85 @@ public final class HighlightService {
 		return "";
 	}
 	
+	/*
+	 * Computes the highlighted ranges by analyzing the given text once and
+	 * collecting the offsets of the matching tokens. Phrase queries are
+	 * matched against a small in-memory index of the text, so that only
+	 * complete phrases are highlighted, and the words of each phrase match
+	 * are then joined into one range. Unlike the old highlighter, this
+	 * doesn't need an index with term vectors for the text, and the cost grows
+	 * linearly with the length of the text.
+	 */
 	@MutableCopy
 	@NotNull
-	@SuppressWarnings("unchecked")
-	private static List<Range> highlightPhrases(@NotNull Query query,
-												@NotNull String text)
+	static RangeList getRanges(	@NotNull Query query,
+										boolean isPhraseQuery,
+										@NotNull String text)
 			throws CheckedOutOfMemoryError {
-		// FastVectorHighlighter only supports TermQuery, PhraseQuery and BooleanQuery
-		FastVectorHighlighter highlighter = new FastVectorHighlighter(true, true, null, null);
-		FieldQuery fieldQuery = highlighter.getFieldQuery(query);
-		Directory directory = new RAMDirectory();
+		if (text.isEmpty())
+			return new RangeList(0);
+		Analyzer analyzer = IndexRegistry.getAnalyzer();
+		RangeHighlighter highlighter = new RangeHighlighter(analyzer);
 		try {
-			/*
-			 * Hack: We have to put the given text in a RAM index, because the
-			 * fast-vector highlighter can only work on index readers
-			 */
-			IndexWriterAdapter writer = new IndexWriterAdapter(directory);
-			Document doc = new Document();
-			doc.add(Fields.createContent(text, true)); // must store token positions and offsets
-			writer.add(doc);
-			Closeables.closeQuietly(writer); // flush unwritten documents into index
-			IndexReader indexReader = DirectoryReader.open(directory);
-			
-			// This might throw an OutOfMemoryError
-			FieldTermStack fieldTermStack = new FieldTermStack(
-				indexReader, 0, Fields.CONTENT.key(), fieldQuery);
-			
-			FieldPhraseList fieldPhraseList = new FieldPhraseList(fieldTermStack, fieldQuery);
-			
-			// Hack: We'll use reflection to access a private field
-			java.lang.reflect.Field field = fieldPhraseList.getClass().getDeclaredField("phraseList");
-			field.setAccessible(true);
-			LinkedList<WeightedPhraseInfo> infoList = (LinkedList<WeightedPhraseInfo>) field.get(fieldPhraseList);
-			
-			List<Range> ranges = new ArrayList<Range> (infoList.size());
-			for (WeightedPhraseInfo phraseInfo : infoList) {
-				int start = phraseInfo.getStartOffset();
-				int end = phraseInfo.getEndOffset();
-				ranges.add(new Range(start, end - start));
-			}
-			return ranges;
+			// Might throw an OutOfMemoryError
+			Object ranges = highlighter.highlightWithoutSearcher(
+				Fields.CONTENT.key(), query, text, 1);
+			if (ranges == null) // no matches
+				return new RangeList(0);
+			RangeList rangeList = (RangeList) ranges;
+			if (isPhraseQuery)
+				return PhraseMatcher.mergePhrases(
+					query, Fields.CONTENT.key(), analyzer, text, rangeList);
+			return rangeList;
 		}
 		catch (OutOfMemoryError e) {
 			throw new CheckedOutOfMemoryError(e);
 		}
 		catch (Exception e) {
-			return new ArrayList<Range> (0);
+			Util.printErr(e);
+			return new RangeList(0);
 		}
 	}
 	
-	@MutableCopy
-	@NotNull
-	private static List<Range> highlight(	@NotNull Query query,
-											@NotNull String text)
-			throws CheckedOutOfMemoryError {
-		final List<Range> ranges = new ArrayList<Range> ();
-		/*
-		 * A formatter is supposed to return formatted text, but since we're
-		 * only interested in the start and end offsets of the search terms, we
-		 * return null and store the offsets in a list.
-		 */
-		Formatter nullFormatter = new Formatter() {
-			public String highlightTerm(String originalText, TokenGroup tokenGroup) {
-				for (int i = 0; i < tokenGroup.getNumTokens(); i++) {
-					Token token = tokenGroup.getToken(i);
-					if (tokenGroup.getScore(i) == 0)
-						continue;
-					int start = token.startOffset();
-					int end = token.endOffset();
-					ranges.add(new Range(start, end - start));
+	/**
+	 * A unified highlighter that treats the entire text as a single passage
+	 * and returns the offsets of all matches as a list of ranges, instead of
+	 * a formatted snippet.
+	 */
+	private static final class RangeHighlighter extends UnifiedHighlighter {
+		private static final PassageFormatter rangeFormatter = new PassageFormatter() {
+			public Object format(Passage[] passages, String content) {
+				int count = 0;
+				for (Passage passage : passages)
+					count += passage.getNumMatches();
+				RangeList ranges = new RangeList(count);
+				for (Passage passage : passages) {
+					int[] starts = passage.getMatchStarts();
+					int[] ends = passage.getMatchEnds();
+					for (int i = 0; i < passage.getNumMatches(); i++)
+						ranges.add(starts[i], ends[i] - starts[i]);
 				}
-				return null;
+				return ranges;
 			}
 		};
-		String key = Fields.CONTENT.key();
-		Highlighter highlighter = new Highlighter(nullFormatter, new QueryScorer(query, key));
-		highlighter.setMaxDocCharsToAnalyze(Integer.MAX_VALUE);
-		highlighter.setTextFragmenter(new NullFragmenter());
-		try {
-			/*
-			 * This has a return value, but we ignore it since we only want the
-			 * offsets. Might throw an OutOfMemoryError.
-			 */
-			highlighter.getBestFragment(IndexRegistry.getAnalyzer(), key, text);
+		
+		public RangeHighlighter(@NotNull Analyzer analyzer) {
+			super(null, analyzer);
+			setMaxLength(Integer.MAX_VALUE - 1); // don't truncate the text
 		}
-		catch (OutOfMemoryError e) {
-			throw new CheckedOutOfMemoryError(e);
+		
+		protected BreakIterator getBreakIterator(String field) {
+			return new WholeBreakIterator();
 		}
-		catch (Exception e) {
-			Util.printErr(e);
+		
+		protected PassageFormatter getFormatter(String field) {
+			return rangeFormatter;
+		}
+		
+		// Return nothing instead of an unhighlighted passage if there's no match
+		protected int getMaxNoHighlightPassages(String field) {
+			return 0;
 		}
-		return ranges;
 	}
 	
 }
@@ -121,4 +121,32 @@ public final class HighlightServiceTest {
 			Closeables.closeQuietly(searcher.getIndexReader());
 		}
 	}
+
+	@Test
+	public void testHighlightRanges() throws Exception {
+		QueryParser queryParser = new QueryParser("content", IndexRegistry.getAnalyzer());
+		
+		String text = "some text and some  text, more Text";
+		HighlightedString string = HighlightService.highlight(queryParser.parse("text"), false, text);
+		assertRanges(string, 5, 4, 20, 4, 31, 4);
+		
+		// Phrases are highlighted as a whole, and only where they match completely
+		string = HighlightService.highlight(queryParser.parse("\"some text\""), true, text);
+		assertRanges(string, 0, 9, 14, 10);
+		
+		string = HighlightService.highlight(queryParser.parse("te*"), false, "text and test");
+		assertRanges(string, 0, 4, 9, 4);
+		
+		string = HighlightService.highlight(queryParser.parse("foo"), false, text);
+		assertRanges(string);
+	}
+	
+	private static void assertRanges(HighlightedString string, int... startsAndLengths) {
+		RangeList ranges = string.getRanges();
+		assertEquals(startsAndLengths.length / 2, ranges.size());
+		for (int i = 0; i < ranges.size(); i++) {
+			assertEquals(startsAndLengths[2 * i], ranges.getStart(i));
+			assertEquals(startsAndLengths[2 * i + 1], ranges.getLength(i));
+		}
+	}
 }
@@ -12,11 +12,10 @@
 package net.sourceforge.docfetcher.model.search;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 import net.sourceforge.docfetcher.util.Util;
-import net.sourceforge.docfetcher.util.annotations.Immutable;
+import net.sourceforge.docfetcher.util.annotations.MutableCopy;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
 
 /**
@@ -25,10 +24,10 @@ import net.sourceforge.docfetcher.util.annotations.NotNull;
 public final class HighlightedString {
 	
 	private final List<String> strings = new ArrayList<String>(1);
-	private final List<Range> ranges;
+	private final RangeList ranges;
 	private int length;
 	
-	HighlightedString(@NotNull String string, @NotNull List<Range> ranges) {
+	HighlightedString(@NotNull String string, @NotNull RangeList ranges) {
 		Util.checkNotNull(string, ranges);
 		strings.add(string);
 		length = string.length();
@@ -43,10 +42,10 @@ public final class HighlightedString {
 		return sb.toString();
 	}
 	
-	@Immutable
+	@MutableCopy
 	@NotNull
-	public List<Range> getRanges() {
-		return Collections.unmodifiableList(ranges);
+	public RangeList getRanges() {
+		return new RangeList(ranges);
 	}
 	
 	public int length() {
@@ -66,10 +65,7 @@ public final class HighlightedString {
 		Util.checkNotNull(otherString);
 		strings.addAll(otherString.strings);
 		
-		// We must create new Range objects here, otherwise we'll modify the
-		// given highlighted string
-		for (Range range : otherString.ranges)
-			ranges.add(new Range(range.start + length, range.length));
+		ranges.addAll(otherString.ranges, length);
 		
 		length += otherString.length;
 	}
@@ -0,0 +1,240 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.search;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import net.sourceforge.docfetcher.util.annotations.MutableCopy;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.Query;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Finds the exact phrase matches of a query in a text, so that the words of
+ * each phrase match can be highlighted as a single range. The unified
+ * highlighter only reports the words of a phrase match separately, without
+ * telling which words belong to the same match.
+ *
+ * @author Tran Nam Quang
+ */
+final class PhraseMatcher {
+
+	private PhraseMatcher() {
+	}
+
+	/**
+	 * Returns the given ranges of matching words, with the words of each
+	 * phrase match of the given query merged into one range. Words that are
+	 * not part of a phrase match are left as they are. Overlapping phrase
+	 * matches are merged into one range as well.
+	 * <p>
+	 * Only phrases without slop are taken into account, since for sloppy
+	 * phrases, the words in between would be highlighted too.
+	 */
+	@MutableCopy
+	@NotNull
+	public static RangeList mergePhrases(	@NotNull Query query,
+											@NotNull String field,
+											@NotNull Analyzer analyzer,
+											@NotNull String text,
+											@NotNull RangeList ranges)
+			throws IOException {
+		List<PhraseQuery> phrases = Lists.newArrayList();
+		collectPhrases(query, field, phrases);
+		if (phrases.isEmpty())
+			return new RangeList(ranges);
+		RangeList matches = findMatches(phrases, field, analyzer, text);
+
+		/*
+		 * Replace the words of each phrase match with the phrase match. A
+		 * phrase match that doesn't contain any of the given words is
+		 * skipped, so that nothing is highlighted that the caller didn't ask
+		 * for.
+		 */
+		RangeList merged = new RangeList(ranges.size());
+		int i = 0;
+		for (int j = 0; j < matches.size(); j++) {
+			int matchStart = matches.getStart(j);
+			int matchEnd = matches.getEnd(j);
+			for (; i < ranges.size() && ranges.getEnd(i) <= matchStart; i++)
+				merged.add(ranges.getStart(i), ranges.getLength(i));
+			boolean isCovered = false;
+			for (; i < ranges.size() && ranges.getStart(i) < matchEnd; i++)
+				isCovered = true;
+			if (isCovered)
+				merged.add(matchStart, matchEnd - matchStart);
+		}
+		for (; i < ranges.size(); i++)
+			merged.add(ranges.getStart(i), ranges.getLength(i));
+		return merged;
+	}
+
+	private static void collectPhrases(	@NotNull Query query,
+										@NotNull String field,
+										@NotNull List<PhraseQuery> phrases) {
+		if (query instanceof BoostQuery) {
+			collectPhrases(((BoostQuery) query).getQuery(), field, phrases);
+		}
+		else if (query instanceof BooleanQuery) {
+			for (BooleanClause clause : ((BooleanQuery) query).clauses())
+				if (!clause.isProhibited())
+					collectPhrases(clause.getQuery(), field, phrases);
+		}
+		else if (query instanceof PhraseQuery) {
+			PhraseQuery phrase = (PhraseQuery) query;
+			Term[] terms = phrase.getTerms();
+			if (phrase.getSlop() == 0 && terms.length > 1
+					&& terms[0].field().equals(field))
+				phrases.add(phrase);
+		}
+	}
+
+	// Returns the offsets of the phrase matches in ascending order
+	@NotNull
+	private static RangeList findMatches(	@NotNull List<PhraseQuery> phrases,
+											@NotNull String field,
+											@NotNull Analyzer analyzer,
+											@NotNull String text)
+			throws IOException {
+		Set<String> phraseWords = Sets.newHashSet();
+		for (PhraseQuery phrase : phrases)
+			for (Term term : phrase.getTerms())
+				phraseWords.add(term.text());
+		Tokens tokens = new Tokens(analyzer, field, text, phraseWords);
+
+		/*
+		 * Since the phrase matches are collected in the order of their first
+		 * words, they are sorted by their start offsets.
+		 */
+		RangeList matches = new RangeList();
+		for (int first = 0; first < tokens.size; first++) {
+			for (PhraseQuery phrase : phrases) {
+				Term[] terms = phrase.getTerms();
+				int[] positions = phrase.getPositions();
+				if (!tokens.words[first].equals(terms[0].text()))
+					continue;
+				int start = tokens.starts[first];
+				int end = tokens.ends[first];
+				int phrasePos = tokens.positions[first] - positions[0];
+				boolean isMatch = true;
+				for (int k = 1; k < terms.length && isMatch; k++) {
+					int token = tokens.indexOf(
+						phrasePos + positions[k], terms[k].text());
+					if (token < 0) {
+						isMatch = false;
+					}
+					else {
+						start = Math.min(start, tokens.starts[token]);
+						end = Math.max(end, tokens.ends[token]);
+					}
+				}
+				if (!isMatch)
+					continue;
+				int last = matches.size() - 1;
+				if (last >= 0 && start < matches.getEnd(last)) {
+					int lastStart = Math.min(start, matches.getStart(last));
+					end = Math.max(end, matches.getEnd(last));
+					matches.set(last, lastStart, end - lastStart);
+				}
+				else {
+					matches.add(start, end - start);
+				}
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * The tokens of a text that are words of the phrases, with their
+	 * positions and offsets, in the order of their positions.
+	 */
+	private static final class Tokens {
+		private int[] positions = new int[16];
+		private int[] starts = new int[16];
+		private int[] ends = new int[16];
+		private String[] words = new String[16];
+		private int size = 0;
+
+		public Tokens(	@NotNull Analyzer analyzer,
+						@NotNull String field,
+						@NotNull String text,
+						@NotNull Set<String> phraseWords) throws IOException {
+			TokenStream tokenStream = analyzer.tokenStream(field, text);
+			try {
+				CharTermAttribute termAtt = tokenStream.addAttribute(CharTermAttribute.class);
+				OffsetAttribute offsetAtt = tokenStream.addAttribute(OffsetAttribute.class);
+				PositionIncrementAttribute posIncAtt = tokenStream.addAttribute(PositionIncrementAttribute.class);
+				tokenStream.reset();
+				int position = -1;
+				while (tokenStream.incrementToken()) {
+					position += posIncAtt.getPositionIncrement();
+					String word = termAtt.toString();
+					if (phraseWords.contains(word))
+						add(position, offsetAtt.startOffset(), offsetAtt.endOffset(), word);
+				}
+				tokenStream.end();
+			}
+			finally {
+				tokenStream.close();
+			}
+		}
+
+		private void add(int position, int start, int end, @NotNull String word) {
+			if (size == positions.length) {
+				int newCapacity = size * 2;
+				positions = Arrays.copyOf(positions, newCapacity);
+				starts = Arrays.copyOf(starts, newCapacity);
+				ends = Arrays.copyOf(ends, newCapacity);
+				words = Arrays.copyOf(words, newCapacity);
+			}
+			positions[size] = position;
+			starts[size] = start;
+			ends[size] = end;
+			words[size] = word;
+			size++;
+		}
+
+		// Returns the index of the given word at the given position, or -1
+		public int indexOf(int position, @NotNull String word) {
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (positions[mid] < position)
+					low = mid + 1;
+				else
+					high = mid;
+			}
+			for (int i = low; i < size && positions[i] == position; i++)
+				if (words[i].equals(word))
+					return i;
+			return -1;
+		}
+	}
+
+}
@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.search;
+
+import static org.junit.Assert.assertEquals;
+
+import net.sourceforge.docfetcher.model.IndexRegistry;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.junit.Test;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class PhraseMatcherTest {
+
+	private final Analyzer analyzer = IndexRegistry.getAnalyzer();
+	private final QueryParser queryParser = new QueryParser("content", analyzer);
+
+	@Test
+	public void testMergePhrases() throws Exception {
+		// Words: some [0, 4), text [5, 9), other [10, 15), some [16, 20)
+		String text = "some text other some";
+		RangeList ranges = new RangeList();
+		ranges.add(0, 4);
+		ranges.add(5, 4);
+		ranges.add(10, 5);
+		ranges.add(16, 4);
+		RangeList merged = PhraseMatcher.mergePhrases(
+			queryParser.parse("\"some text\" other"), "content", analyzer,
+			text, ranges);
+		assertRanges(merged, 0, 9, 10, 5, 16, 4);
+
+		// Phrases with slop are not merged
+		merged = PhraseMatcher.mergePhrases(
+			queryParser.parse("\"some text\"~2"), "content", analyzer,
+			text, ranges);
+		assertRanges(merged, 0, 4, 5, 4, 10, 5, 16, 4);
+	}
+
+	@Test
+	public void testHighlightPhrases() throws Exception {
+		// Each phrase match gets its own range
+		HighlightedString string = HighlightService.highlight(
+			queryParser.parse("\"some text\""), true, "some text, some text");
+		assertRanges(string.getRanges(), 0, 9, 11, 9);
+
+		// Words next to a phrase match are not joined with it
+		string = HighlightService.highlight(
+			queryParser.parse("\"some text\" other"), true,
+			"some text other thing");
+		assertRanges(string.getRanges(), 0, 9, 10, 5);
+
+		string = HighlightService.highlight(
+			queryParser.parse("\"text other\""), true,
+			"some text other, text and other");
+		assertRanges(string.getRanges(), 5, 10);
+
+		// Overlapping phrase matches
+		string = HighlightService.highlight(
+			queryParser.parse("\"some some\""), true, "some some some");
+		assertRanges(string.getRanges(), 0, 14);
+	}
+
+	private static void assertRanges(RangeList ranges, int... startsAndLengths) {
+		assertEquals(startsAndLengths.length / 2, ranges.size());
+		for (int i = 0; i < ranges.size(); i++) {
+			assertEquals(startsAndLengths[2 * i], ranges.getStart(i));
+			assertEquals(startsAndLengths[2 * i + 1], ranges.getLength(i));
+		}
+	}
+
+}
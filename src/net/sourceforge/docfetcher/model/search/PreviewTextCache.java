@@ -0,0 +1,290 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.search;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.model.DiskCache;
+import net.sourceforge.docfetcher.model.parse.PageHandler;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.NotThreadSafe;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Closeables;
+
+/**
+ * A disk cache for the text shown in the preview pane, so that documents that
+ * are expensive to render, e.g. large Office files or files inside archives,
+ * only need to be rendered once. The cache is shared by all indexes in the
+ * same index directory.
+ * <p>
+ * The text is stored as a sequence of pages, which for documents that aren't
+ * previewed page by page is a single page. Each cache entry belongs to a
+ * document UID and is only valid for the last-modified value and the parser
+ * the document was indexed with, and for the settings that affect the
+ * rendered text, such as {@link ProgramConf.Str#TextEncodingOverride}. In
+ * addition, the indexing removes the entries of modified and deleted
+ * documents.
+ * <p>
+ * The cache size is limited by {@link ProgramConf.Int#PreviewCacheSizeMB}.
+ *
+ * @author Tran Nam Quang
+ */
+@ThreadSafe
+public final class PreviewTextCache {
+
+	private static final String DIRNAME = "preview-cache";
+	private static final int FORMAT_VERSION = 2;
+
+	private static final Map<File, PreviewTextCache> instances = Maps.newHashMap();
+
+	/**
+	 * Returns the preview text cache for the given index parent directory, or
+	 * null if the index parent directory is null or the cache is disabled.
+	 */
+	@Nullable
+	public static PreviewTextCache getInstance(@Nullable File indexParentDir) {
+		if (indexParentDir == null
+				|| ProgramConf.Int.PreviewCacheSizeMB.get() <= 0)
+			return null;
+		File cacheDir = Util.getCanonicalFile(new File(indexParentDir, DIRNAME));
+		synchronized (instances) {
+			PreviewTextCache cache = instances.get(cacheDir);
+			if (cache == null) {
+				cache = new PreviewTextCache(cacheDir);
+				instances.put(cacheDir, cache);
+			}
+			return cache;
+		}
+	}
+
+	private final DiskCache diskCache;
+
+	private PreviewTextCache(@NotNull File cacheDir) {
+		diskCache = new DiskCache(cacheDir, ProgramConf.Int.PreviewCacheSizeMB);
+	}
+
+	/**
+	 * Returns the cached text of the given document, or null if there is no
+	 * valid cache entry for it.
+	 */
+	@Nullable
+	public String getText(	@NotNull String uid,
+							long lastModified,
+							@NotNull String parserName) {
+		final StringBuilder text = new StringBuilder();
+		boolean found = readPages(uid, lastModified, parserName, new PageHandler() {
+			public boolean handlePage(String pageText) {
+				text.append(pageText);
+				return false;
+			}
+		});
+		return found ? text.toString() : null;
+	}
+
+	/**
+	 * Passes the cached pages of the given document to the given page
+	 * handler, until the page handler requests to stop. Returns false without
+	 * calling the page handler if there is no valid cache entry for the
+	 * document, or if the cache entry can't be read.
+	 */
+	public boolean readPages(	@NotNull String uid,
+								long lastModified,
+								@NotNull String parserName,
+								@NotNull PageHandler handler) {
+		File file = getFile(uid);
+		if (!file.isFile())
+			return false;
+		DataInputStream in = null;
+		boolean handlerCalled = false;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+			if (in.readInt() != FORMAT_VERSION
+					|| !readString(in).equals(uid)
+					|| in.readLong() != lastModified
+					|| !readString(in).equals(parserName)
+					|| in.readBoolean() != ProgramConf.Bool.PdfPreviewVisualOrder.get()
+					|| !readString(in).equals(ProgramConf.Str.TextEncodingOverride.get())) {
+				Closeables.closeQuietly(in);
+				diskCache.remove(file); // Outdated entry
+				return false;
+			}
+			while (in.readBoolean()) {
+				String page = readString(in);
+				handlerCalled = true;
+				if (handler.handlePage(page))
+					break;
+			}
+			diskCache.touch(file);
+			return true;
+		}
+		catch (IOException e) {
+			/*
+			 * If some of the pages were already passed to the handler, we
+			 * can't fall back to rendering the document anymore, since that
+			 * would pass the pages to the handler again.
+			 */
+			Closeables.closeQuietly(in);
+			diskCache.remove(file);
+			return handlerCalled;
+		}
+		finally {
+			Closeables.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Stores the given text for the given document.
+	 */
+	public void putText(@NotNull String uid,
+						long lastModified,
+						@NotNull String parserName,
+						@NotNull String text) {
+		PageWriter writer = openWriter(uid, lastModified, parserName);
+		if (writer != null) {
+			writer.addPage(text);
+			writer.commit();
+		}
+	}
+
+	/**
+	 * Returns a writer for storing the pages of the given document one after
+	 * another, or null if the cache entry can't be created. The pages become
+	 * visible to readers when the writer is committed.
+	 */
+	@Nullable
+	public PageWriter openWriter(	@NotNull String uid,
+									long lastModified,
+									@NotNull String parserName) {
+		File file = getFile(uid);
+		File tempFile = null;
+		try {
+			tempFile = diskCache.createTempFile(file);
+			DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tempFile)));
+			out.writeInt(FORMAT_VERSION);
+			writeString(out, uid);
+			out.writeLong(lastModified);
+			writeString(out, parserName);
+			out.writeBoolean(ProgramConf.Bool.PdfPreviewVisualOrder.get());
+			writeString(out, ProgramConf.Str.TextEncodingOverride.get());
+			return new PageWriter(file, tempFile, out);
+		}
+		catch (IOException e) {
+			Util.printErr(e);
+			if (tempFile != null)
+				tempFile.delete();
+			return null;
+		}
+	}
+
+	/**
+	 * Removes the cached text of the given document, if there is any.
+	 */
+	public void remove(@NotNull String uid) {
+		diskCache.remove(getFile(uid));
+	}
+
+	@NotNull
+	private File getFile(@NotNull String uid) {
+		return diskCache.getFile(
+			Hashing.sha1().hashString(uid, Charsets.UTF_8).toString());
+	}
+
+	@NotThreadSafe
+	public final class PageWriter {
+		private final File file;
+		private final File tempFile;
+		@Nullable private DataOutputStream out; // null after failure or commit
+
+		private PageWriter(	@NotNull File file,
+							@NotNull File tempFile,
+							@NotNull DataOutputStream out) {
+			this.file = file;
+			this.tempFile = tempFile;
+			this.out = out;
+		}
+
+		public void addPage(@NotNull String pageText) {
+			if (out == null)
+				return;
+			try {
+				out.writeBoolean(true);
+				writeString(out, pageText);
+			}
+			catch (IOException e) {
+				Util.printErr(e);
+				abort();
+			}
+		}
+
+		public void commit() {
+			if (out == null)
+				return;
+			try {
+				out.writeBoolean(false);
+				out.close();
+				out = null;
+				diskCache.commit(tempFile, file);
+			}
+			catch (IOException e) {
+				Util.printErr(e);
+				abort();
+			}
+		}
+
+		// Discards the written pages, e.g. because rendering failed or was stopped
+		public void abort() {
+			if (out == null)
+				return;
+			Closeables.closeQuietly(out);
+			out = null;
+			tempFile.delete();
+		}
+	}
+
+	// Unlike writeUTF, this isn't limited to 64 KB
+	private static void writeString(@NotNull DataOutputStream out,
+									@NotNull String string)
+			throws IOException {
+		byte[] bytes = string.getBytes(Charsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	@NotNull
+	private static String readString(@NotNull DataInputStream in)
+			throws IOException {
+		int length = in.readInt();
+		if (length < 0)
+			throw new IOException("Invalid string length: " + length);
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, Charsets.UTF_8);
+	}
+
+}
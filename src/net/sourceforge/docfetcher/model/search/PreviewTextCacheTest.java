@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.model.parse.PageHandler;
+import net.sourceforge.docfetcher.model.search.PreviewTextCache.PageWriter;
+import net.sourceforge.docfetcher.util.Util;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class PreviewTextCacheTest {
+
+	@Test
+	public void testText() throws Exception {
+		File tempDir = Util.createTempDir();
+		ProgramConf.Int.PreviewCacheSizeMB.load("10");
+		try {
+			PreviewTextCache cache = PreviewTextCache.getInstance(tempDir);
+			assertNull(cache.getText("uid", 1000, "TextParser"));
+			cache.putText("uid", 1000, "TextParser", "Hello World");
+			assertEquals("Hello World", cache.getText("uid", 1000, "TextParser"));
+
+			// Entries are only valid for the same document state
+			assertNull(cache.getText("uid", 2000, "TextParser"));
+			cache.putText("uid", 2000, "TextParser", "Hello World");
+			assertNull(cache.getText("uid", 2000, "HtmlParser"));
+			assertNull(cache.getText("uid2", 2000, "TextParser"));
+
+			// Entries are only valid for the same preview settings
+			cache.putText("uid", 2000, "TextParser", "Hello World");
+			ProgramConf.Str.TextEncodingOverride.load("UTF-8");
+			try {
+				assertNull(cache.getText("uid", 2000, "TextParser"));
+			}
+			finally {
+				ProgramConf.Str.TextEncodingOverride.load("");
+			}
+			cache.putText("uid", 2000, "PdfParser", "Hello World");
+			ProgramConf.Bool.PdfPreviewVisualOrder.load("false");
+			try {
+				assertNull(cache.getText("uid", 2000, "PdfParser"));
+			}
+			finally {
+				ProgramConf.Bool.PdfPreviewVisualOrder.load("true");
+			}
+
+			cache.putText("uid", 2000, "TextParser", "Hello World");
+			cache.remove("uid");
+			assertNull(cache.getText("uid", 2000, "TextParser"));
+		}
+		finally {
+			ProgramConf.Int.PreviewCacheSizeMB.load("0");
+			Util.deleteRecursively(tempDir);
+		}
+		assertNull(PreviewTextCache.getInstance(tempDir));
+	}
+
+	@Test
+	public void testPages() throws Exception {
+		File tempDir = Util.createTempDir();
+		ProgramConf.Int.PreviewCacheSizeMB.load("10");
+		try {
+			PreviewTextCache cache = PreviewTextCache.getInstance(tempDir);
+
+			// Aborted pages are discarded
+			PageWriter writer = cache.openWriter("uid", 1000, "PdfParser");
+			writer.addPage("Page 1");
+			writer.abort();
+			assertFalse(cache.readPages("uid", 1000, "PdfParser", new PageCollector()));
+
+			writer = cache.openWriter("uid", 1000, "PdfParser");
+			writer.addPage("Page 1");
+			writer.addPage("Page 2");
+			writer.commit();
+			PageCollector collector = new PageCollector();
+			assertTrue(cache.readPages("uid", 1000, "PdfParser", collector));
+			assertEquals(Lists.newArrayList("Page 1", "Page 2"), collector.pages);
+		}
+		finally {
+			ProgramConf.Int.PreviewCacheSizeMB.load("0");
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+	private static final class PageCollector implements PageHandler {
+		private final List<String> pages = Lists.newArrayList();
+
+		public boolean handlePage(String pageText) {
+			pages.add(pageText);
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.search;
+
+import java.util.Arrays;
+
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.NotThreadSafe;
+
+/**
+ * A growable list of text ranges, stored as two parallel int arrays of start
+ * offsets and lengths instead of one object per range, since documents can
+ * have millions of highlighted ranges.
+ * <p>
+ * The ranges are expected to be added in ascending order and not to overlap,
+ * which is what the search methods rely on.
+ *
+ * @author Tran Nam Quang
+ */
+@NotThreadSafe
+public final class RangeList {
+
+	private int[] starts;
+	private int[] lengths;
+	private int size = 0;
+
+	public RangeList() {
+		this(8);
+	}
+
+	public RangeList(int initialCapacity) {
+		Util.checkThat(initialCapacity >= 0);
+		starts = new int[initialCapacity];
+		lengths = new int[initialCapacity];
+	}
+
+	/**
+	 * Creates a copy of the given range list.
+	 */
+	public RangeList(@NotNull RangeList other) {
+		starts = Arrays.copyOf(other.starts, other.size);
+		lengths = Arrays.copyOf(other.lengths, other.size);
+		size = other.size;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int getStart(int index) {
+		checkIndex(index);
+		return starts[index];
+	}
+
+	public int getLength(int index) {
+		checkIndex(index);
+		return lengths[index];
+	}
+
+	public int getEnd(int index) {
+		checkIndex(index);
+		return starts[index] + lengths[index];
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException(index + " / " + size);
+	}
+
+	public void add(int start, int length) {
+		ensureCapacity(size + 1);
+		starts[size] = start;
+		lengths[size] = length;
+		size++;
+	}
+
+	/**
+	 * Appends the ranges of the given list, with their start offsets shifted
+	 * by the given amount.
+	 */
+	public void addAll(@NotNull RangeList other, int shift) {
+		ensureCapacity(size + other.size);
+		for (int i = 0; i < other.size; i++) {
+			starts[size + i] = other.starts[i] + shift;
+			lengths[size + i] = other.lengths[i];
+		}
+		size += other.size;
+	}
+
+	/**
+	 * Replaces the range at the given index, e.g. to merge it with another
+	 * range.
+	 */
+	public void set(int index, int start, int length) {
+		checkIndex(index);
+		starts[index] = start;
+		lengths[index] = length;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= starts.length)
+			return;
+		int newCapacity = Math.max(capacity, starts.length * 2);
+		starts = Arrays.copyOf(starts, newCapacity);
+		lengths = Arrays.copyOf(lengths, newCapacity);
+	}
+
+	/**
+	 * Returns the index of the first range starting at or after the given
+	 * offset, or {@link #size()} if there is no such range.
+	 */
+	public int indexOfFirstStartingAt(int offset) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (starts[mid] < offset)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the index of the first range ending after the given offset, or
+	 * {@link #size()} if there is no such range. This is the first range that
+	 * contains or follows the character at the given offset.
+	 */
+	public int indexOfFirstEndingAfter(int offset) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (starts[mid] + lengths[mid] <= offset)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+}
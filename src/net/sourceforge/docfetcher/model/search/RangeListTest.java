@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.search;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class RangeListTest {
+
+	@Test
+	public void testAddAll() {
+		RangeList list = new RangeList(0);
+		list.add(2, 3);
+		RangeList other = new RangeList();
+		for (int i = 0; i < 100; i++)
+			other.add(i * 10, 2);
+		list.addAll(other, 10);
+		assertEquals(101, list.size());
+		assertEquals(2, list.getStart(0));
+		assertEquals(5, list.getEnd(0));
+		assertEquals(10, list.getStart(1));
+		assertEquals(1000, list.getStart(100));
+		assertEquals(2, list.getLength(100));
+	}
+
+	@Test
+	public void testCopy() {
+		RangeList list = new RangeList();
+		list.add(0, 4);
+		RangeList copy = new RangeList(list);
+		copy.add(10, 2);
+		copy.set(0, 1, 3);
+		assertEquals(1, list.size());
+		assertEquals(0, list.getStart(0));
+		assertEquals(4, list.getLength(0));
+		assertEquals(2, copy.size());
+		assertEquals(1, copy.getStart(0));
+	}
+
+	@Test
+	public void testSearch() {
+		// Ranges [10, 15), [20, 25), [30, 35)
+		RangeList list = new RangeList();
+		for (int i = 1; i <= 3; i++)
+			list.add(i * 10, 5);
+
+		assertEquals(0, list.indexOfFirstStartingAt(0));
+		assertEquals(0, list.indexOfFirstStartingAt(10));
+		assertEquals(1, list.indexOfFirstStartingAt(11));
+		assertEquals(3, list.indexOfFirstStartingAt(31));
+
+		assertEquals(0, list.indexOfFirstEndingAfter(14));
+		assertEquals(1, list.indexOfFirstEndingAfter(15));
+		assertEquals(2, list.indexOfFirstEndingAfter(30));
+		assertEquals(3, list.indexOfFirstEndingAfter(35));
+
+		RangeList empty = new RangeList(0);
+		assertEquals(0, empty.indexOfFirstStartingAt(5));
+		assertEquals(0, empty.indexOfFirstEndingAfter(5));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testIndexOutOfBounds() {
+		RangeList list = new RangeList();
+		list.add(0, 1);
+		list.getStart(1);
+	}
+
+}
@@ -14,6 +14,7 @@ package net.sourceforge.docfetcher.model.search;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.Date;
+import java.util.Set;
 
 import net.sourceforge.docfetcher.model.DocumentType;
 import net.sourceforge.docfetcher.model.Fields;
@@ -32,7 +33,9 @@ import net.sourceforge.docfetcher.model.parse.ParseException;
 import net.sourceforge.docfetcher.model.parse.ParseService;
 import net.sourceforge.docfetcher.model.parse.Parser;
 import net.sourceforge.docfetcher.model.parse.PdfParser;
+import net.sourceforge.docfetcher.model.parse.TextChunker;
 import net.sourceforge.docfetcher.model.parse.TextParser;
+import net.sourceforge.docfetcher.model.search.PreviewTextCache.PageWriter;
 import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
 import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
@@ -42,6 +45,8 @@ import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.search.Query;
 
+import com.google.common.collect.ImmutableSet;
+
 /**
  * @author Tran Nam Quang
  * 
@@ -57,16 +62,29 @@ public final class ResultDocument {
 		public boolean isStopped();
 	}
 	
-	private final Document luceneDoc;
+	/**
+	 * The stored fields loaded from the Lucene index. The content and the
+	 * recipients are not needed for displaying the results, so they are not
+	 * loaded.
+	 */
+	static final Set<String> STORED_FIELDS = ImmutableSet.of(
+		Fields.UID.key(), Fields.TYPE.key(), Fields.SIZE.key(),
+		Fields.PARSER.key(), Fields.FILENAME.key(), Fields.TITLE.key(),
+		Fields.AUTHOR.key(), Fields.LAST_MODIFIED.key(),
+		Fields.SUBJECT.key(), Fields.SENDER.key(), Fields.DATE.key());
+	
+	@Nullable private volatile Document luceneDoc;
+	@Nullable private final ResultLoader loader;
+	private final int loaderIndex;
 	private final float score;
 	private final Query query;
 	private final boolean isPhraseQuery;
 	private final IndexingConfig config;
 	private final FileFactory fileFactory;
 	private final OutlookMailFactory mailFactory;
+	@Nullable private final PreviewTextCache textCache; // null if disabled
 	
 	// Cached values
-	private final String uid;
 	private final boolean isEmail;
 	private Path path;
 	private Path parentPath;
@@ -79,18 +97,62 @@ public final class ResultDocument {
 							boolean isPhraseQuery,
 							@NotNull IndexingConfig config,
 							@NotNull FileFactory fileFactory,
-							@NotNull OutlookMailFactory mailFactory) {
+							@NotNull OutlookMailFactory mailFactory,
+							@Nullable PreviewTextCache textCache) {
 		Util.checkNotNull(luceneDoc, query, config, fileFactory, mailFactory);
 		this.luceneDoc = luceneDoc;
+		this.loader = null;
+		this.loaderIndex = -1;
 		this.score = score;
 		this.query = query;
 		this.isPhraseQuery = isPhraseQuery;
 		this.config = config;
 		this.fileFactory = fileFactory;
 		this.mailFactory = mailFactory;
+		this.textCache = textCache;
 		
-		uid = luceneDoc.get(Fields.UID.key());
-		isEmail = DocumentType.isEmailType(uid);
+		isEmail = DocumentType.isEmailType(luceneDoc.get(Fields.UID.key()));
+	}
+	
+	/**
+	 * Creates a result document whose stored fields are loaded on demand from
+	 * the given loader, at the given position in the results.
+	 */
+	ResultDocument(	@NotNull ResultLoader loader,
+					int loaderIndex,
+					boolean isEmail,
+					float score,
+					@NotNull Query query,
+					boolean isPhraseQuery,
+					@NotNull IndexingConfig config,
+					@NotNull FileFactory fileFactory,
+					@NotNull OutlookMailFactory mailFactory,
+					@Nullable PreviewTextCache textCache) {
+		Util.checkNotNull(loader, query, config, fileFactory, mailFactory);
+		this.loader = loader;
+		this.loaderIndex = loaderIndex;
+		this.isEmail = isEmail;
+		this.score = score;
+		this.query = query;
+		this.isPhraseQuery = isPhraseQuery;
+		this.config = config;
+		this.fileFactory = fileFactory;
+		this.mailFactory = mailFactory;
+		this.textCache = textCache;
+	}
+	
+	// Returns null if the stored fields weren't loaded lazily
+	@Nullable
+	ResultLoader getLoader() {
+		return loader;
+	}
+	
+	@NotNull
+	private Document getLuceneDoc() {
+		Document doc = luceneDoc;
+		if (doc == null)
+			luceneDoc = doc = loader.getDocument(loaderIndex);
+		return doc;
 	}
 	
 	private void onlyFiles() {
@@ -106,9 +168,9 @@ public final class ResultDocument {
 	// returns filename title or email subject
 	@NotNull
 	public String getTitle() {
-		String title = luceneDoc.get(Fields.TITLE.key());
+		String title = getLuceneDoc().get(Fields.TITLE.key());
 		if (title == null)
-			title = luceneDoc.get(Fields.SUBJECT.key());
+			title = getLuceneDoc().get(Fields.SUBJECT.key());
 		if (title != null && !title.trim().isEmpty())
 			return title;
 		if (isEmail) // Bug #3536283: Email subject may be empty
@@ -123,7 +185,7 @@ public final class ResultDocument {
 	
 	public long getSizeInKB() {
 		if (sizeInKB < 0) {
-			String sizeString = luceneDoc.get(Fields.SIZE.key());
+			String sizeString = getLuceneDoc().get(Fields.SIZE.key());
 			assert sizeString != null;
 			long sizeInBytes = Long.valueOf(sizeString);
 			long extra = sizeInBytes % 1024 == 0 ? 0 : 1;
@@ -136,7 +198,7 @@ public final class ResultDocument {
 	@NotNull
 	public String getParserName() {
 		if (parserName == null)
-			parserName = luceneDoc.get(Fields.PARSER.key());
+			parserName = getLuceneDoc().get(Fields.PARSER.key());
 		assert parserName != null;
 		return parserName;
 	}
@@ -145,20 +207,20 @@ public final class ResultDocument {
 	public String getFilename() {
 		if (isEmail)
 			return "";
-		return luceneDoc.get(Fields.FILENAME.key());
+		return getLuceneDoc().get(Fields.FILENAME.key());
 	}
 	
 	@NotNull
 	public String getSender() {
 		if (!isEmail)
 			return "";
-		return luceneDoc.get(Fields.SENDER.key());
+		return getLuceneDoc().get(Fields.SENDER.key());
 	}
 	
 	// returns file extension or mail type (Outlook, IMAP, etc.)
 	@NotNull
 	public String getType() {
-		String type = luceneDoc.get(Fields.TYPE.key());
+		String type = getLuceneDoc().get(Fields.TYPE.key());
 		assert type != null;
 		return type;
 	}
@@ -166,7 +228,7 @@ public final class ResultDocument {
 	@NotNull
 	public Path getPath() {
 		if (path == null)
-			path =  DocumentType.extractPath(uid);
+			path =  DocumentType.extractPath(getLuceneDoc().get(Fields.UID.key()));
 		return path;
 	}
 	
@@ -186,17 +248,17 @@ public final class ResultDocument {
 	// Returns authors for files, sender for emails
 	@NotNull
 	public String getAuthors() {
-		String[] authors = luceneDoc.getValues(Fields.AUTHOR.key());
+		String[] authors = getLuceneDoc().getValues(Fields.AUTHOR.key());
 		if (authors.length > 0)
 			return Util.join(", ", (Object[]) authors);
-		String sender = luceneDoc.get(Fields.SENDER.key());
+		String sender = getLuceneDoc().get(Fields.SENDER.key());
 		return sender == null ? "" : sender;
 	}
 	
 	@NotNull
 	public Date getLastModified() {
 		onlyFiles();
-		String lastModified = luceneDoc.get(Fields.LAST_MODIFIED.key());
+		String lastModified = getLuceneDoc().get(Fields.LAST_MODIFIED.key());
 		return new Date(Long.valueOf(lastModified));
 	}
 	
@@ -212,7 +274,7 @@ public final class ResultDocument {
 	@Nullable
 	public Date getDate() {
 		onlyEmails();
-		String sendDate = luceneDoc.get(Fields.DATE.key());
+		String sendDate = getLuceneDoc().get(Fields.DATE.key());
 		return sendDate == null ? null : new Date(Long.valueOf(sendDate));
 	}
 	
@@ -248,7 +310,7 @@ public final class ResultDocument {
 	}
 	
 	private boolean wasParsedBy(Class<? extends Parser> parserClass) {
-		String parserName = luceneDoc.get(Fields.PARSER.key());
+		String parserName = getLuceneDoc().get(Fields.PARSER.key());
 		return parserName.equals(parserClass.getSimpleName());
 	}
 	
@@ -258,13 +320,23 @@ public final class ResultDocument {
 	private String getText() throws ParseException, FileNotFoundException,
 			CheckedOutOfMemoryError {
 		onlyFiles();
-		String parserName = luceneDoc.get(Fields.PARSER.key());
+		String parserName = getLuceneDoc().get(Fields.PARSER.key());
+		if (textCache != null) {
+			String text = textCache.getText(
+				getUniqueId(), getLastModified().getTime(), parserName);
+			if (text != null)
+				return text;
+		}
 		FileResource fileResource = null;
 		try {
 			fileResource = getFileResource();
 			File file = fileResource.getFile();
-			return ParseService.renderText(
+			String text = ParseService.renderText(
 				config, file, getFilename(), parserName);
+			if (textCache != null)
+				textCache.putText(
+					getUniqueId(), getLastModified().getTime(), parserName, text);
+			return text;
 		}
 		finally {
 			if (fileResource != null)
@@ -272,6 +344,11 @@ public final class ResultDocument {
 		}
 	}
 	
+	@NotNull
+	private String getUniqueId() {
+		return getLuceneDoc().get(Fields.UID.key());
+	}
+	
 	// Should be run in a thread
 	// thrown parse exception has localized error message
 	@NotNull
@@ -280,46 +357,119 @@ public final class ResultDocument {
 		return HighlightService.highlight(query, isPhraseQuery, getText());
 	}
 	
-	// should be run in a thread
+	/**
+	 * Passes the highlighted text of the document to the given page handler
+	 * piece by piece, until the page handler requests to stop. For PDF and
+	 * CHM files, each piece is a separate page. For all other files, the
+	 * pieces are consecutive chunks of the text, which should be displayed
+	 * one after another without page breaks. Like the pages, the text as a
+	 * whole is trimmed, and matches spanning several chunks are highlighted.
+	 * <p>
+	 * This method should be run in a thread. The thrown parse exception has a
+	 * localized error message.
+	 */
 	public void readPages(@NotNull final PreviewPageHandler pageHandler)
 			throws ParseException, FileNotFoundException,
 			CheckedOutOfMemoryError {
 		// TODO i18n of error messages
 		onlyFiles();
 		Util.checkNotNull(pageHandler);
+		final boolean isPaged = isPdfFile() || isChmFile();
+		final ChunkHighlighter chunkHighlighter = isPaged
+			? null
+			: new ChunkHighlighter(query, isPhraseQuery);
+		final PageHandler handler = new PageHandler() {
+			public boolean handlePage(String pageText) {
+				HighlightedString string;
+				try {
+					if (isPaged)
+						string = HighlightService.highlight(
+							query, isPhraseQuery, pageText);
+					else
+						string = chunkHighlighter.add(pageText);
+				}
+				catch (CheckedOutOfMemoryError e) {
+					throw new OutOfMemoryError(e.getMessage());
+				}
+				if (isPaged || !string.isEmpty())
+					pageHandler.handlePage(string);
+				return pageHandler.isStopped();
+			}
+		};
+		String uid = getUniqueId();
+		long lastModified = getLastModified().getTime();
+		String parserName = getLuceneDoc().get(Fields.PARSER.key());
 		FileResource fileResource = null;
+		PageWriter pageWriter = null;
 		try {
-			fileResource = getFileResource();
-			PageHandler handler = new PageHandler() {
-				public boolean handlePage(String pageText) {
-					HighlightedString string;
-					try {
-						string = HighlightService.highlight(
-								query, isPhraseQuery, pageText
-						);
-					}
-					catch (CheckedOutOfMemoryError e) {
-						throw new OutOfMemoryError(e.getMessage());
+			if (textCache != null) {
+				/*
+				 * The cached text may have been stored in one piece by
+				 * getText, so it must be cut into chunks again.
+				 */
+				if (isPaged) {
+					if (textCache.readPages(uid, lastModified, parserName, handler))
+						return;
+				}
+				else {
+					TextChunker chunker = new TextChunker(handler);
+					if (textCache.readPages(uid, lastModified, parserName, chunker)) {
+						chunker.flush();
+						finishChunks(chunkHighlighter, pageHandler);
+						return;
 					}
-					pageHandler.handlePage(string);
-					return pageHandler.isStopped();
+				}
+				pageWriter = textCache.openWriter(uid, lastModified, parserName);
+			}
+			
+			// Store the rendered pages in the cache while passing them on
+			final PageWriter finalPageWriter = pageWriter;
+			PageHandler cachingHandler = pageWriter == null ? handler : new PageHandler() {
+				public boolean handlePage(String pageText) {
+					finalPageWriter.addPage(pageText);
+					return handler.handlePage(pageText);
 				}
 			};
+			fileResource = getFileResource();
+			File file = fileResource.getFile();
 			if (isPdfFile()) {
-				new PagingPdfParser(fileResource.getFile(), handler).run();
+				new PagingPdfParser(file, cachingHandler).run();
 			} else if (isChmFile()) {
-				new PagingChmParser(fileResource.getFile(), handler).run();
+				new PagingChmParser(file, cachingHandler).run();
+			} else {
+				ParseService.renderChunks(
+					config, file, getFilename(), parserName, cachingHandler);
+				finishChunks(chunkHighlighter, pageHandler);
+			}
+			
+			// Don't cache the pages if the rendering was stopped early
+			if (pageWriter != null && !pageHandler.isStopped()) {
+				pageWriter.commit();
+				pageWriter = null;
 			}
 		}
 		catch (OutOfMemoryError e) {
 			throw new CheckedOutOfMemoryError(e);
 		}
 		finally {
+			if (pageWriter != null)
+				pageWriter.abort();
 			if (fileResource != null)
 				fileResource.dispose();
 		}
 	}
 
+	// Passes on the rest of the highlighted text, unless rendering was stopped
+	private static void finishChunks(	@NotNull ChunkHighlighter chunkHighlighter,
+										@NotNull PreviewPageHandler pageHandler)
+			throws CheckedOutOfMemoryError {
+		if (pageHandler.isStopped())
+			return;
+		HighlightedString string = chunkHighlighter.finish();
+		if (!string.isEmpty())
+			pageHandler.handlePage(string);
+	}
+
 	/**
 	 * If the receiver represents a file, this method returns a {@code File} for
 	 * it, wrapped in a {@code FileResource}. The caller <b>must</b> dispose of
@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.search;
+
+import java.io.IOException;
+
+import net.sourceforge.docfetcher.model.DocumentType;
+import net.sourceforge.docfetcher.model.Fields;
+import net.sourceforge.docfetcher.model.Path;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.search.IndexSearcher;
+
+/**
+ * Loads the stored fields of search results on demand, one page of results at
+ * a time, so that the cost of a search depends on the number of results that
+ * are actually displayed rather than on the total number of results.
+ * <p>
+ * The receiver keeps a reference on the Lucene reader it loads from until all
+ * pages have been loaded or {@link #release()} is called, whichever comes
+ * first. Results on pages that haven't been loaded when the receiver is
+ * released, or that couldn't be loaded, are replaced by placeholders with
+ * empty fields.
+ *
+ * @author Tran Nam Quang
+ */
+@ThreadSafe
+final class ResultLoader {
+
+	private static final int PAGE_SIZE = 100;
+
+	private final IndexSearcher searcher;
+	private final int[] docIds;
+	private final Document[] docs; // guarded by 'this' lock
+	private final boolean[] loadedPages; // guarded by 'this' lock
+	private int unloadedPageCount; // guarded by 'this' lock
+	private boolean isReleased = false; // guarded by 'this' lock
+
+	/**
+	 * Creates a new loader for the given Lucene document IDs. The reference
+	 * count of the given searcher's reader is incremented by this constructor
+	 * and decremented when all pages have been loaded or the receiver is
+	 * released.
+	 */
+	public ResultLoader(@NotNull IndexSearcher searcher, @NotNull int[] docIds) {
+		Util.checkNotNull(searcher, docIds);
+		this.searcher = searcher;
+		this.docIds = docIds;
+		docs = new Document[docIds.length];
+		unloadedPageCount = (docIds.length + PAGE_SIZE - 1) / PAGE_SIZE;
+		loadedPages = new boolean[unloadedPageCount];
+		searcher.getIndexReader().incRef();
+		if (unloadedPageCount == 0)
+			release();
+	}
+
+	/**
+	 * Returns the Lucene document at the given position in the results,
+	 * loading the page that contains it if necessary.
+	 */
+	@NotNull
+	public synchronized Document getDocument(int index) {
+		loadPage(index / PAGE_SIZE);
+		return docs[index];
+	}
+
+	/**
+	 * Loads all pages that haven't been loaded yet. The lock on the receiver
+	 * is only held for one page at a time, so that the results can be
+	 * displayed in the meantime.
+	 */
+	public void loadAll() {
+		for (int i = 0; i < loadedPages.length; i++) {
+			synchronized (this) {
+				loadPage(i);
+			}
+		}
+	}
+
+	/**
+	 * Releases the reference on the Lucene reader. Calling this method more
+	 * than once has no effect.
+	 */
+	public synchronized void release() {
+		if (isReleased)
+			return;
+		isReleased = true;
+		try {
+			searcher.getIndexReader().decRef();
+		}
+		catch (IOException e) {
+			Util.printErr(e);
+		}
+	}
+
+	private void loadPage(int page) {
+		if (loadedPages[page])
+			return;
+		int start = page * PAGE_SIZE;
+		int end = Math.min(start + PAGE_SIZE, docIds.length);
+		try {
+			if (!isReleased)
+				for (int i = start; i < end; i++)
+					docs[i] = searcher.doc(docIds[i], ResultDocument.STORED_FIELDS);
+		}
+		catch (IOException e) {
+			Util.printErr(e);
+		}
+		for (int i = start; i < end; i++)
+			if (docs[i] == null)
+				docs[i] = createPlaceholder();
+		loadedPages[page] = true;
+		unloadedPageCount--;
+		if (unloadedPageCount == 0)
+			release();
+	}
+
+	/*
+	 * Stands in for a result whose stored fields couldn't be loaded, so that
+	 * the result can still be displayed, albeit with empty fields.
+	 */
+	@NotNull
+	private static Document createPlaceholder() {
+		Document doc = new Document();
+		String uid = DocumentType.FILE.createUniqueId(new Path(""));
+		doc.add(new StoredField(Fields.UID.key(), uid));
+		doc.add(new StoredField(Fields.TYPE.key(), ""));
+		doc.add(new StoredField(Fields.PARSER.key(), ""));
+		doc.add(new StoredField(Fields.FILENAME.key(), ""));
+		doc.add(new StoredField(Fields.SIZE.key(), "0"));
+		doc.add(new StoredField(Fields.LAST_MODIFIED.key(), "0"));
+		return doc;
+	}
+
+}
@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.search;
+
+import static org.junit.Assert.assertEquals;
+
+import net.sourceforge.docfetcher.model.Fields;
+import net.sourceforge.docfetcher.model.index.IndexWriterAdapter;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Test;
+
+import com.google.common.io.Closeables;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class ResultLoaderTest {
+
+	@Test
+	public void testRelease() throws Exception {
+		Directory directory = new RAMDirectory();
+		IndexWriterAdapter writer = new IndexWriterAdapter(directory);
+		for (int i = 0; i < 250; i++) {
+			Document doc = new Document();
+			doc.add(new StoredField(Fields.FILENAME.key(), "file" + i));
+			writer.add(doc);
+		}
+		Closeables.closeQuietly(writer);
+
+		DirectoryReader reader = DirectoryReader.open(directory);
+		try {
+			int[] docIds = new int[reader.maxDoc()];
+			for (int i = 0; i < docIds.length; i++)
+				docIds[i] = i;
+
+			// Loading all pages releases the reader
+			ResultLoader loader = new ResultLoader(new IndexSearcher(reader), docIds);
+			assertEquals(2, reader.getRefCount());
+			assertEquals("file0", loader.getDocument(0).get(Fields.FILENAME.key()));
+			assertEquals(2, reader.getRefCount());
+			loader.loadAll();
+			assertEquals(1, reader.getRefCount());
+			assertEquals("file249", loader.getDocument(249).get(Fields.FILENAME.key()));
+
+			// Unloaded pages are left empty after an explicit release
+			loader = new ResultLoader(new IndexSearcher(reader), docIds);
+			assertEquals("file150", loader.getDocument(150).get(Fields.FILENAME.key()));
+			loader.release();
+			loader.release();
+			assertEquals(1, reader.getRefCount());
+			assertEquals("file199", loader.getDocument(199).get(Fields.FILENAME.key()));
+			assertEquals("", loader.getDocument(0).get(Fields.FILENAME.key()));
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+}
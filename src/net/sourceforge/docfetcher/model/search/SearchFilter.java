@@ -0,0 +1,196 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.search;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import net.sourceforge.docfetcher.model.DocumentType;
+import net.sourceforge.docfetcher.model.Fields;
+import net.sourceforge.docfetcher.model.Folder;
+import net.sourceforge.docfetcher.model.LuceneIndex;
+import net.sourceforge.docfetcher.model.parse.Parser;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queries.TermsQuery;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.LegacyNumericRangeQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+
+/**
+ * Restrictions on the file size, file type and location of the results
+ * returned by the {@link Searcher}. The restrictions are added to the Lucene
+ * query as filter clauses, so they are evaluated by Lucene before the
+ * {@link Searcher#MAX_RESULTS} limit is applied, and since they don't
+ * contribute to the scores, Lucene can cache them across searches.
+ *
+ * @author Tran Nam Quang
+ */
+public final class SearchFilter {
+
+	@Nullable private Long minSize;
+	@Nullable private Long maxSize;
+	@Nullable private Collection<Parser> parsers;
+	@Nullable private Query location;
+
+	/**
+	 * Sets the minimum and maximum filesize in bytes for the results to be
+	 * returned. Null values mean that there is no lower or upper bound.
+	 */
+	public void setSizeRange(@Nullable Long minSize, @Nullable Long maxSize) {
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Sets the minimum and maximum filesize in kilobytes for the results to be
+	 * returned, where the filesizes are rounded up to full kilobytes. Null
+	 * values mean that there is no lower or upper bound.
+	 */
+	public void setSizeRangeInKB(@Nullable Long minKB, @Nullable Long maxKB) {
+		minSize = minKB == null || minKB <= 0 ? null : (minKB - 1) * 1024 + 1;
+		maxSize = maxKB == null ? null : maxKB * 1024;
+	}
+
+	/**
+	 * Sets the file types to be included in the results. If null is specified,
+	 * all types will be included. Emails are always included.
+	 */
+	public void setIncludedTypes(@Nullable Collection<Parser> parsers) {
+		this.parsers = parsers;
+	}
+
+	/**
+	 * Sets the indexes to be included in the results. If null is specified,
+	 * all indexes will be included.
+	 */
+	public void setIncludedIndexes(@Nullable Collection<LuceneIndex> indexes) {
+		if (indexes == null) {
+			location = null;
+			return;
+		}
+		List<Query> clauses = new ArrayList<Query>(indexes.size());
+		for (LuceneIndex index : indexes)
+			clauses.add(createPrefixQuery(index.getDocumentType(), index.getRootFolder()));
+		location = or(clauses);
+	}
+
+	/**
+	 * Restricts the results to documents whose parent folders are checked in
+	 * the given indexes. Documents in other indexes will not be included.
+	 */
+	public void setCheckedLocations(@NotNull Collection<LuceneIndex> indexes) {
+		List<Query> clauses = new ArrayList<Query>();
+		boolean allChecked = true;
+		for (LuceneIndex index : indexes) {
+			DocumentType type = index.getDocumentType();
+			Folder<?, ?> rootFolder = index.getRootFolder();
+			if (addLocationClauses(type, rootFolder, clauses))
+				clauses.add(createPrefixQuery(type, rootFolder));
+			else
+				allChecked = false;
+		}
+		location = allChecked ? null : or(clauses);
+	}
+
+	/*
+	 * Adds clauses to the given list that match the documents in the subtree
+	 * of the given folder whose parent folders are checked. If all folders in
+	 * the subtree are checked, no clauses are added and true is returned, so
+	 * that the caller can cover the subtree with a single prefix query.
+	 */
+	private static boolean addLocationClauses(	@NotNull DocumentType type,
+												@NotNull Folder<?, ?> folder,
+												@NotNull List<Query> clauses) {
+		boolean isChecked = folder.isChecked();
+		boolean allChecked = isChecked;
+		List<Query> subClauses = new ArrayList<Query>();
+		List<Query> subPrefixes = new ArrayList<Query>();
+		for (Folder<?, ?> subFolder : folder.getSubFolders()) {
+			Query subPrefix = createPrefixQuery(type, subFolder);
+			subPrefixes.add(subPrefix);
+			if (addLocationClauses(type, subFolder, subClauses))
+				subClauses.add(subPrefix);
+			else
+				allChecked = false;
+		}
+		if (allChecked)
+			return true;
+
+		// Match the documents directly inside the folder
+		if (isChecked) {
+			BooleanQuery.Builder builder = new BooleanQuery.Builder();
+			builder.add(createPrefixQuery(type, folder), Occur.MUST);
+			if (!subPrefixes.isEmpty())
+				builder.add(or(subPrefixes), Occur.MUST_NOT);
+			clauses.add(builder.build());
+		}
+		clauses.addAll(subClauses);
+		return false;
+	}
+
+	@NotNull
+	private static Query createPrefixQuery(	@NotNull DocumentType type,
+											@NotNull Folder<?, ?> folder) {
+		String uid = type.createUniqueId(folder.getPath());
+		return new PrefixQuery(new Term(Fields.UID.key(), uid + "/"));
+	}
+
+	/*
+	 * Combines the given queries into a disjunction. Nested queries are used
+	 * if the number of queries exceeds Lucene's limit on the number of clauses
+	 * per boolean query.
+	 */
+	@NotNull
+	private static Query or(@NotNull List<Query> queries) {
+		int max = BooleanQuery.getMaxClauseCount();
+		while (queries.size() > max) {
+			List<Query> groups = new ArrayList<Query>(queries.size() / max + 1);
+			for (int i = 0; i < queries.size(); i += max)
+				groups.add(or(queries.subList(i, Math.min(i + max, queries.size()))));
+			queries = groups;
+		}
+		BooleanQuery.Builder builder = new BooleanQuery.Builder();
+		for (Query query : queries)
+			builder.add(query, Occur.SHOULD);
+		return builder.build();
+	}
+
+	/**
+	 * Adds the restrictions of the receiver as filter clauses to the given
+	 * query builder.
+	 */
+	void addClauses(@NotNull BooleanQuery.Builder builder) {
+		if (minSize != null || maxSize != null) {
+			builder.add(LegacyNumericRangeQuery.newLongRange(
+				Fields.SIZE.key(), minSize, maxSize, true, true), Occur.FILTER);
+		}
+		if (parsers != null) {
+			List<Term> terms = new ArrayList<Term>(parsers.size() + 1);
+			String fieldName = Fields.PARSER.key();
+			terms.add(new Term(fieldName, Fields.EMAIL_PARSER));
+			for (Parser parser : parsers) {
+				String parserName = parser.getClass().getSimpleName();
+				terms.add(new Term(fieldName, parserName));
+			}
+			builder.add(new TermsQuery(terms), Occur.FILTER);
+		}
+		if (location != null)
+			builder.add(location, Occur.FILTER);
+	}
+
+}
@@ -15,10 +15,17 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.locks.Lock;
 
@@ -30,13 +37,11 @@ import net.sourceforge.docfetcher.model.IndexLoadingProblems.CorruptedIndex;
 import net.sourceforge.docfetcher.model.IndexRegistry;
 import net.sourceforge.docfetcher.model.IndexRegistry.ExistingIndexesHandler;
 import net.sourceforge.docfetcher.model.LuceneIndex;
-import net.sourceforge.docfetcher.model.Path;
 import net.sourceforge.docfetcher.model.PendingDeletion;
 import net.sourceforge.docfetcher.model.index.DecoratedMultiReader;
 import net.sourceforge.docfetcher.model.index.IndexingConfig;
 import net.sourceforge.docfetcher.model.index.file.FileFactory;
 import net.sourceforge.docfetcher.model.index.outlook.OutlookMailFactory;
-import net.sourceforge.docfetcher.model.parse.Parser;
 import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
 import net.sourceforge.docfetcher.util.Event;
 import net.sourceforge.docfetcher.util.Util;
@@ -52,6 +57,7 @@ import net.sourceforge.docfetcher.util.collect.LazyList;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queries.TermsQuery;
 import org.apache.lucene.queryparser.classic.ParseException;
@@ -59,7 +65,11 @@ import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.*;
 import org.apache.lucene.search.MultiTermQuery.RewriteMethod;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.io.Closeables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * A search API on top of the index registry. This class is completely
@@ -104,20 +114,50 @@ public final class Searcher {
 	
 	private static final int PAGE_SIZE = 50;
 	public static final int MAX_RESULTS = ProgramConf.Int.MaxResultsTotal.get();
+	private static final int SEARCH_THREADS = ProgramConf.Int.SearchThreads.get();
 	
 	private final IndexRegistry indexRegistry;
 	private final FileFactory fileFactory;
 	private final OutlookMailFactory outlookMailFactory;
+	@Nullable private final PreviewTextCache previewTextCache; // null if disabled
 	private final Event.Listener<LuceneIndex> addedListener;
 	
+	/*
+	 * The thread pool on which Lucene searches the index slices in parallel,
+	 * or null if searches should run sequentially on the calling thread.
+	 */
+	@Nullable private final ExecutorService searchExecutor;
+	
 	private final BlockingQueue<List<PendingDeletion>> deletionQueue = new LinkedBlockingQueue<List<PendingDeletion>>(); // guarded by 'this' lock
 	private final Thread deletionThread; // guarded by 'this' lock
 	
-	@NotNull private IndexSearcher luceneSearcher; // guarded by read-write lock
-	@NotNull private List<LuceneIndex> indexes; // guarded by read-write lock
+	/*
+	 * The Lucene readers for the individual indexes, which are reopened
+	 * separately via DirectoryReader.openIfChanged when the indexes change.
+	 * The searches themselves run on an immutable, reference-counted snapshot
+	 * that combines these readers, so refreshing the snapshot doesn't block
+	 * running searches, and vice versa.
+	 */
+	private final Map<LuceneIndex, DirectoryReader> readers = Maps.newHashMap(); // guarded by refresh lock
+	private final Object refreshLock = new Object();
+	@NotNull private volatile Snapshot snapshot;
+	
+	/*
+	 * Readers of indexes that were removed from the registry, but may still be
+	 * in use by running searches.
+	 */
+	private final Set<IndexReader> unreleasedReaders = Sets.newHashSet(); // guarded by itself
+	
+	/*
+	 * The result loaders that may still load stored fields from their
+	 * snapshots, mapped to the indexes of the snapshots. A loader is removed
+	 * when its results are released via releaseResults(), or when one of its
+	 * indexes is about to be deleted or cleared.
+	 */
+	private final Map<ResultLoader, List<LuceneIndex>> loaders = Maps.newHashMap(); // guarded by itself
+	
 	@Nullable private volatile IOException ioException;
 	
-	private final Lock readLock;
 	private final Lock writeLock;
 
 	volatile Boolean stopped;
@@ -140,14 +180,27 @@ public final class Searcher {
 		this.indexRegistry = indexRegistry;
 		this.fileFactory = fileFactory;
 		this.outlookMailFactory = outlookMailFactory;
+		this.previewTextCache = PreviewTextCache.getInstance(
+			indexRegistry.getIndexParentDir());
 		
-		readLock = indexRegistry.getReadLock();
 		writeLock = indexRegistry.getWriteLock();
 		
+		if (SEARCH_THREADS > 1) {
+			searchExecutor = Executors.newFixedThreadPool(
+				SEARCH_THREADS,
+				new ThreadFactoryBuilder()
+					.setNameFormat(Searcher.class.getName() + " (search %d)")
+					.setDaemon(true)
+					.build());
+		}
+		else {
+			searchExecutor = null;
+		}
+		
 		// Handler for index additions
 		addedListener = new Event.Listener<LuceneIndex>() {
 			public void update(LuceneIndex eventData) {
-				replaceLuceneSearcher();
+				refreshLuceneSearcher();
 			}
 		};
 		
@@ -161,7 +214,7 @@ public final class Searcher {
 				// Handle existing indexes
 				public void handleExistingIndexes(List<LuceneIndex> indexes) {
 					try {
-						corruptedIndexes.addAll(setLuceneSearcher(indexes));
+						corruptedIndexes.addAll(refresh(indexes));
 					}
 					catch (IOException e) {
 						ioException = e;
@@ -182,7 +235,10 @@ public final class Searcher {
 				while (true) {
 					try {
 						List<PendingDeletion> deletions = deletionQueue.take();
-						replaceLuceneSearcher();
+						List<LuceneIndex> indexes = new ArrayList<LuceneIndex>(deletions.size());
+						for (PendingDeletion deletion : deletions)
+							indexes.add(deletion.getLuceneIndex());
+						replaceLuceneSearcher(indexes);
 						for (PendingDeletion deletion : deletions)
 							deletion.setApprovedBySearcher();
 					}
@@ -198,48 +254,206 @@ public final class Searcher {
 	}
 	
 	/**
-	 * Updates the cached indexes and replaces the current Lucene searcher with
-	 * a new one.
+	 * Updates the cached indexes and refreshes the current Lucene searcher.
+	 * Only the Lucene readers of indexes that were added or modified since the
+	 * last refresh are reopened. Searches that are running while this method
+	 * is called are not blocked; they continue to run on the previous Lucene
+	 * searcher.
 	 */
 	@ThreadSafe
 	@VisibleForPackageGroup
-	public void replaceLuceneSearcher() {
-		writeLock.lock();
+	public void refreshLuceneSearcher() {
 		try {
-			Closeables.close(luceneSearcher.getIndexReader(), false);
-			setLuceneSearcher(indexRegistry.getIndexes());
+			refresh(indexRegistry.getIndexes());
 		}
 		catch (IOException e) {
 			ioException = e; // Will be thrown later
 		}
-		finally {
-			writeLock.unlock();
+	}
+	
+	/**
+	 * Same as {@link #refreshLuceneSearcher()}, but additionally releases the
+	 * results that were loaded from the given indexes, and blocks until no
+	 * running search holds on to indexes that were removed from the registry
+	 * anymore. This should be called before the files of the given indexes are
+	 * deleted or cleared. Results of the given indexes that haven't been
+	 * loaded at this point will be left empty. Since this method may block, it
+	 * must not be called from the GUI thread.
+	 */
+	@ThreadSafe
+	@VisibleForPackageGroup
+	public void replaceLuceneSearcher(@NotNull Collection<LuceneIndex> indexes) {
+		Util.checkNotNull(indexes);
+		refreshLuceneSearcher();
+		releaseLoaders(indexes);
+		try {
+			synchronized (unreleasedReaders) {
+				while (!unreleasedReaders.isEmpty())
+					unreleasedReaders.wait();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
 	}
 	
-	// Caller must close returned searcher
 	@NotNull
-	@NotThreadSafe
-	private List<CorruptedIndex> setLuceneSearcher(@NotNull List<LuceneIndex> indexes)
+	@ThreadSafe
+	private List<CorruptedIndex> refresh(@NotNull List<LuceneIndex> indexes)
 			throws IOException {
-		this.indexes = Util.checkNotNull(indexes);
-		ArrayList<IndexReader> readers = new ArrayList<IndexReader>(indexes.size());
-        LazyList<CorruptedIndex> corrupted = new LazyList<CorruptedIndex>();
-		for (int i = 0; i < indexes.size(); i++) {
-			LuceneIndex index = indexes.get(i);
-            try {
-				readers.add(DirectoryReader.open(index.getLuceneDir()));
-            }
-            catch (IOException e) {
-            	Util.printErr(e);
-                corrupted.add(new CorruptedIndex(index, e));
-            }
-        }
-        luceneSearcher = new IndexSearcher(new DecoratedMultiReader(readers.toArray(new IndexReader[readers.size()])));
-        return corrupted;
+		Util.checkNotNull(indexes);
+		LazyList<CorruptedIndex> corrupted = new LazyList<CorruptedIndex>();
+		synchronized (refreshLock) {
+			Map<LuceneIndex, DirectoryReader> oldReaders = Maps.newHashMap(readers);
+			readers.clear();
+			List<LuceneIndex> openIndexes = new ArrayList<LuceneIndex>(indexes.size());
+			List<IndexReader> openReaders = new ArrayList<IndexReader>(indexes.size());
+			for (LuceneIndex index : indexes) {
+				DirectoryReader reader = oldReaders.remove(index);
+				try {
+					if (reader == null) {
+						reader = DirectoryReader.open(index.getLuceneDir());
+					}
+					else {
+						DirectoryReader newReader = DirectoryReader.openIfChanged(reader);
+						if (newReader != null) {
+							reader.decRef();
+							reader = newReader;
+						}
+					}
+				}
+				catch (IOException e) {
+					Util.printErr(e);
+					corrupted.add(new CorruptedIndex(index, e));
+					if (reader != null)
+						release(reader);
+					continue;
+				}
+				readers.put(index, reader);
+				openIndexes.add(index);
+				openReaders.add(reader);
+			}
+			
+			// Release the readers of indexes that were removed from the registry
+			for (DirectoryReader reader : oldReaders.values())
+				release(reader);
+			
+			// The multi-reader increments the reference counts of the readers
+			DecoratedMultiReader multiReader = new DecoratedMultiReader(
+				openReaders.toArray(new IndexReader[openReaders.size()]), false);
+			Snapshot oldSnapshot = snapshot;
+			snapshot = new Snapshot(multiReader, openIndexes, searchExecutor);
+			if (oldSnapshot != null)
+				oldSnapshot.reader.decRef();
+		}
+		return corrupted;
 	}
-
-	private class StoppedSearcherException extends RuntimeException{
+	
+	// Drops the given reader, which may still be in use by running searches
+	@NotThreadSafe
+	private void release(@NotNull DirectoryReader reader) throws IOException {
+		synchronized (unreleasedReaders) {
+			unreleasedReaders.add(reader);
+		}
+		reader.addReaderClosedListener(new IndexReader.ReaderClosedListener() {
+			public void onClose(IndexReader reader) {
+				synchronized (unreleasedReaders) {
+					unreleasedReaders.remove(reader);
+					unreleasedReaders.notifyAll();
+				}
+			}
+		});
+		reader.decRef();
+	}
+	
+	/**
+	 * Loads the stored fields of all given results that haven't been loaded
+	 * yet. This should be called on a non-GUI thread before the results are
+	 * sorted by anything other than the score.
+	 */
+	@ThreadSafe
+	public void loadResults(@NotNull List<ResultDocument> results) {
+		for (ResultLoader loader : getLoaders(results))
+			loader.loadAll();
+	}
+	
+	/**
+	 * Releases the references on the Lucene readers held by the given
+	 * results. This should be called as soon as the results are no longer
+	 * displayed. The stored fields of results that haven't been loaded at this
+	 * point will be left empty.
+	 */
+	@ThreadSafe
+	public void releaseResults(@NotNull List<ResultDocument> results) {
+		for (ResultLoader loader : getLoaders(results)) {
+			synchronized (loaders) {
+				loaders.remove(loader);
+			}
+			loader.release();
+		}
+	}
+	
+	@NotNull
+	private static Set<ResultLoader> getLoaders(@NotNull List<ResultDocument> results) {
+		Set<ResultLoader> resultLoaders = Sets.newHashSet();
+		for (ResultDocument result : results) {
+			ResultLoader loader = result.getLoader();
+			if (loader != null)
+				resultLoaders.add(loader);
+		}
+		return resultLoaders;
+	}
+	
+	/*
+	 * Releases the loaders whose snapshots contain any of the given indexes,
+	 * or all loaders if the given indexes are null. The results of the other
+	 * loaders can still be loaded.
+	 */
+	@ThreadSafe
+	private void releaseLoaders(@Nullable Collection<LuceneIndex> indexes) {
+		List<ResultLoader> released = new ArrayList<ResultLoader>();
+		synchronized (loaders) {
+			Iterator<Entry<ResultLoader, List<LuceneIndex>>> it = loaders.entrySet().iterator();
+			while (it.hasNext()) {
+				Entry<ResultLoader, List<LuceneIndex>> entry = it.next();
+				if (indexes != null
+						&& Collections.disjoint(entry.getValue(), indexes))
+					continue;
+				released.add(entry.getKey());
+				it.remove();
+			}
+		}
+		for (ResultLoader loader : released)
+			loader.release();
+	}
+	
+	/**
+	 * Returns the current snapshot with an incremented reference count. The
+	 * caller must hand the returned snapshot to {@link #releaseSnapshot}
+	 * afterwards.
+	 */
+	@NotNull
+	@ThreadSafe
+	private Snapshot acquireSnapshot() {
+		while (true) {
+			Snapshot current = snapshot;
+			/*
+			 * If this fails, the snapshot has just been replaced and closed, so
+			 * we'll retry with the new one.
+			 */
+			if (current.reader.tryIncRef())
+				return current;
+		}
+	}
+	
+	@ThreadSafe
+	private static void releaseSnapshot(@NotNull Snapshot snapshot) {
+		try {
+			snapshot.reader.decRef();
+		}
+		catch (IOException e) {
+			Util.printErr(e);
+		}
 	}
 
 	@ImmutableCopy
@@ -247,18 +461,26 @@ public final class Searcher {
 	@ThreadSafe
 	public List<ResultDocument> search(@NotNull String queryString)
 			throws SearchException, CheckedOutOfMemoryError {
-		/*
-		 * Note: For the desktop interface, we'll always search in all available
-		 * indexes, even those which are unchecked on the filter panel. This
-		 * allows the user to re-check the unchecked indexes and see previously
-		 * hidden results without starting another search.
-		 */
+		return search(queryString, null);
+	}
+	
+	/**
+	 * Returns the results for the given query string, restricted by the given
+	 * filter, which may be null.
+	 */
+	@ImmutableCopy
+	@NotNull
+	@ThreadSafe
+	public List<ResultDocument> search(	@NotNull String queryString,
+										@Nullable SearchFilter filter)
+			throws SearchException, CheckedOutOfMemoryError {
 		stopped = false;
 		
 		// Create Lucene query
 		QueryWrapper queryWrapper = createQuery(queryString);
 		Query query = queryWrapper.query;
 		boolean isPhraseQuery = queryWrapper.isPhraseQuery;
+		Query filteredQuery = applyFilter(query, filter);
 		
 		/*
 		 * Notes regarding the following code:
@@ -267,43 +489,40 @@ public final class Searcher {
 		 * indexes while a search is running over the affected indexes. This can
 		 * happen when two DocFetcher instances are running.
 		 * 
-		 * 2) All the information needed for displaying the results must be
-		 * loaded and returned immediately rather than lazily, because after the
-		 * search the user might delete one or more indexes. This also means the
-		 * result documents must not access the indexes later on.
+		 * 2) The information needed for displaying the results is loaded
+		 * lazily from the current snapshot. Since the user might delete or
+		 * rebuild one or more indexes after the search,
+		 * replaceLuceneSearcher() releases the loaders of the affected
+		 * snapshots before the indexes are deleted or cleared.
 		 */
 
-		readLock.lock();
+		Snapshot snapshot = acquireSnapshot();
 		try {
-			checkIndexesExist();
+			checkIndexesExist(snapshot.indexes);
+			IndexSearcher luceneSearcher = snapshot.searcher;
 			
 			// Perform search; might throw OutOfMemoryError
-			DelegatingCollector collector = new DelegatingCollector(){
-				@Override
-				public void collect(int doc) throws IOException {
-					leafDelegate.collect(doc);
-					if(stopped){
-						throw new StoppedSearcherException();
-					}
-				}
-			};
-			collector.setDelegate(TopScoreDocCollector.create(MAX_RESULTS, null));
-			try{
-				luceneSearcher.search(query, collector);
+			ScoreDoc[] scoreDocs = luceneSearcher.search(
+				filteredQuery, new StoppableCollectorManager()).scoreDocs;
+			
+			/*
+			 * Create result documents. The stored fields are loaded lazily, one
+			 * page at a time, when the result documents are displayed.
+			 */
+			int[] docIds = new int[scoreDocs.length];
+			for (int i = 0; i < scoreDocs.length; i++)
+				docIds[i] = scoreDocs[i].doc;
+			ResultLoader loader = new ResultLoader(luceneSearcher, docIds);
+			synchronized (loaders) {
+				loaders.put(loader, snapshot.indexes);
 			}
-			catch (StoppedSearcherException e) {}
-			ScoreDoc[] scoreDocs = ((TopScoreDocCollector)collector.getDelegate()).topDocs().scoreDocs;
-
-			// Create result documents
 			ResultDocument[] results = new ResultDocument[scoreDocs.length];
 			for (int i = 0; i < scoreDocs.length; i++) {
-				Document doc = luceneSearcher.doc(scoreDocs[i].doc);
-				float score = scoreDocs[i].score;
-				LuceneIndex index = indexes.get(((DecoratedMultiReader) luceneSearcher.getIndexReader()).decoratedReaderIndex(i));
-				IndexingConfig config = index.getConfig();
+				LuceneIndex index = snapshot.getIndex(scoreDocs[i].doc);
 				results[i] = new ResultDocument(
-					doc, score, query, isPhraseQuery, config, fileFactory,
-					outlookMailFactory);
+					loader, i, index.isEmailIndex(), scoreDocs[i].score, query,
+					isPhraseQuery, index.getConfig(), fileFactory,
+					outlookMailFactory, previewTextCache);
 			}
 			return Arrays.asList(results);
 		}
@@ -314,7 +533,49 @@ public final class Searcher {
 			throw new CheckedOutOfMemoryError(e);
 		}
 		finally {
-			readLock.unlock();
+			releaseSnapshot(snapshot);
+		}
+	}
+
+	/**
+	 * A collector manager that collects the top {@link #MAX_RESULTS} hits and
+	 * stops collecting as soon as {@link #stopSearch()} is called, in which
+	 * case the hits collected so far are returned. If the Lucene searcher has
+	 * an executor, one collector is created for each index slice, and the
+	 * slices are searched in parallel.
+	 */
+	private final class StoppableCollectorManager
+			implements CollectorManager<DelegatingCollector, TopDocs> {
+		public DelegatingCollector newCollector() {
+			DelegatingCollector collector = new DelegatingCollector() {
+				@Override
+				protected void doSetNextReader(LeafReaderContext context)
+						throws IOException {
+					if (stopped)
+						throw new CollectionTerminatedException();
+					super.doSetNextReader(context);
+				}
+				@Override
+				public void collect(int doc) throws IOException {
+					leafDelegate.collect(doc);
+					/*
+					 * Lucene catches this exception and moves on to the next
+					 * segment, which will then be skipped above.
+					 */
+					if (stopped)
+						throw new CollectionTerminatedException();
+				}
+			};
+			collector.setDelegate(TopScoreDocCollector.create(MAX_RESULTS, null));
+			return collector;
+		}
+		
+		public TopDocs reduce(Collection<DelegatingCollector> collectors) {
+			TopDocs[] topDocs = new TopDocs[collectors.size()];
+			int i = 0;
+			for (DelegatingCollector collector : collectors)
+				topDocs[i++] = ((TopScoreDocCollector) collector.getDelegate()).topDocs();
+			return TopDocs.merge(MAX_RESULTS, topDocs);
 		}
 	}
 
@@ -328,8 +589,23 @@ public final class Searcher {
 	@ThreadSafe
 	public List<ResultDocument> list(@NotNull Set<String> uids)
 			throws SearchException, CheckedOutOfMemoryError {
+		return list(uids, null);
+	}
+	
+	/**
+	 * Returns the documents with the given UIDs, restricted by the given
+	 * filter, which may be null.
+	 */
+	@ImmutableCopy
+	@NotNull
+	@ThreadSafe
+	public List<ResultDocument> list(	@NotNull Set<String> uids,
+										@Nullable SearchFilter filter)
+			throws SearchException, CheckedOutOfMemoryError {
 		// Construct a filter that only matches documents with the given UIDs
 		BooleanQuery.Builder builder=new BooleanQuery.Builder();
+		if (filter != null)
+			filter.addClauses(builder);
 		ArrayList<Term> terms=new ArrayList<Term>(uids.size());
 		String fieldName = Fields.UID.key();
 		for (String uid : uids)
@@ -339,9 +615,10 @@ public final class Searcher {
 		
 		Query query = new MatchAllDocsQuery();
 		
-		readLock.lock();
+		Snapshot snapshot = acquireSnapshot();
 		try {
-			checkIndexesExist();
+			checkIndexesExist(snapshot.indexes);
+			IndexSearcher luceneSearcher = snapshot.searcher;
 			
 			// Perform search; might throw OutOfMemoryError
 			builder.add(query,BooleanClause.Occur.MUST);
@@ -350,13 +627,14 @@ public final class Searcher {
 			// Create result documents
 			ResultDocument[] results = new ResultDocument[scoreDocs.length];
 			for (int i = 0; i < results.length; i++) {
-				Document doc = luceneSearcher.doc(scoreDocs[i].doc);
+				Document doc = luceneSearcher.doc(
+					scoreDocs[i].doc, ResultDocument.STORED_FIELDS);
 				float score = scoreDocs[i].score;
-				LuceneIndex index = indexes.get(((DecoratedMultiReader) luceneSearcher.getIndexReader()).decoratedReaderIndex(i));
+				LuceneIndex index = snapshot.getIndex(scoreDocs[i].doc);
 				IndexingConfig config = index.getConfig();
 				results[i] = new ResultDocument(
 					doc, score, query, true, config, fileFactory,
-					outlookMailFactory);
+					outlookMailFactory, previewTextCache);
 			}
 			
 			// Sort results by title
@@ -376,7 +654,7 @@ public final class Searcher {
 			throw new CheckedOutOfMemoryError(e);
 		}
 		finally {
-			readLock.unlock();
+			releaseSnapshot(snapshot);
 		}
 	}
 	
@@ -396,47 +674,21 @@ public final class Searcher {
 		
 		BooleanQuery.Builder builder=new BooleanQuery.Builder();
 		
-		// Add size filter to filter chain
-		if (webQuery.minSize != null || webQuery.maxSize != null) {
-			builder.add(
-                LegacyNumericRangeQuery.newLongRange(
-						Fields.SIZE.key(), webQuery.minSize, webQuery.maxSize, true, true),
-                BooleanClause.Occur.FILTER
-			);
-		}
-		
-		// Add type filter to filter chain
-		if (webQuery.parsers != null) {
-			ArrayList<Term> terms=new ArrayList<Term>(webQuery.parsers.size()+1);
-			String fieldName = Fields.PARSER.key();
-			terms.add(new Term(fieldName, Fields.EMAIL_PARSER));
-			for (Parser parser : webQuery.parsers) {
-				String parserName = parser.getClass().getSimpleName();
-				terms.add(new Term(fieldName, parserName));
-			}
-			builder.add( new TermsQuery(terms), BooleanClause.Occur.FILTER );
-		}
-		
-		// Add location filter to filter chain
-		if (webQuery.indexes != null) {
-			BooleanQuery.Builder locationQueryBuilder=new BooleanQuery.Builder();
-			for (LuceneIndex index : webQuery.indexes) {
-				Path path = index.getRootFolder().getPath();
-				String uid = index.getDocumentType().createUniqueId(path);
-				Term prefix = new Term(Fields.UID.key(), uid + "/");
-				locationQueryBuilder.add(new PrefixQuery(prefix),BooleanClause.Occur.SHOULD);
-			}
-			builder.add( locationQueryBuilder.build(), BooleanClause.Occur.FILTER );
-		}
+		SearchFilter filter = new SearchFilter();
+		filter.setSizeRange(webQuery.minSize, webQuery.maxSize);
+		filter.setIncludedTypes(webQuery.parsers);
+		filter.setIncludedIndexes(webQuery.indexes);
+		filter.addClauses(builder);
 
 		// Create query
 		QueryWrapper queryWrapper = createQuery(webQuery.query);
 		Query query = queryWrapper.query;
 		boolean isPhraseQuery = queryWrapper.isPhraseQuery;
 		
-		readLock.lock();
+		Snapshot snapshot = acquireSnapshot();
 		try {
-			checkIndexesExist();
+			checkIndexesExist(snapshot.indexes);
+			IndexSearcher luceneSearcher = snapshot.searcher;
 			
 			// Perform search; might throw OutOfMemoryError
 			int maxResults = (webQuery.pageIndex + 1) * PAGE_SIZE;
@@ -458,13 +710,14 @@ public final class Searcher {
 			// Create and fill list of result documents to return
 			ResultDocument[] results = new ResultDocument[end - start];
 			for (int i = start; i < end; i++) {
-				Document doc = luceneSearcher.doc(scoreDocs[i].doc);
+				Document doc = luceneSearcher.doc(
+					scoreDocs[i].doc, ResultDocument.STORED_FIELDS);
 				float score = scoreDocs[i].score;
-				LuceneIndex index = indexes.get(((DecoratedMultiReader) luceneSearcher.getIndexReader()).decoratedReaderIndex(i));
+				LuceneIndex index = snapshot.getIndex(scoreDocs[i].doc);
 				IndexingConfig config = index.getConfig();
 				results[i - start] = new ResultDocument(
 					doc, score, query, isPhraseQuery, config, fileFactory,
-					outlookMailFactory);
+					outlookMailFactory, previewTextCache);
 			}
 			
 			int hitCount = topDocs.totalHits;
@@ -478,10 +731,22 @@ public final class Searcher {
 			throw new CheckedOutOfMemoryError(e);
 		}
 		finally {
-			readLock.unlock();
+			releaseSnapshot(snapshot);
 		}
 	}
 	
+	@NotNull
+	@ThreadSafe
+	private static Query applyFilter(	@NotNull Query query,
+										@Nullable SearchFilter filter) {
+		if (filter == null)
+			return query;
+		BooleanQuery.Builder builder = new BooleanQuery.Builder();
+		filter.addClauses(builder);
+		builder.add(query, BooleanClause.Occur.MUST);
+		return builder.build();
+	}
+	
 	@NotNull
 	@ThreadSafe
 	private static QueryWrapper createQuery(@NotNull String queryString)
@@ -514,9 +779,9 @@ public final class Searcher {
 	}
 	
 	// Checks that all indexes still exist
-	@NotNull
-	@NotThreadSafe
-	private void checkIndexesExist() throws SearchException {
+	@ThreadSafe
+	private static void checkIndexesExist(@NotNull List<LuceneIndex> indexes)
+			throws SearchException {
 		if (indexes.isEmpty())
 			throw new SearchException("Nothing to search in: No indexes have been created yet."); // TODO i18n
 		for (LuceneIndex index : indexes) {
@@ -567,11 +832,19 @@ public final class Searcher {
 		writeLock.lock();
 		try {
 			indexRegistry.removeListeners(addedListener, null);
-			Closeables.closeQuietly(luceneSearcher.getIndexReader());
 		}
 		finally {
 			writeLock.unlock();
 		}
+		if (searchExecutor != null)
+			searchExecutor.shutdown();
+		releaseLoaders(null);
+		synchronized (refreshLock) {
+			Closeables.closeQuietly(snapshot.reader);
+			for (DirectoryReader reader : readers.values())
+				Closeables.closeQuietly(reader);
+			readers.clear();
+		}
 		
 		/*
 		 * This should be done after closing the Lucene searcher in order to
@@ -583,6 +856,31 @@ public final class Searcher {
 		}
 	}
 	
+	/**
+	 * An immutable combination of the Lucene readers of all indexes at a
+	 * certain point in time. The reference count of the underlying multi-reader
+	 * determines when the snapshot is closed.
+	 */
+	private static final class Snapshot {
+		public final DecoratedMultiReader reader;
+		public final IndexSearcher searcher;
+		@ImmutableCopy public final List<LuceneIndex> indexes;
+		
+		private Snapshot(	@NotNull DecoratedMultiReader reader,
+							@NotNull List<LuceneIndex> indexes,
+							@Nullable ExecutorService executor) {
+			this.reader = Util.checkNotNull(reader);
+			this.searcher = new IndexSearcher(reader, executor);
+			this.indexes = ImmutableList.copyOf(indexes);
+		}
+		
+		// Returns the index the given document belongs to
+		@NotNull
+		public LuceneIndex getIndex(int docId) {
+			return indexes.get(reader.decoratedReaderIndex(docId));
+		}
+	}
+	
 	private static final class QueryWrapper {
 		public final Query query;
 		public final boolean isPhraseQuery;
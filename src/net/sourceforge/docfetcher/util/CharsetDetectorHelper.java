@@ -13,98 +13,177 @@ package net.sourceforge.docfetcher.util;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringReader;
-import java.io.UnsupportedEncodingException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
 import java.nio.charset.UnsupportedCharsetException;
+import java.util.Arrays;
 import java.util.Properties;
 
 import net.sourceforge.docfetcher.util.annotations.NotNull;
-import net.sourceforge.docfetcher.util.annotations.NotThreadSafe;
 import net.sourceforge.docfetcher.util.annotations.Nullable;
+import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
 
 import org.mozilla.universalchardet.UniversalDetector;
 
 import com.google.common.base.Charsets;
 import com.google.common.io.ByteStreams;
-import com.google.common.io.Files;
+import com.google.common.io.CharStreams;
+import com.google.common.io.Closeables;
 
 /**
+ * Decodes byte streams of unknown encoding. The encoding is guessed from a
+ * bounded prefix of the stream, so that large files need not be loaded into
+ * memory in their entirety just for the encoding detection.
+ * <p>
+ * All methods of this class are reentrant: Each thread uses its own charset
+ * detector, and an encoding override must be passed explicitly.
+ * 
  * @author Tran Nam Quang
  */
+@ThreadSafe
 public final class CharsetDetectorHelper {
 	
-	@NotNull public static String charsetOverride = "";
+	/**
+	 * The maximum number of bytes fed to the charset detector. Inputs that are
+	 * shorter than this are decoded exactly as if the detector had seen the
+	 * entire input.
+	 */
+	private static final int MAX_DETECTION_BYTES = 1024 * 1024;
 	
-	@Nullable private static UniversalDetector charsetDetector;
+	/**
+	 * The minimum initial size of the buffer for the bytes fed to the charset
+	 * detector, if the input stream can't tell how many bytes are available.
+	 */
+	private static final int MIN_BUFFER_SIZE = 8 * 1024;
+	
+	private static final ThreadLocal<UniversalDetector> charsetDetector = new ThreadLocal<UniversalDetector>() {
+		protected UniversalDetector initialValue() {
+			return new UniversalDetector(null);
+		}
+	};
 	
 	private CharsetDetectorHelper() {
 	}
 	
 	@NotNull
-	@NotThreadSafe
 	public static Properties load(@NotNull File propsFile) throws IOException {
-		byte[] bytes = Files.toByteArray(propsFile);
-		String contents = toString(bytes);
 		Properties props = new Properties();
-		props.load(new StringReader(contents));
+		Reader reader = toReader(new FileInputStream(propsFile), null);
+		try {
+			props.load(reader);
+		}
+		finally {
+			Closeables.closeQuietly(reader);
+		}
 		return props;
 	}
 	
+	// does not close the given input stream
 	@NotNull
-	@NotThreadSafe
 	public static String toString(@NotNull InputStream in)
 			throws IOException {
-		byte[] bytes = ByteStreams.toByteArray(in);
-		return toString(bytes);
+		return CharStreams.toString(toReader(in, null));
 	}
 	
 	@NotNull
-	@NotThreadSafe
 	public static String toString(@NotNull File file)
 			throws IOException {
-		byte[] bytes = Files.toByteArray(file);
-		return toString(bytes);
+		InputStream in = new FileInputStream(file);
+		try {
+			return toString(in);
+		}
+		finally {
+			Closeables.closeQuietly(in);
+		}
 	}
 	
 	@NotNull
-	@NotThreadSafe
 	public static String toString(@NotNull byte[] bytes)
 			throws IOException {
-		if (!charsetOverride.trim().isEmpty()) {
+		return toString(new ByteArrayInputStream(bytes));
+	}
+	
+	/**
+	 * Returns a reader that decodes the given input stream. If the given
+	 * charset override is null or empty, the encoding is guessed from the
+	 * first {@value #MAX_DETECTION_BYTES} bytes of the stream, falling back to
+	 * ISO-8859-1 if the guess fails. Closing the returned reader will close the
+	 * given input stream.
+	 */
+	@NotNull
+	public static Reader toReader(	@NotNull InputStream in,
+									@Nullable String charsetOverride)
+			throws IOException {
+		if (charsetOverride != null && !charsetOverride.trim().isEmpty()) {
+			String charsetName = charsetOverride.trim();
 			try {
-				return new String(bytes, charsetOverride.trim());
-			} catch (UnsupportedCharsetException e) {
-				throw new IOException("Charset not found: " + charsetOverride.trim());
+				return new InputStreamReader(in, Charset.forName(charsetName));
+			}
+			catch (IllegalCharsetNameException e) {
+				throw new IOException("Charset not found: " + charsetName);
+			}
+			catch (UnsupportedCharsetException e) {
+				throw new IOException("Charset not found: " + charsetName);
 			}
 		}
 		
-		if (charsetDetector == null)
-			charsetDetector = new UniversalDetector(null);
-		
-		byte[] buf = new byte[4096];
-		ByteArrayInputStream byteIn = new ByteArrayInputStream(bytes);
-		
-		int nread;
-		while ((nread = byteIn.read(buf)) > 0 && !charsetDetector.isDone())
-			charsetDetector.handleData(buf, 0, nread);
-		charsetDetector.dataEnd();
-		String charsetName = charsetDetector.getDetectedCharset();
-		charsetDetector.reset();
-		
+		/*
+		 * Size the buffer from the number of available bytes, which for file
+		 * input streams is the remaining file size, so that small inputs don't
+		 * need a buffer of the maximum size. One more byte than available is
+		 * requested, so that the end of the stream is usually reached without
+		 * growing the buffer.
+		 */
+		int bufferSize = Math.max(in.available() + 1, MIN_BUFFER_SIZE);
+		byte[] prefix = new byte[Math.min(bufferSize, MAX_DETECTION_BYTES)];
+		int prefixLength = 0;
+		while (true) {
+			int count = ByteStreams.read(
+				in, prefix, prefixLength, prefix.length - prefixLength);
+			prefixLength += count;
+			if (prefixLength < prefix.length
+					|| prefix.length == MAX_DETECTION_BYTES)
+				break;
+			int newLength = Math.min(prefix.length * 2, MAX_DETECTION_BYTES);
+			prefix = Arrays.copyOf(prefix, newLength);
+		}
+		Charset charset = detectCharset(prefix, prefixLength);
+		InputStream prefixIn = new ByteArrayInputStream(prefix, 0, prefixLength);
+		return new InputStreamReader(
+			new SequenceInputStream(prefixIn, in), charset);
+	}
+	
+	@NotNull
+	private static Charset detectCharset(@NotNull byte[] bytes, int length) {
+		UniversalDetector detector = charsetDetector.get();
 		try {
-			return charsetName == null
-				? new String(bytes, Charsets.ISO_8859_1)
-				: new String(bytes, charsetName);
+			int chunkSize = 4096;
+			for (int offset = 0; offset < length && !detector.isDone(); offset += chunkSize)
+				detector.handleData(bytes, offset, Math.min(chunkSize, length - offset));
+			detector.dataEnd();
+			String charsetName = detector.getDetectedCharset();
+			if (charsetName != null)
+				return Charset.forName(charsetName);
 		}
-		catch (UnsupportedEncodingException e) {
+		catch (IllegalCharsetNameException e) {
+			// Fall through
+		}
+		catch (UnsupportedCharsetException e) {
 			/*
 			 * Bug #1410: DocFetcher fails to parse text files with HZ-GB-2312
 			 * encoding, since the latter is not supported by the JRE.
 			 */
-			return new String(bytes, Charsets.ISO_8859_1);
 		}
+		finally {
+			detector.reset();
+		}
+		return Charsets.ISO_8859_1;
 	}
 
 }
@@ -14,14 +14,19 @@ package net.sourceforge.docfetcher.util;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import org.junit.Test;
 
+import com.google.common.io.CharStreams;
+
 /**
  * @author Tran Nam Quang
  */
@@ -109,4 +114,53 @@ public class UtilTest {
 		}
 	}
 	
+	@Test
+	public void testConcurrentCharsetDetection() throws Exception {
+		final String text = "Gr\u00fc\u00dfe aus K\u00f6ln, \u00e0 bient\u00f4t ";
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 200; i++)
+			sb.append(text);
+		final byte[] bytes = sb.toString().getBytes("UTF-8");
+		final String expected = sb.toString();
+		
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 8; i++) {
+			Thread thread = new Thread() {
+				public void run() {
+					try {
+						for (int j = 0; j < 50; j++)
+							assertEquals(expected, CharsetDetectorHelper.toString(bytes));
+					}
+					catch (Throwable t) {
+						errors.add(t);
+					}
+				}
+			};
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		assertTrue(errors.toString(), errors.isEmpty());
+		
+		// An explicit override bypasses the detection
+		Reader reader = CharsetDetectorHelper.toReader(
+			new ByteArrayInputStream(bytes), "ISO-8859-1");
+		assertEquals(new String(bytes, "ISO-8859-1"), CharStreams.toString(reader));
+		
+		// Streams that don't report their length and exceed the detection limit
+		sb.setLength(0);
+		while (sb.length() < 3 * 1024 * 1024)
+			sb.append(text);
+		String longText = sb.toString();
+		reader = CharsetDetectorHelper.toReader(new ByteArrayInputStream(
+			longText.getBytes("UTF-8")) {
+			public synchronized int available() {
+				return 0;
+			}
+		}, null);
+		assertEquals(longText, CharStreams.toString(reader));
+	}
+	
 }
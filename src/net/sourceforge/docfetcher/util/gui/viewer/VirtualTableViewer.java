@@ -125,11 +125,20 @@ public abstract class VirtualTableViewer<E> {
 		
 		tableColumn.addSelectionListener(new SelectionAdapter() {
 			public void widgetSelected(SelectionEvent e) {
-				sortByColumn(column);
+				headerClicked(column);
 			}
 		});
 	}
 	
+	/**
+	 * Called when the header of the given column was clicked. The default
+	 * implementation sorts the elements by the column. Subclasses may override
+	 * this to defer the sorting, e.g. until the elements have been loaded.
+	 */
+	protected void headerClicked(@NotNull Column<E> column) {
+		sortByColumn(column);
+	}
+	
 	public final void sortByColumn(@NotNull final Column<E> column) {
 		if (elements == null || !sortingEnabled)
 			return;